@@ -70,11 +70,15 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.test.context.TestSecurityContextHolder;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.RequestExpectationManager;
+import org.springframework.test.web.client.SimpleRequestExpectationManager;
+import org.springframework.test.web.client.UnorderedRequestExpectationManager;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.Nonnull;
@@ -96,6 +100,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @SpringBootTest( classes = App.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT )
 @TestPropertySource( "classpath:test.properties" )
 @AutoConfigureMockMvc
+@SuppressWarnings( "deprecation" )
 public abstract class AbstractAppTest
 {
     public static final MediaType FHIR_JSON_MEDIA_TYPE = MediaType.parseMediaType( "application/fhir+json;charset=UTF-8" );
@@ -154,6 +159,21 @@ public abstract class AbstractAppTest
     @Qualifier( "userDhis2RestTemplate" )
     private RestTemplate userDhis2RestTemplate;
 
+    /**
+     * The asynchronous REST template that is used to connect to the DHIS2 metadata services.
+     */
+    @Autowired
+    @Qualifier( "systemDhis2AsyncRestTemplate" )
+    private AsyncRestTemplate systemDhis2AsyncRestTemplate;
+
+    /**
+     * The asynchronous REST template that is used to connect to the DHIS2 non-metadata
+     * services as user that is assigned to the FHIR client service.
+     */
+    @Autowired
+    @Qualifier( "userDhis2AsyncRestTemplate" )
+    private AsyncRestTemplate userDhis2AsyncRestTemplate;
+
     private StubMapping previousResourceSearchStubMapping;
 
     @Autowired
@@ -404,8 +424,13 @@ public abstract class AbstractAppTest
         WireMock.configureFor( fhirMockServer.port() );
         previousResourceSearchStubMapping = null;
 
-        systemDhis2Server = MockRestServiceServer.bindTo( systemDhis2RestTemplate ).ignoreExpectOrder( true ).build();
-        userDhis2Server = MockRestServiceServer.bindTo( userDhis2RestTemplate ).build();
+        // synchronous and asynchronous requests are verified by the same expectations
+        final RequestExpectationManager systemDhis2ExpectationManager = new UnorderedRequestExpectationManager();
+        systemDhis2Server = MockRestServiceServer.bindTo( systemDhis2RestTemplate ).build( systemDhis2ExpectationManager );
+        MockRestServiceServer.bindTo( systemDhis2AsyncRestTemplate ).build( systemDhis2ExpectationManager );
+        final RequestExpectationManager userDhis2ExpectationManager = new SimpleRequestExpectationManager();
+        userDhis2Server = MockRestServiceServer.bindTo( userDhis2RestTemplate ).build( userDhis2ExpectationManager );
+        MockRestServiceServer.bindTo( userDhis2AsyncRestTemplate ).build( userDhis2ExpectationManager );
 
         fhirMockServer.stubFor(
             WireMock.get( urlPathEqualTo( getBaseFhirContext() + "/metadata" ) ).willReturn( aResponse()
@@ -0,0 +1,61 @@
+package org.dhis2.fhir.adapter.benchmark;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.script.ScriptEvaluator;
+import org.dhis2.fhir.adapter.script.impl.ScriptEvaluatorImpl;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Creates script evaluators with the default configuration of the adapter.
+ *
+ * @author volsch
+ */
+public abstract class BenchmarkScriptEvaluators
+{
+    public static final int MAX_CACHED_SCRIPT_LIFETIME_SECS = 86400;
+
+    public static final int MAX_CACHED_SCRIPTS = 10000;
+
+    public static final long MAX_POOL_WAIT_MILLIS = 5000;
+
+    @Nonnull
+    public static ScriptEvaluator create( int scriptEnginePoolSize )
+    {
+        return new ScriptEvaluatorImpl( "nashorn", Arrays.asList( "-doe", "--no-java", "--no-syntax-extensions" ),
+            MAX_CACHED_SCRIPT_LIFETIME_SECS, MAX_CACHED_SCRIPTS, scriptEnginePoolSize, MAX_POOL_WAIT_MILLIS, null );
+    }
+
+    private BenchmarkScriptEvaluators()
+    {
+        super();
+    }
+}
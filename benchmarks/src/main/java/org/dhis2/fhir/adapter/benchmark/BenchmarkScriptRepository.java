@@ -0,0 +1,122 @@
+package org.dhis2.fhir.adapter.benchmark;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.fhir.metadata.model.DataType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScript;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScriptInfo;
+import org.dhis2.fhir.adapter.fhir.metadata.model.Script;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptSource;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptSourceType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptVariable;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.ExecutableScriptRepository;
+import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
+import org.mockito.Mockito;
+
+import javax.annotation.Nonnull;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory executable script repository for benchmarks. The scripts are kept
+ * as resolved {@link ExecutableScriptInfo} like the cached scripts of the
+ * database backed repository.
+ *
+ * @author volsch
+ */
+public class BenchmarkScriptRepository
+{
+    private final Map<UUID, ExecutableScriptInfo> executableScriptInfos = new ConcurrentHashMap<>();
+
+    private final ExecutableScriptRepository repository;
+
+    public BenchmarkScriptRepository()
+    {
+        repository = Mockito.mock( ExecutableScriptRepository.class );
+        Mockito.when( repository.findInfo( Mockito.any(), Mockito.any() ) ).thenAnswer( invocation -> {
+            final ExecutableScript executableScript = invocation.getArgument( 0 );
+            return ( executableScript == null ) ? Optional.empty() : Optional.ofNullable( executableScriptInfos.get( executableScript.getId() ) );
+        } );
+    }
+
+    @Nonnull
+    public ExecutableScriptRepository getRepository()
+    {
+        return repository;
+    }
+
+    @Nonnull
+    public ExecutableScript add( @Nonnull String code, @Nonnull ScriptType scriptType, @Nonnull DataType returnType, @Nonnull String sourceText, @Nonnull ScriptVariable... variables )
+    {
+        final Instant now = Instant.now();
+
+        final Script script = new Script();
+        script.setId( UUID.randomUUID() );
+        script.setVersion( 0L );
+        script.setLastUpdatedAt( now );
+        script.setCode( code );
+        script.setName( code );
+        script.setScriptType( scriptType );
+        script.setReturnType( returnType );
+        script.setArguments( new ArrayList<>() );
+        script.setVariables( new TreeSet<>( Arrays.asList( variables ) ) );
+
+        final ScriptSource scriptSource = new ScriptSource();
+        scriptSource.setId( UUID.randomUUID() );
+        scriptSource.setVersion( 0L );
+        scriptSource.setLastUpdatedAt( now );
+        scriptSource.setScript( script );
+        scriptSource.setSourceType( ScriptSourceType.JAVASCRIPT );
+        scriptSource.setSourceText( sourceText );
+        scriptSource.setFhirVersions( new TreeSet<>( Collections.singleton( FhirVersion.R4 ) ) );
+        script.setSources( Collections.singletonList( scriptSource ) );
+
+        final ExecutableScript executableScript = new ExecutableScript();
+        executableScript.setId( UUID.randomUUID() );
+        executableScript.setVersion( 0L );
+        executableScript.setLastUpdatedAt( now );
+        executableScript.setCode( code );
+        executableScript.setName( code );
+        executableScript.setScript( script );
+        executableScript.setOverrideArguments( new ArrayList<>() );
+
+        executableScriptInfos.put( executableScript.getId(), new ExecutableScriptInfo( executableScript, Collections.emptyList(), Collections.emptyList(),
+            script, Collections.emptyList(), Collections.emptyList(), scriptSource ) );
+
+        return executableScript;
+    }
+}
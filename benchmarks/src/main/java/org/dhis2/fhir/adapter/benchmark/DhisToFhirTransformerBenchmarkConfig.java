@@ -0,0 +1,75 @@
+package org.dhis2.fhir.adapter.benchmark;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.DhisToFhirTransformerServiceImpl;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.program.ProgramStageToFhirRequestResolver;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.program.ProgramStageToFhirTransformer;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.trackedentity.TrackedEntityToFhirRequestResolver;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.trackedentity.TrackedEntityToFhirTransformer;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.DataElementDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.VitalSignDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4AdministrativeGenderDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4CodeDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4DateTimeDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4EncounterDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4FhirClientDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4FhirResourceDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4GeoDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4HumanNameDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4IdentifierDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4LocationDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4ObservationDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4AssignmentDhisToFhirTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4ValueTypeDhisToFhirTransformerUtils;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Configuration of {@link DhisToFhirTransformerServiceBenchmark}. The configuration extends
+ * {@link FhirToDhisTransformerBenchmarkConfig} (bundled adapter metadata in the embedded H2 database
+ * and stubbed DHIS2 services and remote FHIR endpoint) with the real request resolvers, transformers
+ * and transformer utilities of the transformation of DHIS2 tracked entity instances to FHIR patients
+ * and of DHIS2 events to FHIR observations.
+ *
+ * @author volsch
+ */
+@Configuration
+@Import( {
+    FhirToDhisTransformerBenchmarkConfig.class, DhisToFhirTransformerServiceImpl.class,
+    TrackedEntityToFhirRequestResolver.class, TrackedEntityToFhirTransformer.class, ProgramStageToFhirRequestResolver.class, ProgramStageToFhirTransformer.class,
+    DataElementDhisToFhirTransformerUtils.class, VitalSignDhisToFhirTransformerUtils.class, R4AssignmentDhisToFhirTransformerUtils.class, R4ValueTypeDhisToFhirTransformerUtils.class,
+    R4AdministrativeGenderDhisToFhirTransformerUtils.class, R4CodeDhisToFhirTransformerUtils.class, R4DateTimeDhisToFhirTransformerUtils.class,
+    R4EncounterDhisToFhirTransformerUtils.class, R4FhirClientDhisToFhirTransformerUtils.class, R4FhirResourceDhisToFhirTransformerUtils.class,
+    R4GeoDhisToFhirTransformerUtils.class, R4HumanNameDhisToFhirTransformerUtils.class, R4IdentifierDhisToFhirTransformerUtils.class,
+    R4LocationDhisToFhirTransformerUtils.class, R4ObservationDhisToFhirTransformerUtils.class } )
+public class DhisToFhirTransformerBenchmarkConfig
+{
+}
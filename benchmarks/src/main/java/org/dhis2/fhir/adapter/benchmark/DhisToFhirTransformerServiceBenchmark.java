@@ -0,0 +1,190 @@
+package org.dhis2.fhir.adapter.benchmark;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.dhis2.fhir.adapter.cache.RequestCacheContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.dhis.model.DhisResource;
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
+import org.dhis2.fhir.adapter.dhis.tracker.program.impl.DhisEvents;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.impl.TrackedEntityInstances;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirResourceType;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientRepository;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirTransformOutcome;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirTransformerRequest;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirTransformerService;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.model.ImmutableDhisRequest;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.model.WritableDhisRequest;
+import org.dhis2.fhir.adapter.lock.LockContext;
+import org.dhis2.fhir.adapter.lock.LockManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link DhisToFhirTransformerService#transform(DhisToFhirTransformerRequest)} of the
+ * tracked entity instance of the application tests to a FHIR patient and of the event of the
+ * application tests to a FHIR observation. The FHIR client (FHIR REST interfaces for R4), the rules
+ * (Child Programme), the tracked entity and program stage metadata and the scripts are the bundled
+ * ones and are loaded from an embedded H2 database by the real repositories. The request is created
+ * and transformed by the real request resolvers and transformers like the FHIR REST interfaces do
+ * when they read the FHIR resource. See {@link FhirToDhisTransformerBenchmarkConfig} for the stubbed
+ * services.
+ *
+ * @author volsch
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class DhisToFhirTransformerServiceBenchmark
+{
+    /**
+     * Bundled FHIR client that is used by the FHIR REST interfaces for R4.
+     */
+    private static final UUID FHIR_CLIENT_ID = UUID.fromString( "46f0af46-3654-40b3-8d4c-7a633332c3b3" );
+
+    /**
+     * Bundled rule that transforms the tracked entity type Person to a FHIR patient.
+     */
+    private static final UUID PATIENT_RULE_ID = UUID.fromString( "5f9ebdc9-852e-4c83-87ca-795946aabc35" );
+
+    /**
+     * Bundled rule that transforms the birth weight of the Child Programme to a FHIR observation.
+     */
+    private static final UUID OBSERVATION_RULE_ID = UUID.fromString( "097d9ee0-bdb3-44ae-b961-3b4584bad1db" );
+
+    @Param( { "TRACKED_ENTITY", "PROGRAM_STAGE_EVENT" } )
+    public DhisResourceType dhisResourceType;
+
+    private ConfigurableApplicationContext applicationContext;
+
+    private DhisToFhirTransformerService transformerService;
+
+    private LockManager lockManager;
+
+    private RequestCacheService requestCacheService;
+
+    private FhirClient fhirClient;
+
+    private ImmutableDhisRequest dhisRequest;
+
+    private DhisResource dhisResource;
+
+    private FhirResourceType fhirResourceType;
+
+    private UUID ruleId;
+
+    @Setup
+    public void setup()
+    {
+        applicationContext = new SpringApplicationBuilder( DhisToFhirTransformerBenchmarkConfig.class )
+            .web( WebApplicationType.NONE )
+            .properties( FhirToDhisTransformerBenchmarkConfig.APPLICATION_PROPERTIES )
+            .run();
+
+        transformerService = applicationContext.getBean( DhisToFhirTransformerService.class );
+        lockManager = applicationContext.getBean( LockManager.class );
+        requestCacheService = applicationContext.getBean( RequestCacheService.class );
+
+        fhirClient = applicationContext.getBean( FhirClientRepository.class ).findOneByIdCached( FHIR_CLIENT_ID )
+            .orElseThrow( () -> new IllegalStateException( "Bundled FHIR client " + FHIR_CLIENT_ID + " does not exist." ) );
+
+        final ObjectMapper objectMapper = applicationContext.getBean( ObjectMapper.class );
+        if ( dhisResourceType == DhisResourceType.TRACKED_ENTITY )
+        {
+            dhisResource = FhirToDhisTransformerBenchmarkConfig.readDhisResource( objectMapper, "default-tei-15-get.json", TrackedEntityInstances.class )
+                .getTrackedEntityInstances().get( 0 );
+            fhirResourceType = FhirResourceType.PATIENT;
+            ruleId = PATIENT_RULE_ID;
+        }
+        else
+        {
+            dhisResource = FhirToDhisTransformerBenchmarkConfig.readDhisResource( objectMapper, "default-event-70-get.json", DhisEvents.class )
+                .getEvents().get( 0 );
+            fhirResourceType = FhirResourceType.OBSERVATION;
+            ruleId = OBSERVATION_RULE_ID;
+        }
+
+        final WritableDhisRequest writableDhisRequest = new WritableDhisRequest( true, true, true );
+        writableDhisRequest.setResourceType( dhisResource.getResourceType() );
+        writableDhisRequest.setLastUpdated( dhisResource.getLastUpdated() );
+        dhisRequest = new ImmutableDhisRequest( writableDhisRequest );
+
+        final DhisToFhirTransformOutcome<?> outcome = transform();
+        if ( (outcome == null) || (outcome.getResource() == null) )
+        {
+            throw new IllegalStateException( "Bundled rule " + ruleId + " did not transform DHIS resource " + dhisResource.getResourceId() + "." );
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        if ( applicationContext != null )
+        {
+            applicationContext.close();
+        }
+    }
+
+    @Benchmark
+    public DhisToFhirTransformOutcome<?> transform()
+    {
+        try ( final LockContext lockContext = lockManager.begin() )
+        {
+            try ( final RequestCacheContext requestCacheContext = requestCacheService.createRequestCacheContext( true ) )
+            {
+                final DhisToFhirTransformerRequest transformerRequest =
+                    transformerService.createTransformerRequest( fhirClient, dhisRequest, dhisResource, fhirResourceType, ruleId );
+
+                return (transformerRequest == null) ? null : transformerService.transform( transformerRequest );
+            }
+        }
+    }
+}
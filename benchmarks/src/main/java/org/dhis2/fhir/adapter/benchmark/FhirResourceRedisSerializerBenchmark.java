@@ -0,0 +1,233 @@
+package org.dhis2.fhir.adapter.benchmark;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import org.dhis2.fhir.adapter.cache.CompressingRedisSerializer;
+import org.dhis2.fhir.adapter.cache.SimpleRedisCacheCodec;
+import org.dhis2.fhir.adapter.fhir.repository.impl.FhirResourceRedisSerializer;
+import org.dhis2.fhir.adapter.spring.StaticObjectProvider;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import javax.annotation.Nonnull;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the round-trip of FHIR resources through {@link FhirResourceRedisSerializer}
+ * with the supported Redis cache codecs. Besides a single Patient and Observation a
+ * search set bundle with vital sign observations of several patients is used (the
+ * number of observations is defined by the bundle size). The payload size of the
+ * serialized resource is logged when the benchmark is set up.
+ *
+ * @author volsch
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class FhirResourceRedisSerializerBenchmark
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    @Param( { "Patient", "Observation", "Bundle" } )
+    public String resourceType;
+
+    @Param( { "JSON", "COMPRESSED_JSON", "SMILE", "CBOR" } )
+    public SimpleRedisCacheCodec codec;
+
+    @Param( { "100" } )
+    public int bundleSize;
+
+    private RedisSerializer<IBaseResource> serializer;
+
+    private IBaseResource resource;
+
+    private byte[] serializedResource;
+
+    @Setup
+    public void setup()
+    {
+        final RedisSerializer<IBaseResource> fhirSerializer = new FhirResourceRedisSerializer( new StaticObjectProvider<>( Collections.singletonList( FhirContext.forR4() ) ) )
+            .createRedisSerializer( codec.createJsonFactory() );
+        serializer = (codec == SimpleRedisCacheCodec.COMPRESSED_JSON) ? new CompressingRedisSerializer<>( fhirSerializer, 256 ) : fhirSerializer;
+        switch ( resourceType )
+        {
+            case "Patient":
+                resource = createPatient();
+                break;
+            case "Observation":
+                resource = createObservation();
+                break;
+            case "Bundle":
+                resource = createBundle( bundleSize );
+                break;
+            default:
+                throw new AssertionError( "Unhandled resource type: " + resourceType );
+        }
+        serializedResource = serializer.serialize( resource );
+        logger.info( "Payload size of {} with codec {}: {} bytes", resourceType, codec, serializedResource.length );
+    }
+
+    @Benchmark
+    public byte[] serialize()
+    {
+        return serializer.serialize( resource );
+    }
+
+    @Benchmark
+    public IBaseResource deserialize()
+    {
+        return serializer.deserialize( serializedResource );
+    }
+
+    @Benchmark
+    public IBaseResource roundTrip()
+    {
+        return serializer.deserialize( serializer.serialize( resource ) );
+    }
+
+    @Nonnull
+    private static Patient createPatient()
+    {
+        final Patient patient = new Patient();
+        patient.setId( "Patient/JeR2Ul4mZfx" );
+        patient.getMeta().setVersionId( "1" ).setLastUpdated( new Date() );
+        patient.addIdentifier().setSystem( "http://www.dhis2.org/dhis2-fhir-adapter/systems/patient-identifier" ).setValue( "PT_88589" );
+        patient.addName().setFamily( "West" ).addGiven( "Joe" ).addGiven( "Scott" );
+        patient.setGender( Enumerations.AdministrativeGender.MALE );
+        patient.setBirthDate( new Date( 1_514_764_800_000L ) );
+        patient.addAddress().addLine( "Main Street 1" ).setCity( "Freetown" ).setCountry( "Sierra Leone" );
+        patient.setManagingOrganization( new Reference( "Organization/ldXIdLNUNEn" ) );
+        return patient;
+    }
+
+    @Nonnull
+    private static Observation createObservation()
+    {
+        final Observation observation = new Observation();
+        observation.setId( "Observation/bDaZJx3Mpwz" );
+        observation.getMeta().setVersionId( "1" ).setLastUpdated( new Date() );
+        observation.setStatus( Observation.ObservationStatus.FINAL );
+        observation.addCategory().addCoding().setSystem( "http://terminology.hl7.org/CodeSystem/observation-category" ).setCode( "vital-signs" );
+        observation.getCode().addCoding().setSystem( "http://loinc.org" ).setCode( "29463-7" ).setDisplay( "Body weight" );
+        observation.setSubject( new Reference( "Patient/JeR2Ul4mZfx" ) );
+        observation.setEffective( new DateTimeType( new Date() ) );
+        observation.setValue( new Quantity().setValue( 3840 ).setUnit( "g" ).setSystem( "http://unitsofmeasure.org" ).setCode( "g" ) );
+        return observation;
+    }
+
+    @Nonnull
+    private static Bundle createBundle( int size )
+    {
+        final Bundle bundle = new Bundle();
+        bundle.setId( "8ac9c9e5-4e14-4bd4-9bd1-8f1b0f3a5c5e" );
+        bundle.getMeta().setLastUpdated( new Date() );
+        bundle.setType( Bundle.BundleType.SEARCHSET );
+        bundle.setTotal( size );
+        bundle.addLink().setRelation( "self" ).setUrl( "http://localhost:8081/fhir/r4/Observation?category=vital-signs&_count=" + size );
+        for ( int i = 0; i < size; i++ )
+        {
+            final Observation observation = createVitalSign( i );
+            bundle.addEntry().setFullUrl( "http://localhost:8081/fhir/r4/" + observation.getId() ).setResource( observation )
+                .getSearch().setMode( Bundle.SearchEntryMode.MATCH );
+        }
+        return bundle;
+    }
+
+    @Nonnull
+    private static Observation createVitalSign( int index )
+    {
+        final String patientId = "Patient/PT" + String.format( "%09d", index / 4 );
+        final Observation observation = new Observation();
+        observation.setId( "Observation/OB" + String.format( "%09d", index ) );
+        observation.getMeta().setVersionId( "1" ).setLastUpdated( new Date() ).addProfile( "http://hl7.org/fhir/StructureDefinition/vitalsigns" );
+        observation.addIdentifier().setSystem( "http://www.dhis2.org/dhis2-fhir-adapter/systems/observation-identifier" ).setValue( "OB_" + index );
+        observation.setStatus( Observation.ObservationStatus.FINAL );
+        observation.addCategory().addCoding().setSystem( "http://terminology.hl7.org/CodeSystem/observation-category" ).setCode( "vital-signs" ).setDisplay( "Vital Signs" );
+        observation.setSubject( new Reference( patientId ) );
+        observation.setEncounter( new Reference( "Encounter/EN" + String.format( "%09d", index / 4 ) ) );
+        observation.addPerformer( new Reference( "Organization/ldXIdLNUNEn" ) );
+        observation.setEffective( new DateTimeType( new Date( 1_546_300_800_000L + index * 3_600_000L ) ) );
+        switch ( index % 4 )
+        {
+            case 0:
+                observation.getCode().addCoding().setSystem( "http://loinc.org" ).setCode( "29463-7" ).setDisplay( "Body weight" );
+                observation.setValue( createQuantity( new BigDecimal( 3000 + index ).movePointLeft( 3 ), "kg" ) );
+                break;
+            case 1:
+                observation.getCode().addCoding().setSystem( "http://loinc.org" ).setCode( "8302-2" ).setDisplay( "Body height" );
+                observation.setValue( createQuantity( new BigDecimal( 4800 + index ).movePointLeft( 2 ), "cm" ) );
+                break;
+            case 2:
+                observation.getCode().addCoding().setSystem( "http://loinc.org" ).setCode( "8310-5" ).setDisplay( "Body temperature" );
+                observation.setValue( createQuantity( new BigDecimal( "36.8" ), "Cel" ) );
+                break;
+            default:
+                observation.getCode().addCoding().setSystem( "http://loinc.org" ).setCode( "85354-9" ).setDisplay( "Blood pressure panel with all children optional" );
+                observation.addComponent().setValue( createQuantity( new BigDecimal( 110 + index % 20 ), "mm[Hg]" ) )
+                    .getCode().addCoding().setSystem( "http://loinc.org" ).setCode( "8480-6" ).setDisplay( "Systolic blood pressure" );
+                observation.addComponent().setValue( createQuantity( new BigDecimal( 70 + index % 10 ), "mm[Hg]" ) )
+                    .getCode().addCoding().setSystem( "http://loinc.org" ).setCode( "8462-4" ).setDisplay( "Diastolic blood pressure" );
+                break;
+        }
+        return observation;
+    }
+
+    @Nonnull
+    private static Quantity createQuantity( @Nonnull BigDecimal value, @Nonnull String unit )
+    {
+        return new Quantity().setValue( value ).setUnit( unit ).setSystem( "http://unitsofmeasure.org" ).setCode( unit );
+    }
+}
@@ -0,0 +1,449 @@
+package org.dhis2.fhir.adapter.benchmark;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.dhis2.fhir.adapter.cache.JsonRedisSerializerFactory;
+import org.dhis2.fhir.adapter.cache.impl.RequestCacheServiceImpl;
+import org.dhis2.fhir.adapter.converter.BooleanToStringConverter;
+import org.dhis2.fhir.adapter.converter.DateToIsoDateStringConverter;
+import org.dhis2.fhir.adapter.converter.DateToIsoDateTimeStringConverter;
+import org.dhis2.fhir.adapter.converter.DateToZonedDateTimeConverter;
+import org.dhis2.fhir.adapter.converter.IsoStringToLocalDateConverter;
+import org.dhis2.fhir.adapter.converter.LocalDateToZonedDateTimeConverter;
+import org.dhis2.fhir.adapter.converter.NumberToTextStringConverter;
+import org.dhis2.fhir.adapter.converter.ObjectToZonedDateTimeConverter;
+import org.dhis2.fhir.adapter.converter.StringToZonedDateTimeConverter;
+import org.dhis2.fhir.adapter.converter.TrueOnlyBooleanToStringConverter;
+import org.dhis2.fhir.adapter.dhis.converter.ValueConverter;
+import org.dhis2.fhir.adapter.dhis.metadata.DhisMetadataBasePackage;
+import org.dhis2.fhir.adapter.dhis.model.DhisMetadata;
+import org.dhis2.fhir.adapter.dhis.model.Reference;
+import org.dhis2.fhir.adapter.dhis.orgunit.OrganizationUnitService;
+import org.dhis2.fhir.adapter.dhis.orgunit.impl.DhisOrganizationUnits;
+import org.dhis2.fhir.adapter.dhis.tracker.program.Enrollment;
+import org.dhis2.fhir.adapter.dhis.tracker.program.EnrollmentService;
+import org.dhis2.fhir.adapter.dhis.tracker.program.Event;
+import org.dhis2.fhir.adapter.dhis.tracker.program.EventService;
+import org.dhis2.fhir.adapter.dhis.tracker.program.ProgramMetadataService;
+import org.dhis2.fhir.adapter.dhis.tracker.program.impl.DhisEnrollments;
+import org.dhis2.fhir.adapter.dhis.tracker.program.impl.DhisEvents;
+import org.dhis2.fhir.adapter.dhis.tracker.program.impl.DhisPrograms;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityAttributes;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityInstance;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityMetadataService;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityService;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.impl.TrackedEntityInstances;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.impl.TrackedEntityTypes;
+import org.dhis2.fhir.adapter.fhir.config.r4.R4FhirConfig;
+import org.dhis2.fhir.adapter.fhir.converter.r4.R4BaseDateTimeTypeToDateStringConverter;
+import org.dhis2.fhir.adapter.fhir.converter.r4.R4BaseDateTimeTypeToZonedDateTimeConverter;
+import org.dhis2.fhir.adapter.fhir.converter.r4.R4QuantityToStringConverter;
+import org.dhis2.fhir.adapter.fhir.data.DataBasePackage;
+import org.dhis2.fhir.adapter.fhir.metadata.MetadataBasePackage;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.impl.AdapterMetadataCacheConfig;
+import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
+import org.dhis2.fhir.adapter.fhir.repository.FhirGenericClientRegistry;
+import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepository;
+import org.dhis2.fhir.adapter.fhir.repository.impl.FhirGenericClientRegistryImpl;
+import org.dhis2.fhir.adapter.fhir.repository.impl.FhirResourceCacheConfig;
+import org.dhis2.fhir.adapter.fhir.repository.impl.FhirResourceRedisSerializer;
+import org.dhis2.fhir.adapter.fhir.repository.impl.HierarchicallyFhirResourceRepositoryImpl;
+import org.dhis2.fhir.adapter.fhir.repository.impl.RepositoryConfig;
+import org.dhis2.fhir.adapter.fhir.repository.impl.r4.R4FhirResourceRepositorySupport;
+import org.dhis2.fhir.adapter.fhir.script.ScriptExecutionContext;
+import org.dhis2.fhir.adapter.fhir.script.impl.ScriptExecutorImpl;
+import org.dhis2.fhir.adapter.fhir.script.impl.ThreadLocalScriptExecutionContext;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.impl.util.r4.R4ValueTypeFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.FhirToDhisRuleIndexImpl;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.FhirToDhisTransformerServiceImpl;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.program.FhirToProgramStageTransformer;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.AssignmentFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.ReferenceFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4AddressFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4CodeFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4ContactPointFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4DateTimeFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4FhirClientFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4FhirResourceFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4GeoFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4HumanNameFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4IdentifierFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4ImmunizationFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4LocationFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4ObservationFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4OrganizationFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4PatientFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4ProgramStageFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.r4.R4VitalSignFhirToDhisTransformerUtils;
+import org.dhis2.fhir.adapter.fhir.transform.util.FhirIdentifierUtils;
+import org.dhis2.fhir.adapter.geo.LocationToStringConverter;
+import org.dhis2.fhir.adapter.geo.StringToLocationConverter;
+import org.dhis2.fhir.adapter.jackson.JacksonConfig;
+import org.dhis2.fhir.adapter.lock.LockManager;
+import org.dhis2.fhir.adapter.lock.impl.EmbeddedLockManagerImpl;
+import org.dhis2.fhir.adapter.script.ScriptEvaluator;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.redis.RedisRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jms.artemis.ArtemisAutoConfiguration;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.cloud.netflix.hystrix.HystrixAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Configuration of {@link FhirToDhisTransformerServiceBenchmark}. The adapter metadata (FHIR clients,
+ * rules, code sets and scripts) is loaded from the embedded H2 database that is initialized with the
+ * bundled metadata (<code>data.sql</code>) of the application tests. The transformer service, the
+ * program stage transformer, the script executor and the transformer utilities are the real
+ * implementations. Only the DHIS2 services and the access to the remote FHIR endpoint are stubbed.
+ * The stubs return the DHIS2 and FHIR resources of the application test fixtures, like the DHIS2 and
+ * FHIR resource caches would do after they have been warmed up. The configuration is also imported by
+ * {@link DhisToFhirTransformerBenchmarkConfig}.
+ *
+ * @author volsch
+ */
+@Configuration
+@EnableAutoConfiguration( exclude = { RedisAutoConfiguration.class, RedisRepositoriesAutoConfiguration.class, ArtemisAutoConfiguration.class, HystrixAutoConfiguration.class } )
+@EnableCaching
+@EntityScan( basePackageClasses = { MetadataBasePackage.class, DataBasePackage.class, DhisMetadataBasePackage.class } )
+@EnableJpaRepositories( basePackageClasses = { MetadataBasePackage.class, DataBasePackage.class } )
+@Import( {
+    JacksonConfig.class, RequestCacheServiceImpl.class, AdapterMetadataCacheConfig.class, FhirResourceCacheConfig.class, FhirResourceRedisSerializer.class, R4FhirConfig.class,
+    ScriptExecutorImpl.class, FhirToDhisRuleIndexImpl.class, FhirToDhisTransformerServiceImpl.class, FhirToProgramStageTransformer.class,
+    HierarchicallyFhirResourceRepositoryImpl.class, R4FhirResourceRepositorySupport.class, FhirIdentifierUtils.class,
+    ValueConverter.class, BooleanToStringConverter.class, DateToIsoDateStringConverter.class, DateToIsoDateTimeStringConverter.class, DateToZonedDateTimeConverter.class,
+    IsoStringToLocalDateConverter.class, LocalDateToZonedDateTimeConverter.class, NumberToTextStringConverter.class, ObjectToZonedDateTimeConverter.class,
+    StringToZonedDateTimeConverter.class, TrueOnlyBooleanToStringConverter.class, LocationToStringConverter.class, StringToLocationConverter.class,
+    R4BaseDateTimeTypeToDateStringConverter.class, R4BaseDateTimeTypeToZonedDateTimeConverter.class, R4QuantityToStringConverter.class,
+    ReferenceFhirToDhisTransformerUtils.class, AssignmentFhirToDhisTransformerUtils.class, R4ValueTypeFhirToDhisTransformerUtils.class,
+    R4AddressFhirToDhisTransformerUtils.class, R4CodeFhirToDhisTransformerUtils.class, R4ContactPointFhirToDhisTransformerUtils.class,
+    R4DateTimeFhirToDhisTransformerUtils.class, R4FhirClientFhirToDhisTransformerUtils.class, R4FhirResourceFhirToDhisTransformerUtils.class,
+    R4GeoFhirToDhisTransformerUtils.class, R4HumanNameFhirToDhisTransformerUtils.class, R4IdentifierFhirToDhisTransformerUtils.class,
+    R4ImmunizationFhirToDhisTransformerUtils.class, R4LocationFhirToDhisTransformerUtils.class, R4ObservationFhirToDhisTransformerUtils.class,
+    R4OrganizationFhirToDhisTransformerUtils.class, R4PatientFhirToDhisTransformerUtils.class, R4ProgramStageFhirToDhisTransformerUtils.class,
+    R4VitalSignFhirToDhisTransformerUtils.class } )
+public class FhirToDhisTransformerBenchmarkConfig
+{
+    public static final String DHIS_FIXTURE_PATH = "/org/dhis2/fhir/adapter/dhis/test/";
+
+    public static final String FHIR_FIXTURE_PATH = "/org/dhis2/fhir/adapter/fhir/test/r4/";
+
+    /**
+     * Application properties of the benchmark application contexts that load the bundled
+     * adapter metadata into the embedded H2 database.
+     */
+    public static final String[] APPLICATION_PROPERTIES = {
+        "spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.open-in-view=false",
+        "spring.jpa.generate-ddl=true",
+        "spring.jpa.hibernate.ddl-auto=create",
+        "spring.jpa.properties.hibernate.jdbc.time_zone=UTC",
+        "spring.flyway.enabled=false",
+        "dhis2.fhir-adapter.cache.metadata.type=caffeine",
+        "dhis2.fhir-adapter.cache.fhir.type=caffeine"
+    };
+
+    @Nonnull
+    @Bean
+    protected ScriptEvaluator scriptEvaluator()
+    {
+        return BenchmarkScriptEvaluators.create( 0 );
+    }
+
+    @Nonnull
+    @Bean
+    protected ScriptExecutionContext scriptExecutionContext()
+    {
+        return new ThreadLocalScriptExecutionContext();
+    }
+
+    @Nonnull
+    @Bean
+    protected LockManager lockManager()
+    {
+        return new EmbeddedLockManagerImpl();
+    }
+
+    @Nonnull
+    @Bean
+    protected FhirGenericClientRegistry fhirGenericClientRegistry()
+    {
+        return new FhirGenericClientRegistryImpl( new RepositoryConfig() );
+    }
+
+    @Nonnull
+    @Bean
+    protected JsonRedisSerializerFactory<Object> cacheRedisSerializerFactory()
+    {
+        return jsonFactory -> new GenericJackson2JsonRedisSerializer( new ObjectMapper( jsonFactory )
+            .enableDefaultTyping( ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY ) );
+    }
+
+    /**
+     * The DHIS2 services are stubbed and there is nothing to cache for them. The cache
+     * manager is the primary one like the corresponding cache manager of the application.
+     *
+     * @return the cache manager of the DHIS2 resources.
+     */
+    @Nonnull
+    @Primary
+    @Bean
+    protected CacheManager dhisCacheManager()
+    {
+        return new NoOpCacheManager();
+    }
+
+    @Nonnull
+    @Bean
+    protected FhirResourceRepository fhirResourceRepository( @Nonnull @Qualifier( "fhirContextR4" ) FhirContext fhirContext )
+    {
+        final Map<String, IBaseResource> resources = new HashMap<>();
+        resources.put( "Patient/15", parseFhirResource( fhirContext, "get-patient-15.json" ) );
+        resources.put( "Organization/18", parseFhirResource( fhirContext, "get-organization-18.json" ) );
+        resources.put( "Organization/19", parseFhirResource( fhirContext, "get-organization-19.json" ) );
+
+        final FhirResourceRepository repository = createStub( FhirResourceRepository.class );
+        Mockito.doReturn( Optional.of( fhirContext ) ).when( repository ).findFhirContext( Mockito.eq( FhirVersion.R4 ) );
+        Mockito.doAnswer( invocation -> Optional.ofNullable( resources.get( invocation.getArgument( 3 ) + "/" + invocation.getArgument( 4 ) ) ) )
+            .when( repository ).find( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any() );
+        Mockito.doAnswer( invocation -> Optional.ofNullable( resources.get( invocation.getArgument( 3 ) + "/" + invocation.getArgument( 4 ) ) ) )
+            .when( repository ).findRefreshed( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any() );
+        Mockito.doReturn( Optional.empty() ).when( repository ).findByIdentifier( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any() );
+        Mockito.doReturn( Optional.empty() ).when( repository ).findRefreshedByIdentifier( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any() );
+        return repository;
+    }
+
+    @Nonnull
+    @Bean
+    protected OrganizationUnitService organizationUnitService( @Nonnull ObjectMapper objectMapper )
+    {
+        final List<DhisMetadata> organizationUnits = Arrays.asList(
+            readDhisResource( objectMapper, "default-org-unit-OU_4567.json", DhisOrganizationUnits.class ).getOrganizationUnits().get( 0 ),
+            readDhisResource( objectMapper, "default-org-unit-OU_1234.json", DhisOrganizationUnits.class ).getOrganizationUnits().get( 0 ) );
+
+        final OrganizationUnitService service = createStub( OrganizationUnitService.class );
+        Mockito.doAnswer( invocation -> findMetadata( organizationUnits, invocation.getArgument( 0 ) ) ).when( service ).findMetadataByReference( Mockito.any() );
+        Mockito.doAnswer( invocation -> findMetadata( organizationUnits, invocation.getArgument( 0 ) ) ).when( service ).findMetadataRefreshedByReference( Mockito.any() );
+        return service;
+    }
+
+    @Nonnull
+    @Bean
+    protected ProgramMetadataService programMetadataService( @Nonnull ObjectMapper objectMapper )
+    {
+        final List<DhisMetadata> programs = Collections.unmodifiableList(
+            readDhisResource( objectMapper, "default-program.json", DhisPrograms.class ).getPrograms() );
+
+        final ProgramMetadataService service = createStub( ProgramMetadataService.class );
+        Mockito.doAnswer( invocation -> findMetadata( programs, invocation.getArgument( 0 ) ) ).when( service ).findMetadataByReference( Mockito.any() );
+        Mockito.doAnswer( invocation -> findMetadata( programs, invocation.getArgument( 0 ) ) ).when( service ).findMetadataRefreshedByReference( Mockito.any() );
+        return service;
+    }
+
+    @Nonnull
+    @Bean
+    protected TrackedEntityMetadataService trackedEntityMetadataService( @Nonnull ObjectMapper objectMapper )
+    {
+        final List<DhisMetadata> types = Collections.unmodifiableList(
+            readDhisResource( objectMapper, "default-tracked-entity-type.json", TrackedEntityTypes.class ).getTrackedEntityTypes() );
+        final TrackedEntityAttributes attributes = readDhisResource( objectMapper, "default-tracked-entity-attributes.json", TrackedEntityAttributes.class );
+
+        final TrackedEntityMetadataService service = createStub( TrackedEntityMetadataService.class );
+        Mockito.doReturn( attributes ).when( service ).getAttributes();
+        Mockito.doAnswer( invocation -> findMetadata( types, invocation.getArgument( 0 ) ) ).when( service ).findTypeByReference( Mockito.any() );
+        Mockito.doAnswer( invocation -> findMetadata( types, invocation.getArgument( 0 ) ) ).when( service ).findTypeByReferenceRefreshed( Mockito.any() );
+        return service;
+    }
+
+    @Nonnull
+    @Bean
+    protected TrackedEntityService trackedEntityService( @Nonnull ObjectMapper objectMapper )
+    {
+        final List<TrackedEntityInstance> trackedEntityInstances =
+            readDhisResource( objectMapper, "default-tei-15-get.json", TrackedEntityInstances.class ).getTrackedEntityInstances();
+
+        final TrackedEntityService service = createStub( TrackedEntityService.class );
+        Mockito.doAnswer( invocation -> findTrackedEntityInstances( trackedEntityInstances, invocation.getArgument( 0 ), invocation.getArgument( 1 ), invocation.getArgument( 2 ) ) )
+            .when( service ).findByAttrValue( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyInt() );
+        Mockito.doAnswer( invocation -> findTrackedEntityInstances( trackedEntityInstances, invocation.getArgument( 0 ), invocation.getArgument( 1 ), invocation.getArgument( 2 ) ) )
+            .when( service ).findByAttrValueRefreshed( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyInt() );
+        Mockito.doAnswer( invocation -> trackedEntityInstances.stream().filter( tei -> Objects.equals( tei.getId(), invocation.getArgument( 0 ) ) ).findFirst() )
+            .when( service ).findOneById( Mockito.any() );
+        Mockito.doAnswer( invocation -> trackedEntityInstances.stream().filter( tei -> Objects.equals( tei.getId(), invocation.getArgument( 0 ) ) ).findFirst() )
+            .when( service ).findOneByIdRefreshed( Mockito.any() );
+        Mockito.doAnswer( invocation -> CompletableFuture.completedFuture( trackedEntityInstances.stream().filter( tei -> Objects.equals( tei.getId(), invocation.getArgument( 0 ) ) ).findFirst() ) )
+            .when( service ).findOneByIdAsync( Mockito.any() );
+        Mockito.doAnswer( invocation -> CompletableFuture.completedFuture( trackedEntityInstances.stream().filter( tei -> Objects.equals( tei.getId(), invocation.getArgument( 0 ) ) ).findFirst() ) )
+            .when( service ).findOneByIdRefreshedAsync( Mockito.any() );
+        return service;
+    }
+
+    @Nonnull
+    @Bean
+    protected EnrollmentService enrollmentService( @Nonnull ObjectMapper objectMapper )
+    {
+        final List<Enrollment> enrollments = readDhisResource( objectMapper, "default-enrollment-70-get.json", DhisEnrollments.class ).getEnrollments();
+
+        final EnrollmentService service = createStub( EnrollmentService.class );
+        Mockito.doAnswer( invocation -> findLatestActiveEnrollment( enrollments, invocation.getArgument( 0 ), invocation.getArgument( 1 ) ) )
+            .when( service ).findLatestActive( Mockito.any(), Mockito.any(), Mockito.anyBoolean() );
+        Mockito.doAnswer( invocation -> findLatestActiveEnrollment( enrollments, invocation.getArgument( 0 ), invocation.getArgument( 1 ) ) )
+            .when( service ).findLatestActiveRefreshed( Mockito.any(), Mockito.any(), Mockito.anyBoolean() );
+        Mockito.doAnswer( invocation -> CompletableFuture.completedFuture( findLatestActiveEnrollment( enrollments, invocation.getArgument( 0 ), invocation.getArgument( 1 ) ) ) )
+            .when( service ).findLatestActiveAsync( Mockito.any(), Mockito.any(), Mockito.anyBoolean() );
+        Mockito.doAnswer( invocation -> CompletableFuture.completedFuture( findLatestActiveEnrollment( enrollments, invocation.getArgument( 0 ), invocation.getArgument( 1 ) ) ) )
+            .when( service ).findLatestActiveRefreshedAsync( Mockito.any(), Mockito.any(), Mockito.anyBoolean() );
+        return service;
+    }
+
+    @Nonnull
+    @Bean
+    protected EventService eventService( @Nonnull ObjectMapper objectMapper )
+    {
+        final List<Event> events = readDhisResource( objectMapper, "default-event-70-get.json", DhisEvents.class ).getEvents();
+
+        final EventService service = createStub( EventService.class );
+        Mockito.doAnswer( invocation -> findEvents( events, invocation.getArgument( 0 ), invocation.getArgument( 1 ), invocation.getArgument( 2 ) ) )
+            .when( service ).find( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyBoolean() );
+        Mockito.doAnswer( invocation -> findEvents( events, invocation.getArgument( 0 ), invocation.getArgument( 1 ), invocation.getArgument( 2 ) ) )
+            .when( service ).findRefreshed( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyBoolean() );
+        Mockito.doAnswer( invocation -> CompletableFuture.completedFuture( findTrackedEntityInstanceEvents( events, invocation.getArgument( 0 ), invocation.getArgument( 1 ), invocation.getArgument( 2 ) ) ) )
+            .when( service ).findRefreshedAsync( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyBoolean() );
+        return service;
+    }
+
+    @Nonnull
+    public static String readFixture( @Nonnull String path )
+    {
+        try ( final InputStream is = new ClassPathResource( path ).getInputStream() )
+        {
+            return StreamUtils.copyToString( is, StandardCharsets.UTF_8 );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( "Could not read benchmark fixture " + path, e );
+        }
+    }
+
+    @Nonnull
+    public static IBaseResource parseFhirResource( @Nonnull FhirContext fhirContext, @Nonnull String fileName )
+    {
+        return fhirContext.newJsonParser().parseResource( readFixture( FHIR_FIXTURE_PATH + fileName ) );
+    }
+
+    @Nonnull
+    public static <T> T readDhisResource( @Nonnull ObjectMapper objectMapper, @Nonnull String fileName, @Nonnull Class<T> resourceClass )
+    {
+        try
+        {
+            return objectMapper.readValue( readFixture( DHIS_FIXTURE_PATH + fileName ), resourceClass );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( "Could not parse DHIS2 benchmark fixture " + fileName, e );
+        }
+    }
+
+    /**
+     * Stubs must not record their invocations since the benchmark invokes them millions of times.
+     */
+    @Nonnull
+    private static <T> T createStub( @Nonnull Class<T> serviceClass )
+    {
+        return Mockito.mock( serviceClass, Mockito.withSettings().stubOnly() );
+    }
+
+    @Nonnull
+    private static Optional<DhisMetadata> findMetadata( @Nonnull Collection<DhisMetadata> metadata, @Nonnull Reference reference )
+    {
+        return metadata.stream().filter( m -> m.isReference( reference ) ).findFirst();
+    }
+
+    @Nonnull
+    private static Collection<TrackedEntityInstance> findTrackedEntityInstances( @Nonnull Collection<TrackedEntityInstance> trackedEntityInstances,
+        @Nonnull String typeId, @Nonnull String attributeId, @Nonnull String value )
+    {
+        return trackedEntityInstances.stream().filter( tei -> Objects.equals( tei.getTypeId(), typeId ) && tei.containsAttribute( attributeId, value ) )
+            .collect( Collectors.toList() );
+    }
+
+    @Nonnull
+    private static Optional<Enrollment> findLatestActiveEnrollment( @Nonnull Collection<Enrollment> enrollments, @Nonnull String programId, @Nonnull String trackedEntityInstanceId )
+    {
+        return enrollments.stream().filter( e -> programId.equals( e.getProgramId() ) && trackedEntityInstanceId.equals( e.getTrackedEntityInstanceId() ) ).findFirst();
+    }
+
+    @Nonnull
+    private static Collection<Event> findEvents( @Nonnull Collection<Event> events, @Nonnull String programId, @Nonnull String programStageId, @Nonnull String enrollmentId )
+    {
+        return events.stream().filter( e -> programId.equals( e.getProgramId() ) && programStageId.equals( e.getProgramStageId() ) && enrollmentId.equals( e.getEnrollmentId() ) )
+            .collect( Collectors.toList() );
+    }
+
+    @Nonnull
+    private static Collection<Event> findTrackedEntityInstanceEvents( @Nonnull Collection<Event> events, @Nonnull String programId, @Nonnull String programStageId, @Nonnull String trackedEntityInstanceId )
+    {
+        return events.stream().filter( e -> programId.equals( e.getProgramId() ) && programStageId.equals( e.getProgramStageId() ) && trackedEntityInstanceId.equals( e.getTrackedEntityInstanceId() ) )
+            .collect( Collectors.toList() );
+    }
+}
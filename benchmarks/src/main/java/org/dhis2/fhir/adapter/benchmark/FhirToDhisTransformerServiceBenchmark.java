@@ -0,0 +1,155 @@
+package org.dhis2.fhir.adapter.benchmark;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import com.google.common.collect.ArrayListMultimap;
+import org.dhis2.fhir.adapter.cache.RequestCacheContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirResourceType;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientResourceRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientSystemRepository;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformOutcome;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerService;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.model.ResourceSystem;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.model.WritableFhirRequest;
+import org.dhis2.fhir.adapter.lock.LockContext;
+import org.dhis2.fhir.adapter.lock.LockManager;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.ZoneId;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmarks {@link FhirToDhisTransformerService#transform(org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerRequest)}
+ * of the FHIR observation with a body weight of the application tests. The FHIR client, the rules (Child
+ * Programme and Vital Signs), the code sets and the scripts are the bundled ones and are loaded from an
+ * embedded H2 database by the real repositories. The request is created like the FHIR repository does
+ * for a polled FHIR resource. See {@link FhirToDhisTransformerBenchmarkConfig} for the stubbed services.
+ *
+ * @author volsch
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class FhirToDhisTransformerServiceBenchmark
+{
+    /**
+     * FHIR client resource of the bundled R4 FHIR client for FHIR observations.
+     */
+    private static final UUID FHIR_CLIENT_RESOURCE_ID = UUID.fromString( "b8eccfd3-4ded-45d7-ab84-dc8467541902" );
+
+    private ConfigurableApplicationContext applicationContext;
+
+    private FhirToDhisTransformerService transformerService;
+
+    private LockManager lockManager;
+
+    private RequestCacheService requestCacheService;
+
+    private FhirClientResource fhirClientResource;
+
+    private WritableFhirRequest fhirRequest;
+
+    private IBaseResource observation;
+
+    @Setup
+    public void setup()
+    {
+        applicationContext = new SpringApplicationBuilder( FhirToDhisTransformerBenchmarkConfig.class )
+            .web( WebApplicationType.NONE )
+            .properties( FhirToDhisTransformerBenchmarkConfig.APPLICATION_PROPERTIES )
+            .run();
+
+        transformerService = applicationContext.getBean( FhirToDhisTransformerService.class );
+        lockManager = applicationContext.getBean( LockManager.class );
+        requestCacheService = applicationContext.getBean( RequestCacheService.class );
+
+        fhirClientResource = applicationContext.getBean( FhirClientResourceRepository.class ).findOneByIdCached( FHIR_CLIENT_RESOURCE_ID )
+            .orElseThrow( () -> new IllegalStateException( "Bundled FHIR client resource " + FHIR_CLIENT_RESOURCE_ID + " does not exist." ) );
+        observation = FhirToDhisTransformerBenchmarkConfig.parseFhirResource( applicationContext.getBean( "fhirContextR4", FhirContext.class ), "get-observation-73.json" );
+
+        fhirRequest = new WritableFhirRequest();
+        fhirRequest.setResourceType( FhirResourceType.getByResource( observation ) );
+        fhirRequest.setLastUpdated( observation.getMeta().getLastUpdated().toInstant().atZone( ZoneId.systemDefault() ) );
+        fhirRequest.setResourceId( observation.getIdElement().getIdPart() );
+        fhirRequest.setResourceVersionId( observation.getMeta().getVersionId() );
+        fhirRequest.setFhirClientId( fhirClientResource.getFhirClient().getId() );
+        fhirRequest.setFhirClientResourceId( fhirClientResource.getId() );
+        fhirRequest.setVersion( fhirClientResource.getFhirClient().getFhirVersion() );
+        fhirRequest.setParameters( ArrayListMultimap.create() );
+        fhirRequest.setFhirClientCode( fhirClientResource.getFhirClient().getCode() );
+        fhirRequest.setResourceSystemsByType( applicationContext.getBean( FhirClientSystemRepository.class ).findByFhirClient( fhirClientResource.getFhirClient() ).stream()
+            .map( s -> new ResourceSystem( s.getFhirResourceType(), s.getSystem().getSystemUri(), s.getCodePrefix(), s.getDefaultValue(), s.getSystem().getFhirDisplayName(), s.isFhirId() ) )
+            .collect( Collectors.toMap( ResourceSystem::getFhirResourceType, rs -> rs ) ) );
+        fhirRequest.setSync( true );
+        fhirRequest.setDhisUsername( fhirClientResource.getFhirClient().getDhisEndpoint().getUsername() );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        if ( applicationContext != null )
+        {
+            applicationContext.close();
+        }
+    }
+
+    @Benchmark
+    public FhirToDhisTransformOutcome<?> transform()
+    {
+        try ( final LockContext lockContext = lockManager.begin() )
+        {
+            try ( final RequestCacheContext requestCacheContext = requestCacheService.createRequestCacheContext( true ) )
+            {
+                return transformerService.transform( transformerService.createTransformerRequest( fhirRequest, fhirClientResource, observation, false ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.dhis2.fhir.adapter.benchmark;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.fhir.metadata.model.DataType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScript;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptVariable;
+import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
+import org.dhis2.fhir.adapter.fhir.script.ScriptExecutor;
+import org.dhis2.fhir.adapter.fhir.script.impl.ScriptExecutorImpl;
+import org.dhis2.fhir.adapter.fhir.script.impl.ThreadLocalScriptExecutionContext;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Quantity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link ScriptExecutorImpl#execute(ExecutableScript, FhirVersion, Map, Map, Map, Class)}
+ * with a single thread and with concurrent threads, which compete for the script engine.
+ *
+ * @author volsch
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ScriptExecutorBenchmark
+{
+    @Param( { "0", "4" } )
+    public int scriptEnginePoolSize;
+
+    private ScriptExecutor scriptExecutor;
+
+    private ExecutableScript applicableScript;
+
+    private ExecutableScript transformScript;
+
+    private Map<String, Object> variables;
+
+    @Setup
+    public void setup()
+    {
+        final BenchmarkScriptRepository scriptRepository = new BenchmarkScriptRepository();
+        applicableScript = scriptRepository.add( "OBSERVATION_BODY_WEIGHT_APPLICABLE", ScriptType.EVALUATE, DataType.BOOLEAN,
+            "input.getCode().getCodingFirstRep().getSystem() == 'http://loinc.org' && input.getCode().getCodingFirstRep().getCode() == '29463-7'",
+            ScriptVariable.INPUT );
+        transformScript = scriptRepository.add( "OBSERVATION_BODY_WEIGHT_TRANSFORM", ScriptType.EVALUATE, DataType.DOUBLE,
+            "var weight = input.getValueQuantity().getValue().doubleValue(); if (input.getValueQuantity().getUnit() == 'g') { weight = weight / 1000.0 } weight",
+            ScriptVariable.INPUT );
+
+        scriptExecutor = new ScriptExecutorImpl( BenchmarkScriptEvaluators.create( scriptEnginePoolSize ),
+            new ThreadLocalScriptExecutionContext(), scriptRepository.getRepository() );
+
+        final Observation observation = new Observation();
+        observation.getCode().addCoding().setSystem( "http://loinc.org" ).setCode( "29463-7" );
+        observation.setValue( new Quantity().setValue( 3840 ).setUnit( "g" ) );
+
+        variables = new HashMap<>();
+        variables.put( ScriptVariable.INPUT.getVariableName(), observation );
+    }
+
+    @Benchmark
+    public Boolean executeApplicable()
+    {
+        return scriptExecutor.execute( applicableScript, FhirVersion.R4, variables, Collections.emptyMap(), Boolean.class );
+    }
+
+    @Benchmark
+    public Double executeTransform()
+    {
+        return scriptExecutor.execute( transformScript, FhirVersion.R4, variables, Collections.emptyMap(), Double.class );
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public Double executeTransformConcurrently()
+    {
+        return scriptExecutor.execute( transformScript, FhirVersion.R4, variables, Collections.emptyMap(), Double.class );
+    }
+}
@@ -0,0 +1,132 @@
+package org.dhis2.fhir.adapter.benchmark;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.dhis.tracker.program.Event;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the lookup of all attribute values of a tracked entity instance and of
+ * all data values of an event by their IDs (as performed by transformation scripts).
+ * The linear benchmarks perform the sequential search that had been used before the
+ * values were indexed by their IDs and are used as baseline.
+ *
+ * @author volsch
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TrackedEntityInstanceBenchmark
+{
+    @Param( { "10", "60" } )
+    public int valueCount;
+
+    private TrackedEntityInstance trackedEntityInstance;
+
+    private Event event;
+
+    private List<String> ids;
+
+    @Setup
+    public void setup()
+    {
+        ids = new ArrayList<>();
+        trackedEntityInstance = new TrackedEntityInstance();
+        trackedEntityInstance.setAttributes( new ArrayList<>() );
+        event = new Event();
+        event.setDataValues( new ArrayList<>() );
+
+        for ( int i = 0; i < valueCount; i++ )
+        {
+            final String id = String.format( "Ab%09d", i );
+            ids.add( id );
+            trackedEntityInstance.getAttribute( id ).setValue( "Value " + i );
+            event.getDataValue( id ).setValue( "Value " + i );
+        }
+    }
+
+    @Benchmark
+    public void teiAttributes( Blackhole blackhole )
+    {
+        for ( final String id : ids )
+        {
+            blackhole.consume( trackedEntityInstance.getAttribute( id ) );
+            blackhole.consume( trackedEntityInstance.containsAttributeWithValue( id ) );
+        }
+    }
+
+    @Benchmark
+    public void teiAttributesLinear( Blackhole blackhole )
+    {
+        for ( final String id : ids )
+        {
+            blackhole.consume( trackedEntityInstance.getAttributes().stream().filter( a -> Objects.equals( id, a.getAttributeId() ) ).findFirst().orElse( null ) );
+            blackhole.consume( trackedEntityInstance.getAttributes().stream().filter( a -> (a.getValue() != null) )
+                .anyMatch( a -> Objects.equals( id, a.getAttributeId() ) ) );
+        }
+    }
+
+    @Benchmark
+    public void eventDataValues( Blackhole blackhole )
+    {
+        for ( final String id : ids )
+        {
+            blackhole.consume( event.getDataValue( id ) );
+        }
+    }
+
+    @Benchmark
+    public void eventDataValuesLinear( Blackhole blackhole )
+    {
+        for ( final String id : ids )
+        {
+            blackhole.consume( event.getDataValues().stream().filter( dv -> Objects.equals( id, dv.getDataElementId() ) ).findFirst().orElse( null ) );
+        }
+    }
+}
@@ -57,6 +57,11 @@ public abstract class AbstractSimpleCacheConfig implements Serializable
 {
     private static final long serialVersionUID = 3060542002074294407L;
 
+    /**
+     * Suffix of the Redis key prefix that is used as channel for invalidations of local caches.
+     */
+    public static final String INVALIDATION_CHANNEL_SUFFIX = ":invalidation";
+
     @NotNull
     private SimpleCacheType type = SimpleCacheType.NONE;
 
@@ -98,8 +103,9 @@ public abstract class AbstractSimpleCacheConfig implements Serializable
 
     @Nonnull
     protected <R> CacheManager createCacheManager( @Nonnull RequestCacheService requestCacheService,
-        @Nonnull ObjectProvider<RedisConnectionFactory> redisConnectionFactoryProvider, @Nonnull RedisSerializer<R> redisSerializer )
+        @Nonnull ObjectProvider<RedisConnectionFactory> redisConnectionFactoryProvider, @Nonnull JsonRedisSerializerFactory<R> redisSerializerFactory )
     {
+        final RedisSerializer<R> redisSerializer = redisSerializerFactory.createRedisSerializer( getRedis().getCodec().createJsonFactory() );
         final CacheManager defaultCacheManager;
         switch ( getType() )
         {
@@ -114,6 +120,12 @@ public abstract class AbstractSimpleCacheConfig implements Serializable
             case REDIS:
                 defaultCacheManager = RedisCacheManager.builder( redisConnectionFactoryProvider.getObject() ).cacheDefaults( createRedisCacheConfiguration( redisSerializer ) ).build();
                 break;
+            case TWO_LEVEL:
+                final TwoLevelRedisCacheManager twoLevelCacheManager = new TwoLevelRedisCacheManager( redisConnectionFactoryProvider.getObject(),
+                    createRedisCacheConfiguration( redisSerializer ), caffeine.getSpec(), getRedis().getKeyPrefix() + INVALIDATION_CHANNEL_SUFFIX );
+                twoLevelCacheManager.afterPropertiesSet();
+                defaultCacheManager = twoLevelCacheManager;
+                break;
             default:
                 throw new AssertionError( "Unhandled cache type: " + getType() );
         }
@@ -121,8 +133,9 @@ public abstract class AbstractSimpleCacheConfig implements Serializable
     }
 
     @Nonnull
-    protected <R> RedisCacheConfiguration createRedisCacheConfiguration( @Nonnull RedisSerializer<R> redisSerializer )
+    protected <R> RedisCacheConfiguration createRedisCacheConfiguration( @Nonnull RedisSerializer<R> plainRedisSerializer )
     {
+        final RedisSerializer<R> redisSerializer = createRedisSerializer( plainRedisSerializer );
         return RedisCacheConfiguration.defaultCacheConfig().computePrefixWith( getRedis().getCacheKeyPrefix() )
             .entryTtl( getRedis().getTimeToLive() ).serializeValuesWith( new RedisSerializationContext.SerializationPair<R>()
             {
@@ -141,4 +154,21 @@ public abstract class AbstractSimpleCacheConfig implements Serializable
                 }
             } );
     }
+
+    @Nonnull
+    protected <R> RedisSerializer<R> createRedisSerializer( @Nonnull RedisSerializer<R> redisSerializer )
+    {
+        switch ( getRedis().getCodec() )
+        {
+            case JSON:
+            case SMILE:
+            case CBOR:
+                // binary data formats are already written by the serializer itself
+                return redisSerializer;
+            case COMPRESSED_JSON:
+                return new CompressingRedisSerializer<>( redisSerializer, getRedis().getCompressionThreshold() );
+            default:
+                throw new AssertionError( "Unhandled Redis cache codec: " + getRedis().getCodec() );
+        }
+    }
 }
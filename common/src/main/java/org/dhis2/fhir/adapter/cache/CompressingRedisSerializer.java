@@ -0,0 +1,131 @@
+package org.dhis2.fhir.adapter.cache;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Redis serializer that compresses the serialized values of another Redis serializer
+ * with GZIP. Values that do not exceed the compression threshold are stored
+ * uncompressed. Since the delegate serializers never create values that start with
+ * the GZIP magic bytes, uncompressed values (also values that have been stored
+ * before the compression has been enabled) can still be read.
+ *
+ * @param <T> the concrete type of the values that are serialized.
+ * @author volsch
+ */
+public class CompressingRedisSerializer<T> implements RedisSerializer<T>
+{
+    private static final int BUFFER_SIZE = 512;
+
+    private final RedisSerializer<T> delegate;
+
+    private final int compressionThreshold;
+
+    public CompressingRedisSerializer( @Nonnull RedisSerializer<T> delegate, int compressionThreshold )
+    {
+        this.delegate = delegate;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Nonnull
+    public RedisSerializer<T> getDelegate()
+    {
+        return delegate;
+    }
+
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+
+    @Override
+    public byte[] serialize( @Nullable T value ) throws SerializationException
+    {
+        final byte[] bytes = delegate.serialize( value );
+        if ( (bytes == null) || (bytes.length <= compressionThreshold) )
+        {
+            return bytes;
+        }
+
+        final ByteArrayOutputStream bs = new ByteArrayOutputStream( Math.min( bytes.length, BUFFER_SIZE ) );
+        try ( final OutputStream out = new GZIPOutputStream( bs, BUFFER_SIZE ) )
+        {
+            out.write( bytes );
+        }
+        catch ( IOException e )
+        {
+            throw new SerializationException( "Could not compress serialized value.", e );
+        }
+
+        return bs.toByteArray();
+    }
+
+    @Override
+    public T deserialize( @Nullable byte[] bytes ) throws SerializationException
+    {
+        if ( !isCompressed( bytes ) )
+        {
+            return delegate.deserialize( bytes );
+        }
+
+        final ByteArrayOutputStream bs = new ByteArrayOutputStream( bytes.length * 4 );
+        try ( final InputStream in = new GZIPInputStream( new ByteArrayInputStream( bytes ), BUFFER_SIZE ) )
+        {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ( (read = in.read( buffer )) >= 0 )
+            {
+                bs.write( buffer, 0, read );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new SerializationException( "Could not decompress serialized value.", e );
+        }
+
+        return delegate.deserialize( bs.toByteArray() );
+    }
+
+    protected static boolean isCompressed( @Nullable byte[] bytes )
+    {
+        return (bytes != null) && (bytes.length > 2) && (bytes[0] == (byte) GZIPInputStream.GZIP_MAGIC) && (bytes[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8));
+    }
+}
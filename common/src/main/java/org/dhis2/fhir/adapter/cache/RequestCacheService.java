@@ -32,8 +32,9 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 /**
- * Provides access to one or more request scope cache managers.
- * <b>Request level caches are not thread-safe.</b>
+ * Provides access to one or more request scope cache managers. A request cache
+ * context may be bound to worker threads of the request in addition to the thread
+ * that created the context.
  *
  * @author volsch
  */
@@ -47,4 +48,15 @@ public interface RequestCacheService
 
     @Nullable
     RequestCacheContext getCurrentRequestCacheContext();
+
+    /**
+     * Binds the specified request cache context of another thread to the current
+     * thread. Closing the returned context unbinds it from the current thread but
+     * does not close the specified context.
+     *
+     * @param requestCacheContext the request cache context that should be bound to the current thread.
+     * @return the request cache context that has been bound to the current thread.
+     */
+    @Nonnull
+    RequestCacheContext bindRequestCacheContext( @Nonnull RequestCacheContext requestCacheContext );
 }
@@ -0,0 +1,102 @@
+package org.dhis2.fhir.adapter.cache;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The codec that is used to store the serialized values of a Redis cache.
+ *
+ * @author volsch
+ */
+public enum SimpleRedisCacheCodec
+{
+    /**
+     * The serialized values are stored as they are.
+     */
+    JSON( false ),
+
+    /**
+     * The serialized values are stored GZIP compressed if they exceed the
+     * configured compression threshold.
+     */
+    COMPRESSED_JSON( false ),
+
+    /**
+     * The values are stored in the binary Jackson Smile format. Repeated property
+     * names and short string values are stored as back references.
+     */
+    SMILE( true ),
+
+    /**
+     * The values are stored in the binary CBOR format (RFC 7049).
+     */
+    CBOR( true );
+
+    private final boolean binary;
+
+    SimpleRedisCacheCodec( boolean binary )
+    {
+        this.binary = binary;
+    }
+
+    /**
+     * @return <code>true</code> if the values are stored in a binary Jackson data
+     * format instead of JSON, <code>false</code> otherwise.
+     */
+    public boolean isBinary()
+    {
+        return binary;
+    }
+
+    /**
+     * @return a new Jackson factory that reads and writes the data format of this codec.
+     */
+    @Nonnull
+    public JsonFactory createJsonFactory()
+    {
+        switch ( this )
+        {
+            case JSON:
+            case COMPRESSED_JSON:
+                return new JsonFactory();
+            case SMILE:
+                return new SmileFactory().enable( SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES );
+            case CBOR:
+                return new CBORFactory();
+            default:
+                throw new AssertionError( "Unhandled Redis cache codec: " + this );
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.springframework.data.redis.cache.CacheKeyPrefix;
 import org.springframework.validation.annotation.Validated;
 
 import javax.annotation.Nonnull;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.io.Serializable;
 import java.time.Duration;
@@ -53,6 +54,12 @@ public class SimpleRedisCacheConfig implements Serializable
     @NotNull
     private String keyPrefix = UUID.randomUUID().toString();
 
+    @NotNull
+    private SimpleRedisCacheCodec codec = SimpleRedisCacheCodec.JSON;
+
+    @Min( 0 )
+    private int compressionThreshold = 256;
+
     @Nonnull
     public Duration getTimeToLive()
     {
@@ -64,16 +71,23 @@ public class SimpleRedisCacheConfig implements Serializable
         this.timeToLive = timeToLive;
     }
 
+    /**
+     * Returns the prefix of the cache keys. Values that are stored with a binary codec
+     * use their own keys since they cannot be read with the other codecs (and vice versa).
+     *
+     * @return the prefix of the cache keys.
+     */
     @Nonnull
     public CacheKeyPrefix getCacheKeyPrefix()
     {
+        final String codecPrefix = codec.isBinary() ? (codec.name().toLowerCase() + ":") : "";
         return new CacheKeyPrefix()
         {
             @Override
             @Nonnull
             public String compute( @Nonnull String cacheName )
             {
-                return keyPrefix + ":" + cacheName + ":";
+                return keyPrefix + ":" + cacheName + ":" + codecPrefix;
             }
         };
     }
@@ -93,4 +107,25 @@ public class SimpleRedisCacheConfig implements Serializable
     {
         this.keyPrefix = keyPrefix;
     }
+
+    @Nonnull
+    public SimpleRedisCacheCodec getCodec()
+    {
+        return codec;
+    }
+
+    public void setCodec( @Nonnull SimpleRedisCacheCodec codec )
+    {
+        this.codec = codec;
+    }
+
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold( int compressionThreshold )
+    {
+        this.compressionThreshold = compressionThreshold;
+    }
 }
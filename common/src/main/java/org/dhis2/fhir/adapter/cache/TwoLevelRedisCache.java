@@ -0,0 +1,153 @@
+package org.dhis2.fhir.adapter.cache;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Redis cache that keeps the values that have been read or written by this
+ * adapter instance in a local bounded Caffeine cache. Changes of the Redis cache
+ * are published by the cache manager to all other adapter instances, which
+ * evict the affected values from their local cache.
+ *
+ * @author volsch
+ */
+public class TwoLevelRedisCache extends RedisCache
+{
+    private final TwoLevelRedisCacheManager cacheManager;
+
+    private final Cache<String, Object> localCache;
+
+    /**
+     * Incremented whenever the local cache has been changed. A value that has
+     * been read from Redis is only stored in the local cache if no change has
+     * occurred in the meantime. Otherwise the local cache may contain a stale
+     * value that has already been evicted.
+     */
+    private final AtomicLong modifications = new AtomicLong();
+
+    protected TwoLevelRedisCache( @Nonnull TwoLevelRedisCacheManager cacheManager, @Nonnull String name, @Nonnull RedisCacheWriter cacheWriter,
+        @Nonnull RedisCacheConfiguration cacheConfig, @Nonnull String localCacheSpec )
+    {
+        super( name, cacheWriter, cacheConfig );
+        this.cacheManager = cacheManager;
+        this.localCache = Caffeine.from( localCacheSpec ).build();
+    }
+
+    @Nullable
+    @Override
+    protected Object lookup( @Nonnull Object key )
+    {
+        final String localKey = convertKey( key );
+        Object value = localCache.getIfPresent( localKey );
+        if ( value != null )
+        {
+            return value;
+        }
+
+        final long modificationCount = modifications.get();
+        value = super.lookup( key );
+        if ( (value != null) && (modifications.get() == modificationCount) )
+        {
+            localCache.put( localKey, value );
+        }
+        return value;
+    }
+
+    @Override
+    public void put( @Nonnull Object key, @Nullable Object value )
+    {
+        super.put( key, value );
+
+        final String localKey = convertKey( key );
+        modifications.incrementAndGet();
+        localCache.put( localKey, toStoreValue( value ) );
+        cacheManager.publishEviction( getName(), localKey );
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent( @Nonnull Object key, @Nullable Object value )
+    {
+        final ValueWrapper result = super.putIfAbsent( key, value );
+
+        if ( result == null )
+        {
+            final String localKey = convertKey( key );
+            modifications.incrementAndGet();
+            localCache.invalidate( localKey );
+            cacheManager.publishEviction( getName(), localKey );
+        }
+        return result;
+    }
+
+    @Override
+    public void evict( @Nonnull Object key )
+    {
+        super.evict( key );
+
+        final String localKey = convertKey( key );
+        evictLocally( localKey );
+        cacheManager.publishEviction( getName(), localKey );
+    }
+
+    @Override
+    public void clear()
+    {
+        super.clear();
+
+        clearLocally();
+        cacheManager.publishClear( getName() );
+    }
+
+    protected void evictLocally( @Nonnull String localKey )
+    {
+        modifications.incrementAndGet();
+        localCache.invalidate( localKey );
+    }
+
+    protected void clearLocally()
+    {
+        modifications.incrementAndGet();
+        localCache.invalidateAll();
+    }
+
+    protected long getLocalSize()
+    {
+        localCache.cleanUp();
+        return localCache.estimatedSize();
+    }
+}
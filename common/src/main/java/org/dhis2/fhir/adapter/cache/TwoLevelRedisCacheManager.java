@@ -0,0 +1,194 @@
+package org.dhis2.fhir.adapter.cache;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Redis cache manager that creates caches with an additional local bounded
+ * Caffeine cache. Changes of cached values are published on a Redis channel.
+ * All adapter instances subscribe to this channel and evict the changed values
+ * from their local caches.
+ *
+ * @author volsch
+ */
+public class TwoLevelRedisCacheManager extends RedisCacheManager implements DisposableBean
+{
+    private static final String MESSAGE_SEPARATOR = "\n";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final RedisCacheWriter cacheWriter;
+
+    private final RedisCacheConfiguration defaultCacheConfig;
+
+    private final String localCacheSpec;
+
+    private final RedisConnectionFactory connectionFactory;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final String channel;
+
+    private RedisMessageListenerContainer listenerContainer;
+
+    public TwoLevelRedisCacheManager( @Nonnull RedisConnectionFactory connectionFactory, @Nonnull RedisCacheConfiguration defaultCacheConfig,
+        @Nonnull String localCacheSpec, @Nonnull String channel )
+    {
+        this( connectionFactory, RedisCacheWriter.nonLockingRedisCacheWriter( connectionFactory ), defaultCacheConfig, localCacheSpec, channel );
+    }
+
+    protected TwoLevelRedisCacheManager( @Nonnull RedisConnectionFactory connectionFactory, @Nonnull RedisCacheWriter cacheWriter, @Nonnull RedisCacheConfiguration defaultCacheConfig,
+        @Nonnull String localCacheSpec, @Nonnull String channel )
+    {
+        super( cacheWriter, defaultCacheConfig );
+        this.connectionFactory = connectionFactory;
+        this.cacheWriter = cacheWriter;
+        this.defaultCacheConfig = defaultCacheConfig;
+        this.localCacheSpec = localCacheSpec;
+        this.channel = channel;
+        this.redisTemplate = new StringRedisTemplate( connectionFactory );
+    }
+
+    @Nonnull
+    public String getChannel()
+    {
+        return channel;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        super.afterPropertiesSet();
+
+        if ( listenerContainer == null )
+        {
+            final RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+            container.setConnectionFactory( connectionFactory );
+            container.addMessageListener( this::onMessage, new ChannelTopic( channel ) );
+            container.afterPropertiesSet();
+            container.start();
+            listenerContainer = container;
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception
+    {
+        if ( listenerContainer != null )
+        {
+            listenerContainer.destroy();
+            listenerContainer = null;
+        }
+    }
+
+    @Nonnull
+    @Override
+    protected RedisCache createRedisCache( @Nonnull String name, @Nullable RedisCacheConfiguration cacheConfig )
+    {
+        return new TwoLevelRedisCache( this, name, cacheWriter, (cacheConfig == null) ? defaultCacheConfig : cacheConfig, localCacheSpec );
+    }
+
+    protected void publishEviction( @Nonnull String cacheName, @Nonnull String key )
+    {
+        publish( nodeId + MESSAGE_SEPARATOR + cacheName + MESSAGE_SEPARATOR + key );
+    }
+
+    protected void publishClear( @Nonnull String cacheName )
+    {
+        publish( nodeId + MESSAGE_SEPARATOR + cacheName );
+    }
+
+    protected void publish( @Nonnull String message )
+    {
+        try
+        {
+            redisTemplate.convertAndSend( channel, message );
+        }
+        catch ( RuntimeException e )
+        {
+            // the value has already been changed in Redis and local caches of other instances will expire
+            logger.error( "Could not publish cache invalidation on channel " + channel + ".", e );
+        }
+    }
+
+    protected void onMessage( @Nonnull Message message, @Nullable byte[] pattern )
+    {
+        handleMessage( new String( message.getBody(), StandardCharsets.UTF_8 ) );
+    }
+
+    protected void handleMessage( @Nonnull String message )
+    {
+        final String[] parts = message.split( MESSAGE_SEPARATOR, 3 );
+        if ( parts.length < 2 )
+        {
+            logger.warn( "Ignoring invalid cache invalidation message on channel {}.", channel );
+            return;
+        }
+        if ( nodeId.equals( parts[0] ) )
+        {
+            // local cache of this instance has already been updated
+            return;
+        }
+
+        final Cache cache = lookupCache( parts[1] );
+        if ( cache instanceof TwoLevelRedisCache )
+        {
+            if ( parts.length == 2 )
+            {
+                logger.debug( "Clearing local cache {} due to change on other instance.", parts[1] );
+                ( (TwoLevelRedisCache) cache ).clearLocally();
+            }
+            else
+            {
+                logger.debug( "Evicting key {} from local cache {} due to change on other instance.", parts[2], parts[1] );
+                ( (TwoLevelRedisCache) cache ).evictLocally( parts[2] );
+            }
+        }
+    }
+}
@@ -37,8 +37,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Implementation of {@link RequestCacheContext}.
- * <b>Request level cache is not thread-safe.</b>
+ * Implementation of {@link RequestCacheContext}. The context is thread-safe since
+ * it may be bound to worker threads of the request.
  *
  * @author volsch
  */
@@ -56,7 +56,7 @@ public class RequestCacheContextImpl implements RequestCacheContext
     }
 
     @Override
-    public void setAttribute( @Nonnull String name, Object value )
+    public synchronized void setAttribute( @Nonnull String name, Object value )
     {
         if ( attributes == null )
         {
@@ -67,7 +67,7 @@ public class RequestCacheContextImpl implements RequestCacheContext
     }
 
     @Override
-    public <T> T getAttribute( @Nonnull String name, @Nonnull Class<? extends T> valueClass )
+    public synchronized <T> T getAttribute( @Nonnull String name, @Nonnull Class<? extends T> valueClass )
     {
         if ( attributes == null )
         {
@@ -78,7 +78,7 @@ public class RequestCacheContextImpl implements RequestCacheContext
     }
 
     @Override
-    public void removeAttribute( @Nonnull String name )
+    public synchronized void removeAttribute( @Nonnull String name )
     {
         if ( attributes != null )
         {
@@ -88,7 +88,7 @@ public class RequestCacheContextImpl implements RequestCacheContext
 
     @Nonnull
     @Override
-    public CacheManager getCacheManager( @Nonnull String name )
+    public synchronized CacheManager getCacheManager( @Nonnull String name )
     {
         if ( cacheManagers == null )
         {
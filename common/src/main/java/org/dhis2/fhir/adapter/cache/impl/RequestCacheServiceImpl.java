@@ -82,7 +82,21 @@ public class RequestCacheServiceImpl implements RequestCacheService
         return threadLocal.get();
     }
 
-    void remove( @Nonnull RequestCacheContextImpl context )
+    @Nonnull
+    @Override
+    public RequestCacheContext bindRequestCacheContext( @Nonnull RequestCacheContext requestCacheContext )
+    {
+        if ( threadLocal.get() != null )
+        {
+            throw new IllegalStateException( "There is already a request cache context bound to the current thread." );
+        }
+
+        final BoundRequestCacheContextDelegate context = new BoundRequestCacheContextDelegate( requestCacheContext );
+        threadLocal.set( context );
+        return context;
+    }
+
+    void remove( @Nonnull RequestCacheContext context )
     {
         if ( threadLocal.get() != context )
         {
@@ -158,4 +172,19 @@ public class RequestCacheServiceImpl implements RequestCacheService
             closed = true;
         }
     }
+
+    protected class BoundRequestCacheContextDelegate extends ExistingRequestCacheContextDelegate
+    {
+        public BoundRequestCacheContextDelegate( @Nonnull RequestCacheContext requestCacheContext )
+        {
+            super( requestCacheContext );
+        }
+
+        @Override
+        public void close()
+        {
+            super.close();
+            remove( this );
+        }
+    }
 }
@@ -28,6 +28,7 @@ package org.dhis2.fhir.adapter.data.processor.impl;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.google.common.collect.Lists;
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
 import org.dhis2.fhir.adapter.data.model.DataGroup;
 import org.dhis2.fhir.adapter.data.model.DataGroupId;
@@ -49,21 +50,34 @@ import org.dhis2.fhir.adapter.security.SystemAuthenticationToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.support.JmsUtils;
+import org.springframework.jms.support.converter.MessageConverter;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.transaction.PlatformTransactionManager;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.jms.Destination;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 /**
@@ -95,12 +109,16 @@ public abstract class AbstractQueuedDataProcessorImpl<P extends ProcessedItem<PI
 
     private final JmsTemplate itemQueueJmsTemplate;
 
+    private final JmsTemplate transactedItemQueueJmsTemplate;
+
     private final PlatformTransactionManager platformTransactionManager;
 
     private final SystemAuthenticationToken systemAuthenticationToken;
 
     private final ForkJoinPool itemProcessorForkJoinPool;
 
+    private final ConcurrentMap<DataGroupId, ProcessedIdFilter> processedIdFilters = new ConcurrentHashMap<>();
+
     private boolean periodicInfoLogging = true;
 
     public AbstractQueuedDataProcessorImpl(
@@ -118,6 +136,7 @@ public abstract class AbstractQueuedDataProcessorImpl<P extends ProcessedItem<PI
         this.storedItemService = storedItemService;
         this.processedItemRepository = processedItemRepository;
         this.itemQueueJmsTemplate = itemQueueJmsTemplate;
+        this.transactedItemQueueJmsTemplate = createTransactedJmsTemplate( itemQueueJmsTemplate );
         this.platformTransactionManager = platformTransactionManager;
         this.systemAuthenticationToken = systemAuthenticationToken;
         this.itemProcessorForkJoinPool = itemProcessorForkJoinPool;
@@ -207,28 +226,65 @@ public abstract class AbstractQueuedDataProcessorImpl<P extends ProcessedItem<PI
         final Instant begin = Instant.now();
         final DataProcessorItemRetriever<G> itemRetriever = getDataProcessorItemRetriever( group );
         final AtomicLong count = new AtomicLong();
+        final ProcessedIdFilter processedIdFilter = isProcessedFilterEnabled() ? getProcessedIdFilter( group ) : null;
+        final AtomicReference<Instant> lastProcessedAt = new AtomicReference<>( (processedIdFilter == null) ? null : processedIdFilter.getLastProcessedAt() );
         final Instant lastUpdated = itemRetriever.poll( group, origLastUpdated, getMaxSearchCount(), items -> {
             final Instant processedAt = Instant.now();
             final List<String> processableIds = items.stream().map( sr -> sr.toIdString( processedAt ) ).collect( Collectors.toList() );
-            final Set<String> processedIds = processedItemRepository.find( group, processableIds );
-            final Set<String> storedIds = storedItemService.findProcessedIds( storedItemGroup, processableIds );
+            final Set<String> processedIds = findProcessedIds( group, processedIdFilter, processableIds );
+            final List<String> unprocessedIds = processableIds.stream().filter( id -> !processedIds.contains( id ) ).collect( Collectors.toList() );
+            final Set<String> storedIds = unprocessedIds.isEmpty() ? Collections.emptySet() : storedItemService.findProcessedIds( storedItemGroup, unprocessedIds );
 
-            final ForkJoinTask<?> task = itemProcessorForkJoinPool.submit( () -> items.parallelStream().forEach( item -> {
-                final String processedId = item.toIdString( processedAt );
-                if ( !processedIds.contains( processedId ) && !storedIds.contains( processedId ) )
-                {
-                    // persist processed item
-                    processedItemRepository.process( createProcessedItem( group, processedId, processedAt ), p -> {
-                        if ( enqueueDataItem( group, item, false ) )
-                        {
-                            count.incrementAndGet();
-                        }
-                    } );
-                }
-            } ) );
+            if ( (processedIdFilter != null) && !storedIds.containsAll( unprocessedIds ) )
+            {
+                // may contain IDs that will not be stored finally (results in a false positive only)
+                processedIdFilter.putAll( unprocessedIds );
+                lastProcessedAt.accumulateAndGet( processedAt, ( i1, i2 ) -> ((i1 == null) || i2.isAfter( i1 )) ? i2 : i1 );
+            }
+
+            final int chunkSize = getProcessedChunkSize();
+            final ForkJoinTask<?> task;
+            if ( chunkSize > 0 )
+            {
+                final Map<String, ProcessedItemInfo> newItems = new LinkedHashMap<>();
+                items.forEach( item -> {
+                    final String processedId = item.toIdString( processedAt );
+                    if ( !processedIds.contains( processedId ) && !storedIds.contains( processedId ) )
+                    {
+                        newItems.putIfAbsent( processedId, item );
+                    }
+                } );
+
+                // each chunk is stored in one transaction and enqueued in one JMS session
+                task = itemProcessorForkJoinPool.submit( () -> Lists.partition( new ArrayList<>( newItems.keySet() ), chunkSize ).parallelStream().forEach( processedIdChunk -> {
+                    final List<P> processedItems = processedIdChunk.stream().map( processedId -> createProcessedItem( group, processedId, processedAt ) ).collect( Collectors.toList() );
+                    processedItemRepository.processAll( group, processedItems, storedItems -> count.addAndGet( enqueueDataItems( group,
+                        storedItems.stream().map( p -> newItems.get( p.getId().getProcessedId() ) ).collect( Collectors.toList() ) ) ) );
+                } ) );
+            }
+            else
+            {
+                task = itemProcessorForkJoinPool.submit( () -> items.parallelStream().forEach( item -> {
+                    final String processedId = item.toIdString( processedAt );
+                    if ( !processedIds.contains( processedId ) && !storedIds.contains( processedId ) )
+                    {
+                        // persist processed item
+                        processedItemRepository.process( createProcessedItem( group, processedId, processedAt ), p -> {
+                            if ( enqueueDataItem( group, item, false ) )
+                            {
+                                count.incrementAndGet();
+                            }
+                        } );
+                    }
+                } ) );
+            }
             awaitTaskTermination( task );
         } );
         dataGroupUpdateRepository.updateLastUpdated( group, lastUpdated );
+        if ( processedIdFilter != null )
+        {
+            updateProcessedIdFilter( group, processedIdFilter, lastProcessedAt.get() );
+        }
         final Instant end = Instant.now();
 
         // Purging old data must not be done before and also must not be done asynchronously. The ast updated
@@ -250,6 +306,69 @@ public abstract class AbstractQueuedDataProcessorImpl<P extends ProcessedItem<PI
         }
     }
 
+    @Nonnull
+    protected Set<String> findProcessedIds( @Nonnull G group, @Nullable ProcessedIdFilter processedIdFilter, @Nonnull List<String> processableIds )
+    {
+        if ( processedIdFilter == null )
+        {
+            return processedItemRepository.find( group, processableIds );
+        }
+
+        // IDs that are not contained in the filter have definitely not yet been processed
+        final List<String> possiblyProcessedIds = processedIdFilter.filterPossiblyProcessed( processableIds );
+        logger.debug( "{} of {} IDs of group {} may have been processed already.", possiblyProcessedIds.size(), processableIds.size(), group.getGroupId() );
+        return possiblyProcessedIds.isEmpty() ? Collections.emptySet() : processedItemRepository.find( group, possiblyProcessedIds );
+    }
+
+    /**
+     * Returns the filter of processed IDs of the specified group. The filter is rebuilt
+     * from the database if it does not exist yet or if it is no longer valid. This is
+     * the case if processed items of the group have been stored by another instance,
+     * if the maximum processed age has elapsed since it has been built (purged IDs are
+     * still contained) or if it contains more IDs than expected.
+     *
+     * @param group the group for which the filter should be returned.
+     * @return the filter that contains all processed IDs of the group.
+     */
+    @Nonnull
+    protected ProcessedIdFilter getProcessedIdFilter( @Nonnull G group )
+    {
+        final Instant lastProcessedAt = processedItemRepository.findLastProcessedAt( group );
+        ProcessedIdFilter processedIdFilter = processedIdFilters.get( group.getGroupId() );
+
+        if ( (processedIdFilter == null) || !processedIdFilter.isValid( lastProcessedAt, getMaxProcessedAgeMinutes() ) )
+        {
+            final Instant begin = Instant.now();
+            processedIdFilter = new ProcessedIdFilter( processedItemRepository.countProcessed( group ) );
+            processedItemRepository.findAllProcessedIds( group, processedIdFilter::put );
+            processedIdFilter.setLastProcessedAt( lastProcessedAt );
+            processedIdFilters.put( group.getGroupId(), processedIdFilter );
+            logger.info( "Built filter of processed IDs of group {} in {} ms.", group.getGroupId(), Duration.between( begin, Instant.now() ).toMillis() );
+        }
+
+        return processedIdFilter;
+    }
+
+    /**
+     * Marks the filter as valid for the current last processed timestamp of the group.
+     * If the timestamp has not been caused by this instance, processed items may have
+     * been stored by another instance in the meantime and the filter must be rebuilt.
+     */
+    protected void updateProcessedIdFilter( @Nonnull G group, @Nonnull ProcessedIdFilter processedIdFilter, @Nullable Instant expectedLastProcessedAt )
+    {
+        final Instant lastProcessedAt = ProcessedIdFilter.truncate( processedItemRepository.findLastProcessedAt( group ) );
+
+        if ( Objects.equals( lastProcessedAt, ProcessedIdFilter.truncate( expectedLastProcessedAt ) ) )
+        {
+            processedIdFilter.setLastProcessedAt( lastProcessedAt );
+        }
+        else
+        {
+            logger.debug( "Processed items of group {} have been stored concurrently. Filter of processed IDs must be rebuilt.", group.getGroupId() );
+            processedIdFilters.remove( group.getGroupId() );
+        }
+    }
+
     protected boolean enqueueDataItem( @Nonnull G group, @Nonnull ProcessedItemInfo item, boolean persistedDataItem )
     {
         final QI queuedItemId = createQueuedItemId( group, item );
@@ -258,6 +377,96 @@ public abstract class AbstractQueuedDataProcessorImpl<P extends ProcessedItem<PI
         return true;
     }
 
+    /**
+     * Enqueues the specified items within one transacted JMS session. Either all or
+     * no items are enqueued.
+     *
+     * @param group the group to which all items belong to.
+     * @param items the items that should be enqueued.
+     * @return the number of enqueued items.
+     */
+    protected int enqueueDataItems( @Nonnull G group, @Nonnull List<ProcessedItemInfo> items )
+    {
+        if ( items.isEmpty() )
+        {
+            return 0;
+        }
+
+        final MessageConverter messageConverter = Objects.requireNonNull( transactedItemQueueJmsTemplate.getMessageConverter() );
+        transactedItemQueueJmsTemplate.execute( session -> {
+            final Destination destination = (transactedItemQueueJmsTemplate.getDefaultDestination() == null) ?
+                transactedItemQueueJmsTemplate.getDestinationResolver().resolveDestinationName( session,
+                    Objects.requireNonNull( transactedItemQueueJmsTemplate.getDefaultDestinationName() ), transactedItemQueueJmsTemplate.isPubSubDomain() ) :
+                transactedItemQueueJmsTemplate.getDefaultDestination();
+            final MessageProducer producer = session.createProducer( destination );
+
+            try
+            {
+                for ( final ProcessedItemInfo item : items )
+                {
+                    final Message message = messageConverter.toMessage( createDataItemQueueItem( group, item, false ), session );
+
+                    if ( transactedItemQueueJmsTemplate.isExplicitQosEnabled() )
+                    {
+                        producer.send( message, transactedItemQueueJmsTemplate.getDeliveryMode(), transactedItemQueueJmsTemplate.getPriority(), transactedItemQueueJmsTemplate.getTimeToLive() );
+                    }
+                    else
+                    {
+                        producer.send( message );
+                    }
+                }
+
+                // a transacted session is not committed by the JMS template automatically
+                JmsUtils.commitIfNecessary( session );
+            }
+            finally
+            {
+                JmsUtils.closeMessageProducer( producer );
+            }
+
+            return null;
+        }, true );
+
+        logger.debug( "{} items of group {} have been enqueued.", items.size(), group.getGroupId() );
+        return items.size();
+    }
+
+    /**
+     * Creates a JMS template with transacted sessions that uses the settings of the
+     * specified item queue JMS template. The item queue JMS template itself is shared
+     * and keeps its non-transacted sessions.
+     *
+     * @param jmsTemplate the item queue JMS template.
+     * @return the JMS template with transacted sessions.
+     */
+    @Nonnull
+    protected static JmsTemplate createTransactedJmsTemplate( @Nonnull JmsTemplate jmsTemplate )
+    {
+        if ( jmsTemplate.isSessionTransacted() )
+        {
+            return jmsTemplate;
+        }
+
+        final JmsTemplate transactedJmsTemplate = new JmsTemplate( Objects.requireNonNull( jmsTemplate.getConnectionFactory() ) );
+        if ( jmsTemplate.getDefaultDestination() == null )
+        {
+            transactedJmsTemplate.setDefaultDestinationName( jmsTemplate.getDefaultDestinationName() );
+        }
+        else
+        {
+            transactedJmsTemplate.setDefaultDestination( jmsTemplate.getDefaultDestination() );
+        }
+        transactedJmsTemplate.setDestinationResolver( jmsTemplate.getDestinationResolver() );
+        transactedJmsTemplate.setPubSubDomain( jmsTemplate.isPubSubDomain() );
+        transactedJmsTemplate.setMessageConverter( jmsTemplate.getMessageConverter() );
+        transactedJmsTemplate.setExplicitQosEnabled( jmsTemplate.isExplicitQosEnabled() );
+        transactedJmsTemplate.setDeliveryMode( jmsTemplate.getDeliveryMode() );
+        transactedJmsTemplate.setPriority( jmsTemplate.getPriority() );
+        transactedJmsTemplate.setTimeToLive( jmsTemplate.getTimeToLive() );
+        transactedJmsTemplate.setSessionTransacted( true );
+        return transactedJmsTemplate;
+    }
+
     private void awaitTaskTermination( @Nonnull ForkJoinTask<?> task )
     {
         try
@@ -324,6 +533,19 @@ public abstract class AbstractQueuedDataProcessorImpl<P extends ProcessedItem<PI
 
     protected abstract int getMaxSearchCount();
 
+    /**
+     * @return the number of new items that are stored as processed and enqueued
+     * together or <code>0</code> if every item is stored and enqueued individually.
+     */
+    protected abstract int getProcessedChunkSize();
+
+    /**
+     * @return <code>true</code> if a probabilistic filter of processed IDs should be kept
+     * in memory in order to avoid the lookup of IDs that have definitely not yet been
+     * processed, <code>false</code> otherwise.
+     */
+    protected abstract boolean isProcessedFilterEnabled();
+
     @Nonnull
     protected abstract DataProcessorItemRetriever<G> getDataProcessorItemRetriever( @Nonnull G group );
 
@@ -0,0 +1,132 @@
+package org.dhis2.fhir.adapter.data.processor.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Probabilistic filter of the processed IDs of a single data group. If the filter
+ * does not contain an ID, the ID has definitely not yet been processed. Otherwise
+ * the ID may have been processed already. The filter is only valid as long as the
+ * last processed timestamp of the data group has not been changed by another
+ * instance.
+ *
+ * @author volsch
+ */
+public class ProcessedIdFilter
+{
+    public static final int MIN_EXPECTED_INSERTIONS = 10_000;
+
+    public static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final BloomFilter<CharSequence> bloomFilter;
+
+    private final long expectedInsertions;
+
+    private final Instant createdAt;
+
+    private volatile Instant lastProcessedAt;
+
+    public ProcessedIdFilter( long count )
+    {
+        this.expectedInsertions = Math.max( MIN_EXPECTED_INSERTIONS, count * 2 );
+        this.bloomFilter = BloomFilter.create( Funnels.stringFunnel( StandardCharsets.UTF_8 ), expectedInsertions, FALSE_POSITIVE_PROBABILITY );
+        this.createdAt = Instant.now();
+    }
+
+    @Nullable
+    public Instant getLastProcessedAt()
+    {
+        return lastProcessedAt;
+    }
+
+    public void setLastProcessedAt( @Nullable Instant lastProcessedAt )
+    {
+        this.lastProcessedAt = truncate( lastProcessedAt );
+    }
+
+    public void put( @Nonnull String processedId )
+    {
+        bloomFilter.put( processedId );
+    }
+
+    public void putAll( @Nonnull Collection<String> processedIds )
+    {
+        processedIds.forEach( bloomFilter::put );
+    }
+
+    /**
+     * @param processedIds the processed IDs that should be checked.
+     * @return the processed IDs that may have been processed already.
+     */
+    @Nonnull
+    public List<String> filterPossiblyProcessed( @Nonnull Collection<String> processedIds )
+    {
+        return processedIds.stream().filter( bloomFilter::mightContain ).collect( Collectors.toList() );
+    }
+
+    /**
+     * Checks if the filter can still be used. Since processed IDs cannot be removed
+     * from the filter, the filter must be rebuilt when the purged processed IDs
+     * should no longer be contained or when it contains more IDs than expected.
+     *
+     * @param lastProcessedAt        the current last processed timestamp of the data group.
+     * @param maxProcessedAgeMinutes the maximum age of processed IDs.
+     * @return <code>true</code> if the filter can be used, <code>false</code> otherwise.
+     */
+    public boolean isValid( @Nullable Instant lastProcessedAt, int maxProcessedAgeMinutes )
+    {
+        if ( (this.lastProcessedAt == null) ? (lastProcessedAt != null) : !this.lastProcessedAt.equals( truncate( lastProcessedAt ) ) )
+        {
+            return false;
+        }
+        if ( createdAt.plus( maxProcessedAgeMinutes, ChronoUnit.MINUTES ).isBefore( Instant.now() ) )
+        {
+            return false;
+        }
+        return bloomFilter.approximateElementCount() <= expectedInsertions;
+    }
+
+    @Nullable
+    public static Instant truncate( @Nullable Instant instant )
+    {
+        // database stores milliseconds only
+        return (instant == null) ? null : instant.truncatedTo( ChronoUnit.MILLIS );
+    }
+}
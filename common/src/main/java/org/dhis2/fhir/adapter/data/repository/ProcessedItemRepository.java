@@ -33,6 +33,7 @@ import org.dhis2.fhir.adapter.data.model.ProcessedItem;
 import org.dhis2.fhir.adapter.data.model.ProcessedItemId;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.Set;
@@ -51,7 +52,38 @@ public interface ProcessedItemRepository<T extends ProcessedItem<I, G>, I extend
     @Nonnull
     Set<String> find( @Nonnull G prefix, @Nonnull Collection<String> processedIds );
 
+    /**
+     * @param prefix the group of the processed items.
+     * @return the timestamp of the most recently processed item of the group or
+     * <code>null</code> if the group has no processed items.
+     */
+    @Nullable
+    Instant findLastProcessedAt( @Nonnull G prefix );
+
+    long countProcessed( @Nonnull G prefix );
+
+    /**
+     * Passes all processed IDs of the specified group to the specified consumer
+     * without loading them into memory at once.
+     *
+     * @param prefix   the group of the processed items.
+     * @param consumer the consumer that receives the processed IDs.
+     */
+    void findAllProcessedIds( @Nonnull G prefix, @Nonnull Consumer<String> consumer );
+
     void process( @Nonnull T processedItem, @Nonnull Consumer<T> consumer );
 
+    /**
+     * Stores the specified processed items of the specified group in one transaction.
+     * Items that have already been stored (e.g. by another instance in the meantime)
+     * are skipped. The consumer is invoked with the items that have been stored within
+     * the same transaction. If the consumer fails, no item will be stored.
+     *
+     * @param prefix         the group of all processed items.
+     * @param processedItems the processed items that should be stored.
+     * @param consumer       the consumer that receives the items that have been stored.
+     */
+    void processAll( @Nonnull G prefix, @Nonnull Collection<T> processedItems, @Nonnull Consumer<Collection<T>> consumer );
+
     int deleteOldest( @Nonnull G prefix, @Nonnull Instant timestamp );
 }
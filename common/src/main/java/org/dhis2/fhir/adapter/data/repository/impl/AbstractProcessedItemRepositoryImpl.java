@@ -28,24 +28,37 @@ package org.dhis2.fhir.adapter.data.repository.impl;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.google.common.collect.Lists;
 import org.dhis2.fhir.adapter.data.model.DataGroup;
 import org.dhis2.fhir.adapter.data.model.ProcessedItem;
 import org.dhis2.fhir.adapter.data.model.ProcessedItemId;
 import org.dhis2.fhir.adapter.data.repository.ProcessedItemRepository;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Implementation of a repository that stores already processed items.
@@ -57,9 +70,13 @@ import java.util.function.Consumer;
  */
 public abstract class AbstractProcessedItemRepositoryImpl<T extends ProcessedItem<I, G>, I extends ProcessedItemId<G>, G extends DataGroup> implements ProcessedItemRepository<T, I, G>
 {
+    protected static final int MAX_BATCH_SIZE = 500;
+
     @PersistenceContext
     private EntityManager entityManager;
 
+    private volatile Boolean insertIgnoreSupported;
+
     protected AbstractProcessedItemRepositoryImpl( @Nonnull EntityManager entityManager )
     {
         this.entityManager = entityManager;
@@ -78,6 +95,44 @@ public abstract class AbstractProcessedItemRepositoryImpl<T extends ProcessedIte
             .setHint( "org.hibernate.fetchSize", 1000 ).getResultList() );
     }
 
+    @Override
+    @Nullable
+    public Instant findLastProcessedAt( @Nonnull G prefix )
+    {
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Instant> criteria = cb.createQuery( Instant.class );
+        final Root<T> root = criteria.from( getProcessedItemClass() );
+        return entityManager.createQuery( criteria.select( cb.greatest( root.<Instant>get( "processedAt" ) ) )
+            .where( cb.equal( root.get( "id" ).get( "group" ), prefix ) ) ).getSingleResult();
+    }
+
+    @Override
+    public long countProcessed( @Nonnull G prefix )
+    {
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Long> criteria = cb.createQuery( Long.class );
+        final Root<T> root = criteria.from( getProcessedItemClass() );
+        return entityManager.createQuery( criteria.select( cb.count( root ) )
+            .where( cb.equal( root.get( "id" ).get( "group" ), prefix ) ) ).getSingleResult();
+    }
+
+    @Override
+    @Transactional( readOnly = true )
+    @SuppressWarnings( "unchecked" )
+    public void findAllProcessedIds( @Nonnull G prefix, @Nonnull Consumer<String> consumer )
+    {
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<String> criteria = cb.createQuery( String.class );
+        final Root<T> root = criteria.from( getProcessedItemClass() );
+        final Query<String> query = entityManager.createQuery( criteria.select( root.get( "id" ).get( "processedId" ) )
+            .where( cb.equal( root.get( "id" ).get( "group" ), prefix ) ) ).unwrap( Query.class );
+
+        try ( final Stream<String> stream = query.setFetchSize( 1000 ).setReadOnly( true ).stream() )
+        {
+            stream.forEach( consumer );
+        }
+    }
+
     @Override
     @Transactional
     public void process( @Nonnull T processedItem, @Nonnull Consumer<T> consumer )
@@ -87,6 +142,110 @@ public abstract class AbstractProcessedItemRepositoryImpl<T extends ProcessedIte
         consumer.accept( processedItem );
     }
 
+    @Override
+    @Transactional
+    public void processAll( @Nonnull G prefix, @Nonnull Collection<T> processedItems, @Nonnull Consumer<Collection<T>> consumer )
+    {
+        // the same processed ID may only be stored once
+        final Map<String, T> processedItemsById = new LinkedHashMap<>();
+        processedItems.forEach( pi -> processedItemsById.putIfAbsent( pi.getId().getProcessedId(), pi ) );
+
+        final List<T> storedItems;
+        if ( processedItemsById.isEmpty() )
+        {
+            storedItems = new ArrayList<>();
+        }
+        else if ( isInsertIgnoreSupported() )
+        {
+            storedItems = insertIgnoring( prefix, processedItemsById );
+        }
+        else
+        {
+            storedItems = persistNew( prefix, processedItemsById );
+        }
+
+        consumer.accept( storedItems );
+    }
+
+    /**
+     * Inserts the processed items with multi-row inserts that skip all items that
+     * have already been stored. This is only supported by PostgreSQL. The embedded H2
+     * database that is used by integration tests does not support the <code>RETURNING</code>
+     * clause and uses {@link #persistNew(DataGroup, Map)} instead. Therefore the SQL of this
+     * method is only verified by unit tests with a mocked JDBC connection.
+     */
+    @Nonnull
+    protected List<T> insertIgnoring( @Nonnull G prefix, @Nonnull Map<String, T> processedItemsById )
+    {
+        final Object groupId = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier( prefix );
+        final String sqlPrefix = "INSERT INTO " + getTableName() + "(" + getGroupColumnName() + "," + getProcessedIdColumnName() + ",processed_at) VALUES ";
+        final String sqlSuffix = " ON CONFLICT DO NOTHING RETURNING " + getProcessedIdColumnName();
+        final List<T> storedItems = new ArrayList<>();
+
+        for ( final List<T> partitionedItems : Lists.partition( new ArrayList<>( processedItemsById.values() ), MAX_BATCH_SIZE ) )
+        {
+            final String sql = partitionedItems.stream().map( pi -> "(?,?,?)" ).collect( Collectors.joining( ",", sqlPrefix, sqlSuffix ) );
+
+            entityManager.unwrap( Session.class ).doWork( connection -> {
+                try ( final PreparedStatement ps = connection.prepareStatement( sql ) )
+                {
+                    int index = 0;
+
+                    for ( final T processedItem : partitionedItems )
+                    {
+                        ps.setObject( ++index, groupId );
+                        ps.setString( ++index, processedItem.getId().getProcessedId() );
+                        ps.setTimestamp( ++index, Timestamp.from( processedItem.getProcessedAt() ) );
+                    }
+
+                    try ( final ResultSet rs = ps.executeQuery() )
+                    {
+                        while ( rs.next() )
+                        {
+                            storedItems.add( processedItemsById.get( rs.getString( 1 ) ) );
+                        }
+                    }
+                }
+            } );
+        }
+
+        return storedItems;
+    }
+
+    /**
+     * Persists all processed items that have not yet been stored. Processed items that
+     * are stored concurrently by another transaction result in a failure of the complete
+     * transaction.
+     */
+    @Nonnull
+    protected List<T> persistNew( @Nonnull G prefix, @Nonnull Map<String, T> processedItemsById )
+    {
+        final Set<String> existingIds = new HashSet<>();
+        Lists.partition( new ArrayList<>( processedItemsById.keySet() ), MAX_BATCH_SIZE )
+            .forEach( ids -> existingIds.addAll( find( prefix, ids ) ) );
+
+        final List<T> storedItems = processedItemsById.values().stream()
+            .filter( pi -> !existingIds.contains( pi.getId().getProcessedId() ) ).collect( Collectors.toList() );
+        storedItems.forEach( entityManager::persist );
+        entityManager.flush();
+
+        return storedItems;
+    }
+
+    protected boolean isInsertIgnoreSupported()
+    {
+        Boolean supported = insertIgnoreSupported;
+
+        if ( supported == null )
+        {
+            final String databaseProductName = entityManager.unwrap( Session.class ).doReturningWork( connection -> connection.getMetaData().getDatabaseProductName() );
+            supported = "PostgreSQL".equalsIgnoreCase( databaseProductName );
+            insertIgnoreSupported = supported;
+        }
+
+        return supported;
+    }
+
     @Override
     @Transactional
     public int deleteOldest( @Nonnull G prefix, @Nonnull Instant timestamp )
@@ -101,4 +260,13 @@ public abstract class AbstractProcessedItemRepositoryImpl<T extends ProcessedIte
 
     @Nonnull
     protected abstract Class<T> getProcessedItemClass();
+
+    @Nonnull
+    protected abstract String getTableName();
+
+    @Nonnull
+    protected abstract String getGroupColumnName();
+
+    @Nonnull
+    protected abstract String getProcessedIdColumnName();
 }
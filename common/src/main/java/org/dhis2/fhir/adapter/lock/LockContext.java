@@ -29,6 +29,8 @@ package org.dhis2.fhir.adapter.lock;
  */
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.TreeSet;
 
 /**
  * The lock context to obtain distributed locks on names. All locks will be
@@ -38,12 +40,30 @@ import javax.annotation.Nonnull;
 public interface LockContext extends AutoCloseable
 {
     /**
-     * Locks the specified cache. The method may block until the cache can be locked.
+     * Locks the specified key. The method may block until the key can be locked.
+     * If the key is lower than a key that is already locked by this lock context,
+     * the lock context may reject waiting for the key.
      *
-     * @param key the cache that should be locked.
+     * @param key the key that should be locked.
+     * @throws LockException      thrown if the key could not be locked.
+     * @throws LockOrderException thrown if the key is lower than an already locked
+     *                            key and cannot be locked without waiting.
      */
     void lock( @Nonnull String key );
 
+    /**
+     * Locks all specified keys. The keys are locked in their natural order in order
+     * to avoid dead locks with other lock contexts that lock the same keys. The method
+     * may block until all keys can be locked.
+     *
+     * @param keys the keys that should be locked.
+     * @throws LockException thrown if the keys could not be locked.
+     */
+    default void lock( @Nonnull Collection<String> keys )
+    {
+        new TreeSet<>( keys ).forEach( this::lock );
+    }
+
     /**
      * Unlocks all keys that have been locked with this lock context.
      */
@@ -37,6 +37,11 @@ public class LockException extends RuntimeException
 {
     private static final long serialVersionUID = -750361961656386245L;
 
+    public LockException( String message )
+    {
+        super( message );
+    }
+
     public LockException( String message, Throwable cause )
     {
         super( message, cause );
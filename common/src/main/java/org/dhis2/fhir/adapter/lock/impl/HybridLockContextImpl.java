@@ -0,0 +1,343 @@
+package org.dhis2.fhir.adapter.lock.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.lock.LockContext;
+import org.dhis2.fhir.adapter.lock.LockException;
+import org.dhis2.fhir.adapter.lock.LockOrderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Implementation of a lock context that locks keys in the striped lock table of
+ * the lock manager and (if required) uses the PostgreSQL Advisory Locking system
+ * to implement a distributed lock. Keys are locked in their natural order. A key
+ * that is lower than a key that is already locked by the context is only locked if
+ * this is possible within the short configured out of order wait time (cluster wide
+ * without waiting), since waiting may cause a dead lock with another context that
+ * locks the same keys in their natural order.
+ *
+ * @author volsch
+ */
+public class HybridLockContextImpl implements LockContext
+{
+    protected static final String LOCK_SQL = "{call pg_advisory_xact_lock(?)}";
+
+    protected static final String MULTI_LOCK_SQL = "SELECT pg_advisory_xact_lock(k) FROM unnest(?::bigint[]) k ORDER BY k";
+
+    protected static final String TRY_LOCK_SQL = "SELECT pg_try_advisory_xact_lock(?)";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final HybridLockManagerImpl lockManager;
+
+    private Connection connection;
+
+    private boolean resetAutoCommit;
+
+    private final TreeSet<String> lockedKeys = new TreeSet<>();
+
+    public HybridLockContextImpl( @Nonnull HybridLockManagerImpl lockManager )
+    {
+        this.lockManager = lockManager;
+    }
+
+    @Override
+    public void lock( @Nonnull String key )
+    {
+        lock( Collections.singletonList( key ) );
+    }
+
+    @Override
+    public void lock( @Nonnull Collection<String> keys )
+    {
+        final List<String> newKeys = keys.stream().filter( k -> !lockedKeys.contains( k ) ).distinct().sorted().collect( Collectors.toList() );
+
+        if ( newKeys.isEmpty() )
+        {
+            return;
+        }
+
+        // keys that are lower than an already locked key are the first keys of the sorted new keys
+        final String lastLockedKey = lockedKeys.isEmpty() ? null : lockedKeys.last();
+        final int outOfOrderCount = (lastLockedKey == null) ? 0 : (int) newKeys.stream().filter( k -> (k.compareTo( lastLockedKey ) < 0) ).count();
+
+        final long startNanos = System.nanoTime();
+        try
+        {
+            if ( lockManager.isClustered() && (connection == null) )
+            {
+                // a thread that holds local locks must never wait for a connection of the pool (dead lock)
+                acquireConnection();
+            }
+
+            for ( int i = 0; i < newKeys.size(); i++ )
+            {
+                final String key = newKeys.get( i );
+
+                if ( i < outOfOrderCount )
+                {
+                    if ( !lockManager.lockLocally( key, lockManager.getOutOfOrderWaitNanos() ) )
+                    {
+                        logger.warn( "Lock on {} is held by another lock context and is requested out of order after lock on {}.", key, lastLockedKey );
+                        throw new LockOrderException( "Lock on " + key + " is held by another lock context and cannot be obtained after lock on " + lastLockedKey + "." );
+                    }
+                }
+                else
+                {
+                    lockManager.lockLocally( key );
+                }
+
+                // the key must be unlocked locally even if locking fails afterwards
+                lockedKeys.add( key );
+            }
+
+            if ( lockManager.isClustered() )
+            {
+                if ( outOfOrderCount > 0 )
+                {
+                    tryLockClustered( newKeys.subList( 0, outOfOrderCount ), lastLockedKey );
+                }
+
+                if ( outOfOrderCount < newKeys.size() )
+                {
+                    lockClustered( newKeys.subList( outOfOrderCount, newKeys.size() ) );
+                }
+            }
+        }
+        finally
+        {
+            lockManager.recordLockWait( System.nanoTime() - startNanos );
+        }
+
+        logger.debug( "Locked {}.", newKeys );
+    }
+
+    @Override
+    public void unlockAll()
+    {
+        if ( !lockedKeys.isEmpty() )
+        {
+            logger.debug( "Unlocking keys {}.", lockedKeys );
+        }
+
+        try
+        {
+            releaseConnection();
+        }
+        finally
+        {
+            // other threads of this JVM must not get the local lock before the cluster wide lock has been released
+            for ( final String key : lockedKeys )
+            {
+                lockManager.unlockLocally( key );
+            }
+            lockedKeys.clear();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        unlockAll();
+        lockManager.removeFromThread( this );
+    }
+
+    protected void lockClustered( @Nonnull List<String> keys )
+    {
+        final Long[] fingerprints = keys.stream().map( k -> Math.abs( createHash( k ) ) ).distinct().sorted().toArray( Long[]::new );
+        logger.debug( "Locking {} with fingerprints {}.", keys, Arrays.asList( fingerprints ) );
+
+        try
+        {
+            if ( fingerprints.length == 1 )
+            {
+                try ( final CallableStatement call = connection.prepareCall( LOCK_SQL ) )
+                {
+                    call.setLong( 1, fingerprints[0] );
+                    call.execute();
+                }
+            }
+            else
+            {
+                // all keys are locked with a single round trip in the order of their fingerprints
+                final Array array = connection.createArrayOf( "bigint", fingerprints );
+                try ( final PreparedStatement ps = connection.prepareStatement( MULTI_LOCK_SQL ) )
+                {
+                    ps.setArray( 1, array );
+                    ps.execute();
+                }
+                finally
+                {
+                    array.free();
+                }
+            }
+        }
+        catch ( SQLException e )
+        {
+            throw new LockException( "Could not lock " + keys + " due to a technical error.", e );
+        }
+    }
+
+    protected void tryLockClustered( @Nonnull List<String> keys, @Nonnull String lastLockedKey )
+    {
+        for ( final String key : keys )
+        {
+            final long fingerprint = Math.abs( createHash( key ) );
+            logger.debug( "Trying to lock {} with fingerprint {}.", key, fingerprint );
+
+            final boolean locked;
+            try ( final PreparedStatement ps = connection.prepareStatement( TRY_LOCK_SQL ) )
+            {
+                ps.setLong( 1, fingerprint );
+
+                try ( final ResultSet rs = ps.executeQuery() )
+                {
+                    locked = rs.next() && rs.getBoolean( 1 );
+                }
+            }
+            catch ( SQLException e )
+            {
+                throw new LockException( "Could not lock " + key + " due to a technical error.", e );
+            }
+
+            if ( !locked )
+            {
+                logger.warn( "Cluster wide lock on {} is held by another lock context and is requested out of order after lock on {}.", key, lastLockedKey );
+                throw new LockOrderException( "Cluster wide lock on " + key + " is held by another lock context and cannot be obtained after lock on " + lastLockedKey + "." );
+            }
+        }
+    }
+
+    protected void acquireConnection()
+    {
+        boolean ok = false;
+        try
+        {
+            connection = lockManager.getConnection();
+            resetAutoCommit = connection.getAutoCommit();
+            if ( resetAutoCommit )
+            {
+                connection.setAutoCommit( false );
+            }
+            ok = true;
+        }
+        catch ( SQLException e )
+        {
+            throw new LockException( "Unable to acquire lock due to a technical error.", e );
+        }
+        finally
+        {
+            if ( !ok && (connection != null) )
+            {
+                try
+                {
+                    lockManager.releaseConnection( connection );
+                }
+                catch ( SQLException e )
+                {
+                    logger.error( "Could not close database connection.", e );
+                }
+                finally
+                {
+                    connection = null;
+                }
+            }
+        }
+    }
+
+    protected void releaseConnection()
+    {
+        if ( connection != null )
+        {
+            try
+            {
+                try
+                {
+                    // commit releases the locks
+                    connection.commit();
+                    if ( resetAutoCommit )
+                    {
+                        connection.setAutoCommit( true );
+                    }
+                }
+                finally
+                {
+                    try
+                    {
+                        // connection must be returned to the pool
+                        lockManager.releaseConnection( connection );
+                    }
+                    finally
+                    {
+                        connection = null;
+                    }
+                }
+            }
+            catch ( SQLException e )
+            {
+                throw new LockException( "Unable to release lock due to a technical error.", e );
+            }
+        }
+    }
+
+    protected long createHash( @Nonnull String key )
+    {
+        final MessageDigest md;
+        try
+        {
+            md = MessageDigest.getInstance( "MD5" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new LockException( "MD5 is not available.", e );
+        }
+        md.update( key.getBytes( StandardCharsets.UTF_8 ) );
+        final ByteBuffer bb = ByteBuffer.wrap( md.digest(), 0, 8 );
+        return bb.getLong();
+    }
+}
@@ -0,0 +1,313 @@
+package org.dhis2.fhir.adapter.lock.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.dhis2.fhir.adapter.lock.LockContext;
+import org.dhis2.fhir.adapter.lock.LockException;
+import org.dhis2.fhir.adapter.lock.LockManager;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock manager that creates lock contexts that lock keys in a striped lock table
+ * of this JVM first. Only one thread of this JVM can lock a specific key. If the
+ * locks must be valid in a cluster, the thread that owns the key in this JVM also
+ * obtains a PostgreSQL Advisory Lock. The database connections that hold the
+ * cluster wide locks are taken from a small dedicated connection pool, so that
+ * lock contexts cannot exhaust the connection pool that is used by JPA. A database
+ * connection is only held by a lock context while the lock context holds cluster
+ * wide locks.
+ *
+ * @author volsch
+ */
+@Service
+public class HybridLockManagerImpl implements LockManager, DisposableBean
+{
+    public static final String LOCK_WAIT_METRIC_NAME = "dhis2.fhir.adapter.lock.wait";
+
+    public static final String HELD_CONNECTIONS_METRIC_NAME = "dhis2.fhir.adapter.lock.connections";
+
+    public static final String HELD_KEYS_METRIC_NAME = "dhis2.fhir.adapter.lock.keys";
+
+    public static final String POOL_NAME = "lock";
+
+    private final ThreadLocal<LockContext> threadLocal = new ThreadLocal<>();
+
+    private final DataSource dataSource;
+
+    private final boolean clustered;
+
+    private final long maxWaitNanos;
+
+    private final long outOfOrderWaitNanos;
+
+    private final Stripe[] stripes;
+
+    private final AtomicInteger heldConnections = new AtomicInteger();
+
+    private final AtomicInteger heldKeys = new AtomicInteger();
+
+    private final Timer lockWaitTimer;
+
+    @Autowired
+    public HybridLockManagerImpl( @Nonnull DataSourceProperties dataSourceProperties, @Nonnull LockConfig lockConfig, @Nonnull ObjectProvider<MeterRegistry> meterRegistry )
+    {
+        this( lockConfig.isClustered() ? createDataSource( dataSourceProperties, lockConfig ) : null, lockConfig, meterRegistry );
+    }
+
+    HybridLockManagerImpl( @Nullable DataSource dataSource, @Nonnull LockConfig lockConfig, @Nonnull ObjectProvider<MeterRegistry> meterRegistry )
+    {
+        if ( lockConfig.isClustered() && (dataSource == null) )
+        {
+            throw new IllegalArgumentException( "Clustered locks require a data source." );
+        }
+
+        this.dataSource = dataSource;
+        this.clustered = lockConfig.isClustered();
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos( lockConfig.getMaxWaitMillis() );
+        this.outOfOrderWaitNanos = TimeUnit.MILLISECONDS.toNanos( lockConfig.getOutOfOrderWaitMillis() );
+        this.stripes = new Stripe[lockConfig.getStripes()];
+
+        for ( int i = 0; i < stripes.length; i++ )
+        {
+            stripes[i] = new Stripe();
+        }
+
+        final MeterRegistry registry = meterRegistry.getIfAvailable();
+
+        if ( registry == null )
+        {
+            lockWaitTimer = null;
+        }
+        else
+        {
+            lockWaitTimer = Timer.builder( LOCK_WAIT_METRIC_NAME )
+                .description( "Time waited to obtain locks." ).register( registry );
+            Gauge.builder( HELD_CONNECTIONS_METRIC_NAME, heldConnections, AtomicInteger::get )
+                .description( "Number of database connections that are held by lock contexts." ).register( registry );
+            Gauge.builder( HELD_KEYS_METRIC_NAME, heldKeys, AtomicInteger::get )
+                .description( "Number of keys that are locked by lock contexts of this JVM." ).register( registry );
+        }
+    }
+
+    @Nonnull
+    protected static DataSource createDataSource( @Nonnull DataSourceProperties dataSourceProperties, @Nonnull LockConfig lockConfig )
+    {
+        // connections are opened lazily when the first cluster wide lock is requested
+        final HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder().type( HikariDataSource.class ).build();
+        dataSource.setPoolName( POOL_NAME );
+        dataSource.setMaximumPoolSize( lockConfig.getMaxConnections() );
+        dataSource.setMinimumIdle( 0 );
+        // no local locks are held while waiting for a connection, an exhausted pool must be reported early
+        dataSource.setConnectionTimeout( lockConfig.getMaxConnectionWaitMillis() );
+        return dataSource;
+    }
+
+    @Nonnull
+    @Override
+    public LockContext begin()
+    {
+        if ( threadLocal.get() != null )
+        {
+            throw new IllegalStateException( "The current thread already owns a lock context." );
+        }
+        final LockContext lockContext = new HybridLockContextImpl( this );
+        threadLocal.set( lockContext );
+        return lockContext;
+    }
+
+    @Nonnull
+    @Override
+    public Optional<LockContext> getCurrentLockContext()
+    {
+        return Optional.ofNullable( threadLocal.get() );
+    }
+
+    public boolean isClustered()
+    {
+        return clustered;
+    }
+
+    public int getHeldConnections()
+    {
+        return heldConnections.get();
+    }
+
+    public int getHeldKeys()
+    {
+        return heldKeys.get();
+    }
+
+    @Override
+    public void destroy()
+    {
+        if ( dataSource instanceof HikariDataSource )
+        {
+            ( (HikariDataSource) dataSource ).close();
+        }
+    }
+
+    @Nonnull
+    Connection getConnection() throws SQLException
+    {
+        final Connection connection = Objects.requireNonNull( dataSource ).getConnection();
+        heldConnections.incrementAndGet();
+        return connection;
+    }
+
+    void releaseConnection( @Nonnull Connection connection ) throws SQLException
+    {
+        try
+        {
+            connection.close();
+        }
+        finally
+        {
+            heldConnections.decrementAndGet();
+        }
+    }
+
+    long getOutOfOrderWaitNanos()
+    {
+        return outOfOrderWaitNanos;
+    }
+
+    void recordLockWait( long nanos )
+    {
+        if ( lockWaitTimer != null )
+        {
+            lockWaitTimer.record( nanos, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    void lockLocally( @Nonnull String key )
+    {
+        if ( !lockLocally( key, maxWaitNanos ) )
+        {
+            throw new LockException( "Lock on " + key + " could not be obtained within " + TimeUnit.NANOSECONDS.toMillis( maxWaitNanos ) + " ms." );
+        }
+    }
+
+    boolean lockLocally( @Nonnull String key, long waitNanos )
+    {
+        final Stripe stripe = getStripe( key );
+        final long deadlineNanos = System.nanoTime() + waitNanos;
+
+        synchronized ( stripe )
+        {
+            while ( stripe.getKeys().contains( key ) )
+            {
+                final long remainingNanos = deadlineNanos - System.nanoTime();
+
+                if ( remainingNanos <= 0 )
+                {
+                    return false;
+                }
+
+                try
+                {
+                    TimeUnit.NANOSECONDS.timedWait( stripe, remainingNanos );
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new LockException( "Waiting for lock has been interrupted.", e );
+                }
+            }
+            stripe.getKeys().add( key );
+        }
+
+        heldKeys.incrementAndGet();
+        return true;
+    }
+
+    void unlockLocally( @Nonnull String key )
+    {
+        final Stripe stripe = getStripe( key );
+
+        synchronized ( stripe )
+        {
+            if ( !stripe.getKeys().remove( key ) )
+            {
+                throw new IllegalStateException( "Lock on " + key + " does not exist." );
+            }
+            stripe.notifyAll();
+        }
+
+        heldKeys.decrementAndGet();
+    }
+
+    void removeFromThread( @Nonnull HybridLockContextImpl lockContext )
+    {
+        if ( threadLocal.get() == null )
+        {
+            throw new IllegalStateException( "Current thread does not own a lock context." );
+        }
+        threadLocal.set( null );
+    }
+
+    @Nonnull
+    private Stripe getStripe( @Nonnull String key )
+    {
+        return stripes[( key.hashCode() & Integer.MAX_VALUE ) % stripes.length];
+    }
+
+    /**
+     * One stripe of the lock table. Only threads that lock keys of the same stripe
+     * synchronize on the same monitor.
+     */
+    private static class Stripe
+    {
+        private final Set<String> keys = new HashSet<>();
+
+        @Nonnull
+        public Set<String> getKeys()
+        {
+            return keys;
+        }
+    }
+}
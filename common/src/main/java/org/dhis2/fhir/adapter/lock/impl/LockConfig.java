@@ -0,0 +1,129 @@
+package org.dhis2.fhir.adapter.lock.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import java.io.Serializable;
+
+/**
+ * Configuration of the locks that are used to synchronize the processing of
+ * resources.
+ *
+ * @author volsch
+ */
+@Configuration
+@Component
+@ConfigurationProperties( "dhis2.fhir-adapter.lock" )
+@Validated
+public class LockConfig implements Serializable
+{
+    private static final long serialVersionUID = -5183372466553095126L;
+
+    private boolean clustered = true;
+
+    @Min( 1 )
+    private int stripes = 64;
+
+    @Min( 1 )
+    private int maxConnections = 20;
+
+    @Min( 250 )
+    private long maxConnectionWaitMillis = 30_000;
+
+    @Min( 250 )
+    private long maxWaitMillis = 600_000;
+
+    @Min( 0 )
+    private long outOfOrderWaitMillis = 250;
+
+    public boolean isClustered()
+    {
+        return clustered;
+    }
+
+    public void setClustered( boolean clustered )
+    {
+        this.clustered = clustered;
+    }
+
+    public int getStripes()
+    {
+        return stripes;
+    }
+
+    public void setStripes( int stripes )
+    {
+        this.stripes = stripes;
+    }
+
+    public int getMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    public void setMaxConnections( int maxConnections )
+    {
+        this.maxConnections = maxConnections;
+    }
+
+    public long getMaxConnectionWaitMillis()
+    {
+        return maxConnectionWaitMillis;
+    }
+
+    public void setMaxConnectionWaitMillis( long maxConnectionWaitMillis )
+    {
+        this.maxConnectionWaitMillis = maxConnectionWaitMillis;
+    }
+
+    public long getMaxWaitMillis()
+    {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis( long maxWaitMillis )
+    {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getOutOfOrderWaitMillis()
+    {
+        return outOfOrderWaitMillis;
+    }
+
+    public void setOutOfOrderWaitMillis( long outOfOrderWaitMillis )
+    {
+        this.outOfOrderWaitMillis = outOfOrderWaitMillis;
+    }
+}
@@ -0,0 +1,76 @@
+package org.dhis2.fhir.adapter.rest;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Asynchronous REST template that sets the authorization header of each request. The
+ * authorization header is determined by the thread that issues the request. The request
+ * itself is executed without blocking this thread. In contrast to
+ * {@link AbstractSessionCookieRestTemplate} no session cookies are used since the requests
+ * are not executed sequentially.
+ *
+ * @author volsch
+ */
+@SuppressWarnings( "deprecation" )
+public abstract class AbstractAuthorizationAsyncRestTemplate extends AsyncRestTemplate
+{
+    protected static final String AUTHORIZATION_HEADER_NAME = "Authorization";
+
+    /**
+     * @param requestFactory the request factory that executes the requests asynchronously.
+     * @param restTemplate   the REST template that is used exclusively by this template for
+     *                       message conversions, URI expansions and error handling.
+     */
+    protected AbstractAuthorizationAsyncRestTemplate( @Nonnull AsyncClientHttpRequestFactory requestFactory, @Nonnull RestTemplate restTemplate )
+    {
+        super( requestFactory, restTemplate );
+    }
+
+    @Nonnull
+    protected abstract String getAuthorizationHeaderValue();
+
+    @Nonnull
+    @Override
+    protected AsyncClientHttpRequest createAsyncRequest( @Nonnull URI url, @Nonnull HttpMethod method ) throws IOException
+    {
+        final AsyncClientHttpRequest request = super.createAsyncRequest( url, method );
+        // request is created by the thread that issues the request (authorization of its scope is available)
+        request.getHeaders().set( AUTHORIZATION_HEADER_NAME, getAuthorizationHeaderValue() );
+        return request;
+    }
+}
@@ -0,0 +1,79 @@
+package org.dhis2.fhir.adapter.rest;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses request bodies that exceed the specified threshold with GZIP.
+ * Request bodies that have already been encoded are not modified.
+ *
+ * @author volsch
+ */
+public class GzipRequestCompressionInterceptor implements ClientHttpRequestInterceptor
+{
+    public static final String GZIP_CONTENT_ENCODING = "gzip";
+
+    private final int threshold;
+
+    public GzipRequestCompressionInterceptor( int threshold )
+    {
+        this.threshold = threshold;
+    }
+
+    @Override
+    @Nonnull
+    public ClientHttpResponse intercept( @Nonnull HttpRequest request, @Nonnull byte[] body, @Nonnull ClientHttpRequestExecution execution ) throws IOException
+    {
+        if ( (body.length <= threshold) || request.getHeaders().containsKey( HttpHeaders.CONTENT_ENCODING ) )
+        {
+            return execution.execute( request, body );
+        }
+
+        final ByteArrayOutputStream bs = new ByteArrayOutputStream( body.length / 4 );
+        try ( final OutputStream out = new GZIPOutputStream( bs ) )
+        {
+            out.write( body );
+        }
+
+        request.getHeaders().set( HttpHeaders.CONTENT_ENCODING, GZIP_CONTENT_ENCODING );
+        request.getHeaders().remove( HttpHeaders.CONTENT_LENGTH );
+        return execution.execute( request, bs.toByteArray() );
+    }
+}
@@ -28,12 +28,24 @@ package org.dhis2.fhir.adapter.rest;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import org.dhis2.fhir.adapter.util.CompletableFutureUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpMessageConverterExtractor;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Utility class for processing rest template
@@ -61,6 +73,109 @@ public abstract class RestTemplateUtils
         return (headers != null) && MediaType.APPLICATION_JSON.isCompatibleWith( headers.getContentType() );
     }
 
+    /**
+     * Returns a future of the response body of the specified future of an asynchronous
+     * REST template. If the failure of the specified future indicates that the entity
+     * has not been found (see {@link #isNotFound(HttpClientErrorException)}), the returned
+     * future is completed with <code>null</code>.
+     *
+     * @param future the future of the response entity.
+     * @param <T>    the concrete type of the response body.
+     * @return the future of the response body.
+     */
+    @Nonnull
+    public static <T> CompletableFuture<T> getBodyOrNullIfNotFound( @Nonnull CompletableFuture<ResponseEntity<T>> future )
+    {
+        return future.handle( ( response, throwable ) -> {
+            if ( throwable == null )
+            {
+                return response.getBody();
+            }
+
+            final Throwable cause = CompletableFutureUtils.getCause( throwable );
+
+            if ( (cause instanceof HttpClientErrorException) && isNotFound( (HttpClientErrorException) cause ) )
+            {
+                return null;
+            }
+
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new CompletionException( cause );
+        } );
+    }
+
+    /**
+     * Converts the response that is included in the specified status code exception
+     * into a response entity. The body is read with the message converters of the
+     * specified REST template. This is useful if the response body of an error status
+     * code contains details that must be evaluated (e.g. import summaries).
+     *
+     * @param restTemplate the REST template that has received the response.
+     * @param e            the status code exception that includes the response.
+     * @param bodyClass    the class of the response body.
+     * @param <T>          the concrete type of the response body.
+     * @return the response entity of the specified status code exception.
+     * @throws HttpStatusCodeException the specified exception if its response body cannot be read.
+     */
+    @Nonnull
+    public static <T> ResponseEntity<T> toResponseEntity( @Nonnull RestTemplate restTemplate, @Nonnull HttpStatusCodeException e, @Nonnull Class<T> bodyClass )
+    {
+        final HttpHeaders headers = (e.getResponseHeaders() == null) ? new HttpHeaders() : e.getResponseHeaders();
+        final ClientHttpResponse response = new ClientHttpResponse()
+        {
+            @Nonnull
+            @Override
+            public HttpStatus getStatusCode()
+            {
+                return e.getStatusCode();
+            }
+
+            @Override
+            public int getRawStatusCode()
+            {
+                return e.getRawStatusCode();
+            }
+
+            @Nonnull
+            @Override
+            public String getStatusText()
+            {
+                return e.getStatusText();
+            }
+
+            @Override
+            public void close()
+            {
+                // nothing to be closed
+            }
+
+            @Nonnull
+            @Override
+            public InputStream getBody()
+            {
+                return new ByteArrayInputStream( e.getResponseBodyAsByteArray() );
+            }
+
+            @Nonnull
+            @Override
+            public HttpHeaders getHeaders()
+            {
+                return headers;
+            }
+        };
+
+        final T body;
+        try
+        {
+            body = new HttpMessageConverterExtractor<>( bodyClass, restTemplate.getMessageConverters() ).extractData( response );
+        }
+        catch ( IOException | RestClientException e2 )
+        {
+            throw e;
+        }
+
+        return new ResponseEntity<>( body, headers, e.getStatusCode() );
+    }
+
     private RestTemplateUtils()
     {
         super();
@@ -30,6 +30,10 @@ package org.dhis2.fhir.adapter.script.impl;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import org.dhis2.fhir.adapter.script.FatalScriptCompilationException;
 import org.dhis2.fhir.adapter.script.ScriptCompilationException;
@@ -39,6 +43,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.script.Bindings;
 import javax.script.Compilable;
 import javax.script.CompiledScript;
@@ -47,6 +52,9 @@ import javax.script.ScriptException;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Standard implementation of {@link ScriptEvaluator}. The used script engine itself
@@ -56,10 +64,31 @@ import java.util.Map;
  * For Nashorn Javascript engine see this article:
  * https://stackoverflow.com/questions/30140103/should-i-use-a-separate-scriptengine-and-compiledscript-instances-per-each-threa
  *
+ * If a script engine pool size is specified, each evaluation borrows a script engine
+ * from a pool. Every pooled script engine has its own cache of compiled scripts and
+ * reuses its bindings (which is much cheaper than creating new bindings). Global
+ * variables that have been declared by a script are reset after each evaluation.
+ * Nested evaluations in the same thread use the already borrowed script engine with
+ * new bindings. If no script engine can be borrowed within the maximum wait time,
+ * the shared script engine is used.
+ *
  * @author volsch
  */
 public class ScriptEvaluatorImpl implements ScriptEvaluator
 {
+    public static final String POOL_WAIT_METRIC_NAME = "dhis2.fhir.adapter.script.engine.pool.wait";
+
+    public static final String POOL_EXHAUSTED_METRIC_NAME = "dhis2.fhir.adapter.script.engine.pool.exhausted";
+
+    public static final String POOL_AVAILABLE_METRIC_NAME = "dhis2.fhir.adapter.script.engine.pool.available";
+
+    /**
+     * Deletes (or sets to undefined if the variable cannot be deleted) all global
+     * variables that have been put into the bindings or that have been declared
+     * by a script. Built-in global variables are not enumerable.
+     */
+    protected static final String RESET_BINDINGS_SCRIPT = "(function(g){for(var k in g){if(!delete g[k]){g[k]=undefined;}}})(this)";
+
     private final Logger logger = LoggerFactory.getLogger( ScriptEvaluatorImpl.class );
 
     private final ScriptEngine scriptEngine;
@@ -68,7 +97,23 @@ public class ScriptEvaluatorImpl implements ScriptEvaluator
 
     private final Cache<Object, CompiledScript> compiledScriptCache;
 
+    private final BlockingQueue<PooledScriptEngine> scriptEnginePool;
+
+    private final ThreadLocal<PooledScriptEngine> currentPooledScriptEngine = new ThreadLocal<>();
+
+    private final long maxPoolWaitMillis;
+
+    private final Timer poolWaitTimer;
+
+    private final Counter poolExhaustedCounter;
+
     public ScriptEvaluatorImpl( @Nonnull String scriptEngineName, @Nonnull List<String> scriptEngineArgs, int maxCachedScriptLifetimeSecs, int maxCachedScripts )
+    {
+        this( scriptEngineName, scriptEngineArgs, maxCachedScriptLifetimeSecs, maxCachedScripts, 0, 0, null );
+    }
+
+    public ScriptEvaluatorImpl( @Nonnull String scriptEngineName, @Nonnull List<String> scriptEngineArgs, int maxCachedScriptLifetimeSecs, int maxCachedScripts,
+        int scriptEnginePoolSize, long maxPoolWaitMillis, @Nullable MeterRegistry meterRegistry )
     {
         if ( !"nashorn".equals( scriptEngineName ) )
         {
@@ -84,25 +129,128 @@ public class ScriptEvaluatorImpl implements ScriptEvaluator
         if ( scriptEngine instanceof Compilable )
         {
             compilable = (Compilable) scriptEngine;
-            compiledScriptCache = Caffeine.newBuilder()
-                .expireAfterAccess( Duration.ofSeconds( maxCachedScriptLifetimeSecs ) )
-                .maximumSize( maxCachedScripts ).build();
+            compiledScriptCache = createCompiledScriptCache( maxCachedScriptLifetimeSecs, maxCachedScripts );
         }
         else
         {
             compilable = null;
             compiledScriptCache = null;
         }
+
+        this.maxPoolWaitMillis = maxPoolWaitMillis;
+        if ( (scriptEnginePoolSize > 0) && (compilable != null) )
+        {
+            scriptEnginePool = new ArrayBlockingQueue<>( scriptEnginePoolSize );
+            for ( int i = 0; i < scriptEnginePoolSize; i++ )
+            {
+                final ScriptEngine pooledScriptEngine = scriptEngineFactory.getScriptEngine( scriptEngineArgs.toArray( new String[0] ) );
+                scriptEnginePool.add( new PooledScriptEngine( pooledScriptEngine, createCompiledScriptCache( maxCachedScriptLifetimeSecs, maxCachedScripts ) ) );
+            }
+            logger.info( "Created pool of {} script engines.", scriptEnginePoolSize );
+        }
+        else
+        {
+            scriptEnginePool = null;
+        }
+
+        if ( (meterRegistry != null) && (scriptEnginePool != null) )
+        {
+            poolWaitTimer = Timer.builder( POOL_WAIT_METRIC_NAME )
+                .description( "Time waited to borrow a script engine from the pool." ).register( meterRegistry );
+            poolExhaustedCounter = Counter.builder( POOL_EXHAUSTED_METRIC_NAME )
+                .description( "Number of evaluations that used the shared script engine since the pool was exhausted." ).register( meterRegistry );
+            Gauge.builder( POOL_AVAILABLE_METRIC_NAME, scriptEnginePool, BlockingQueue::size )
+                .description( "Number of available pooled script engines." ).register( meterRegistry );
+        }
+        else
+        {
+            poolWaitTimer = null;
+            poolExhaustedCounter = null;
+        }
     }
 
     @Override
     public Object eval( @Nonnull Object key, @Nonnull String script, @Nonnull Map<String, Object> args ) throws ScriptCompilationException
     {
-        final Bindings bindings = scriptEngine.createBindings();
-        bindings.putAll( args );
+        if ( scriptEnginePool == null )
+        {
+            return eval( key, script, createBindings( scriptEngine, args ), scriptEngine, compilable, compiledScriptCache );
+        }
 
-        final Object result;
+        PooledScriptEngine pooledScriptEngine = currentPooledScriptEngine.get();
+        if ( pooledScriptEngine != null )
+        {
+            logger.debug( "Executing nested script {} with new bindings.", key );
+            return eval( key, script, createBindings( pooledScriptEngine.getScriptEngine(), args ), pooledScriptEngine.getScriptEngine(),
+                pooledScriptEngine.getCompilable(), pooledScriptEngine.getCompiledScriptCache() );
+        }
+
+        pooledScriptEngine = borrowScriptEngine();
+        if ( pooledScriptEngine == null )
+        {
+            logger.debug( "Script engine pool has been exhausted. Executing script {} with shared script engine.", key );
+            return eval( key, script, createBindings( scriptEngine, args ), scriptEngine, compilable, compiledScriptCache );
+        }
+
+        currentPooledScriptEngine.set( pooledScriptEngine );
+        try
+        {
+            final Bindings bindings = pooledScriptEngine.getBindings();
+            bindings.putAll( args );
+            try
+            {
+                return eval( key, script, bindings, pooledScriptEngine.getScriptEngine(),
+                    pooledScriptEngine.getCompilable(), pooledScriptEngine.getCompiledScriptCache() );
+            }
+            finally
+            {
+                pooledScriptEngine.resetBindings();
+            }
+        }
+        finally
+        {
+            currentPooledScriptEngine.remove();
+            scriptEnginePool.add( pooledScriptEngine );
+        }
+    }
+
+    @Override
+    public boolean compile( @Nonnull String script )
+    {
         if ( compilable == null )
+        {
+            return false;
+        }
+
+        try
+        {
+            compilable.compile( script );
+        }
+        catch ( ScriptException e )
+        {
+            final StringBuilder message = new StringBuilder( e.getMessage() );
+            if ( e.getFileName() == null )
+            {
+                if ( e.getLineNumber() != -1 )
+                {
+                    message.append( " at line number " ).append( e.getLineNumber() );
+                }
+                if ( e.getColumnNumber() != -1 )
+                {
+                    message.append( " at column number " ).append( e.getColumnNumber() );
+                }
+            }
+            throw new ScriptCompilationException( message.toString(), e );
+        }
+
+        return true;
+    }
+
+    protected Object eval( @Nonnull Object key, @Nonnull String script, @Nonnull Bindings bindings, @Nonnull ScriptEngine scriptEngine,
+        @Nullable Compilable compilable, @Nullable Cache<Object, CompiledScript> compiledScriptCache ) throws ScriptCompilationException
+    {
+        final Object result;
+        if ( (compilable == null) || (compiledScriptCache == null) )
         {
             logger.debug( "Executing non-compilable script {}.", key );
             try
@@ -147,35 +295,134 @@ public class ScriptEvaluatorImpl implements ScriptEvaluator
         return result;
     }
 
-    @Override
-    public boolean compile( @Nonnull String script )
+    @Nullable
+    protected PooledScriptEngine borrowScriptEngine()
     {
-        if ( compilable == null )
+        PooledScriptEngine pooledScriptEngine = scriptEnginePool.poll();
+        if ( pooledScriptEngine != null )
         {
-            return false;
+            if ( poolWaitTimer != null )
+            {
+                poolWaitTimer.record( 0, TimeUnit.NANOSECONDS );
+            }
+            return pooledScriptEngine;
         }
 
+        final long startNanos = System.nanoTime();
         try
         {
-            compilable.compile( script );
+            pooledScriptEngine = scriptEnginePool.poll( maxPoolWaitMillis, TimeUnit.MILLISECONDS );
         }
-        catch ( ScriptException e )
+        catch ( InterruptedException e )
         {
-            final StringBuilder message = new StringBuilder( e.getMessage() );
-            if ( e.getFileName() == null )
+            Thread.currentThread().interrupt();
+            throw new ScriptExecutionException( e );
+        }
+        finally
+        {
+            if ( poolWaitTimer != null )
             {
-                if ( e.getLineNumber() != -1 )
+                poolWaitTimer.record( System.nanoTime() - startNanos, TimeUnit.NANOSECONDS );
+            }
+        }
+
+        if ( (pooledScriptEngine == null) && (poolExhaustedCounter != null) )
+        {
+            poolExhaustedCounter.increment();
+        }
+        return pooledScriptEngine;
+    }
+
+    @Nonnull
+    protected static Bindings createBindings( @Nonnull ScriptEngine scriptEngine, @Nonnull Map<String, Object> args )
+    {
+        final Bindings bindings = scriptEngine.createBindings();
+        bindings.putAll( args );
+        return bindings;
+    }
+
+    @Nonnull
+    protected static Cache<Object, CompiledScript> createCompiledScriptCache( int maxCachedScriptLifetimeSecs, int maxCachedScripts )
+    {
+        return Caffeine.newBuilder()
+            .expireAfterAccess( Duration.ofSeconds( maxCachedScriptLifetimeSecs ) )
+            .maximumSize( maxCachedScripts ).build();
+    }
+
+    /**
+     * A script engine of the pool with its own compiled scripts and reused bindings.
+     * An instance must be used by one thread at the same time only.
+     */
+    protected static class PooledScriptEngine
+    {
+        private final ScriptEngine scriptEngine;
+
+        private final Compilable compilable;
+
+        private final Cache<Object, CompiledScript> compiledScriptCache;
+
+        private final CompiledScript resetBindingsScript;
+
+        private Bindings bindings;
+
+        public PooledScriptEngine( @Nonnull ScriptEngine scriptEngine, @Nonnull Cache<Object, CompiledScript> compiledScriptCache )
+        {
+            this.scriptEngine = scriptEngine;
+            this.compilable = (Compilable) scriptEngine;
+            this.compiledScriptCache = compiledScriptCache;
+
+            try
+            {
+                this.resetBindingsScript = compilable.compile( RESET_BINDINGS_SCRIPT );
+            }
+            catch ( ScriptException e )
+            {
+                throw new FatalScriptCompilationException( "Could not compile script to reset bindings: " + e.getMessage(), e );
+            }
+        }
+
+        @Nonnull
+        public ScriptEngine getScriptEngine()
+        {
+            return scriptEngine;
+        }
+
+        @Nonnull
+        public Compilable getCompilable()
+        {
+            return compilable;
+        }
+
+        @Nonnull
+        public Cache<Object, CompiledScript> getCompiledScriptCache()
+        {
+            return compiledScriptCache;
+        }
+
+        @Nonnull
+        public Bindings getBindings()
+        {
+            if ( bindings == null )
+            {
+                bindings = scriptEngine.createBindings();
+            }
+            return bindings;
+        }
+
+        public void resetBindings()
+        {
+            if ( bindings != null )
+            {
+                try
                 {
-                    message.append( " at line number " ).append( e.getLineNumber() );
+                    resetBindingsScript.eval( bindings );
                 }
-                if ( e.getColumnNumber() != -1 )
+                catch ( ScriptException | RuntimeException e )
                 {
-                    message.append( " at column number " ).append( e.getColumnNumber() );
+                    // bindings will be created again on next usage
+                    bindings = null;
                 }
             }
-            throw new ScriptCompilationException( message.toString(), e );
         }
-
-        return true;
     }
 }
@@ -0,0 +1,105 @@
+package org.dhis2.fhir.adapter.util;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+/**
+ * Utility methods for waiting for completable futures.
+ *
+ * @author volsch
+ */
+public abstract class CompletableFutureUtils
+{
+    /**
+     * Waits for the completion of the specified future and returns its result. If the
+     * future has been completed exceptionally, the runtime exception or error that
+     * caused the failure is thrown as it would have been thrown by a synchronous
+     * invocation (e.g. an unauthorized exception of a REST client).
+     *
+     * @param future the future for which its result should be returned.
+     * @param <T>    the concrete type of the result.
+     * @return the result of the future.
+     */
+    public static <T> T join( @Nonnull CompletableFuture<T> future )
+    {
+        try
+        {
+            return future.join();
+        }
+        catch ( CompletionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            if ( e.getCause() instanceof Error )
+            {
+                throw (Error) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the completion of all specified futures regardless if they have been
+     * completed normally or exceptionally. Futures that are <code>null</code> are ignored.
+     *
+     * @param futures the futures for which their completion should be awaited.
+     */
+    public static void awaitAll( @Nonnull CompletableFuture<?>... futures )
+    {
+        CompletableFuture.allOf( Stream.of( futures ).filter( Objects::nonNull ).toArray( CompletableFuture[]::new ) )
+            .handle( ( result, throwable ) -> null ).join();
+    }
+
+    /**
+     * Returns the exception that caused the failure of a future. Dependent stages of
+     * a future wrap the causing exception into a completion exception.
+     *
+     * @param throwable the throwable with which a future has been completed.
+     * @return the causing exception.
+     */
+    @Nonnull
+    public static Throwable getCause( @Nonnull Throwable throwable )
+    {
+        return ((throwable instanceof CompletionException) && (throwable.getCause() != null)) ? throwable.getCause() : throwable;
+    }
+
+    private CompletableFutureUtils()
+    {
+        super();
+    }
+}
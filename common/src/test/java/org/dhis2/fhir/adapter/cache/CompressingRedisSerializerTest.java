@@ -0,0 +1,88 @@
+package org.dhis2.fhir.adapter.cache;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link CompressingRedisSerializer}.
+ *
+ * @author volsch
+ */
+public class CompressingRedisSerializerTest
+{
+    private final RedisSerializer<String> serializer = new CompressingRedisSerializer<>( new StringRedisSerializer(), 16 );
+
+    @Test
+    public void belowThreshold()
+    {
+        final byte[] bytes = serializer.serialize( "{\"a\":1}" );
+        Assert.assertArrayEquals( "{\"a\":1}".getBytes( StandardCharsets.UTF_8 ), bytes );
+        Assert.assertEquals( "{\"a\":1}", serializer.deserialize( bytes ) );
+    }
+
+    @Test
+    public void aboveThreshold()
+    {
+        final String value = "{\"name\":\"" + StringUtils.repeat( "Test", 100 ) + "\"}";
+        final byte[] bytes = serializer.serialize( value );
+        Assert.assertTrue( CompressingRedisSerializer.isCompressed( bytes ) );
+        Assert.assertTrue( bytes.length < value.length() / 4 );
+        Assert.assertEquals( value, serializer.deserialize( bytes ) );
+    }
+
+    @Test
+    public void uncompressed()
+    {
+        final String value = "{\"name\":\"" + StringUtils.repeat( "Test", 100 ) + "\"}";
+        Assert.assertEquals( value, serializer.deserialize( value.getBytes( StandardCharsets.UTF_8 ) ) );
+    }
+
+    @Test
+    public void nullValue()
+    {
+        Assert.assertNull( serializer.serialize( null ) );
+        Assert.assertNull( serializer.deserialize( null ) );
+    }
+
+    @Test( expected = SerializationException.class )
+    public void corrupted()
+    {
+        final byte[] bytes = serializer.serialize( "{\"name\":\"" + StringUtils.repeat( "Test", 100 ) + "\"}" );
+        serializer.deserialize( Arrays.copyOf( bytes, bytes.length / 2 ) );
+    }
+}
@@ -0,0 +1,159 @@
+package org.dhis2.fhir.adapter.cache;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Unit tests for {@link TwoLevelRedisCacheManager}.
+ *
+ * @author volsch
+ */
+public class TwoLevelRedisCacheManagerTest
+{
+    @Mock
+    private RedisConnectionFactory connectionFactory;
+
+    @Mock
+    private RedisConnection connection;
+
+    @Mock
+    private RedisCacheWriter cacheWriter;
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    private TwoLevelRedisCacheManager cacheManager;
+
+    private final byte[] serializedValue = new JdkSerializationRedisSerializer().serialize( "Test Value" );
+
+    @Before
+    public void before()
+    {
+        Mockito.doReturn( connection ).when( connectionFactory ).getConnection();
+        cacheManager = new TwoLevelRedisCacheManager( connectionFactory, cacheWriter, RedisCacheConfiguration.defaultCacheConfig(), "maximumSize=100", "test:invalidation" );
+    }
+
+    @Test
+    public void getLocal()
+    {
+        Mockito.doReturn( serializedValue ).when( cacheWriter ).get( Mockito.eq( "test" ), Mockito.any() );
+
+        final Cache cache = Objects.requireNonNull( cacheManager.getCache( "test" ) );
+        Assert.assertEquals( "Test Value", Objects.requireNonNull( cache.get( "a" ) ).get() );
+        Assert.assertEquals( "Test Value", Objects.requireNonNull( cache.get( "a" ) ).get() );
+
+        Mockito.verify( cacheWriter, Mockito.times( 1 ) ).get( Mockito.eq( "test" ), Mockito.any() );
+    }
+
+    @Test
+    public void getMissing()
+    {
+        final Cache cache = Objects.requireNonNull( cacheManager.getCache( "test" ) );
+        Assert.assertNull( cache.get( "a" ) );
+        Assert.assertNull( cache.get( "a" ) );
+
+        Mockito.verify( cacheWriter, Mockito.times( 2 ) ).get( Mockito.eq( "test" ), Mockito.any() );
+    }
+
+    @Test
+    public void putAndEvict()
+    {
+        final Cache cache = Objects.requireNonNull( cacheManager.getCache( "test" ) );
+        cache.put( "a", "Test Value" );
+        Assert.assertEquals( "Test Value", Objects.requireNonNull( cache.get( "a" ) ).get() );
+        Mockito.verify( cacheWriter ).put( Mockito.eq( "test" ), Mockito.any(), Mockito.any(), Mockito.any() );
+        Mockito.verify( cacheWriter, Mockito.never() ).get( Mockito.eq( "test" ), Mockito.any() );
+
+        cache.evict( "a" );
+        Assert.assertNull( cache.get( "a" ) );
+        Mockito.verify( cacheWriter ).remove( Mockito.eq( "test" ), Mockito.any() );
+        Mockito.verify( cacheWriter, Mockito.times( 1 ) ).get( Mockito.eq( "test" ), Mockito.any() );
+
+        final ArgumentCaptor<byte[]> messageCaptor = ArgumentCaptor.forClass( byte[].class );
+        Mockito.verify( connection, Mockito.times( 2 ) ).publish( Mockito.eq( "test:invalidation".getBytes( StandardCharsets.UTF_8 ) ), messageCaptor.capture() );
+        Assert.assertTrue( new String( messageCaptor.getAllValues().get( 1 ), StandardCharsets.UTF_8 ).endsWith( "\ntest\na" ) );
+    }
+
+    @Test
+    public void ownMessageIgnored()
+    {
+        final Cache cache = Objects.requireNonNull( cacheManager.getCache( "test" ) );
+        cache.put( "a", "Test Value" );
+
+        final ArgumentCaptor<byte[]> messageCaptor = ArgumentCaptor.forClass( byte[].class );
+        Mockito.verify( connection ).publish( Mockito.any(), messageCaptor.capture() );
+        cacheManager.handleMessage( new String( messageCaptor.getValue(), StandardCharsets.UTF_8 ) );
+
+        Assert.assertEquals( "Test Value", Objects.requireNonNull( cache.get( "a" ) ).get() );
+        Mockito.verify( cacheWriter, Mockito.never() ).get( Mockito.eq( "test" ), Mockito.any() );
+    }
+
+    @Test
+    public void remoteEviction()
+    {
+        Mockito.doReturn( serializedValue ).when( cacheWriter ).get( Mockito.eq( "test" ), Mockito.any() );
+
+        final Cache cache = Objects.requireNonNull( cacheManager.getCache( "test" ) );
+        Assert.assertEquals( "Test Value", Objects.requireNonNull( cache.get( "a" ) ).get() );
+        cacheManager.handleMessage( "other\ntest\na" );
+        Assert.assertEquals( "Test Value", Objects.requireNonNull( cache.get( "a" ) ).get() );
+
+        Mockito.verify( cacheWriter, Mockito.times( 2 ) ).get( Mockito.eq( "test" ), Mockito.any() );
+    }
+
+    @Test
+    public void remoteClear()
+    {
+        Mockito.doReturn( serializedValue ).when( cacheWriter ).get( Mockito.eq( "test" ), Mockito.any() );
+
+        final Cache cache = Objects.requireNonNull( cacheManager.getCache( "test" ) );
+        Assert.assertEquals( "Test Value", Objects.requireNonNull( cache.get( "a" ) ).get() );
+        Assert.assertEquals( "Test Value", Objects.requireNonNull( cache.get( "b" ) ).get() );
+        cacheManager.handleMessage( "other\ntest" );
+        Assert.assertEquals( 0, ( (TwoLevelRedisCache) cache ).getLocalSize() );
+    }
+}
@@ -0,0 +1,81 @@
+package org.dhis2.fhir.adapter.cache.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.cache.RequestCacheContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Unit tests for {@link RequestCacheServiceImpl}.
+ *
+ * @author volsch
+ */
+public class RequestCacheServiceImplTest
+{
+    private final RequestCacheServiceImpl service = new RequestCacheServiceImpl();
+
+    @Test
+    public void bindRequestCacheContext()
+    {
+        try ( final RequestCacheContext context = service.createRequestCacheContext() )
+        {
+            context.setAttribute( "test", "value" );
+
+            CompletableFuture.runAsync( () -> {
+                Assert.assertNull( service.getCurrentRequestCacheContext() );
+
+                try ( final RequestCacheContext boundContext = service.bindRequestCacheContext( context ) )
+                {
+                    Assert.assertSame( boundContext, service.getCurrentRequestCacheContext() );
+                    Assert.assertEquals( "value", boundContext.getAttribute( "test", String.class ) );
+                    boundContext.setAttribute( "test2", "value2" );
+                }
+
+                Assert.assertNull( service.getCurrentRequestCacheContext() );
+            } ).join();
+
+            Assert.assertSame( context, service.getCurrentRequestCacheContext() );
+            Assert.assertEquals( "value2", context.getAttribute( "test2", String.class ) );
+        }
+
+        Assert.assertNull( service.getCurrentRequestCacheContext() );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void bindRequestCacheContextExisting()
+    {
+        try ( final RequestCacheContext context = service.createRequestCacheContext() )
+        {
+            service.bindRequestCacheContext( context );
+        }
+    }
+}
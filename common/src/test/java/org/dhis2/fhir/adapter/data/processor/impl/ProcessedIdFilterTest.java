@@ -0,0 +1,91 @@
+package org.dhis2.fhir.adapter.data.processor.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link ProcessedIdFilter}.
+ *
+ * @author volsch
+ */
+public class ProcessedIdFilterTest
+{
+    @Test
+    public void filterPossiblyProcessed()
+    {
+        final ProcessedIdFilter filter = new ProcessedIdFilter( 0 );
+        filter.put( "a|1" );
+        filter.putAll( Arrays.asList( "b|1", "c|1" ) );
+
+        Assert.assertEquals( Arrays.asList( "a|1", "c|1" ), filter.filterPossiblyProcessed( Arrays.asList( "a|1", "c|1" ) ) );
+        Assert.assertEquals( Collections.emptyList(), filter.filterPossiblyProcessed( Arrays.asList( "a|2", "d|1" ) ) );
+    }
+
+    @Test
+    public void isValid()
+    {
+        final Instant lastProcessedAt = Instant.now();
+        final ProcessedIdFilter filter = new ProcessedIdFilter( 0 );
+        filter.setLastProcessedAt( lastProcessedAt );
+
+        Assert.assertTrue( filter.isValid( lastProcessedAt, 60 ) );
+        Assert.assertTrue( filter.isValid( lastProcessedAt.truncatedTo( ChronoUnit.MILLIS ), 60 ) );
+        Assert.assertFalse( filter.isValid( lastProcessedAt.plusSeconds( 1 ), 60 ) );
+        Assert.assertFalse( filter.isValid( null, 60 ) );
+        Assert.assertFalse( filter.isValid( lastProcessedAt, -1 ) );
+    }
+
+    @Test
+    public void isValidEmpty()
+    {
+        final ProcessedIdFilter filter = new ProcessedIdFilter( 0 );
+
+        Assert.assertTrue( filter.isValid( null, 60 ) );
+        Assert.assertFalse( filter.isValid( Instant.now(), 60 ) );
+    }
+
+    @Test
+    public void isValidSaturated()
+    {
+        final ProcessedIdFilter filter = new ProcessedIdFilter( 0 );
+
+        for ( int i = 0; i < ProcessedIdFilter.MIN_EXPECTED_INSERTIONS * 2; i++ )
+        {
+            filter.put( "x|" + i );
+        }
+        Assert.assertFalse( filter.isValid( null, 60 ) );
+    }
+}
@@ -0,0 +1,291 @@
+package org.dhis2.fhir.adapter.data.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.data.model.DataGroup;
+import org.dhis2.fhir.adapter.data.model.DataGroupId;
+import org.dhis2.fhir.adapter.data.model.ProcessedItem;
+import org.dhis2.fhir.adapter.data.model.ProcessedItemId;
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.jdbc.Work;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import javax.annotation.Nonnull;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Unit tests for {@link AbstractProcessedItemRepositoryImpl}. The insertion of processed
+ * items that ignores already stored items uses SQL that is only supported by PostgreSQL
+ * (H2 does not support <code>RETURNING</code>). Therefore the JDBC access is mocked.
+ *
+ * @author volsch
+ */
+public class AbstractProcessedItemRepositoryImplTest
+{
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private EntityManagerFactory entityManagerFactory;
+
+    @Mock
+    private PersistenceUnitUtil persistenceUnitUtil;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private DatabaseMetaData databaseMetaData;
+
+    @Mock
+    private PreparedStatement preparedStatement;
+
+    @Mock
+    private ResultSet resultSet;
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    private final TestGroup group = new TestGroup();
+
+    private TestProcessedItemRepositoryImpl repository;
+
+    @Before
+    public void before() throws Exception
+    {
+        Mockito.when( entityManager.unwrap( Mockito.eq( Session.class ) ) ).thenReturn( session );
+        Mockito.doAnswer( invocation -> {
+            invocation.<Work>getArgument( 0 ).execute( connection );
+            return null;
+        } ).when( session ).doWork( Mockito.any() );
+        Mockito.when( session.doReturningWork( Mockito.any() ) ).thenAnswer( invocation -> invocation.<ReturningWork<?>>getArgument( 0 ).execute( connection ) );
+        Mockito.when( connection.getMetaData() ).thenReturn( databaseMetaData );
+        Mockito.when( entityManager.getEntityManagerFactory() ).thenReturn( entityManagerFactory );
+        Mockito.when( entityManagerFactory.getPersistenceUnitUtil() ).thenReturn( persistenceUnitUtil );
+        Mockito.when( persistenceUnitUtil.getIdentifier( Mockito.same( group ) ) ).thenReturn( 4711L );
+
+        repository = new TestProcessedItemRepositoryImpl( entityManager );
+    }
+
+    @Test
+    public void processAllInsertIgnoring() throws Exception
+    {
+        final Instant processedAt = Instant.now();
+        final TestProcessedItem item1 = new TestProcessedItem( "a|1", processedAt );
+        final TestProcessedItem item2 = new TestProcessedItem( "b|1", processedAt );
+        final TestProcessedItem item3 = new TestProcessedItem( "c|1", processedAt );
+        final List<TestProcessedItem> storedItems = new ArrayList<>();
+
+        Mockito.when( databaseMetaData.getDatabaseProductName() ).thenReturn( "PostgreSQL" );
+        Mockito.when( connection.prepareStatement( Mockito.anyString() ) ).thenReturn( preparedStatement );
+        Mockito.when( preparedStatement.executeQuery() ).thenReturn( resultSet );
+        // item b|1 has already been stored and its ID is not returned
+        Mockito.when( resultSet.next() ).thenReturn( true, true, false );
+        Mockito.when( resultSet.getString( Mockito.eq( 1 ) ) ).thenReturn( "c|1", "a|1" );
+
+        repository.processAll( group, Arrays.asList( item1, item2, item3, new TestProcessedItem( "a|1", processedAt ) ), storedItems::addAll );
+
+        Mockito.verify( connection ).prepareStatement( Mockito.eq( "INSERT INTO test_processed(group_id,processed_id,processed_at) VALUES " +
+            "(?,?,?),(?,?,?),(?,?,?) ON CONFLICT DO NOTHING RETURNING processed_id" ) );
+        Mockito.verify( preparedStatement, Mockito.times( 3 ) ).setObject( Mockito.anyInt(), Mockito.eq( 4711L ) );
+        Mockito.verify( preparedStatement ).setString( Mockito.eq( 2 ), Mockito.eq( "a|1" ) );
+        Mockito.verify( preparedStatement ).setString( Mockito.eq( 5 ), Mockito.eq( "b|1" ) );
+        Mockito.verify( preparedStatement ).setString( Mockito.eq( 8 ), Mockito.eq( "c|1" ) );
+        Mockito.verify( preparedStatement, Mockito.times( 3 ) ).setTimestamp( Mockito.anyInt(), Mockito.eq( Timestamp.from( processedAt ) ) );
+        Mockito.verify( preparedStatement ).close();
+        Mockito.verify( entityManager, Mockito.never() ).persist( Mockito.any() );
+
+        Assert.assertEquals( 2, storedItems.size() );
+        Assert.assertSame( item3, storedItems.get( 0 ) );
+        Assert.assertSame( item1, storedItems.get( 1 ) );
+    }
+
+    @Test
+    public void processAllInsertIgnoringPartitioned() throws Exception
+    {
+        final Instant processedAt = Instant.now();
+        final List<TestProcessedItem> items = new ArrayList<>();
+
+        for ( int i = 0; i < AbstractProcessedItemRepositoryImpl.MAX_BATCH_SIZE + 1; i++ )
+        {
+            items.add( new TestProcessedItem( "a|" + i, processedAt ) );
+        }
+
+        Mockito.when( databaseMetaData.getDatabaseProductName() ).thenReturn( "PostgreSQL" );
+        Mockito.when( connection.prepareStatement( Mockito.anyString() ) ).thenReturn( preparedStatement );
+        Mockito.when( preparedStatement.executeQuery() ).thenReturn( resultSet );
+        Mockito.when( resultSet.next() ).thenReturn( false );
+
+        repository.processAll( group, items, storedItems -> Assert.assertTrue( storedItems.isEmpty() ) );
+
+        Mockito.verify( connection, Mockito.times( 2 ) ).prepareStatement( Mockito.anyString() );
+        Mockito.verify( preparedStatement, Mockito.times( 2 ) ).executeQuery();
+        Mockito.verify( preparedStatement, Mockito.times( AbstractProcessedItemRepositoryImpl.MAX_BATCH_SIZE + 1 ) )
+            .setString( Mockito.anyInt(), Mockito.anyString() );
+    }
+
+    @Test
+    public void isInsertIgnoreSupported() throws Exception
+    {
+        Mockito.when( databaseMetaData.getDatabaseProductName() ).thenReturn( "H2" );
+
+        Assert.assertFalse( repository.isInsertIgnoreSupported() );
+        Assert.assertFalse( repository.isInsertIgnoreSupported() );
+
+        Mockito.verify( databaseMetaData, Mockito.times( 1 ) ).getDatabaseProductName();
+    }
+
+    @Test
+    public void processAllEmpty()
+    {
+        repository.processAll( group, Collections.emptyList(), storedItems -> Assert.assertTrue( storedItems.isEmpty() ) );
+
+        Mockito.verifyZeroInteractions( session );
+    }
+
+    public static class TestGroup implements DataGroup
+    {
+        private static final long serialVersionUID = -3456106018429066893L;
+
+        @Override
+        public DataGroupId getGroupId()
+        {
+            return null;
+        }
+    }
+
+    public static class TestProcessedItemId extends ProcessedItemId<TestGroup>
+    {
+        private static final long serialVersionUID = 1522476553212376475L;
+
+        private TestGroup group;
+
+        public TestProcessedItemId( @Nonnull String processedId )
+        {
+            super( processedId );
+        }
+
+        @Override
+        public TestGroup getGroup()
+        {
+            return group;
+        }
+
+        @Override
+        public void setGroup( TestGroup group )
+        {
+            this.group = group;
+        }
+    }
+
+    public static class TestProcessedItem extends ProcessedItem<TestProcessedItemId, TestGroup>
+    {
+        private static final long serialVersionUID = 7180935224419562452L;
+
+        private TestProcessedItemId id;
+
+        public TestProcessedItem( @Nonnull String processedId, @Nonnull Instant processedAt )
+        {
+            super( processedAt );
+            this.id = new TestProcessedItemId( processedId );
+        }
+
+        @Override
+        public TestProcessedItemId getId()
+        {
+            return id;
+        }
+
+        @Override
+        public void setId( TestProcessedItemId id )
+        {
+            this.id = id;
+        }
+    }
+
+    public static class TestProcessedItemRepositoryImpl extends AbstractProcessedItemRepositoryImpl<TestProcessedItem, TestProcessedItemId, TestGroup>
+    {
+        public TestProcessedItemRepositoryImpl( @Nonnull EntityManager entityManager )
+        {
+            super( entityManager );
+        }
+
+        @Nonnull
+        @Override
+        protected Class<TestProcessedItem> getProcessedItemClass()
+        {
+            return TestProcessedItem.class;
+        }
+
+        @Nonnull
+        @Override
+        protected String getTableName()
+        {
+            return "test_processed";
+        }
+
+        @Nonnull
+        @Override
+        protected String getGroupColumnName()
+        {
+            return "group_id";
+        }
+
+        @Nonnull
+        @Override
+        protected String getProcessedIdColumnName()
+        {
+            return "processed_id";
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.dhis2.fhir.adapter.lock.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.dhis2.fhir.adapter.lock.LockContext;
+import org.dhis2.fhir.adapter.lock.LockException;
+import org.dhis2.fhir.adapter.lock.LockOrderException;
+import org.dhis2.fhir.adapter.spring.StaticObjectProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit tests for {@link HybridLockManagerImpl}.
+ *
+ * @author volsch
+ */
+public class HybridLockManagerImplTest
+{
+    @Mock
+    private DataSource dataSource;
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private CallableStatement callableStatement;
+
+    @Mock
+    private PreparedStatement preparedStatement;
+
+    @Mock
+    private Array array;
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    private MeterRegistry meterRegistry;
+
+    private LockConfig lockConfig;
+
+    @Before
+    public void before()
+    {
+        meterRegistry = new SimpleMeterRegistry();
+        lockConfig = new LockConfig();
+        lockConfig.setStripes( 4 );
+    }
+
+    @Test
+    public void lockLocally() throws Exception
+    {
+        lockConfig.setClustered( false );
+        final HybridLockManagerImpl lockManager = new HybridLockManagerImpl( dataSource, lockConfig, new StaticObjectProvider<>( meterRegistry ) );
+
+        final CountDownLatch locked = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicBoolean otherLocked = new AtomicBoolean();
+
+        final Thread thread = new Thread( () -> {
+            try ( final LockContext lockContext = lockManager.begin() )
+            {
+                lockContext.lock( "b" );
+                lockContext.lock( "a" );
+                locked.countDown();
+                release.await();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+        thread.start();
+        Assert.assertTrue( locked.await( 10, TimeUnit.SECONDS ) );
+        Assert.assertEquals( 2, lockManager.getHeldKeys() );
+
+        final Thread otherThread = new Thread( () -> {
+            try ( final LockContext lockContext = lockManager.begin() )
+            {
+                lockContext.lock( "a" );
+                otherLocked.set( true );
+            }
+        } );
+        otherThread.start();
+        otherThread.join( 500 );
+        Assert.assertFalse( otherLocked.get() );
+
+        release.countDown();
+        thread.join( 10_000 );
+        otherThread.join( 10_000 );
+        Assert.assertTrue( otherLocked.get() );
+        Assert.assertEquals( 0, lockManager.getHeldKeys() );
+        Assert.assertEquals( 3, meterRegistry.get( HybridLockManagerImpl.LOCK_WAIT_METRIC_NAME ).timer().count() );
+
+        Mockito.verifyZeroInteractions( dataSource );
+    }
+
+    @Test
+    public void lockReentrant()
+    {
+        lockConfig.setClustered( false );
+        final HybridLockManagerImpl lockManager = new HybridLockManagerImpl( dataSource, lockConfig, new StaticObjectProvider<>( null ) );
+
+        try ( final LockContext lockContext = lockManager.begin() )
+        {
+            lockContext.lock( "a" );
+            lockContext.lock( "a" );
+            lockContext.lock( "b" );
+            lockContext.lock( "b" );
+            Assert.assertEquals( 2, lockManager.getHeldKeys() );
+        }
+        Assert.assertEquals( 0, lockManager.getHeldKeys() );
+        Assert.assertFalse( lockManager.getCurrentLockContext().isPresent() );
+    }
+
+    @Test
+    public void lockClustered() throws Exception
+    {
+        lockConfig.setClustered( true );
+        final HybridLockManagerImpl lockManager = new HybridLockManagerImpl( dataSource, lockConfig, new StaticObjectProvider<>( meterRegistry ) );
+
+        Mockito.doReturn( connection ).when( dataSource ).getConnection();
+        Mockito.doReturn( true ).when( connection ).getAutoCommit();
+        Mockito.doReturn( callableStatement ).when( connection ).prepareCall( HybridLockContextImpl.LOCK_SQL );
+
+        try ( final LockContext lockContext = lockManager.begin() )
+        {
+            lockContext.lock( "a" );
+            lockContext.lock( "b" );
+            lockContext.lock( "c" );
+            Assert.assertEquals( 1, lockManager.getHeldConnections() );
+            Assert.assertEquals( 1.0, meterRegistry.get( HybridLockManagerImpl.HELD_CONNECTIONS_METRIC_NAME ).gauge().value(), 0 );
+
+            lockContext.unlockAll();
+            Assert.assertEquals( 0, lockManager.getHeldConnections() );
+            Assert.assertEquals( 0, lockManager.getHeldKeys() );
+        }
+
+        Mockito.verify( dataSource, Mockito.times( 1 ) ).getConnection();
+        Mockito.verify( connection ).setAutoCommit( false );
+        Mockito.verify( callableStatement, Mockito.times( 3 ) ).setLong( Mockito.eq( 1 ), Mockito.anyLong() );
+        Mockito.verify( callableStatement, Mockito.times( 3 ) ).execute();
+        Mockito.verify( connection ).commit();
+        Mockito.verify( connection ).setAutoCommit( true );
+        Mockito.verify( connection ).close();
+    }
+
+    @Test
+    public void lockClusteredBatched() throws Exception
+    {
+        lockConfig.setClustered( true );
+        final HybridLockManagerImpl lockManager = new HybridLockManagerImpl( dataSource, lockConfig, new StaticObjectProvider<>( meterRegistry ) );
+
+        Mockito.doReturn( connection ).when( dataSource ).getConnection();
+        Mockito.doReturn( true ).when( connection ).getAutoCommit();
+        Mockito.doReturn( callableStatement ).when( connection ).prepareCall( HybridLockContextImpl.LOCK_SQL );
+        Mockito.doReturn( array ).when( connection ).createArrayOf( Mockito.eq( "bigint" ), Mockito.any() );
+        Mockito.doReturn( preparedStatement ).when( connection ).prepareStatement( HybridLockContextImpl.MULTI_LOCK_SQL );
+
+        try ( final LockContext lockContext = lockManager.begin() )
+        {
+            lockContext.lock( "a" );
+            lockContext.lock( Arrays.asList( "c", "b", "a", "b" ) );
+            Assert.assertEquals( 3, lockManager.getHeldKeys() );
+            Assert.assertEquals( 1, lockManager.getHeldConnections() );
+        }
+        Assert.assertEquals( 0, lockManager.getHeldKeys() );
+
+        // already locked key is not locked again, remaining keys are locked with a single statement
+        Mockito.verify( connection, Mockito.times( 1 ) ).prepareCall( HybridLockContextImpl.LOCK_SQL );
+        Mockito.verify( connection ).createArrayOf( Mockito.eq( "bigint" ), Mockito.<Object[]>argThat( fingerprints -> fingerprints.length == 2 ) );
+        Mockito.verify( preparedStatement ).setArray( 1, array );
+        Mockito.verify( preparedStatement, Mockito.times( 1 ) ).execute();
+        Mockito.verify( array ).free();
+        Mockito.verify( connection ).commit();
+        Mockito.verify( connection ).close();
+    }
+
+    @Test
+    public void lockTimeout() throws Exception
+    {
+        lockConfig.setClustered( false );
+        lockConfig.setMaxWaitMillis( 250 );
+        final HybridLockManagerImpl lockManager = new HybridLockManagerImpl( dataSource, lockConfig, new StaticObjectProvider<>( null ) );
+
+        final CountDownLatch locked = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        final Thread thread = new Thread( () -> {
+            try ( final LockContext lockContext = lockManager.begin() )
+            {
+                lockContext.lock( "a" );
+                locked.countDown();
+                release.await();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+        thread.start();
+        Assert.assertTrue( locked.await( 10, TimeUnit.SECONDS ) );
+
+        try ( final LockContext lockContext = lockManager.begin() )
+        {
+            lockContext.lock( "a" );
+            Assert.fail( "Lock must not be obtained." );
+        }
+        catch ( LockException e )
+        {
+            // expected
+        }
+        finally
+        {
+            release.countDown();
+            thread.join( 10_000 );
+        }
+        Assert.assertEquals( 0, lockManager.getHeldKeys() );
+    }
+
+    @Test
+    public void lockOutOfOrder() throws Exception
+    {
+        lockConfig.setClustered( false );
+        final HybridLockManagerImpl lockManager = new HybridLockManagerImpl( dataSource, lockConfig, new StaticObjectProvider<>( null ) );
+
+        final CountDownLatch locked = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        final Thread thread = new Thread( () -> {
+            try ( final LockContext lockContext = lockManager.begin() )
+            {
+                lockContext.lock( "a" );
+                locked.countDown();
+                release.await();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+        thread.start();
+        Assert.assertTrue( locked.await( 10, TimeUnit.SECONDS ) );
+
+        final long startMillis = System.currentTimeMillis();
+        try ( final LockContext lockContext = lockManager.begin() )
+        {
+            lockContext.lock( "c" );
+            // free key can be locked out of order
+            lockContext.lock( "b" );
+            Assert.assertEquals( 3, lockManager.getHeldKeys() );
+
+            lockContext.lock( "a" );
+            Assert.fail( "Lock must not be obtained." );
+        }
+        catch ( LockOrderException e )
+        {
+            // expected, without waiting for the maximum wait time
+            Assert.assertTrue( (System.currentTimeMillis() - startMillis) < lockConfig.getMaxWaitMillis() );
+        }
+        finally
+        {
+            release.countDown();
+            thread.join( 10_000 );
+        }
+        Assert.assertEquals( 0, lockManager.getHeldKeys() );
+    }
+
+    @Test
+    public void lockClusteredOutOfOrder() throws Exception
+    {
+        lockConfig.setClustered( true );
+        final HybridLockManagerImpl lockManager = new HybridLockManagerImpl( dataSource, lockConfig, new StaticObjectProvider<>( null ) );
+
+        final ResultSet resultSet = Mockito.mock( ResultSet.class );
+        Mockito.doReturn( connection ).when( dataSource ).getConnection();
+        Mockito.doReturn( true ).when( connection ).getAutoCommit();
+        Mockito.doReturn( callableStatement ).when( connection ).prepareCall( HybridLockContextImpl.LOCK_SQL );
+        Mockito.doReturn( preparedStatement ).when( connection ).prepareStatement( HybridLockContextImpl.TRY_LOCK_SQL );
+        Mockito.doReturn( resultSet ).when( preparedStatement ).executeQuery();
+        Mockito.doReturn( true ).when( resultSet ).next();
+        Mockito.doReturn( false ).when( resultSet ).getBoolean( 1 );
+
+        try ( final LockContext lockContext = lockManager.begin() )
+        {
+            lockContext.lock( "b" );
+            lockContext.lock( "a" );
+            Assert.fail( "Lock must not be obtained." );
+        }
+        catch ( LockOrderException e )
+        {
+            // expected
+        }
+        Assert.assertEquals( 0, lockManager.getHeldKeys() );
+
+        Mockito.verify( callableStatement, Mockito.times( 1 ) ).execute();
+        Mockito.verify( preparedStatement ).setLong( Mockito.eq( 1 ), Mockito.anyLong() );
+        Mockito.verify( connection ).commit();
+        Mockito.verify( connection ).close();
+    }
+}
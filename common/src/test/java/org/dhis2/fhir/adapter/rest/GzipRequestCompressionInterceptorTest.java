@@ -0,0 +1,102 @@
+package org.dhis2.fhir.adapter.rest;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+/**
+ * Unit tests for {@link GzipRequestCompressionInterceptor}.
+ *
+ * @author volsch
+ */
+public class GzipRequestCompressionInterceptorTest
+{
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    private final MockRestServiceServer mockServer = MockRestServiceServer.bindTo( restTemplate ).build();
+
+    {
+        restTemplate.setInterceptors( Collections.singletonList( new GzipRequestCompressionInterceptor( 100 ) ) );
+    }
+
+    @Test
+    public void belowThreshold()
+    {
+        mockServer.expect( requestTo( "http://localhost/test" ) ).andExpect( method( HttpMethod.POST ) )
+            .andExpect( request -> Assert.assertFalse( request.getHeaders().containsKey( HttpHeaders.CONTENT_ENCODING ) ) )
+            .andExpect( content().string( "{\"a\":1}" ) ).andRespond( withSuccess() );
+
+        restTemplate.postForEntity( "http://localhost/test", "{\"a\":1}", Void.class );
+        mockServer.verify();
+    }
+
+    @Test
+    public void aboveThreshold()
+    {
+        final String body = "{\"name\":\"" + StringUtils.repeat( "Test", 100 ) + "\"}";
+        mockServer.expect( requestTo( "http://localhost/test" ) ).andExpect( method( HttpMethod.POST ) )
+            .andExpect( header( HttpHeaders.CONTENT_ENCODING, "gzip" ) )
+            .andExpect( request -> {
+                final byte[] compressed = ( (MockClientHttpRequest) request ).getBodyAsBytes();
+                Assert.assertTrue( compressed.length < body.length() );
+                try
+                {
+                    Assert.assertEquals( body, IOUtils.toString( new GZIPInputStream( new ByteArrayInputStream( compressed ) ), StandardCharsets.UTF_8 ) );
+                }
+                catch ( IOException e )
+                {
+                    throw new AssertionError( e );
+                }
+            } ).andRespond( withSuccess( "{}", MediaType.APPLICATION_JSON ) );
+
+        restTemplate.postForEntity( "http://localhost/test", body, Void.class );
+        mockServer.verify();
+    }
+}
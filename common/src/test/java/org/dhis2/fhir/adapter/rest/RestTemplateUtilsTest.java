@@ -33,9 +33,12 @@ import org.junit.Test;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 /**
  * Unit tests for {@link RestTemplateUtils}.
@@ -85,4 +88,31 @@ public class RestTemplateUtilsTest
                 headers, null, StandardCharsets.UTF_8 );
         Assert.assertTrue( RestTemplateUtils.isNotFound( exception ) );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void toResponseEntity()
+    {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set( HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_UTF8_VALUE );
+        final HttpClientErrorException exception =
+            new HttpClientErrorException( HttpStatus.CONFLICT, "Conflict",
+                headers, "{\"status\":\"ERROR\"}".getBytes( StandardCharsets.UTF_8 ), StandardCharsets.UTF_8 );
+
+        final ResponseEntity<Map> response = RestTemplateUtils.toResponseEntity( new RestTemplate(), exception, Map.class );
+        Assert.assertEquals( HttpStatus.CONFLICT, response.getStatusCode() );
+        Assert.assertNotNull( response.getBody() );
+        Assert.assertEquals( "ERROR", response.getBody().get( "status" ) );
+    }
+
+    @Test( expected = HttpClientErrorException.class )
+    public void toResponseEntityUnreadable()
+    {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set( HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_PDF_VALUE );
+        final HttpClientErrorException exception =
+            new HttpClientErrorException( HttpStatus.CONFLICT, "Conflict",
+                headers, new byte[]{ 1, 2, 3 }, StandardCharsets.UTF_8 );
+
+        RestTemplateUtils.toResponseEntity( new RestTemplate(), exception, Map.class );
+    }
+}
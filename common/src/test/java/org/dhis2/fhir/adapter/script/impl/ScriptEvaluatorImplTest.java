@@ -0,0 +1,105 @@
+package org.dhis2.fhir.adapter.script.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link ScriptEvaluatorImpl}.
+ *
+ * @author volsch
+ */
+public class ScriptEvaluatorImplTest
+{
+    private static final List<String> SCRIPT_ENGINE_ARGS = Arrays.asList( "-doe", "--no-java", "--no-syntax-extensions" );
+
+    @Test
+    public void evalShared()
+    {
+        final ScriptEvaluatorImpl scriptEvaluator = new ScriptEvaluatorImpl( "nashorn", SCRIPT_ENGINE_ARGS, 60, 10 );
+        Assert.assertEquals( 5, ( (Number) scriptEvaluator.eval( "test", "value + 2", Collections.singletonMap( "value", 3 ) ) ).intValue() );
+    }
+
+    @Test
+    public void evalPooledResetsGlobalVariables()
+    {
+        final ScriptEvaluatorImpl scriptEvaluator = new ScriptEvaluatorImpl( "nashorn", SCRIPT_ENGINE_ARGS, 60, 10, 1, 1000, null );
+        final String script = "var updated; if (input) { updated = true; } other = 'x'; updated";
+
+        Assert.assertEquals( Boolean.TRUE, scriptEvaluator.eval( "test", script, Collections.singletonMap( "input", true ) ) );
+        Assert.assertNull( scriptEvaluator.eval( "test", script, Collections.singletonMap( "input", false ) ) );
+        Assert.assertEquals( Boolean.TRUE, scriptEvaluator.eval( "test2", "typeof other === 'undefined' && typeof input === 'undefined'", Collections.emptyMap() ) );
+    }
+
+    @Test
+    public void evalPooledNested()
+    {
+        final ScriptEvaluatorImpl scriptEvaluator = new ScriptEvaluatorImpl( "nashorn", SCRIPT_ENGINE_ARGS, 60, 10, 1, 0, null );
+        final Map<String, Object> args = new HashMap<>();
+        args.put( "value", 3 );
+        args.put( "nested", new NestedEvaluation( scriptEvaluator ) );
+
+        Assert.assertEquals( 10, ( (Number) scriptEvaluator.eval( "outer", "nested.eval() + value", args ) ).intValue() );
+    }
+
+    @Test
+    public void evalPooledMetrics()
+    {
+        final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final ScriptEvaluatorImpl scriptEvaluator = new ScriptEvaluatorImpl( "nashorn", SCRIPT_ENGINE_ARGS, 60, 10, 2, 1000, meterRegistry );
+
+        scriptEvaluator.eval( "test", "1 + 1", Collections.emptyMap() );
+        Assert.assertEquals( 1, meterRegistry.get( ScriptEvaluatorImpl.POOL_WAIT_METRIC_NAME ).timer().count() );
+        Assert.assertEquals( 2, meterRegistry.get( ScriptEvaluatorImpl.POOL_AVAILABLE_METRIC_NAME ).gauge().value(), 0 );
+    }
+
+    public static class NestedEvaluation
+    {
+        private final ScriptEvaluatorImpl scriptEvaluator;
+
+        public NestedEvaluation( ScriptEvaluatorImpl scriptEvaluator )
+        {
+            this.scriptEvaluator = scriptEvaluator;
+        }
+
+        public int eval()
+        {
+            return ( (Number) scriptEvaluator.eval( "inner", "value * 2", Collections.singletonMap( "value", 3.5 ) ) ).intValue();
+        }
+    }
+}
@@ -29,6 +29,7 @@ package org.dhis2.fhir.adapter.dhis.config;
  */
 
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
@@ -39,30 +40,51 @@ import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateTimeDeserializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.InstantSerializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateSerializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateTimeSerializer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
 import org.dhis2.fhir.adapter.auth.Authorization;
 import org.dhis2.fhir.adapter.auth.AuthorizationContext;
+import org.dhis2.fhir.adapter.cache.JsonRedisSerializerFactory;
 import org.dhis2.fhir.adapter.jackson.AdapterBeanPropertyFilter;
 import org.dhis2.fhir.adapter.jackson.JsonCachePropertyFilter;
 import org.dhis2.fhir.adapter.jackson.SecuredPropertyFilter;
 import org.dhis2.fhir.adapter.jackson.ZonedDateTimeDeserializer;
 import org.dhis2.fhir.adapter.jackson.ZonedDateTimeSerializer;
+import org.dhis2.fhir.adapter.rest.AbstractAuthorizationAsyncRestTemplate;
 import org.dhis2.fhir.adapter.rest.AbstractSessionCookieRestTemplate;
+import org.dhis2.fhir.adapter.rest.AuthorizedAsyncRestTemplate;
 import org.dhis2.fhir.adapter.rest.AuthorizedRestTemplate;
 import org.dhis2.fhir.adapter.rest.CaffeineRestTemplateCookieStore;
+import org.dhis2.fhir.adapter.rest.GzipRequestCompressionInterceptor;
 import org.dhis2.fhir.adapter.rest.RestTemplateCookieStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -70,6 +92,9 @@ import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.fasterxml.jackson.databind.SerializationFeature.FAIL_ON_UNWRAPPED_TYPE_IDENTIFIERS;
 import static com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS;
@@ -82,17 +107,42 @@ import static com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS
 @Configuration
 public class DhisConfig
 {
+    public static final String CONNECTIONS_LEASED_METRIC_NAME = "dhis2.fhir.adapter.dhis.connections.leased";
+
+    public static final String CONNECTIONS_PENDING_METRIC_NAME = "dhis2.fhir.adapter.dhis.connections.pending";
+
+    public static final String CONNECTIONS_AVAILABLE_METRIC_NAME = "dhis2.fhir.adapter.dhis.connections.available";
+
+    public static final String CONNECTIONS_MAX_METRIC_NAME = "dhis2.fhir.adapter.dhis.connections.max";
+
+    public static final String POOL_TAG_NAME = "pool";
+
+    /**
+     * Creates the HTTP client that is used to exchange data with DHIS2 (data imports and FHIR REST interfaces).
+     *
+     * @param endpointConfig the endpoint configuration of the DHIS2 endpoint.
+     * @param meterRegistry  the optional meter registry with which the metrics of the connection pool are registered.
+     * @return the HTTP client.
+     */
     @Bean( destroyMethod = "close" )
     @Nonnull
-    public CloseableHttpClient dhisHttpClient( @Nonnull DhisEndpointConfig endpointConfig )
+    public CloseableHttpClient dhisHttpClient( @Nonnull DhisEndpointConfig endpointConfig, @Nonnull ObjectProvider<MeterRegistry> meterRegistry )
     {
-        return HttpClientBuilder.create()
-            .useSystemProperties()
-            .disableCookieManagement()
-            .disableAuthCaching()
-            .setMaxConnTotal( endpointConfig.getMaxPooledConnections() )
-            .setMaxConnPerRoute( endpointConfig.getMaxPooledConnections() )
-            .build();
+        return createHttpClient( "user", endpointConfig.getMaxPooledConnections(), endpointConfig, meterRegistry.getIfAvailable() );
+    }
+
+    /**
+     * Creates the HTTP client that is used with the system authentication (metadata and polling of DHIS2 resources).
+     *
+     * @param endpointConfig the endpoint configuration of the DHIS2 endpoint.
+     * @param meterRegistry  the optional meter registry with which the metrics of the connection pool are registered.
+     * @return the HTTP client.
+     */
+    @Bean( destroyMethod = "close" )
+    @Nonnull
+    public CloseableHttpClient systemDhisHttpClient( @Nonnull DhisEndpointConfig endpointConfig, @Nonnull ObjectProvider<MeterRegistry> meterRegistry )
+    {
+        return createHttpClient( "system", endpointConfig.getMaxPooledSystemConnections(), endpointConfig, meterRegistry.getIfAvailable() );
     }
 
     @Bean
@@ -102,6 +152,56 @@ public class DhisConfig
         return new HttpComponentsClientHttpRequestFactory( httpClient );
     }
 
+    @Bean
+    @Nonnull
+    public ClientHttpRequestFactory systemDhisClientHttpRequestFactory( @Nonnull @Qualifier( "systemDhisHttpClient" ) HttpClient httpClient )
+    {
+        return new HttpComponentsClientHttpRequestFactory( httpClient );
+    }
+
+    /**
+     * Creates the non-blocking HTTP client that is used to issue independent requests to DHIS2
+     * concurrently with the authentication of the current request (e.g. lookups of tracker resources).
+     * The client uses its own connection pool with the same maximum size as {@link #dhisHttpClient}.
+     *
+     * @param endpointConfig the endpoint configuration of the DHIS2 endpoint.
+     * @return the asynchronous HTTP client.
+     */
+    @Bean( destroyMethod = "close" )
+    @Nonnull
+    public CloseableHttpAsyncClient dhisHttpAsyncClient( @Nonnull DhisEndpointConfig endpointConfig )
+    {
+        return createHttpAsyncClient( endpointConfig.getMaxPooledConnections(), endpointConfig );
+    }
+
+    /**
+     * Creates the non-blocking HTTP client that is used with the system authentication (e.g.
+     * retrieval of the next page when polling DHIS2 resources).
+     *
+     * @param endpointConfig the endpoint configuration of the DHIS2 endpoint.
+     * @return the asynchronous HTTP client.
+     */
+    @Bean( destroyMethod = "close" )
+    @Nonnull
+    public CloseableHttpAsyncClient systemDhisHttpAsyncClient( @Nonnull DhisEndpointConfig endpointConfig )
+    {
+        return createHttpAsyncClient( endpointConfig.getMaxPooledSystemConnections(), endpointConfig );
+    }
+
+    @Bean
+    @Nonnull
+    public HttpComponentsAsyncClientHttpRequestFactory dhisAsyncClientHttpRequestFactory( @Nonnull @Qualifier( "dhisHttpAsyncClient" ) CloseableHttpAsyncClient httpAsyncClient )
+    {
+        return new HttpComponentsAsyncClientHttpRequestFactory( httpAsyncClient );
+    }
+
+    @Bean
+    @Nonnull
+    public HttpComponentsAsyncClientHttpRequestFactory systemDhisAsyncClientHttpRequestFactory( @Nonnull @Qualifier( "systemDhisHttpAsyncClient" ) CloseableHttpAsyncClient httpAsyncClient )
+    {
+        return new HttpComponentsAsyncClientHttpRequestFactory( httpAsyncClient );
+    }
+
     @Bean
     @Nonnull
     public RestTemplateCookieStore dhisCookieStore()
@@ -127,6 +227,7 @@ public class DhisConfig
         return builder.requestFactory( () -> clientHttpRequestFactory )
             .rootUri( getRootUri( endpointConfig, false ) )
             .setConnectTimeout( endpointConfig.getConnectTimeout() ).setReadTimeout( endpointConfig.getReadTimeout() )
+            .additionalInterceptors( createInterceptors( endpointConfig ) )
             .configure( new AuthorizedRestTemplate( authorizationContext, endpointConfig.getWwwAuthenticates(), cookieStore ) );
     }
 
@@ -141,12 +242,13 @@ public class DhisConfig
     @Bean
     @Nonnull
     public RestTemplate systemDhis2RestTemplate( @Nonnull RestTemplateBuilder builder, @Nonnull DhisEndpointConfig endpointConfig,
-        @Nonnull @Qualifier( "dhisClientHttpRequestFactory" ) ClientHttpRequestFactory clientHttpRequestFactory, @Nonnull @Qualifier( "dhisCookieStore" ) RestTemplateCookieStore cookieStore )
+        @Nonnull @Qualifier( "systemDhisClientHttpRequestFactory" ) ClientHttpRequestFactory clientHttpRequestFactory, @Nonnull @Qualifier( "dhisCookieStore" ) RestTemplateCookieStore cookieStore )
     {
         final String basicAuthHeaderValue = createBasicAuthHeaderValue( endpointConfig.getSystemAuthentication().getUsername(), endpointConfig.getSystemAuthentication().getPassword() );
         return builder.requestFactory( () -> clientHttpRequestFactory )
             .rootUri( getRootUri( endpointConfig, false ) )
             .setConnectTimeout( endpointConfig.getConnectTimeout() ).setReadTimeout( endpointConfig.getReadTimeout() )
+            .additionalInterceptors( createInterceptors( endpointConfig ) )
             .configure( new AbstractSessionCookieRestTemplate( cookieStore )
             {
                 @Nonnull
@@ -158,6 +260,52 @@ public class DhisConfig
             } );
     }
 
+    /**
+     * Creates an asynchronous REST template that connects to DHIS2 with the authentication that is provided by
+     * {@link AuthorizationContext} in the current execution scope of the thread that issues a request.
+     *
+     * @param builder              the rest template builder to be used.
+     * @param endpointConfig       the endpoint configuration of the DHIS2 endpoint.
+     * @param authorizationContext the authorization context from which the REST template gets its authorization information dynamically.
+     * @param requestFactory       the request factory that executes the requests asynchronously.
+     * @return the generated asynchronous user rest template that uses the specified authorization context for authorization.
+     */
+    @Bean
+    @Nonnull
+    @SuppressWarnings( "deprecation" )
+    public AsyncRestTemplate userDhis2AsyncRestTemplate( @Nonnull RestTemplateBuilder builder, @Nonnull DhisEndpointConfig endpointConfig, @Nonnull AuthorizationContext authorizationContext,
+        @Nonnull @Qualifier( "dhisAsyncClientHttpRequestFactory" ) HttpComponentsAsyncClientHttpRequestFactory requestFactory )
+    {
+        return new AuthorizedAsyncRestTemplate( requestFactory, createAsyncRestTemplateDelegate( builder, endpointConfig, requestFactory ),
+            authorizationContext, endpointConfig.getWwwAuthenticates() );
+    }
+
+    /**
+     * Creates an asynchronous REST template that connects to DHIS2 with the authentication that is included in the specified endpoint configuration.
+     *
+     * @param builder        the rest template builder to be used.
+     * @param endpointConfig the endpoint configuration of the DHIS2 endpoint.
+     * @param requestFactory the request factory that executes the requests asynchronously.
+     * @return the generated asynchronous system rest template that uses the authorization that is included in the specified endpoint configuration
+     */
+    @Bean
+    @Nonnull
+    @SuppressWarnings( "deprecation" )
+    public AsyncRestTemplate systemDhis2AsyncRestTemplate( @Nonnull RestTemplateBuilder builder, @Nonnull DhisEndpointConfig endpointConfig,
+        @Nonnull @Qualifier( "systemDhisAsyncClientHttpRequestFactory" ) HttpComponentsAsyncClientHttpRequestFactory requestFactory )
+    {
+        final String basicAuthHeaderValue = createBasicAuthHeaderValue( endpointConfig.getSystemAuthentication().getUsername(), endpointConfig.getSystemAuthentication().getPassword() );
+        return new AbstractAuthorizationAsyncRestTemplate( requestFactory, createAsyncRestTemplateDelegate( builder, endpointConfig, requestFactory ) )
+        {
+            @Nonnull
+            @Override
+            protected String getAuthorizationHeaderValue()
+            {
+                return basicAuthHeaderValue;
+            }
+        };
+    }
+
     /**
      * Returns the system authorization.
      *
@@ -173,14 +321,22 @@ public class DhisConfig
     }
 
     /**
-     * Creates a Redis serializer that ignores one to many relationships.
+     * Creates the factory of Redis serializers that ignore one to many relationships.
+     * The serializers write the data format (JSON or a binary data format like Smile)
+     * of the Jackson factory that is passed to the factory.
      *
-     * @return the Redis serializer.
+     * @return the factory of Redis serializers.
      */
     @Bean
-    public GenericJackson2JsonRedisSerializer cacheRedisSerializer()
+    public JsonRedisSerializerFactory<Object> cacheRedisSerializerFactory()
     {
-        final ObjectMapper mapper = new ObjectMapper();
+        return jsonFactory -> new GenericJackson2JsonRedisSerializer( createCacheObjectMapper( jsonFactory ) );
+    }
+
+    @Nonnull
+    protected static ObjectMapper createCacheObjectMapper( @Nonnull JsonFactory jsonFactory )
+    {
+        final ObjectMapper mapper = new ObjectMapper( jsonFactory );
         mapper.enableDefaultTyping( ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY );
         mapper.setFilterProvider( new SimpleFilterProvider()
             .addFilter( AdapterBeanPropertyFilter.FILTER_NAME, new JsonCachePropertyFilter() )
@@ -201,7 +357,97 @@ public class DhisConfig
         module.addDeserializer( LocalDate.class, new LocalDateDeserializer( DateTimeFormatter.ISO_LOCAL_DATE ) );
         mapper.registerModule( module );
 
-        return new GenericJackson2JsonRedisSerializer( mapper );
+        return mapper;
+    }
+
+    @Nonnull
+    protected static CloseableHttpClient createHttpClient( @Nonnull String poolName, int maxPooledConnections, @Nonnull DhisEndpointConfig endpointConfig, @Nullable MeterRegistry meterRegistry )
+    {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager( RegistryBuilder.<ConnectionSocketFactory>create()
+            .register( "http", PlainConnectionSocketFactory.getSocketFactory() )
+            .register( "https", SSLConnectionSocketFactory.getSystemSocketFactory() ).build() );
+        connectionManager.setMaxTotal( maxPooledConnections );
+        connectionManager.setDefaultMaxPerRoute( maxPooledConnections );
+
+        final HttpClientBuilder builder = HttpClientBuilder.create()
+            .useSystemProperties()
+            .disableCookieManagement()
+            .disableAuthCaching()
+            .setConnectionManager( connectionManager )
+            .setKeepAliveStrategy( createKeepAliveStrategy( endpointConfig.getKeepAliveDuration() ) )
+            .setDefaultRequestConfig( RequestConfig.custom().setConnectionRequestTimeout( endpointConfig.getConnectionRequestTimeout() ).build() );
+
+        if ( endpointConfig.getIdleConnectionTimeout() > 0 )
+        {
+            builder.evictExpiredConnections().evictIdleConnections( endpointConfig.getIdleConnectionTimeout(), TimeUnit.MILLISECONDS );
+        }
+
+        if ( !endpointConfig.isResponseCompressionEnabled() )
+        {
+            builder.disableContentCompression();
+        }
+
+        if ( meterRegistry != null )
+        {
+            Gauge.builder( CONNECTIONS_LEASED_METRIC_NAME, connectionManager, cm -> cm.getTotalStats().getLeased() ).tag( POOL_TAG_NAME, poolName )
+                .description( "Number of DHIS2 connections that are currently in use." ).register( meterRegistry );
+            Gauge.builder( CONNECTIONS_PENDING_METRIC_NAME, connectionManager, cm -> cm.getTotalStats().getPending() ).tag( POOL_TAG_NAME, poolName )
+                .description( "Number of requests that are waiting for a DHIS2 connection." ).register( meterRegistry );
+            Gauge.builder( CONNECTIONS_AVAILABLE_METRIC_NAME, connectionManager, cm -> cm.getTotalStats().getAvailable() ).tag( POOL_TAG_NAME, poolName )
+                .description( "Number of idle DHIS2 connections that are kept alive." ).register( meterRegistry );
+            Gauge.builder( CONNECTIONS_MAX_METRIC_NAME, connectionManager, cm -> cm.getTotalStats().getMax() ).tag( POOL_TAG_NAME, poolName )
+                .description( "Maximum number of DHIS2 connections." ).register( meterRegistry );
+        }
+
+        return builder.build();
+    }
+
+    @Nonnull
+    protected static CloseableHttpAsyncClient createHttpAsyncClient( int maxPooledConnections, @Nonnull DhisEndpointConfig endpointConfig )
+    {
+        return HttpAsyncClientBuilder.create()
+            .useSystemProperties()
+            .disableCookieManagement()
+            .disableAuthCaching()
+            .setMaxConnTotal( maxPooledConnections )
+            .setMaxConnPerRoute( maxPooledConnections )
+            .setKeepAliveStrategy( createKeepAliveStrategy( endpointConfig.getKeepAliveDuration() ) )
+            .setDefaultRequestConfig( RequestConfig.custom().setConnectionRequestTimeout( endpointConfig.getConnectionRequestTimeout() ).build() )
+            .build();
+    }
+
+    /**
+     * The asynchronous REST template uses the message converters, the root URI and the timeouts of the
+     * REST template builder. Requests are not compressed since request interceptors are not supported.
+     */
+    @Nonnull
+    protected static RestTemplate createAsyncRestTemplateDelegate( @Nonnull RestTemplateBuilder builder, @Nonnull DhisEndpointConfig endpointConfig,
+        @Nonnull HttpComponentsAsyncClientHttpRequestFactory requestFactory )
+    {
+        return builder.requestFactory( () -> requestFactory )
+            .rootUri( getRootUri( endpointConfig, false ) )
+            .setConnectTimeout( endpointConfig.getConnectTimeout() ).setReadTimeout( endpointConfig.getReadTimeout() )
+            .build();
+    }
+
+    @Nonnull
+    protected static ConnectionKeepAliveStrategy createKeepAliveStrategy( long defaultKeepAliveDuration )
+    {
+        return ( response, context ) -> {
+            // a Keep-Alive header that is returned by DHIS2 has precedence
+            final long keepAliveDuration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration( response, context );
+            return (keepAliveDuration > 0) ? keepAliveDuration : defaultKeepAliveDuration;
+        };
+    }
+
+    @Nonnull
+    protected static List<ClientHttpRequestInterceptor> createInterceptors( @Nonnull DhisEndpointConfig endpointConfig )
+    {
+        if ( endpointConfig.isRequestCompressionEnabled() )
+        {
+            return Collections.singletonList( new GzipRequestCompressionInterceptor( endpointConfig.getRequestCompressionThreshold() ) );
+        }
+        return Collections.emptyList();
     }
 
     @Nonnull
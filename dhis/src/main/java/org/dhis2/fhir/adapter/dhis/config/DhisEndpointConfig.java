@@ -42,6 +42,7 @@ import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -68,6 +69,24 @@ public class DhisEndpointConfig implements Serializable
 
     public static final int DEFAULT_MAX_POOLED_CONNECTIONS = 10;
 
+    public static final int DEFAULT_MAX_POOLED_SYSTEM_CONNECTIONS = 5;
+
+    public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 60_000;
+
+    public static final int DEFAULT_IDLE_CONNECTION_TIMEOUT = 60_000;
+
+    public static final int DEFAULT_KEEP_ALIVE_DURATION = 30_000;
+
+    public static final int DEFAULT_REQUEST_COMPRESSION_THRESHOLD = 4_096;
+
+    public static final int DEFAULT_AUTHENTICATION_CACHE_TIMEOUT = 60_000;
+
+    public static final int DEFAULT_AUTHENTICATION_CACHE_MAX_SIZE = 1_000;
+
+    public static final int DEFAULT_PERSIST_CHUNK_SIZE = 100;
+
+    public static final int DEFAULT_PERSIST_THREADS = 2;
+
     @NotBlank
     private String url;
 
@@ -88,6 +107,37 @@ public class DhisEndpointConfig implements Serializable
     @Positive
     private int maxPooledConnections = DEFAULT_MAX_POOLED_CONNECTIONS;
 
+    @Positive
+    private int maxPooledSystemConnections = DEFAULT_MAX_POOLED_SYSTEM_CONNECTIONS;
+
+    @PositiveOrZero
+    private int connectionRequestTimeout = DEFAULT_CONNECTION_REQUEST_TIMEOUT;
+
+    @PositiveOrZero
+    private int idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+
+    @Positive
+    private int keepAliveDuration = DEFAULT_KEEP_ALIVE_DURATION;
+
+    private boolean responseCompressionEnabled = true;
+
+    private boolean requestCompressionEnabled;
+
+    @PositiveOrZero
+    private int requestCompressionThreshold = DEFAULT_REQUEST_COMPRESSION_THRESHOLD;
+
+    @PositiveOrZero
+    private int authenticationCacheTimeout = DEFAULT_AUTHENTICATION_CACHE_TIMEOUT;
+
+    @Positive
+    private int authenticationCacheMaxSize = DEFAULT_AUTHENTICATION_CACHE_MAX_SIZE;
+
+    @Positive
+    private int persistChunkSize = DEFAULT_PERSIST_CHUNK_SIZE;
+
+    @PositiveOrZero
+    private int persistThreads = DEFAULT_PERSIST_THREADS;
+
     @NotNull
     private List<WwwAuthenticate> wwwAuthenticates = new ArrayList<>();
 
@@ -152,6 +202,116 @@ public class DhisEndpointConfig implements Serializable
         this.maxPooledConnections = maxPooledConnections;
     }
 
+    public int getMaxPooledSystemConnections()
+    {
+        return maxPooledSystemConnections;
+    }
+
+    public void setMaxPooledSystemConnections( int maxPooledSystemConnections )
+    {
+        this.maxPooledSystemConnections = maxPooledSystemConnections;
+    }
+
+    public int getConnectionRequestTimeout()
+    {
+        return connectionRequestTimeout;
+    }
+
+    public void setConnectionRequestTimeout( int connectionRequestTimeout )
+    {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public int getIdleConnectionTimeout()
+    {
+        return idleConnectionTimeout;
+    }
+
+    public void setIdleConnectionTimeout( int idleConnectionTimeout )
+    {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    public int getKeepAliveDuration()
+    {
+        return keepAliveDuration;
+    }
+
+    public void setKeepAliveDuration( int keepAliveDuration )
+    {
+        this.keepAliveDuration = keepAliveDuration;
+    }
+
+    public boolean isResponseCompressionEnabled()
+    {
+        return responseCompressionEnabled;
+    }
+
+    public void setResponseCompressionEnabled( boolean responseCompressionEnabled )
+    {
+        this.responseCompressionEnabled = responseCompressionEnabled;
+    }
+
+    public boolean isRequestCompressionEnabled()
+    {
+        return requestCompressionEnabled;
+    }
+
+    public void setRequestCompressionEnabled( boolean requestCompressionEnabled )
+    {
+        this.requestCompressionEnabled = requestCompressionEnabled;
+    }
+
+    public int getRequestCompressionThreshold()
+    {
+        return requestCompressionThreshold;
+    }
+
+    public void setRequestCompressionThreshold( int requestCompressionThreshold )
+    {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    public int getAuthenticationCacheTimeout()
+    {
+        return authenticationCacheTimeout;
+    }
+
+    public void setAuthenticationCacheTimeout( int authenticationCacheTimeout )
+    {
+        this.authenticationCacheTimeout = authenticationCacheTimeout;
+    }
+
+    public int getAuthenticationCacheMaxSize()
+    {
+        return authenticationCacheMaxSize;
+    }
+
+    public void setAuthenticationCacheMaxSize( int authenticationCacheMaxSize )
+    {
+        this.authenticationCacheMaxSize = authenticationCacheMaxSize;
+    }
+
+    public int getPersistChunkSize()
+    {
+        return persistChunkSize;
+    }
+
+    public void setPersistChunkSize( int persistChunkSize )
+    {
+        this.persistChunkSize = persistChunkSize;
+    }
+
+    public int getPersistThreads()
+    {
+        return persistThreads;
+    }
+
+    public void setPersistThreads( int persistThreads )
+    {
+        this.persistThreads = persistThreads;
+    }
+
     public List<WwwAuthenticate> getWwwAuthenticates()
     {
         return wwwAuthenticates;
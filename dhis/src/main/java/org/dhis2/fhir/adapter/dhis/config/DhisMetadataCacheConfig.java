@@ -30,6 +30,7 @@ package org.dhis2.fhir.adapter.dhis.config;
 
 import org.apache.commons.lang3.StringUtils;
 import org.dhis2.fhir.adapter.cache.AbstractSimpleCacheConfig;
+import org.dhis2.fhir.adapter.cache.JsonRedisSerializerFactory;
 import org.dhis2.fhir.adapter.cache.RequestCacheService;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -42,7 +43,6 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.annotation.Validated;
 
@@ -63,6 +63,23 @@ public class DhisMetadataCacheConfig extends AbstractSimpleCacheConfig
 {
     private static final long serialVersionUID = 3060542002074294407L;
 
+    private boolean prefetchEnabled = true;
+
+    /**
+     * @return <code>true</code> if the DHIS2 metadata that is referenced by the
+     * mappings should be fetched in bulk at startup and when mappings are changed,
+     * <code>false</code> if the DHIS2 metadata should be fetched when it is used.
+     */
+    public boolean isPrefetchEnabled()
+    {
+        return prefetchEnabled;
+    }
+
+    public void setPrefetchEnabled( boolean prefetchEnabled )
+    {
+        this.prefetchEnabled = prefetchEnabled;
+    }
+
     @Nonnull
     @Override
     protected String getCacheManagerName()
@@ -73,9 +90,9 @@ public class DhisMetadataCacheConfig extends AbstractSimpleCacheConfig
     @Primary
     @Bean
     @Nonnull
-    protected CacheManager dhisCacheManager( @Nonnull RequestCacheService requestCacheService, @Nonnull ObjectProvider<RedisConnectionFactory> redisConnectionFactoryProvider, @Nonnull GenericJackson2JsonRedisSerializer redisSerializer )
+    protected CacheManager dhisCacheManager( @Nonnull RequestCacheService requestCacheService, @Nonnull ObjectProvider<RedisConnectionFactory> redisConnectionFactoryProvider, @Nonnull JsonRedisSerializerFactory<Object> redisSerializerFactory )
     {
-        return createCacheManager( requestCacheService, redisConnectionFactoryProvider, redisSerializer );
+        return createCacheManager( requestCacheService, redisConnectionFactoryProvider, redisSerializerFactory );
     }
 
     @Nonnull
@@ -87,17 +104,30 @@ public class DhisMetadataCacheConfig extends AbstractSimpleCacheConfig
             @Override
             protected Collection<String> getCacheNames( @Nonnull CacheOperationInvocationContext<?> context )
             {
-                String name = context.getTarget().getClass().getSimpleName();
+                return Collections.singletonList( getMetadataCacheName( context.getTarget().getClass() ) );
+            }
+        };
+    }
+
+    /**
+     * Returns the name of the cache that is used by {@link #dhisMetadataCacheResolver(CacheManager)}
+     * for the specified metadata service class.
+     *
+     * @param serviceClass the class of the metadata service.
+     * @return the name of the cache.
+     */
+    @Nonnull
+    public static String getMetadataCacheName( @Nonnull Class<?> serviceClass )
+    {
+        String name = serviceClass.getSimpleName();
 
-                final int index = name.indexOf( "Service" );
+        final int index = name.indexOf( "Service" );
 
-                if ( index > 0 )
-                {
-                    name = name.substring( 0, index );
-                }
+        if ( index > 0 )
+        {
+            name = name.substring( 0, index );
+        }
 
-                return Collections.singletonList( StringUtils.uncapitalize( name ) );
-            }
-        };
+        return StringUtils.uncapitalize( name );
     }
 }
@@ -55,4 +55,25 @@ public class CustomProcessedDhisResourceRepositoryImpl extends AbstractProcessed
     {
         return ProcessedDhisResource.class;
     }
+
+    @Nonnull
+    @Override
+    protected String getTableName()
+    {
+        return "fhir_processed_dhis_resource";
+    }
+
+    @Nonnull
+    @Override
+    protected String getGroupColumnName()
+    {
+        return "dhis_sync_group_id";
+    }
+
+    @Nonnull
+    @Override
+    protected String getProcessedIdColumnName()
+    {
+        return "processed_id";
+    }
 }
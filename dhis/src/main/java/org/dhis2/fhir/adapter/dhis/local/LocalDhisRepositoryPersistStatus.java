@@ -35,5 +35,11 @@ package org.dhis2.fhir.adapter.dhis.local;
  */
 public enum LocalDhisRepositoryPersistStatus
 {
-    SUCCESS, ERROR, NOT_FOUND
+    SUCCESS, ERROR, NOT_FOUND,
+
+    /**
+     * DHIS2 rejected the resource with an import conflict (the same case in
+     * which the import of a single resource results in a conflict status).
+     */
+    CONFLICT
 }
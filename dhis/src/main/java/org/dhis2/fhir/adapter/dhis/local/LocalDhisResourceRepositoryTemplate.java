@@ -37,6 +37,7 @@ import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -94,6 +95,25 @@ public class LocalDhisResourceRepositoryTemplate<T extends DhisResource>
         } ).orElseGet( () -> persistCallback.persistSave( resource ) );
     }
 
+    /**
+     * Saves the resource asynchronously. If a local repository is available, the resource
+     * is saved in the local repository by the calling thread and the returned future has
+     * already been completed.
+     *
+     * @param resource        the resource that should be saved.
+     * @param persistFunction the function that starts persisting the resource on DHIS2.
+     * @return the future of the saved resource.
+     */
+    @Nonnull
+    public CompletableFuture<T> saveAsync( @Nonnull T resource, @Nonnull Function<T, CompletableFuture<T>> persistFunction )
+    {
+        final RequestCacheContext context = requestCacheService.getCurrentRequestCacheContext();
+        final Optional<LocalDhisResourceRepository<T>> repository = getRepository( context );
+
+        return repository.map( r -> CompletableFuture.completedFuture( r.save( resource, getResourceKey( context ) ) ) )
+            .orElseGet( () -> persistFunction.apply( resource ) );
+    }
+
     public boolean deleteById( @Nonnull String id, @Nonnull Function<String, T> prototypeFunction )
     {
         final RequestCacheContext context = requestCacheService.getCurrentRequestCacheContext();
@@ -124,6 +144,29 @@ public class LocalDhisResourceRepositoryTemplate<T extends DhisResource>
         return Optional.ofNullable( result );
     }
 
+    /**
+     * Finds the resource with the specified ID asynchronously. The local repository is
+     * accessed by the calling thread, only the remote lookup is performed asynchronously.
+     *
+     * @param id       the ID of the resource that should be returned.
+     * @param callback the callback that starts the remote lookup.
+     * @return the future of the resource.
+     */
+    @Nonnull
+    public CompletableFuture<Optional<T>> findOneByIdAsync( @Nonnull String id, @Nonnull Function<String, CompletableFuture<T>> callback )
+    {
+        final RequestCacheContext context = requestCacheService.getCurrentRequestCacheContext();
+        final Optional<LocalDhisResourceRepository<T>> repository = getRepository( context );
+        final T result = repository.flatMap( r -> r.findOneById( id ) ).orElse( null );
+
+        if ( result != null )
+        {
+            return CompletableFuture.completedFuture( Optional.of( result ) );
+        }
+
+        return callback.apply( id ).thenApply( Optional::ofNullable );
+    }
+
     public boolean isLocal( @Nonnull String id )
     {
         final RequestCacheContext context = requestCacheService.getCurrentRequestCacheContext();
@@ -173,6 +216,46 @@ public class LocalDhisResourceRepositoryTemplate<T extends DhisResource>
         return result == null ? Collections.emptyList() : result;
     }
 
+    /**
+     * Finds the resources asynchronously. The local repository is resolved by the calling
+     * thread. Since the local repository is not thread-safe and the remotely found resources
+     * are merged into it when the returned future completes, the calling thread must wait
+     * for the returned future before it accesses the local repository of this resource type again.
+     *
+     * @param trackedEntityInstanceId the optional ID of the tracked entity instance to which the resources belong to.
+     * @param filter                  the filter that is applied to the resources of the local repository.
+     * @param collectionSupplier      the supplier that starts the remote lookup.
+     * @param localOnly               <code>true</code> if only the local repository should be used.
+     * @param methodName              the method name that is used as part of the collection key.
+     * @param args                    the arguments that are used as part of the collection key.
+     * @return the future of the found resources.
+     */
+    @Nonnull
+    public CompletableFuture<Collection<T>> findAsync( @Nullable String trackedEntityInstanceId, @Nonnull Predicate<T> filter, @Nonnull Supplier<CompletableFuture<Collection<T>>> collectionSupplier,
+        boolean localOnly, @Nonnull String methodName, @Nonnull Object... args )
+    {
+        final RequestCacheContext context = requestCacheService.getCurrentRequestCacheContext();
+        final Optional<LocalDhisResourceRepository<T>> repository = getRepository( context );
+        final String key = createCollectionKey( methodName, args );
+
+        if ( repository.isPresent() && ( localOnly || repository.get().containsCollectionKey( key ) ) )
+        {
+            return CompletableFuture.completedFuture( trackedEntityInstanceId == null ?
+                repository.get().find( filter ) : repository.get().find( trackedEntityInstanceId, filter ) );
+        }
+
+        if ( localOnly )
+        {
+            return CompletableFuture.completedFuture( Collections.emptyList() );
+        }
+
+        return collectionSupplier.get().thenApply( result -> {
+            final Collection<T> found = repository.isPresent() ? repository.get().found( result, key ) : result;
+
+            return found == null ? Collections.emptyList() : found;
+        } );
+    }
+
     @Nonnull
     private Optional<LocalDhisResourceRepository<T>> getRepository( @Nullable RequestCacheContext context )
     {
@@ -0,0 +1,138 @@
+package org.dhis2.fhir.adapter.dhis.local.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.dhis2.fhir.adapter.auth.Authorization;
+import org.dhis2.fhir.adapter.auth.AuthorizationContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.dhis.config.DhisEndpointConfig;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainer;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainerFactory;
+import org.dhis2.fhir.adapter.dhis.model.DhisResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Implementation of {@link LocalDhisResourceRepositoryContainerFactory}. The chunks
+ * of one resource type are persisted by a bounded number of worker threads that
+ * are shared by all containers. The authorization, the security context and the
+ * request cache context of the thread that submits a chunk are propagated to the
+ * worker.
+ *
+ * @author volsch
+ */
+@Component
+public class LocalDhisResourceRepositoryContainerFactoryImpl implements LocalDhisResourceRepositoryContainerFactory, DisposableBean
+{
+    private final AuthorizationContext authorizationContext;
+
+    private final RequestCacheService requestCacheService;
+
+    private final int persistChunkSize;
+
+    private final ExecutorService executor;
+
+    public LocalDhisResourceRepositoryContainerFactoryImpl( @Nonnull AuthorizationContext authorizationContext, @Nonnull RequestCacheService requestCacheService,
+        @Nonnull DhisEndpointConfig endpointConfig )
+    {
+        this.authorizationContext = authorizationContext;
+        this.requestCacheService = requestCacheService;
+        this.persistChunkSize = endpointConfig.getPersistChunkSize();
+
+        if ( endpointConfig.getPersistThreads() > 0 )
+        {
+            executor = Executors.newFixedThreadPool( endpointConfig.getPersistThreads(),
+                new ThreadFactoryBuilder().setNameFormat( "dhis-persist-%d" ).setDaemon( true ).build() );
+        }
+        else
+        {
+            executor = null;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public LocalDhisResourceRepositoryContainer create( @Nonnull Set<Class<? extends DhisResource>> supportedResourceClasses )
+    {
+        return new LocalDhisResourceRepositoryContainerImpl( supportedResourceClasses, persistChunkSize, (executor == null) ? null : this::execute );
+    }
+
+    @Override
+    public void destroy()
+    {
+        if ( executor != null )
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    protected void execute( @Nonnull Runnable command )
+    {
+        final Authorization authorization = authorizationContext.getAuthorization();
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+        final RequestCacheContext requestCacheContext = requestCacheService.getCurrentRequestCacheContext();
+
+        executor.execute( () -> executeInContext( authorization, securityContext, requestCacheContext, command ) );
+    }
+
+    private void executeInContext( @Nonnull Authorization authorization, @Nonnull SecurityContext securityContext, @Nullable RequestCacheContext requestCacheContext, @Nonnull Runnable command )
+    {
+        authorizationContext.setAuthorization( authorization );
+        SecurityContextHolder.setContext( securityContext );
+        try
+        {
+            if ( requestCacheContext == null )
+            {
+                command.run();
+            }
+            else
+            {
+                try ( final RequestCacheContext boundRequestCacheContext = requestCacheService.bindRequestCacheContext( requestCacheContext ) )
+                {
+                    command.run();
+                }
+            }
+        }
+        finally
+        {
+            SecurityContextHolder.clearContext();
+            authorizationContext.resetAuthorization();
+        }
+    }
+}
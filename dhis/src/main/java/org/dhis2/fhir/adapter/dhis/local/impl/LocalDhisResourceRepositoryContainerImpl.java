@@ -36,12 +36,14 @@ import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainer;
 import org.dhis2.fhir.adapter.dhis.model.DhisResource;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Container with resource type specific repositories. Instances of this class
@@ -55,9 +57,20 @@ public class LocalDhisResourceRepositoryContainerImpl implements LocalDhisResour
 
     private final Map<Class<? extends DhisResource>, RepositoryItem<? extends DhisResource>> repositoryItems = new HashMap<>();
 
+    private final int persistChunkSize;
+
+    private final Executor persistExecutor;
+
     public LocalDhisResourceRepositoryContainerImpl( @Nonnull Set<Class<? extends DhisResource>> supportedResourceClasses )
+    {
+        this( supportedResourceClasses, 0, null );
+    }
+
+    public LocalDhisResourceRepositoryContainerImpl( @Nonnull Set<Class<? extends DhisResource>> supportedResourceClasses, int persistChunkSize, @Nullable Executor persistExecutor )
     {
         this.supportedResourceClasses = new LinkedHashSet<>( supportedResourceClasses );
+        this.persistChunkSize = persistChunkSize;
+        this.persistExecutor = persistExecutor;
     }
 
     @Nonnull
@@ -72,7 +85,7 @@ public class LocalDhisResourceRepositoryContainerImpl implements LocalDhisResour
         }
 
         final RepositoryItem<? extends DhisResource> repositoryItem = repositoryItems.computeIfAbsent( resourceClass,
-            rc -> new RepositoryItem<>( new LocalDhisResourceRepositoryImpl<>( resourceClass ), persistCallback ) );
+            rc -> new RepositoryItem<>( new LocalDhisResourceRepositoryImpl<>( resourceClass, persistChunkSize, persistExecutor ), persistCallback ) );
 
         return (LocalDhisResourceRepository<T>) repositoryItem.getResourceRepository();
     }
@@ -80,6 +93,8 @@ public class LocalDhisResourceRepositoryContainerImpl implements LocalDhisResour
     @Override
     public void apply( @Nonnull LocalDhisRepositoryResultCallback resultCallback )
     {
+        // the chunks of one resource type may be persisted in parallel, but all resources of one type
+        // have been persisted before the resources of the next type are persisted
         supportedResourceClasses.stream().map( repositoryItems::get ).filter( Objects::nonNull )
             .forEach( ri -> ri.applySaves( resultCallback ) );
 
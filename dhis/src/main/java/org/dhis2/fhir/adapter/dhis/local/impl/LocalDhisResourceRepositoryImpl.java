@@ -28,12 +28,17 @@ package org.dhis2.fhir.adapter.dhis.local.impl;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.google.common.collect.Lists;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryPersistCallback;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryPersistResult;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryPersistStatus;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryResultCallback;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepository;
 import org.dhis2.fhir.adapter.dhis.model.DhisResource;
 import org.dhis2.fhir.adapter.dhis.model.TrackedEntityDhisResource;
 import org.dhis2.fhir.adapter.dhis.util.CodeGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -47,18 +52,29 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
- * Repository that stores DHIS2 resources locally.
+ * Repository that stores DHIS2 resources locally. The stored resources are persisted
+ * in chunks of the configured size. If an executor has been specified, the chunks are
+ * persisted in parallel by the executor. The results are always passed to the result
+ * callback by the thread that applies the changes. If more than one chunk is persisted
+ * and one chunk fails, the resources of that chunk get an error result and the results
+ * of the remaining chunks are passed to the result callback as well.
  *
  * @param <T> the concrete type of the resource.
  * @author volsch
  */
 public class LocalDhisResourceRepositoryImpl<T extends DhisResource> implements LocalDhisResourceRepository<T>
 {
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
     private final Map<String, LocalDhisResource<T>> resourcesById = new HashMap<>();
 
     private final Map<String, Map<String, LocalDhisResource<T>>> resourcesByTeiId = new HashMap<>();
@@ -67,9 +83,20 @@ public class LocalDhisResourceRepositoryImpl<T extends DhisResource> implements
 
     private final Class<T> resourceClass;
 
+    private final int persistChunkSize;
+
+    private final Executor persistExecutor;
+
     public LocalDhisResourceRepositoryImpl( @Nonnull Class<T> resourceClass )
+    {
+        this( resourceClass, 0, null );
+    }
+
+    public LocalDhisResourceRepositoryImpl( @Nonnull Class<T> resourceClass, int persistChunkSize, @Nullable Executor persistExecutor )
     {
         this.resourceClass = resourceClass;
+        this.persistChunkSize = persistChunkSize;
+        this.persistExecutor = persistExecutor;
     }
 
     @Override
@@ -179,12 +206,8 @@ public class LocalDhisResourceRepositoryImpl<T extends DhisResource> implements
 
         if ( !localResources.isEmpty() )
         {
-            persistCallback.persistSave( localResources.values().stream().map( LocalDhisResource::getResource ).collect( Collectors.toList() ), create, result -> {
-                final LocalDhisResource<T> localDhisResource = Objects.requireNonNull( localResources.get( result.getResourceId() ),
-                    () -> "No request for resource with ID " + result.getResourceId() );
-
-                resultCallback.persisted( localDhisResource.getResource(), localDhisResource.getResourceKey(), result );
-            } );
+            persist( localResources.values().stream().map( LocalDhisResource::getResource ).collect( Collectors.toList() ),
+                ( resources, resultConsumer ) -> persistCallback.persistSave( resources, create, resultConsumer ), DhisResource::getId, localResources, resultCallback );
         }
     }
 
@@ -196,13 +219,65 @@ public class LocalDhisResourceRepositoryImpl<T extends DhisResource> implements
 
         if ( !localResources.isEmpty() )
         {
-            persistCallback.persistDeleteById( localResources.values().stream().map( lr -> lr.getResource().getId() ).collect( Collectors.toList() ), result -> {
-                final LocalDhisResource<T> localDhisResource = Objects.requireNonNull( localResources.get( result.getResourceId() ),
-                    () -> "No request for resource with ID " + result.getResourceId() );
+            persist( localResources.values().stream().map( lr -> lr.getResource().getId() ).collect( Collectors.toList() ),
+                persistCallback::persistDeleteById, Function.identity(), localResources, resultCallback );
+        }
+    }
+
+    protected <E> void persist( @Nonnull List<E> items, @Nonnull BiConsumer<List<E>, Consumer<LocalDhisRepositoryPersistResult>> persistFunction,
+        @Nonnull Function<E, String> idFunction, @Nonnull Map<String, LocalDhisResource<T>> localResources, @Nonnull LocalDhisRepositoryResultCallback resultCallback )
+    {
+        if ( (persistChunkSize <= 0) || (items.size() <= persistChunkSize) )
+        {
+            persistFunction.accept( items, result -> persisted( result, localResources, resultCallback ) );
+            return;
+        }
+
+        final List<List<E>> chunks = Lists.partition( items, persistChunkSize );
+
+        if ( persistExecutor == null )
+        {
+            chunks.forEach( chunk -> persistChunk( chunk, persistFunction, idFunction ).forEach( result -> persisted( result, localResources, resultCallback ) ) );
+            return;
+        }
+
+        // the result callback may not be thread safe and the results are collected by the workers
+        final List<CompletableFuture<List<LocalDhisRepositoryPersistResult>>> futures = chunks.stream().map( chunk -> CompletableFuture.supplyAsync(
+            () -> persistChunk( chunk, persistFunction, idFunction ), persistExecutor ) ).collect( Collectors.toList() );
+
+        futures.forEach( future -> future.join().forEach( result -> persisted( result, localResources, resultCallback ) ) );
+    }
+
+    @Nonnull
+    private <E> List<LocalDhisRepositoryPersistResult> persistChunk( @Nonnull List<E> chunk, @Nonnull BiConsumer<List<E>, Consumer<LocalDhisRepositoryPersistResult>> persistFunction,
+        @Nonnull Function<E, String> idFunction )
+    {
+        final List<LocalDhisRepositoryPersistResult> results = new ArrayList<>( chunk.size() );
+
+        try
+        {
+            persistFunction.accept( chunk, results::add );
+        }
+        catch ( RuntimeException e )
+        {
+            logger.error( "Persisting chunk with {} resources failed.", chunk.size(), e );
 
-                resultCallback.persisted( localDhisResource.getResource(), localDhisResource.getResourceKey(), result );
-            } );
+            // other chunks may have been persisted already and their results must not get lost
+            final Set<String> resultIds = results.stream().map( LocalDhisRepositoryPersistResult::getResourceId ).collect( Collectors.toSet() );
+            chunk.stream().map( idFunction ).filter( id -> !resultIds.contains( id ) ).forEach(
+                id -> results.add( new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.ERROR, id, e.getMessage() ) ) );
         }
+
+        return results;
+    }
+
+    private void persisted( @Nonnull LocalDhisRepositoryPersistResult result, @Nonnull Map<String, LocalDhisResource<T>> localResources,
+        @Nonnull LocalDhisRepositoryResultCallback resultCallback )
+    {
+        final LocalDhisResource<T> localDhisResource = Objects.requireNonNull( localResources.get( result.getResourceId() ),
+            () -> "No request for resource with ID " + result.getResourceId() );
+
+        resultCallback.persisted( localDhisResource.getResource(), localDhisResource.getResourceKey(), result );
     }
 
     @Nonnull
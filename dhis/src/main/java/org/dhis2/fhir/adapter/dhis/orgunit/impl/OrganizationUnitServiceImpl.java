@@ -35,6 +35,7 @@ import org.dhis2.fhir.adapter.dhis.service.impl.AbstractDhisMetadataServiceImpl;
 import org.dhis2.fhir.adapter.dhis.service.impl.DhisMetadataItems;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
@@ -51,9 +52,10 @@ public class OrganizationUnitServiceImpl extends AbstractDhisMetadataServiceImpl
     protected static final String FIELDS = "lastUpdated,id,code,name,shortName,displayName,level,openingDate,closedDate,coordinates,leaf,parent[id]";
 
     @Autowired
-    public OrganizationUnitServiceImpl( @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate systemRestTemplate, @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate userRestTemplate )
+    public OrganizationUnitServiceImpl( @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate systemRestTemplate, @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate userRestTemplate,
+        @Nonnull @Qualifier( "dhisCacheManager" ) CacheManager cacheManager )
     {
-        super( systemRestTemplate, userRestTemplate );
+        super( systemRestTemplate, userRestTemplate, cacheManager );
     }
 
     @Nonnull
@@ -32,9 +32,11 @@ import com.google.common.collect.Lists;
 import org.dhis2.fhir.adapter.data.model.ProcessedItemInfo;
 import org.dhis2.fhir.adapter.dhis.model.DhisResourceId;
 import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
+import org.dhis2.fhir.adapter.util.CompletableFutureUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.Nonnull;
@@ -51,6 +53,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -61,6 +68,7 @@ import java.util.stream.Collectors;
  * @param <I> the concrete type of the polled item.
  * @author volsch
  */
+@SuppressWarnings( "deprecation" )
 public abstract class AbstractPolledItemRetriever<P extends PolledItems<I>, I extends PolledItem>
 {
     private final Logger logger = LoggerFactory.getLogger( getClass() );
@@ -81,6 +89,12 @@ public abstract class AbstractPolledItemRetriever<P extends PolledItems<I>, I ex
 
     private int maxConsumedSize = 1000;
 
+    private boolean streaming;
+
+    private Executor windowExecutor;
+
+    private AsyncRestTemplate asyncRestTemplate;
+
     protected AbstractPolledItemRetriever( @Nonnull DhisResourceType resourceType, @Nonnull RestTemplate restTemplate, @Nonnull String queryUri, int toleranceMillis, int maxSearchCount, @Nonnull Class<P> polledItemsClass, @Nonnull ZoneId zoneId )
     {
         this.resourceType = resourceType;
@@ -102,44 +116,111 @@ public abstract class AbstractPolledItemRetriever<P extends PolledItems<I>, I ex
         this.maxConsumedSize = maxConsumedSize;
     }
 
+    /**
+     * @return <code>true</code> if the polled items of each page are passed to the consumer
+     * as soon as the page has been retrieved, <code>false</code> if all polled items are
+     * passed to the consumer after all pages have been retrieved. If the retrieval fails
+     * after some pages have been consumed, these items will be polled again with the next
+     * poll and must be filtered by the consumer as already processed items.
+     */
+    public boolean isStreaming()
+    {
+        return streaming;
+    }
+
+    public void setStreaming( boolean streaming )
+    {
+        this.streaming = streaming;
+    }
+
     @Nonnull
     public ZoneId getZoneId()
     {
         return zoneId;
     }
 
+    /**
+     * @return the executor that is used to poll bisected windows in parallel or <code>null</code>
+     * if windows are polled on the current thread only. The executor must propagate the
+     * authorization of the submitting thread. It should be the bounded poll executor that
+     * is shared by all parallel parts of a poll and that runs a window on the submitting
+     * thread if all of its threads are busy. Since every bisection submits a further window,
+     * an executor per resource type or per program would multiply the concurrent requests.
+     */
+    @Nullable
+    public Executor getWindowExecutor()
+    {
+        return windowExecutor;
+    }
+
+    public void setWindowExecutor( @Nullable Executor windowExecutor )
+    {
+        this.windowExecutor = windowExecutor;
+    }
+
+    /**
+     * @return the asynchronous REST template that is used to retrieve the next page of a
+     * timestamp while the current page is processed or <code>null</code> if all pages are
+     * retrieved by the current thread. The template must use the same authorization as
+     * the REST template of this retriever.
+     */
+    @Nullable
+    public AsyncRestTemplate getAsyncRestTemplate()
+    {
+        return asyncRestTemplate;
+    }
+
+    public void setAsyncRestTemplate( @Nullable AsyncRestTemplate asyncRestTemplate )
+    {
+        this.asyncRestTemplate = asyncRestTemplate;
+    }
+
     @Nonnull
     public Instant poll( @Nonnull final Instant lastUpdated, @Nonnull final Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer, @Nullable List<Object> variables )
     {
         final Instant fromLastUpdated = lastUpdated.minus( toleranceMillis, ChronoUnit.MILLIS );
-        final Set<ProcessedItemInfo> allResources = new HashSet<>();
-        final List<ProcessedItemInfo> orderedAllResources = new ArrayList<>();
+        final Consumer<Collection<ProcessedItemInfo>> resultingConsumer = (windowExecutor == null) ? consumer : items -> {
+            synchronized ( consumer )
+            {
+                consumer.accept( items );
+            }
+        };
+
+        // last updated must be set before the first search invocation
+        final Instant processedLastUpdated = Instant.now();
+        pollWindow( fromLastUpdated, null, Collections.emptySet(), excludedStoredBy, resultingConsumer, variables );
+        return processedLastUpdated;
+    }
+
+    /**
+     * Polls the items of the specified window from the newest to the oldest item. Each
+     * result window of the maximum search count is followed by the window that ends with
+     * the oldest returned last updated timestamp. If a result window contains only items
+     * with the same last updated timestamp, the items of this timestamp are retrieved page
+     * by page. If a window executor is available, the remaining window is bisected after
+     * a full result window and both halves are polled in parallel.
+     *
+     * @param fromLastUpdated     the inclusive start of the window.
+     * @param toLastUpdated       the inclusive end of the window or <code>null</code> if the window is open.
+     * @param excludedResources   the resources that have already been consumed for the end of the window.
+     * @param excludedStoredBy    the users of polled items that should not be consumed.
+     * @param consumer            the consumer of the polled items.
+     * @param variables           the additional variables of the query URI.
+     */
+    protected void pollWindow( @Nonnull Instant fromLastUpdated, @Nullable Instant toLastUpdated, @Nonnull Set<ProcessedItemInfo> excludedResources,
+        @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer, @Nullable List<Object> variables )
+    {
+        final CollectedResources collectedResources = new CollectedResources( excludedResources );
         Set<PolledItem> previousPolledItems = null;
-        Instant processedLastUpdated = null;
-        Instant currentToLastUpdated = null;
+        Instant currentToLastUpdated = toLastUpdated;
         boolean moreAvailable;
         do
         {
             logger.debug( "Loading next from {} to {} with maximum count {}.",
                 fromLastUpdated, currentToLastUpdated, maxSearchCount );
-            if ( processedLastUpdated == null )
-            {
-                // last updated must only bet set on the first search invocation
-                processedLastUpdated = Instant.now();
-            }
 
             final P polledItems = getPolledItems( fromLastUpdated, currentToLastUpdated, variables );
-            final List<ProcessedItemInfo> resources =
-                polledItems.getItems().stream().filter( pi -> !excludedStoredBy.contains( pi.getStoredBy() ) )
-                    .map( pi -> new ProcessedItemInfo( DhisResourceId.toString( resourceType, pi.getId() ), pi.getLastUpdated().atZone( zoneId ).toInstant(), pi.isDeleted() ) )
-                    .collect( Collectors.toList() );
-            resources.forEach( r -> {
-                if ( allResources.add( r ) )
-                {
-                    // list must contain only unique items
-                    orderedAllResources.add( r );
-                }
-            } );
+            collectedResources.add( polledItems, excludedStoredBy );
 
             moreAvailable = false;
             if ( !polledItems.getItems().isEmpty() )
@@ -147,25 +228,152 @@ public abstract class AbstractPolledItemRetriever<P extends PolledItems<I>, I ex
                 final Instant nextToLastUpdated = Objects.requireNonNull( polledItems.getFromLastUpdated() ).atZone( zoneId ).toInstant();
                 if ( (currentToLastUpdated != null) && !nextToLastUpdated.isBefore( currentToLastUpdated ) && hasMorePolledItems( fromLastUpdated, currentToLastUpdated, variables ) )
                 {
-                    throw new PolledItemRetrieverException( "DHIS2 resource " + resourceType + " returned minimum last updated timestamp that is not before current last updated timestamp (" +
-                        currentToLastUpdated + "). Result window of " + maxSearchCount + " seems not to be big enough." );
+                    logger.info( "DHIS2 resource {} contains more than {} items with last updated timestamp {}. Retrieving items of this timestamp by pages.",
+                        resourceType, maxSearchCount, currentToLastUpdated );
+                    pollTimestamp( currentToLastUpdated, collectedResources, excludedStoredBy, consumer, variables );
+
+                    currentToLastUpdated = currentToLastUpdated.minus( 1, ChronoUnit.MILLIS );
+                    previousPolledItems = null;
+                    moreAvailable = !currentToLastUpdated.isBefore( fromLastUpdated );
                 }
-                if ( (previousPolledItems == null) || !previousPolledItems.containsAll( polledItems.getItems() ) || (previousPolledItems.size() < polledItems.getItems().size()) )
+                else if ( (previousPolledItems == null) || !previousPolledItems.containsAll( polledItems.getItems() ) || (previousPolledItems.size() < polledItems.getItems().size()) )
                 {
                     currentToLastUpdated = nextToLastUpdated;
                     previousPolledItems = new HashSet<>( polledItems.getItems() );
                     moreAvailable = true;
                 }
             }
+
+            if ( streaming )
+            {
+                collectedResources.consume( consumer );
+            }
+
+            if ( moreAvailable && (windowExecutor != null) && (previousPolledItems != null) && (polledItems.getItems().size() >= maxSearchCount) &&
+                (ChronoUnit.MILLIS.between( fromLastUpdated, currentToLastUpdated ) >= 2) )
+            {
+                bisectWindow( fromLastUpdated, currentToLastUpdated, collectedResources.getLastResources(), excludedStoredBy, consumer, variables );
+                moreAvailable = false;
+            }
         }
         while ( moreAvailable );
 
-        if ( !orderedAllResources.isEmpty() )
+        collectedResources.consume( consumer );
+    }
+
+    /**
+     * Polls all items with the specified last updated timestamp page by page. As soon as
+     * a full page has been retrieved, the next page is requested and retrieved while the
+     * items of the current page are collected and consumed.
+     */
+    protected void pollTimestamp( @Nonnull Instant lastUpdated, @Nonnull CollectedResources collectedResources, @Nonnull Set<String> excludedStoredBy,
+        @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer, @Nullable List<Object> variables )
+    {
+        int page = 1;
+        logger.debug( "Loading page {} of {} with maximum count {}.", page, lastUpdated, maxSearchCount );
+        CompletableFuture<P> nextPolledItems = getPolledItemsAsync( lastUpdated, lastUpdated, page, variables );
+        do
+        {
+            final P polledItems = CompletableFutureUtils.join( nextPolledItems );
+            nextPolledItems = null;
+
+            if ( polledItems.getItems().size() >= maxSearchCount )
+            {
+                logger.debug( "Loading page {} of {} with maximum count {}.", ++page, lastUpdated, maxSearchCount );
+                nextPolledItems = getPolledItemsAsync( lastUpdated, lastUpdated, page, variables );
+            }
+
+            collectedResources.add( polledItems, excludedStoredBy );
+
+            if ( streaming )
+            {
+                collectedResources.consume( consumer );
+            }
+        }
+        while ( nextPolledItems != null );
+    }
+
+    /**
+     * Bisects the specified window and polls both halves in parallel. The upper half is
+     * polled on the current thread. The lower half is polled by the window executor or by
+     * the current thread if the window executor has not yet started to poll it or if it
+     * has no free thread. The current thread never waits for a window that has not been
+     * started, so that bisected windows cannot starve a bounded window executor.
+     */
+    protected void bisectWindow( @Nonnull Instant fromLastUpdated, @Nonnull Instant toLastUpdated, @Nonnull Set<ProcessedItemInfo> excludedResources,
+        @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer, @Nullable List<Object> variables )
+    {
+        final Instant middleLastUpdated = fromLastUpdated.plusMillis( ChronoUnit.MILLIS.between( fromLastUpdated, toLastUpdated ) / 2 );
+        logger.debug( "Bisecting window from {} to {} at {}.", fromLastUpdated, toLastUpdated, middleLastUpdated );
+
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final CompletableFuture<Void> lowerFuture = new CompletableFuture<>();
+        final Runnable lowerRunnable = () -> {
+            if ( claimed.compareAndSet( false, true ) )
+            {
+                try
+                {
+                    pollWindow( fromLastUpdated, middleLastUpdated.minus( 1, ChronoUnit.MILLIS ), Collections.emptySet(), excludedStoredBy, consumer, variables );
+                    lowerFuture.complete( null );
+                }
+                catch ( Throwable e )
+                {
+                    lowerFuture.completeExceptionally( e );
+                }
+            }
+        };
+
+        try
         {
-            Collections.reverse( orderedAllResources );
-            Lists.partition( orderedAllResources, maxConsumedSize ).forEach( consumer );
+            Objects.requireNonNull( windowExecutor ).execute( lowerRunnable );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            logger.debug( "Lower half of window from {} to {} will be polled on current thread.", fromLastUpdated, toLastUpdated );
+        }
+
+        try
+        {
+            pollWindow( middleLastUpdated, toLastUpdated, excludedResources, excludedStoredBy, consumer, variables );
+        }
+        catch ( RuntimeException | Error e )
+        {
+            if ( !claimed.compareAndSet( false, true ) )
+            {
+                // the lower half must not be polled anymore when this method returns
+                lowerFuture.handle( ( r, t ) -> null ).join();
+            }
+            throw e;
+        }
+
+        lowerRunnable.run();
+        try
+        {
+            lowerFuture.join();
+        }
+        catch ( CompletionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            if ( e.getCause() instanceof Error )
+            {
+                throw (Error) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    private void consume( @Nonnull List<ProcessedItemInfo> orderedResources, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
+    {
+        if ( !orderedResources.isEmpty() )
+        {
+            Collections.reverse( orderedResources );
+            Lists.partition( orderedResources, maxConsumedSize ).forEach( consumer );
         }
-        return processedLastUpdated;
     }
 
     private boolean hasMorePolledItems( @Nonnull Instant fromLastUpdated, @Nullable Instant currentToLastUpdated, @Nullable List<Object> variables )
@@ -182,8 +390,35 @@ public abstract class AbstractPolledItemRetriever<P extends PolledItems<I>, I ex
     @Nonnull
     protected P getPolledItems( @Nonnull Instant fromLastUpdated, @Nullable Instant currentToLastUpdated, int page, @Nullable List<Object> variables )
     {
-        final StringBuilder queryParams = new StringBuilder();
         final List<Object> queryVariables = new ArrayList<>();
+        final String uri = createPolledItemsUri( fromLastUpdated, currentToLastUpdated, page, variables, queryVariables );
+
+        return toPolledItems( restTemplate.getForEntity( uri, polledItemsClass, queryVariables.toArray() ), page );
+    }
+
+    /**
+     * Retrieves the polled items asynchronously if an asynchronous REST template is available.
+     * Otherwise the polled items are retrieved by the current thread.
+     */
+    @Nonnull
+    protected CompletableFuture<P> getPolledItemsAsync( @Nonnull Instant fromLastUpdated, @Nullable Instant currentToLastUpdated, int page, @Nullable List<Object> variables )
+    {
+        if ( asyncRestTemplate == null )
+        {
+            return CompletableFuture.completedFuture( getPolledItems( fromLastUpdated, currentToLastUpdated, page, variables ) );
+        }
+
+        final List<Object> queryVariables = new ArrayList<>();
+        final String uri = createPolledItemsUri( fromLastUpdated, currentToLastUpdated, page, variables, queryVariables );
+
+        return asyncRestTemplate.getForEntity( uri, polledItemsClass, queryVariables.toArray() ).completable()
+            .thenApply( entity -> toPolledItems( entity, page ) );
+    }
+
+    @Nonnull
+    private String createPolledItemsUri( @Nonnull Instant fromLastUpdated, @Nullable Instant currentToLastUpdated, int page, @Nullable List<Object> variables, @Nonnull List<Object> queryVariables )
+    {
+        final StringBuilder queryParams = new StringBuilder();
         if ( variables != null )
         {
             queryVariables.addAll( variables );
@@ -208,7 +443,12 @@ public abstract class AbstractPolledItemRetriever<P extends PolledItems<I>, I ex
         queryParams.append( "&page={page}" );
         queryVariables.add( page );
 
-        final ResponseEntity<P> entity = restTemplate.getForEntity( queryUri + queryParams, polledItemsClass, queryVariables.toArray() );
+        return queryUri + queryParams;
+    }
+
+    @Nonnull
+    private P toPolledItems( @Nonnull ResponseEntity<P> entity, int page )
+    {
         final P response = Objects.requireNonNull( entity.getBody() );
         // DHIS metadata may return the next available page
         if ((response.getPager() != null) && (response.getPager().getPage() < page))
@@ -235,4 +475,59 @@ public abstract class AbstractPolledItemRetriever<P extends PolledItems<I>, I ex
     {
         return DateTimeFormatter.ISO_LOCAL_DATE_TIME.format( LocalDateTime.ofInstant( lastUpdated, zoneId ) );
     }
+
+    /**
+     * Collects the resources of a window. In streaming mode only the resources of the previous
+     * page are kept since only these may be returned again.
+     */
+    protected class CollectedResources
+    {
+        private Set<ProcessedItemInfo> allResources = new HashSet<>();
+
+        private Set<ProcessedItemInfo> previousResources;
+
+        private List<ProcessedItemInfo> orderedAllResources = new ArrayList<>();
+
+        private Set<ProcessedItemInfo> lastResources = Collections.emptySet();
+
+        protected CollectedResources( @Nonnull Set<ProcessedItemInfo> excludedResources )
+        {
+            this.previousResources = excludedResources;
+        }
+
+        @Nonnull
+        public Set<ProcessedItemInfo> getLastResources()
+        {
+            return lastResources;
+        }
+
+        public void add( @Nonnull P polledItems, @Nonnull Set<String> excludedStoredBy )
+        {
+            final List<ProcessedItemInfo> resources =
+                polledItems.getItems().stream().filter( pi -> !excludedStoredBy.contains( pi.getStoredBy() ) )
+                    .map( pi -> new ProcessedItemInfo( DhisResourceId.toString( resourceType, pi.getId() ), pi.getLastUpdated().atZone( zoneId ).toInstant(), pi.isDeleted() ) )
+                    .collect( Collectors.toList() );
+            for ( final ProcessedItemInfo r : resources )
+            {
+                if ( !previousResources.contains( r ) && allResources.add( r ) )
+                {
+                    // list must contain only unique items
+                    orderedAllResources.add( r );
+                }
+            }
+            lastResources = new HashSet<>( resources );
+        }
+
+        public void consume( @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
+        {
+            AbstractPolledItemRetriever.this.consume( orderedAllResources, consumer );
+            orderedAllResources = new ArrayList<>();
+
+            if ( streaming )
+            {
+                previousResources = allResources;
+                allResources = new HashSet<>();
+            }
+        }
+    }
 }
@@ -28,6 +28,10 @@ package org.dhis2.fhir.adapter.dhis.security;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.dhis2.fhir.adapter.dhis.config.DhisConfig;
 import org.dhis2.fhir.adapter.dhis.config.DhisEndpointConfig;
 import org.dhis2.fhir.adapter.rest.AbstractSessionCookieRestTemplate;
@@ -51,14 +55,24 @@ import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Authentication provider that authenticates the user by establishing a connection
- * to DHIS2.
+ * to DHIS2. Authenticated users are kept in a bounded local cache for a limited time.
+ * The cache key is a salted hash of the username and the password. The salt is
+ * generated randomly for each instance of the provider. Failed authentications
+ * are not cached.
  *
  * @author volsch
  */
@@ -68,20 +82,50 @@ public class DhisWebApiAuthenticationProvider extends AbstractUserDetailsAuthent
 
     protected static final String AUTHORIZATION_URL = "/me/authorization.json";
 
+    public static final String USER_CACHE_NAME = "dhisWebApiAuthenticatedUsers";
+
+    protected static final String CREDENTIALS_HASH_ALGORITHM = "SHA-256";
+
+    protected static final int CREDENTIALS_SALT_LENGTH = 32;
+
     private final RestTemplateBuilder restTemplateBuilder;
 
     private final SecurityConfig securityConfig;
 
     private final RestTemplateCookieStore cookieStore;
 
+    private final Cache<String, AdapterUser> authenticatedUserCache;
+
+    private final byte[] credentialsSalt;
+
     public DhisWebApiAuthenticationProvider( @Nonnull RestTemplateBuilder restTemplateBuilder, @Nonnull DhisEndpointConfig endpointConfig, @Nonnull SecurityConfig securityConfig,
-        @Nonnull @Qualifier( "dhisClientHttpRequestFactory" ) ClientHttpRequestFactory clientHttpRequestFactory, @Nonnull @Qualifier( "dhisCookieStore" ) RestTemplateCookieStore cookieStore )
+        @Nonnull @Qualifier( "dhisClientHttpRequestFactory" ) ClientHttpRequestFactory clientHttpRequestFactory, @Nonnull @Qualifier( "dhisCookieStore" ) RestTemplateCookieStore cookieStore,
+        @Nullable MeterRegistry meterRegistry )
     {
         this.restTemplateBuilder = restTemplateBuilder.requestFactory( () -> clientHttpRequestFactory )
             .rootUri( DhisConfig.getRootUri( endpointConfig, true ) )
             .setConnectTimeout( endpointConfig.getConnectTimeout() ).setReadTimeout( endpointConfig.getReadTimeout() );
         this.securityConfig = securityConfig;
         this.cookieStore = cookieStore;
+
+        if ( endpointConfig.getAuthenticationCacheTimeout() > 0 )
+        {
+            authenticatedUserCache = Caffeine.newBuilder()
+                .expireAfterWrite( endpointConfig.getAuthenticationCacheTimeout(), TimeUnit.MILLISECONDS )
+                .maximumSize( endpointConfig.getAuthenticationCacheMaxSize() ).recordStats().build();
+
+            if ( meterRegistry != null )
+            {
+                CaffeineCacheMetrics.monitor( meterRegistry, authenticatedUserCache, USER_CACHE_NAME );
+            }
+        }
+        else
+        {
+            authenticatedUserCache = null;
+        }
+
+        credentialsSalt = new byte[CREDENTIALS_SALT_LENGTH];
+        new SecureRandom().nextBytes( credentialsSalt );
     }
 
     @Override
@@ -92,6 +136,26 @@ public class DhisWebApiAuthenticationProvider extends AbstractUserDetailsAuthent
 
     @Override
     protected UserDetails retrieveUser( String username, UsernamePasswordAuthenticationToken authentication ) throws AuthenticationException
+    {
+        if ( authenticatedUserCache == null )
+        {
+            return retrieveDhisUser( username, authentication );
+        }
+
+        final String credentialsHash = createCredentialsHash( username, String.valueOf( authentication.getCredentials() ) );
+        AdapterUser user = authenticatedUserCache.getIfPresent( credentialsHash );
+
+        if ( user == null )
+        {
+            user = retrieveDhisUser( username, authentication );
+            authenticatedUserCache.put( credentialsHash, user );
+        }
+
+        return user;
+    }
+
+    @Nonnull
+    protected AdapterUser retrieveDhisUser( @Nonnull String username, @Nonnull UsernamePasswordAuthenticationToken authentication ) throws AuthenticationException
     {
         final RestTemplate restTemplate = restTemplateBuilder.configure( new AbstractSessionCookieRestTemplate( cookieStore )
         {
@@ -139,4 +203,26 @@ public class DhisWebApiAuthenticationProvider extends AbstractUserDetailsAuthent
         final Set<GrantedAuthority> grantedAuthorities = securityConfig.createGrantedAuthorities( dhisAuthorities );
         return new AdapterUser( Objects.requireNonNull( meResponse.getBody() ).getId(), username, grantedAuthorities );
     }
+
+    @Nonnull
+    protected String createCredentialsHash( @Nonnull String username, @Nonnull String password )
+    {
+        final MessageDigest messageDigest;
+        try
+        {
+            messageDigest = MessageDigest.getInstance( CREDENTIALS_HASH_ALGORITHM );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new AuthenticationServiceException( "Credentials hash algorithm is not supported: " + CREDENTIALS_HASH_ALGORITHM, e );
+        }
+
+        messageDigest.update( credentialsSalt );
+        messageDigest.update( username.getBytes( StandardCharsets.UTF_8 ) );
+        // separator cannot be contained in the username of a basic authentication
+        messageDigest.update( (byte) ':' );
+        messageDigest.update( password.getBytes( StandardCharsets.UTF_8 ) );
+
+        return Base64.getEncoder().encodeToString( messageDigest.digest() );
+    }
 }
@@ -35,6 +35,7 @@ import org.dhis2.fhir.adapter.dhis.model.Reference;
 import org.dhis2.fhir.adapter.dhis.model.UriFilterApplier;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
 import java.util.Optional;
 
 /**
@@ -56,4 +57,13 @@ public interface DhisMetadataService<T extends DhisResource & DhisMetadata> exte
 
     @Nonnull
     DhisResourceResult<T> find( @Nonnull UriFilterApplier uriFilterApplier, int from, int max );
+
+    /**
+     * Fetches the metadata with the specified references in bulk and stores it in
+     * the cache that is used by {@link #findMetadataByReference(Reference)}.
+     *
+     * @param references the references of the metadata that should be fetched.
+     * @return the number of references that have been cached.
+     */
+    int prefetchMetadataByReferences( @Nonnull Collection<Reference> references );
 }
@@ -33,9 +33,11 @@ import org.dhis2.fhir.adapter.dhis.metadata.model.DhisSyncGroup;
 import org.dhis2.fhir.adapter.dhis.model.DhisResource;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
@@ -46,7 +48,23 @@ import java.util.function.Consumer;
  */
 public interface DhisPolledService<T extends DhisResource> extends DhisService<T>
 {
+    /**
+     * Polls the created, updated and deleted data of the specified sync group.
+     *
+     * @param group            the sync group for which data should be polled.
+     * @param lastUpdated      the last updated timestamp from which on data should be polled.
+     * @param toleranceMillis  the milliseconds that are subtracted from the last updated timestamp.
+     * @param maxSearchCount   the maximum number of items that are returned by DHIS2 at once.
+     * @param streaming        <code>true</code> if polled items should be consumed page by page.
+     * @param pollExecutor     the bounded executor that is shared by all parallel parts of a poll
+     *                         (programs and time windows) or <code>null</code> if data is polled
+     *                         on the current thread. It runs a task on the submitting thread if
+     *                         all of its threads are busy and propagates the authorization.
+     * @param excludedStoredBy the users of polled items that should not be consumed.
+     * @param consumer         the consumer of the polled items.
+     * @return the last updated timestamp from which on data should be polled next time.
+     */
     @Nonnull
     Instant poll( @Nonnull DhisSyncGroup group, @Nonnull Instant lastUpdated, int toleranceMillis,
-        int maxSearchCount, @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer );
+        int maxSearchCount, boolean streaming, @Nullable Executor pollExecutor, @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer );
 }
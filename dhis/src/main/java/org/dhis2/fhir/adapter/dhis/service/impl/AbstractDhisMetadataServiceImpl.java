@@ -32,6 +32,7 @@ import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
 import org.dhis2.fhir.adapter.auth.UnauthorizedException;
 import org.dhis2.fhir.adapter.data.model.ProcessedItemInfo;
 import org.dhis2.fhir.adapter.dhis.DhisFindException;
+import org.dhis2.fhir.adapter.dhis.config.DhisMetadataCacheConfig;
 import org.dhis2.fhir.adapter.dhis.metadata.model.DhisSyncGroup;
 import org.dhis2.fhir.adapter.dhis.model.DhisMetadata;
 import org.dhis2.fhir.adapter.dhis.model.DhisResource;
@@ -41,11 +42,14 @@ import org.dhis2.fhir.adapter.dhis.model.Reference;
 import org.dhis2.fhir.adapter.dhis.model.UriFilterApplier;
 import org.dhis2.fhir.adapter.dhis.orgunit.OrganizationUnitService;
 import org.dhis2.fhir.adapter.dhis.service.DhisMetadataService;
+import org.dhis2.fhir.adapter.dhis.util.DhisMetadataPrefetchUtils;
 import org.dhis2.fhir.adapter.dhis.util.DhisPagingQuery;
 import org.dhis2.fhir.adapter.dhis.util.DhisPagingUtils;
 import org.dhis2.fhir.adapter.rest.RestTemplateUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.HttpStatus;
@@ -56,6 +60,7 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.ArrayList;
@@ -65,6 +70,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -81,13 +87,17 @@ public abstract class AbstractDhisMetadataServiceImpl<T extends DhisResource & D
 
     private final RestTemplate userRestTemplate;
 
+    private final CacheManager cacheManager;
+
     private final ZoneId zoneId = ZoneId.systemDefault();
 
     @Autowired
-    protected AbstractDhisMetadataServiceImpl( @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate systemRestTemplate, @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate userRestTemplate )
+    protected AbstractDhisMetadataServiceImpl( @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate systemRestTemplate, @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate userRestTemplate,
+        @Nonnull @Qualifier( "dhisCacheManager" ) CacheManager cacheManager )
     {
         this.systemRestTemplate = systemRestTemplate;
         this.userRestTemplate = userRestTemplate;
+        this.cacheManager = cacheManager;
     }
 
     @Nonnull
@@ -120,6 +130,21 @@ public abstract class AbstractDhisMetadataServiceImpl<T extends DhisResource & D
         return findOneByReference( systemRestTemplate, reference );
     }
 
+    @Override
+    public int prefetchMetadataByReferences( @Nonnull Collection<Reference> references )
+    {
+        final Cache cache = cacheManager.getCache( DhisMetadataCacheConfig.getMetadataCacheName( getClass() ) );
+
+        if ( cache == null )
+        {
+            return 0;
+        }
+
+        return DhisMetadataPrefetchUtils.<T>prefetch( references, cache, ( propertyName, values ) -> Objects.requireNonNull(
+            systemRestTemplate.getForEntity( "/" + getDhisResourceType().getTypeName() + ".json?paging=false&fields=" + getFieldNames() +
+                "&filter=" + propertyName + ":in:[{values}]", getItemsClass(), values ).getBody() ).getItems(), item -> item );
+    }
+
     @HystrixCommand( ignoreExceptions = UnauthorizedException.class )
     @Nonnull
     @Override
@@ -197,10 +222,12 @@ public abstract class AbstractDhisMetadataServiceImpl<T extends DhisResource & D
 
     @Nonnull
     @Override
-    public Instant poll( @Nonnull DhisSyncGroup group, @Nonnull Instant lastUpdated, int toleranceMillis, int maxSearchCount, @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
+    public Instant poll( @Nonnull DhisSyncGroup group, @Nonnull Instant lastUpdated, int toleranceMillis, int maxSearchCount, boolean streaming, @Nullable Executor pollExecutor, @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
     {
         final DhisMetadataPolledItemRetriever eventPolledItemRetriever = new DhisMetadataPolledItemRetriever( getDhisResourceType(), systemRestTemplate,
             toleranceMillis, maxSearchCount, zoneId );
+        eventPolledItemRetriever.setStreaming( streaming );
+        eventPolledItemRetriever.setWindowExecutor( pollExecutor );
 
         return eventPolledItemRetriever.poll( lastUpdated, excludedStoredBy, consumer, null );
     }
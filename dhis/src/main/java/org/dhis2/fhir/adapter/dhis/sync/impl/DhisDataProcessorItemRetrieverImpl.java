@@ -29,19 +29,24 @@ package org.dhis2.fhir.adapter.dhis.sync.impl;
  */
 
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.ObjectUtils;
 import org.dhis2.fhir.adapter.auth.Authorization;
 import org.dhis2.fhir.adapter.auth.AuthorizationContext;
 import org.dhis2.fhir.adapter.data.model.ProcessedItemInfo;
 import org.dhis2.fhir.adapter.data.processor.DataProcessorItemRetriever;
 import org.dhis2.fhir.adapter.dhis.config.DhisConfig;
+import org.dhis2.fhir.adapter.dhis.config.DhisEndpointConfig;
 import org.dhis2.fhir.adapter.dhis.metadata.model.DhisSyncGroup;
 import org.dhis2.fhir.adapter.dhis.model.DhisResource;
 import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
 import org.dhis2.fhir.adapter.dhis.service.DhisPolledService;
 import org.dhis2.fhir.adapter.dhis.service.DhisService;
 import org.dhis2.fhir.adapter.dhis.sync.SyncExcludedDhisUsernameRetriever;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
@@ -51,19 +56,30 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * The item retriever that polls DHIS2 resources. All relevant resources are
- * processed during a poll.
+ * processed during a poll. Different resource types, programs and bisected time
+ * windows of a resource type may be polled concurrently. All of them share one
+ * bounded poll executor so that the number of concurrent poll requests does not
+ * exceed the number of pooled system connections.
  *
  * @author volsch
  */
 @Component
-public class DhisDataProcessorItemRetrieverImpl implements DataProcessorItemRetriever<DhisSyncGroup>
+public class DhisDataProcessorItemRetrieverImpl implements DataProcessorItemRetriever<DhisSyncGroup>, DisposableBean
 {
     private final SyncExcludedDhisUsernameRetriever excludedDhisUsernameRetriever;
 
@@ -75,19 +91,35 @@ public class DhisDataProcessorItemRetrieverImpl implements DataProcessorItemRetr
 
     private final DhisSyncProcessorConfig processorConfig;
 
+    private final ThreadPoolExecutor pollExecutor;
+
     public DhisDataProcessorItemRetrieverImpl(
         @Nonnull AuthorizationContext authorizationContext,
         @Nonnull @Qualifier( "systemDhis2Authorization" ) Authorization systemDhis2Authorization,
         @Nonnull SyncExcludedDhisUsernameRetriever excludedDhisUsernameRetriever,
         @Nonnull List<DhisPolledService<? extends DhisResource>> polledServices,
         @Nonnull DhisSyncProcessorConfig processorConfig,
-        @Nonnull DhisConfig config )
+        @Nonnull DhisConfig config,
+        @Nonnull DhisEndpointConfig endpointConfig )
     {
         this.authorizationContext = authorizationContext;
         this.systemDhis2Authorization = systemDhis2Authorization;
         this.excludedDhisUsernameRetriever = excludedDhisUsernameRetriever;
         this.polledServices = polledServices.stream().collect( Collectors.toMap( DhisService::getDhisResourceType, ps -> ps ) );
         this.processorConfig = processorConfig;
+
+        // the polling thread itself polls a part if all threads of the executor are busy (there is no queue that
+        // may block nested parts), the number of concurrent poll requests is limited to the pooled system connections
+        final int pollThreadCount = Math.min( processorConfig.getPollParallelCount(), endpointConfig.getMaxPooledSystemConnections() ) - 1;
+        if ( pollThreadCount > 0 )
+        {
+            pollExecutor = new ThreadPoolExecutor( pollThreadCount, pollThreadCount, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat( "dhis-poll-%d" ).setDaemon( true ).build(), DhisDataProcessorItemRetrieverImpl::runOnSubmittingThread );
+        }
+        else
+        {
+            pollExecutor = null;
+        }
     }
 
     @Nonnull
@@ -95,25 +127,135 @@ public class DhisDataProcessorItemRetrieverImpl implements DataProcessorItemRetr
     public Instant poll( @Nonnull DhisSyncGroup group, @Nonnull Instant lastUpdated, int maxSearchCount, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
     {
         final int toleranceMillis = processorConfig.getToleranceMillis();
+        final boolean streaming = processorConfig.isStreamingPoll();
         final Set<DhisResourceType> resourceTypes = processorConfig.getResourceTypes();
 
         authorizationContext.setAuthorization( systemDhis2Authorization );
         try
         {
             final Set<String> excludedDhisUsernames = excludedDhisUsernameRetriever.findAllDhisUsernames();
-            final AtomicReference<Instant> result = new AtomicReference<>( Instant.now() );
+            final List<DhisPolledService<? extends DhisResource>> resourceTypePolledServices = Stream.of( DhisResourceType.values() )
+                .filter( resourceTypes::contains ).map( polledServices::get ).filter( Objects::nonNull ).collect( Collectors.toList() );
+            final Executor executor = (pollExecutor == null) ? null : this::executePoll;
 
-            Stream.of( DhisResourceType.values() ).filter( resourceTypes::contains ).map( polledServices::get ).filter( Objects::nonNull )
-                .forEach( polledService -> {
-                    final Instant currentResult = polledService.poll( group, lastUpdated, toleranceMillis, maxSearchCount,
-                        excludedDhisUsernames, consumer );
+            if ( (executor == null) || (resourceTypePolledServices.size() < 2) )
+            {
+                final AtomicReference<Instant> result = new AtomicReference<>( Instant.now() );
+                resourceTypePolledServices.forEach( polledService -> {
+                    final Instant currentResult = polledService.poll( group, lastUpdated, toleranceMillis, maxSearchCount, streaming,
+                        executor, excludedDhisUsernames, consumer );
                     result.set( ObjectUtils.min( result.get(), currentResult ) );
                 } );
 
-            return result.get();
+                return result.get();
+            }
+
+            return pollConcurrently( resourceTypePolledServices, group, lastUpdated, toleranceMillis, maxSearchCount, streaming, executor, excludedDhisUsernames, consumer );
+        }
+        finally
+        {
+            authorizationContext.resetAuthorization();
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        if ( pollExecutor != null )
+        {
+            pollExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Polls the specified resource types concurrently on the specified executor, which
+     * propagates the authorization and the security context of the current thread. The
+     * consumer is invoked by one worker at a time. The method returns when all workers
+     * have been completed.
+     */
+    @Nonnull
+    protected Instant pollConcurrently( @Nonnull List<DhisPolledService<? extends DhisResource>> resourceTypePolledServices, @Nonnull DhisSyncGroup group, @Nonnull Instant lastUpdated,
+        int toleranceMillis, int maxSearchCount, boolean streaming, @Nonnull Executor executor, @Nonnull Set<String> excludedDhisUsernames,
+        @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
+    {
+        final Instant begin = Instant.now();
+        final Consumer<Collection<ProcessedItemInfo>> synchronizedConsumer = items -> {
+            synchronized ( consumer )
+            {
+                consumer.accept( items );
+            }
+        };
+
+        final List<CompletableFuture<Instant>> futures = resourceTypePolledServices.stream().map( polledService -> CompletableFuture.supplyAsync(
+            () -> polledService.poll( group, lastUpdated, toleranceMillis, maxSearchCount, streaming, executor, excludedDhisUsernames, synchronizedConsumer ), executor ) )
+            .collect( Collectors.toList() );
+
+        try
+        {
+            // all workers must have been completed before returning (also in case of a failure)
+            CompletableFuture.allOf( futures.toArray( new CompletableFuture[0] ) ).join();
+        }
+        catch ( CompletionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+
+        return futures.stream().map( CompletableFuture::join ).reduce( begin, ObjectUtils::min );
+    }
+
+    /**
+     * Executes a part of a poll on the poll executor. The authorization and the security
+     * context of the current thread are propagated. If all threads of the poll executor
+     * are busy, the part is executed by the current thread before this method returns.
+     */
+    protected void executePoll( @Nonnull Runnable runnable )
+    {
+        final Thread submittingThread = Thread.currentThread();
+        final Authorization authorization = authorizationContext.getAuthorization();
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+
+        Objects.requireNonNull( pollExecutor ).execute( () -> {
+            if ( Thread.currentThread() == submittingThread )
+            {
+                // the context of the submitting thread must not be reset
+                runnable.run();
+            }
+            else
+            {
+                executeInContext( authorization, securityContext, () -> {
+                    runnable.run();
+                    return null;
+                } );
+            }
+        } );
+    }
+
+    private static void runOnSubmittingThread( @Nonnull Runnable runnable, @Nonnull ThreadPoolExecutor executor )
+    {
+        if ( executor.isShutdown() )
+        {
+            throw new RejectedExecutionException( "Poll executor has been shut down." );
+        }
+
+        runnable.run();
+    }
+
+    private <T> T executeInContext( @Nonnull Authorization authorization, @Nonnull SecurityContext securityContext, @Nonnull Supplier<T> supplier )
+    {
+        authorizationContext.setAuthorization( authorization );
+        SecurityContextHolder.setContext( securityContext );
+        try
+        {
+            return supplier.get();
         }
         finally
         {
+            SecurityContextHolder.clearContext();
             authorizationContext.resetAuthorization();
         }
     }
@@ -58,12 +58,22 @@ public class DhisSyncProcessorConfig implements Serializable
     @Min( value = 10 )
     private int maxSearchCount = 10_000;
 
+    private boolean streamingPoll;
+
     @Min( value = 1 )
     private int maxProcessedAgeMinutes = 2 * 24 * 60;
 
     @Min( value = 1 )
     private int parallelCount = 1;
 
+    @Min( value = 0 )
+    private int processedChunkSize;
+
+    @Min( value = 1 )
+    private int pollParallelCount = 1;
+
+    private boolean processedFilterEnabled;
+
     @NotNull
     private Set<DhisResourceType> resourceTypes = new HashSet<>();
 
@@ -97,6 +107,16 @@ public class DhisSyncProcessorConfig implements Serializable
         this.maxSearchCount = maxSearchCount;
     }
 
+    public boolean isStreamingPoll()
+    {
+        return streamingPoll;
+    }
+
+    public void setStreamingPoll( boolean streamingPoll )
+    {
+        this.streamingPoll = streamingPoll;
+    }
+
     public int getMaxProcessedAgeMinutes()
     {
         return maxProcessedAgeMinutes;
@@ -117,6 +137,36 @@ public class DhisSyncProcessorConfig implements Serializable
         this.parallelCount = parallelCount;
     }
 
+    public int getProcessedChunkSize()
+    {
+        return processedChunkSize;
+    }
+
+    public void setProcessedChunkSize( int processedChunkSize )
+    {
+        this.processedChunkSize = processedChunkSize;
+    }
+
+    public int getPollParallelCount()
+    {
+        return pollParallelCount;
+    }
+
+    public void setPollParallelCount( int pollParallelCount )
+    {
+        this.pollParallelCount = pollParallelCount;
+    }
+
+    public boolean isProcessedFilterEnabled()
+    {
+        return processedFilterEnabled;
+    }
+
+    public void setProcessedFilterEnabled( boolean processedFilterEnabled )
+    {
+        this.processedFilterEnabled = processedFilterEnabled;
+    }
+
     @Nonnull
     public Set<DhisResourceType> getResourceTypes()
     {
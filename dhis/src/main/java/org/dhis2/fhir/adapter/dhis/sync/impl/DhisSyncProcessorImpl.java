@@ -154,6 +154,18 @@ public class DhisSyncProcessorImpl extends
         return processorConfig.getMaxSearchCount();
     }
 
+    @Override
+    protected int getProcessedChunkSize()
+    {
+        return processorConfig.getProcessedChunkSize();
+    }
+
+    @Override
+    protected boolean isProcessedFilterEnabled()
+    {
+        return processorConfig.isProcessedFilterEnabled();
+    }
+
     @Nonnull
     @Override
     protected DataProcessorItemRetriever<DhisSyncGroup> getDataProcessorItemRetriever( @Nonnull DhisSyncGroup group )
@@ -34,6 +34,7 @@ import org.dhis2.fhir.adapter.dhis.service.DhisService;
 
 import javax.annotation.Nonnull;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service to create, update and read DHIS2 Program Instances (aka enrollments)
@@ -50,6 +51,12 @@ public interface EnrollmentService extends DhisService<Enrollment>
     @Nonnull
     Optional<Enrollment> findLatestActive( @Nonnull String programId, @Nonnull String trackedEntityInstanceId, boolean localOnly );
 
+    @Nonnull
+    CompletableFuture<Optional<Enrollment>> findLatestActiveRefreshedAsync( @Nonnull String programId, @Nonnull String trackedEntityInstanceId, boolean localOnly );
+
+    @Nonnull
+    CompletableFuture<Optional<Enrollment>> findLatestActiveAsync( @Nonnull String programId, @Nonnull String trackedEntityInstanceId, boolean localOnly );
+
     @Nonnull
     Optional<Enrollment> findOneById( @Nonnull String id );
 
@@ -40,11 +40,16 @@ import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityInstance;
 import org.dhis2.fhir.adapter.geo.Location;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  * Contains a DHIS2 Program Stage Instance (aka event).
@@ -106,6 +111,9 @@ public class Event implements TrackedEntityDhisResource, Serializable, Comparabl
 
     private List<WritableDataValue> dataValues;
 
+    @JsonIgnore
+    private transient Map<String, WritableDataValue> dataValuesById = Collections.emptyMap();
+
     @JsonIgnore
     private boolean modified;
 
@@ -125,6 +133,7 @@ public class Event implements TrackedEntityDhisResource, Serializable, Comparabl
         this.modified = newResource;
         this.local = newResource;
         this.dataValues = new ArrayList<>();
+        this.dataValuesById = new HashMap<>();
     }
 
     @JsonIgnore
@@ -320,14 +329,37 @@ public class Event implements TrackedEntityDhisResource, Serializable, Comparabl
         this.lastUpdated = lastUpdated;
     }
 
+    /**
+     * @return the read-only data values or <code>null</code> if the data values have
+     * not been set.
+     */
     public List<? extends DataValue> getDataValues()
     {
-        return dataValues;
+        return (dataValues == null) ? null : Collections.unmodifiableList( dataValues );
     }
 
     public void setDataValues( List<WritableDataValue> dataValues )
     {
-        this.dataValues = dataValues;
+        this.dataValues = (dataValues == null) ? null : new ArrayList<>( dataValues );
+        updateDataValuesById();
+    }
+
+    /**
+     * Removes all data values that match the specified filter.
+     *
+     * @param filter the filter that returns <code>true</code> for the data values that
+     *               should be removed.
+     * @return <code>true</code> if any data value has been removed.
+     */
+    public boolean removeDataValues( @Nonnull Predicate<? super WritableDataValue> filter )
+    {
+        if ( (dataValues == null) || !dataValues.removeIf( filter ) )
+        {
+            return false;
+        }
+
+        updateDataValuesById();
+        return true;
     }
 
     public boolean isModified()
@@ -345,21 +377,46 @@ public class Event implements TrackedEntityDhisResource, Serializable, Comparabl
     {
         if ( dataValues == null )
         {
-            dataValues = new ArrayList<>();
+            setDataValues( new ArrayList<>() );
         }
 
-        WritableDataValue dataValue = dataValues.stream().filter(
-            dv -> Objects.equals( dataElementId, dv.getDataElementId() ) ).findFirst().orElse( null );
+        WritableDataValue dataValue = dataValuesById.get( dataElementId );
 
         if ( dataValue == null )
         {
             dataValue = new WritableDataValue( dataElementId, true );
             dataValues.add( dataValue );
+            dataValuesById.put( dataElementId, dataValue );
         }
 
         return dataValue;
     }
 
+    /**
+     * Rebuilds the index of the data values by their data element ID. The index is
+     * rebuilt on every change of the data values and is never modified when reading
+     * data values. If a data element is contained more than once, the index contains
+     * the first data value. The data element ID of a data value must not be changed
+     * after the data value has been added.
+     */
+    private void updateDataValuesById()
+    {
+        final Map<String, WritableDataValue> dataValuesById = new HashMap<>();
+
+        if ( dataValues != null )
+        {
+            dataValues.forEach( dv -> dataValuesById.putIfAbsent( dv.getDataElementId(), dv ) );
+        }
+
+        this.dataValuesById = dataValuesById;
+    }
+
+    private void readObject( @Nonnull ObjectInputStream in ) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        updateDataValuesById();
+    }
+
     @JsonIgnore
     public boolean isAnyDataValueModified()
     {
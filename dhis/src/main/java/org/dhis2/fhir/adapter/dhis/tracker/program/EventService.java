@@ -37,6 +37,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service to create, update and read DHIS2 Program Stage Instances (aka events)
@@ -54,6 +55,10 @@ public interface EventService extends DhisService<Event>, DhisPolledService<Even
     Collection<Event> find( @Nonnull String programId, @Nonnull String programStageId,
         @Nonnull String enrollmentId, @Nonnull String trackedEntityInstanceId, boolean localOnly );
 
+    @Nonnull
+    CompletableFuture<Collection<Event>> findRefreshedAsync( @Nonnull String programId, @Nonnull String programStageId,
+        @Nonnull String trackedEntityInstanceId, boolean localOnly );
+
     @Nonnull
     Optional<Event> findOneById( @Nonnull String eventId );
 
@@ -63,6 +68,9 @@ public interface EventService extends DhisService<Event>, DhisPolledService<Even
     @Nonnull
     Event createOrMinimalUpdate( @Nonnull Event event );
 
+    @Nonnull
+    CompletableFuture<Event> createOrMinimalUpdateAsync( @Nonnull Event event );
+
     boolean delete( @Nonnull String eventId );
 
     @Nonnull
@@ -59,6 +59,8 @@ import org.dhis2.fhir.adapter.dhis.util.DhisPagingUtils;
 import org.dhis2.fhir.adapter.rest.RestTemplateUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
@@ -67,6 +69,7 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -74,12 +77,14 @@ import org.springframework.web.util.UriComponentsBuilder;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -90,6 +95,7 @@ import java.util.stream.Collectors;
  * @author Charles Chigoriwa (ITINORDIC)
  */
 @Service
+@SuppressWarnings( "deprecation" )
 public class EnrollmentServiceImpl implements EnrollmentService, LocalDhisRepositoryPersistCallback<Enrollment>
 {
     protected static final String ENROLLMENTS_URI = "/enrollments.json";
@@ -110,16 +116,25 @@ public class EnrollmentServiceImpl implements EnrollmentService, LocalDhisReposi
         "program={programId}&programStatus=ACTIVE&trackedEntityInstance={trackedEntityInstanceId}&" +
         "ouMode=ACCESSIBLE&fields=:all&order=lastUpdated:desc&pageSize=1";
 
+    protected static final String CACHE_NAME = "enrollments";
+
     private final RestTemplate restTemplate;
 
+    private final AsyncRestTemplate asyncRestTemplate;
+
+    private final CacheManager cacheManager;
+
     private final EventService eventService;
 
     private final LocalDhisResourceRepositoryTemplate<Enrollment> resourceRepositoryTemplate;
 
     @Autowired
-    public EnrollmentServiceImpl( @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate restTemplate, @Nonnull EventService eventService, @Nonnull RequestCacheService requestCacheService )
+    public EnrollmentServiceImpl( @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate restTemplate, @Nonnull @Qualifier( "userDhis2AsyncRestTemplate" ) AsyncRestTemplate asyncRestTemplate,
+        @Nonnull @Qualifier( "dhisCacheManager" ) CacheManager cacheManager, @Nonnull EventService eventService, @Nonnull RequestCacheService requestCacheService )
     {
         this.restTemplate = restTemplate;
+        this.asyncRestTemplate = asyncRestTemplate;
+        this.cacheManager = cacheManager;
         this.eventService = eventService;
 
         this.resourceRepositoryTemplate = new LocalDhisResourceRepositoryTemplate<>( Enrollment.class, requestCacheService, this );
@@ -174,6 +189,63 @@ public class EnrollmentServiceImpl implements EnrollmentService, LocalDhisReposi
             () -> createCollection( _findLatestActiveRefreshed( programId, trackedEntityInstanceId ) ),
             localOnly, "findLatestActiveRefreshed", programId, trackedEntityInstanceId );
 
+        return getLatest( enrollments );
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Optional<Enrollment>> findLatestActiveRefreshedAsync( @Nonnull String programId, @Nonnull String trackedEntityInstanceId, boolean localOnly )
+    {
+        // the cache of the current request must be resolved by the calling thread
+        final Cache cache = localOnly ? null : cacheManager.getCache( CACHE_NAME );
+
+        return resourceRepositoryTemplate.findAsync( trackedEntityInstanceId,
+            e -> programId.equals( e.getProgramId() ) && e.getStatus() == EnrollmentStatus.ACTIVE,
+            () -> _findLatestActiveRefreshedAsync( programId, trackedEntityInstanceId ).thenApply( this::createCollection ),
+            localOnly, "findLatestActiveRefreshed", programId, trackedEntityInstanceId ).thenApply( enrollments -> {
+            final Optional<Enrollment> result = getLatest( enrollments );
+
+            if ( cache != null )
+            {
+                cache.put( createFindLatestActiveCacheKey( programId, trackedEntityInstanceId ), result.orElse( null ) );
+            }
+
+            return result;
+        } );
+    }
+
+    @Nonnull
+    protected CompletableFuture<Enrollment> _findLatestActiveRefreshedAsync( @Nonnull String programId, @Nonnull String trackedEntityInstanceId )
+    {
+        return asyncRestTemplate.getForEntity( LATEST_ACTIVE_URI, DhisEnrollments.class, programId, trackedEntityInstanceId ).completable()
+            .thenApply( result -> Objects.requireNonNull( result.getBody() ).getEnrollments().stream().findFirst().orElse( null ) );
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Optional<Enrollment>> findLatestActiveAsync( @Nonnull String programId, @Nonnull String trackedEntityInstanceId, boolean localOnly )
+    {
+        final Cache cache = localOnly ? null : cacheManager.getCache( CACHE_NAME );
+        final Cache.ValueWrapper cachedValue = (cache == null) ? null : cache.get( createFindLatestActiveCacheKey( programId, trackedEntityInstanceId ) );
+
+        if ( cachedValue != null )
+        {
+            return CompletableFuture.completedFuture( Optional.ofNullable( (Enrollment) cachedValue.get() ) );
+        }
+
+        return findLatestActiveRefreshedAsync( programId, trackedEntityInstanceId, localOnly );
+    }
+
+    @Nonnull
+    protected static Object createFindLatestActiveCacheKey( @Nonnull String programId, @Nonnull String trackedEntityInstanceId )
+    {
+        // must be equal to the key of the cache annotations of the corresponding synchronous methods
+        return Arrays.asList( "findLatestActive", programId, trackedEntityInstanceId );
+    }
+
+    @Nonnull
+    private Optional<Enrollment> getLatest( @Nonnull Collection<Enrollment> enrollments )
+    {
         return enrollments.stream().min( Comparator.comparing( Enrollment::getLastUpdated, Comparator.nullsLast( Comparator.reverseOrder() ) ) );
     }
 
@@ -373,12 +445,14 @@ public class EnrollmentServiceImpl implements EnrollmentService, LocalDhisReposi
         enrollments.forEach( e -> e.setEvents( Collections.emptyList() ) );
 
         final ResponseEntity<ImportSummariesWebMessage> response =
-            restTemplate.postForEntity( create ? ENROLLMENT_CREATES_URI : ENROLLMENT_UPDATES_URI, new DhisEnrollments( enrollments ), ImportSummariesWebMessage.class );
+            postBulk( create ? ENROLLMENT_CREATES_URI : ENROLLMENT_UPDATES_URI, new DhisEnrollments( enrollments ) );
 
         final ImportSummariesWebMessage result = Objects.requireNonNull( response.getBody() );
         final int size = enrollments.size();
 
-        if ( result.getStatus() != Status.OK || result.getResponse() == null || result.getResponse().getImportSummaries().size() != size )
+        // a conflict status is returned if at least one resource could not be imported (status of each resource is evaluated below)
+        if ( ((result.getStatus() != Status.OK) && !HttpStatus.CONFLICT.equals( response.getStatusCode() )) ||
+            (result.getResponse() == null) || (result.getResponse().getImportSummaries().size() != size) )
         {
             throw new DhisImportUnsuccessfulException( "Response indicates an unsuccessful import of events." );
         }
@@ -391,7 +465,8 @@ public class EnrollmentServiceImpl implements EnrollmentService, LocalDhisReposi
 
             if ( importSummary.getStatus() == ImportStatus.ERROR )
             {
-                persistResult = new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.ERROR, enrollment.getId(),
+                // the import of a single resource would have resulted in a conflict status
+                persistResult = new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.CONFLICT, enrollment.getId(),
                     StringUtils.defaultIfBlank( importSummary.getDescription(), "Failed to persist enrollment." ) );
             }
             else
@@ -409,6 +484,25 @@ public class EnrollmentServiceImpl implements EnrollmentService, LocalDhisReposi
         }
     }
 
+    @Nonnull
+    protected ResponseEntity<ImportSummariesWebMessage> postBulk( @Nonnull String uri, @Nonnull Object resources )
+    {
+        try
+        {
+            return restTemplate.postForEntity( uri, resources, ImportSummariesWebMessage.class );
+        }
+        catch ( HttpClientErrorException e )
+        {
+            // the import summaries of all resources are included when at least one resource could not be imported
+            if ( HttpStatus.CONFLICT.equals( e.getStatusCode() ) )
+            {
+                return RestTemplateUtils.toResponseEntity( restTemplate, e, ImportSummariesWebMessage.class );
+            }
+
+            throw e;
+        }
+    }
+
     @Override
     @Nonnull
     public Enrollment persistSave( @Nonnull Enrollment resource )
@@ -51,14 +51,18 @@ import org.dhis2.fhir.adapter.dhis.model.ImportSummariesWebMessage;
 import org.dhis2.fhir.adapter.dhis.model.ImportSummary;
 import org.dhis2.fhir.adapter.dhis.model.Status;
 import org.dhis2.fhir.adapter.dhis.model.UriFilterApplier;
+import org.dhis2.fhir.adapter.dhis.poll.PolledItemRetrieverException;
 import org.dhis2.fhir.adapter.dhis.tracker.program.Event;
 import org.dhis2.fhir.adapter.dhis.tracker.program.EventService;
 import org.dhis2.fhir.adapter.dhis.util.CodeGenerator;
 import org.dhis2.fhir.adapter.dhis.util.DhisPagingQuery;
 import org.dhis2.fhir.adapter.dhis.util.DhisPagingUtils;
 import org.dhis2.fhir.adapter.rest.RestTemplateUtils;
+import org.dhis2.fhir.adapter.util.CompletableFutureUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
@@ -67,6 +71,7 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -76,12 +81,16 @@ import javax.annotation.Nullable;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -91,6 +100,7 @@ import java.util.stream.Collectors;
  * @author volsch
  */
 @Service
+@SuppressWarnings( "deprecation" )
 public class EventServiceImpl implements EventService, LocalDhisRepositoryPersistCallback<Event>
 {
     protected static final String FIELDS =
@@ -120,8 +130,18 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
     protected static final String FIND_DELETED_ID_URI = "/events.json?" +
         "event={eventId}&includeDeleted=true&fields=" + FIELDS + "&skipPaging=true";
 
+    protected static final String CACHE_NAME = "events";
+
     private final RestTemplate restTemplate;
 
+    private final RestTemplate systemRestTemplate;
+
+    private final AsyncRestTemplate asyncRestTemplate;
+
+    private final AsyncRestTemplate systemAsyncRestTemplate;
+
+    private final CacheManager cacheManager;
+
     private final PolledProgramRetriever polledProgramRetriever;
 
     private final ZoneId zoneId = ZoneId.systemDefault();
@@ -129,9 +149,15 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
     private final LocalDhisResourceRepositoryTemplate<Event> resourceRepositoryTemplate;
 
     @Autowired
-    public EventServiceImpl( @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate restTemplate, @Nonnull RequestCacheService requestCacheService, @Nonnull PolledProgramRetriever polledProgramRetriever )
+    public EventServiceImpl( @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate restTemplate, @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate systemRestTemplate,
+        @Nonnull @Qualifier( "userDhis2AsyncRestTemplate" ) AsyncRestTemplate asyncRestTemplate, @Nonnull @Qualifier( "systemDhis2AsyncRestTemplate" ) AsyncRestTemplate systemAsyncRestTemplate,
+        @Nonnull @Qualifier( "dhisCacheManager" ) CacheManager cacheManager, @Nonnull RequestCacheService requestCacheService, @Nonnull PolledProgramRetriever polledProgramRetriever )
     {
         this.restTemplate = restTemplate;
+        this.systemRestTemplate = systemRestTemplate;
+        this.asyncRestTemplate = asyncRestTemplate;
+        this.systemAsyncRestTemplate = systemAsyncRestTemplate;
+        this.cacheManager = cacheManager;
         this.polledProgramRetriever = polledProgramRetriever;
 
         this.resourceRepositoryTemplate = new LocalDhisResourceRepositoryTemplate<>( Event.class, requestCacheService, this );
@@ -240,6 +266,30 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
         return event.isNewResource() ? create( event ) : minimalUpdate( event );
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<Event> createOrMinimalUpdateAsync( @Nonnull Event event )
+    {
+        // the cache of the current request must be resolved by the calling thread
+        final Cache cache = cacheManager.getCache( CACHE_NAME );
+        final Object cacheKey = createFindCacheKey( event.getProgramId(), event.getProgramStageId(), event.getEnrollmentId(), event.getTrackedEntityInstanceId() );
+
+        return resourceRepositoryTemplate.saveAsync( event, this::_createOrMinimalUpdateAsync ).thenApply( result -> {
+            if ( cache != null )
+            {
+                cache.evict( cacheKey );
+            }
+
+            return result;
+        } );
+    }
+
+    @Nonnull
+    protected CompletableFuture<Event> _createOrMinimalUpdateAsync( @Nonnull Event event )
+    {
+        return event.isNewResource() ? createAsync( event ) : minimalUpdateAsync( event );
+    }
+
     @Override
     public void persistSave( @Nonnull Collection<Event> resources, boolean create, @Nullable Consumer<LocalDhisRepositoryPersistResult> resultConsumer )
     {
@@ -250,12 +300,14 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
 
         final List<Event> events = resources.stream().sorted( DhisResourceComparator.INSTANCE ).collect( Collectors.toList() );
         final ResponseEntity<ImportSummariesWebMessage> response =
-            restTemplate.postForEntity( create ? CREATES_URI : UPDATES_URI, new DhisEvents( events ), ImportSummariesWebMessage.class );
+            postBulk( create ? CREATES_URI : UPDATES_URI, new DhisEvents( events ) );
 
         final ImportSummariesWebMessage result = Objects.requireNonNull( response.getBody() );
         final int size = events.size();
 
-        if ( result.getStatus() != Status.OK || result.getResponse() == null || result.getResponse().getImportSummaries().size() != size )
+        // a conflict status is returned if at least one resource could not be imported (status of each resource is evaluated below)
+        if ( ((result.getStatus() != Status.OK) && !HttpStatus.CONFLICT.equals( response.getStatusCode() )) ||
+            (result.getResponse() == null) || (result.getResponse().getImportSummaries().size() != size) )
         {
             throw new DhisImportUnsuccessfulException( "Response indicates an unsuccessful import of events." );
         }
@@ -268,7 +320,8 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
 
             if ( importSummary.getStatus() == ImportStatus.ERROR )
             {
-                persistResult = new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.ERROR, event.getId(),
+                // the import of a single resource would have resulted in a conflict status
+                persistResult = new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.CONFLICT, event.getId(),
                     StringUtils.defaultIfBlank( importSummary.getDescription(), "Failed to persist event." ) );
             }
             else
@@ -286,6 +339,25 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
         }
     }
 
+    @Nonnull
+    protected ResponseEntity<ImportSummariesWebMessage> postBulk( @Nonnull String uri, @Nonnull Object resources )
+    {
+        try
+        {
+            return restTemplate.postForEntity( uri, resources, ImportSummariesWebMessage.class );
+        }
+        catch ( HttpClientErrorException e )
+        {
+            // the import summaries of all resources are included when at least one resource could not be imported
+            if ( HttpStatus.CONFLICT.equals( e.getStatusCode() ) )
+            {
+                return RestTemplateUtils.toResponseEntity( restTemplate, e, ImportSummariesWebMessage.class );
+            }
+
+            throw e;
+        }
+    }
+
     @Override
     @Nonnull
     public Event persistSave( @Nonnull Event resource )
@@ -316,6 +388,44 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
             programStageId.equals( e.getProgramStageId() ) ).collect( Collectors.toList() );
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<Collection<Event>> findRefreshedAsync( @Nonnull String programId, @Nonnull String programStageId,
+        @Nonnull String trackedEntityInstanceId, boolean localOnly )
+    {
+        // the cache of the current request must be resolved by the calling thread
+        final Cache cache = localOnly ? null : cacheManager.getCache( CACHE_NAME );
+
+        return resourceRepositoryTemplate.findAsync( trackedEntityInstanceId,
+            e -> programId.equals( e.getProgramId() ) && programStageId.equals( e.getProgramStageId() ),
+            () -> _findRefreshedAsync( programId, programStageId, trackedEntityInstanceId ),
+            localOnly, "findRefreshed", programId, programStageId, trackedEntityInstanceId ).thenApply( events -> {
+            if ( cache != null )
+            {
+                // the events are cached per enrollment as they would have been cached by the synchronous find method
+                events.stream().filter( e -> e.getEnrollmentId() != null ).collect( Collectors.groupingBy( Event::getEnrollmentId ) ).forEach( ( enrollmentId, enrollmentEvents ) ->
+                    cache.put( createFindCacheKey( programId, programStageId, enrollmentId, trackedEntityInstanceId ), enrollmentEvents ) );
+            }
+
+            return events;
+        } );
+    }
+
+    @Nonnull
+    protected CompletableFuture<Collection<Event>> _findRefreshedAsync( @Nonnull String programId, @Nonnull String programStageId, @Nonnull String trackedEntityInstanceId )
+    {
+        return asyncRestTemplate.getForEntity( FIND_URI, DhisEvents.class, programId, trackedEntityInstanceId ).completable()
+            .thenApply( result -> Objects.requireNonNull( result.getBody() ).getEvents().stream()
+                .filter( e -> programStageId.equals( e.getProgramStageId() ) ).collect( Collectors.toList() ) );
+    }
+
+    @Nonnull
+    protected static Object createFindCacheKey( @Nullable String programId, @Nullable String programStageId, @Nullable String enrollmentId, @Nullable String trackedEntityInstanceId )
+    {
+        // must be equal to the key of the cache annotations of the corresponding synchronous methods
+        return Arrays.asList( "find", programId, programStageId, enrollmentId, trackedEntityInstanceId );
+    }
+
     @HystrixCommand( ignoreExceptions = UnauthorizedException.class )
     @Nonnull
     @Override
@@ -366,18 +476,70 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
 
     @Nonnull
     @Override
-    public Instant poll( @Nonnull DhisSyncGroup group, @Nonnull Instant lastUpdated, int toleranceMillis, int maxSearchCount, @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
+    public Instant poll( @Nonnull DhisSyncGroup group, @Nonnull Instant lastUpdated, int toleranceMillis, int maxSearchCount, boolean streaming, @Nullable Executor pollExecutor, @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
     {
-        final EventPolledItemRetriever eventPolledItemRetriever = new EventPolledItemRetriever( restTemplate, toleranceMillis, maxSearchCount, zoneId );
+        final Collection<String> programIds = polledProgramRetriever.findAllPolledProgramIds();
         Instant result = Instant.now();
-        for ( final String programId : polledProgramRetriever.findAllPolledProgramIds() )
+        if ( (pollExecutor == null) || (programIds.size() < 2) )
+        {
+            for ( final String programId : programIds )
+            {
+                result = ObjectUtils.min( result, createPolledItemRetriever( toleranceMillis, maxSearchCount, streaming, pollExecutor )
+                    .poll( lastUpdated, excludedStoredBy, consumer, Collections.singletonList( programId ) ) );
+            }
+            return result;
+        }
+
+        // programs are polled on the shared poll executor (runs them on the current thread if all its threads are busy)
+        final Consumer<Collection<ProcessedItemInfo>> synchronizedConsumer = items -> {
+            synchronized ( consumer )
+            {
+                consumer.accept( items );
+            }
+        };
+        final List<CompletableFuture<Instant>> futures = programIds.stream().map( programId -> CompletableFuture.supplyAsync(
+            () -> createPolledItemRetriever( toleranceMillis, maxSearchCount, streaming, pollExecutor )
+                .poll( lastUpdated, excludedStoredBy, synchronizedConsumer, Collections.singletonList( programId ) ), pollExecutor ) )
+            .collect( Collectors.toList() );
+
+        try
+        {
+            // all programs must have been polled before returning (also in case of a failure)
+            CompletableFuture.allOf( futures.toArray( new CompletableFuture[0] ) ).join();
+        }
+        catch ( CompletionException e )
         {
-            final Instant currentResult = eventPolledItemRetriever.poll( lastUpdated, excludedStoredBy, consumer, Collections.singletonList( programId ) );
-            result = ObjectUtils.min( result, currentResult );
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            if ( e.getCause() instanceof Error )
+            {
+                throw (Error) e.getCause();
+            }
+
+            throw new PolledItemRetrieverException( "Unexpected error when polling events.", e );
         }
+
+        for ( final CompletableFuture<Instant> future : futures )
+        {
+            result = ObjectUtils.min( result, future.join() );
+        }
+
         return result;
     }
 
+    @Nonnull
+    private EventPolledItemRetriever createPolledItemRetriever( int toleranceMillis, int maxSearchCount, boolean streaming, @Nullable Executor pollExecutor )
+    {
+        final EventPolledItemRetriever eventPolledItemRetriever = new EventPolledItemRetriever( systemRestTemplate, toleranceMillis, maxSearchCount, zoneId );
+        eventPolledItemRetriever.setAsyncRestTemplate( systemAsyncRestTemplate );
+        eventPolledItemRetriever.setStreaming( streaming );
+        eventPolledItemRetriever.setWindowExecutor( pollExecutor );
+        return eventPolledItemRetriever;
+    }
+
     @Nonnull
     protected Event create( @Nonnull Event event )
     {
@@ -394,14 +556,34 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
         }
         catch ( HttpClientErrorException e )
         {
-            if ( HttpStatus.CONFLICT.equals( e.getStatusCode() ) )
-            {
-                throw new DhisConflictException( "Event could not be created: " + e.getResponseBodyAsString(), e );
-            }
+            throw convertConflict( e, "Event could not be created: " );
+        }
 
-            throw e;
+        return created( event, response );
+    }
+
+    @Nonnull
+    protected CompletableFuture<Event> createAsync( @Nonnull Event event )
+    {
+        if ( event.getId() == null )
+        {
+            event.setId( CodeGenerator.generateUid() );
         }
 
+        return asyncRestTemplate.exchange( CREATE_URI, HttpMethod.POST, new HttpEntity<>( event ), ImportSummariesWebMessage.class ).completable()
+            .handle( ( response, throwable ) -> {
+                if ( throwable != null )
+                {
+                    throw convertConflict( CompletableFutureUtils.getCause( throwable ), "Event could not be created: " );
+                }
+
+                return created( event, response );
+            } );
+    }
+
+    @Nonnull
+    protected Event created( @Nonnull Event event, @Nonnull ResponseEntity<ImportSummariesWebMessage> response )
+    {
         final ImportSummariesWebMessage result = Objects.requireNonNull( response.getBody() );
 
         if ( result.isNotSuccessful() )
@@ -428,23 +610,54 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
         }
         catch ( HttpClientErrorException e )
         {
-            if ( HttpStatus.CONFLICT.equals( e.getStatusCode() ) )
-            {
-                throw new DhisConflictException( "Event could not be updated: " + e.getResponseBodyAsString(), e );
-            }
-
-            throw e;
+            throw convertConflict( e, "Event could not be updated: " );
         }
 
+        verifyUpdated( response, "Response indicates an unsuccessful import: " );
+
+        return event;
+    }
+
+    @Nonnull
+    protected CompletableFuture<Event> updateAsync( @Nonnull Event event )
+    {
+        return asyncRestTemplate.exchange( UPDATE_URI, HttpMethod.PUT, new HttpEntity<>( event ), ImportSummariesWebMessage.class, event.getId() ).completable()
+            .handle( ( response, throwable ) -> {
+                if ( throwable != null )
+                {
+                    throw convertConflict( CompletableFutureUtils.getCause( throwable ), "Event could not be updated: " );
+                }
+
+                verifyUpdated( response, "Response indicates an unsuccessful import: " );
+
+                return event;
+            } );
+    }
+
+    protected void verifyUpdated( @Nonnull ResponseEntity<ImportSummariesWebMessage> response, @Nonnull String message )
+    {
         final ImportSummariesWebMessage result = Objects.requireNonNull( response.getBody() );
 
         if ( result.getStatus() != Status.OK )
         {
-            throw new DhisImportUnsuccessfulException( "Response indicates an unsuccessful import: " +
-                result.getStatus() );
+            throw new DhisImportUnsuccessfulException( message + result.getStatus() );
         }
+    }
 
-        return event;
+    /**
+     * Converts a conflict status into a {@link DhisConflictException}. Since the method is
+     * also used for failures of asynchronous requests, all other failures are returned as
+     * unchecked exceptions.
+     */
+    @Nonnull
+    protected RuntimeException convertConflict( @Nonnull Throwable throwable, @Nonnull String message )
+    {
+        if ( (throwable instanceof HttpClientErrorException) && HttpStatus.CONFLICT.equals( ((HttpClientErrorException) throwable).getStatusCode() ) )
+        {
+            return new DhisConflictException( message + ((HttpClientErrorException) throwable).getResponseBodyAsString(), throwable );
+        }
+
+        return (throwable instanceof RuntimeException) ? (RuntimeException) throwable : new CompletionException( throwable );
     }
 
     @HystrixCommand( ignoreExceptions = { UnauthorizedException.class, DhisFindException.class } )
@@ -492,42 +705,57 @@ public class EventServiceImpl implements EventService, LocalDhisRepositoryPersis
             (events.getEvents().size() >= pagingQuery.getPageSize()) );
     }
 
-    protected void update( @Nonnull MinimalEvent event )
+    @Nonnull
+    protected CompletableFuture<Void> updateAsync( @Nonnull MinimalEvent event )
     {
-        final ResponseEntity<ImportSummariesWebMessage> response;
-        try
-        {
-            response = restTemplate.exchange( UPDATE_DATA_VALUE_URI, HttpMethod.PUT, new HttpEntity<>( event ),
-                ImportSummariesWebMessage.class, event.getId(), event.getDataElementId() );
-        }
-        catch ( HttpClientErrorException e )
-        {
-            if ( HttpStatus.CONFLICT.equals( e.getStatusCode() ) )
-            {
-                throw new DhisConflictException( "Event could not be updated: " + e.getResponseBodyAsString(), e );
-            }
-            throw e;
-        }
-        final ImportSummariesWebMessage result = Objects.requireNonNull( response.getBody() );
+        return asyncRestTemplate.exchange( UPDATE_DATA_VALUE_URI, HttpMethod.PUT, new HttpEntity<>( event ),
+            ImportSummariesWebMessage.class, event.getId(), event.getDataElementId() ).completable()
+            .handle( ( response, throwable ) -> {
+                if ( throwable != null )
+                {
+                    throw convertConflict( CompletableFutureUtils.getCause( throwable ), "Event could not be updated: " );
+                }
 
-        if ( result.getStatus() != Status.OK )
-        {
-            throw new DhisImportUnsuccessfulException( "Response indicates an unsuccessful event import: " +
-                result.getStatus() );
-        }
+                verifyUpdated( response, "Response indicates an unsuccessful event import: " );
+
+                return null;
+            } );
     }
 
     @Nonnull
     protected Event minimalUpdate( @Nonnull Event event )
     {
-        if ( event.isModified() || event.getDataValues().stream().anyMatch( DataValue::isNewResource ) )
+        if ( isUpdateRequired( event ) )
         {
             return update( event );
         }
 
-        event.getDataValues().stream().filter( DataValue::isModified ).forEach( dv ->
-            update( new MinimalEvent( event, dv ) ) );
+        CompletableFutureUtils.join( updateDataValuesAsync( event ) );
 
         return event;
     }
+
+    @Nonnull
+    protected CompletableFuture<Event> minimalUpdateAsync( @Nonnull Event event )
+    {
+        if ( isUpdateRequired( event ) )
+        {
+            return updateAsync( event );
+        }
+
+        return updateDataValuesAsync( event ).thenApply( v -> event );
+    }
+
+    protected boolean isUpdateRequired( @Nonnull Event event )
+    {
+        return event.isModified() || event.getDataValues().stream().anyMatch( DataValue::isNewResource );
+    }
+
+    @Nonnull
+    protected CompletableFuture<Void> updateDataValuesAsync( @Nonnull Event event )
+    {
+        // modified data values are independent of each other and are updated concurrently
+        return CompletableFuture.allOf( event.getDataValues().stream().filter( DataValue::isModified )
+            .map( dv -> updateAsync( new MinimalEvent( event, dv ) ) ).toArray( CompletableFuture[]::new ) );
+    }
 }
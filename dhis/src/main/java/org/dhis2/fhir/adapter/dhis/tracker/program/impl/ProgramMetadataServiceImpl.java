@@ -35,6 +35,7 @@ import org.dhis2.fhir.adapter.dhis.tracker.program.Program;
 import org.dhis2.fhir.adapter.dhis.tracker.program.ProgramMetadataService;
 import org.dhis2.fhir.adapter.dhis.tracker.program.WritableProgram;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
@@ -55,9 +56,10 @@ public class ProgramMetadataServiceImpl extends AbstractDhisMetadataServiceImpl<
             "trackedEntityAttribute[id,name,code,valueType,generated]]," +
             "programStages[" + ProgramStageMetadataServiceImpl.FIELDS + "]";
 
-    public ProgramMetadataServiceImpl( @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate systemRestTemplate, @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate userRestTemplate )
+    public ProgramMetadataServiceImpl( @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate systemRestTemplate, @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate userRestTemplate,
+        @Nonnull @Qualifier( "dhisCacheManager" ) CacheManager cacheManager )
     {
-        super( systemRestTemplate, userRestTemplate );
+        super( systemRestTemplate, userRestTemplate, cacheManager );
     }
 
     @Nonnull
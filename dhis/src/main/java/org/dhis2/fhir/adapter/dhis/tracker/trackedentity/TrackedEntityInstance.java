@@ -37,11 +37,17 @@ import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.Predicate;
 
 /**
  * Representation of a DHIS2 tracked entity instance resource.
@@ -82,6 +88,12 @@ public class TrackedEntityInstance implements DhisResource, Serializable
 
     private Collection<TrackedEntityAttributeValue> attributes;
 
+    @JsonIgnore
+    private transient Map<String, TrackedEntityAttributeValue> attributesById = Collections.emptyMap();
+
+    @JsonIgnore
+    private transient boolean duplicateAttributes;
+
     @JsonIgnore
     private boolean modified;
 
@@ -112,6 +124,8 @@ public class TrackedEntityInstance implements DhisResource, Serializable
                 this.attributes.add( new TrackedEntityAttributeValue( typeAttribute.getAttributeId() ) );
             }
         }
+
+        updateAttributesById();
     }
 
     @JsonIgnore
@@ -235,30 +249,64 @@ public class TrackedEntityInstance implements DhisResource, Serializable
         this.coordinates = coordinates;
     }
 
+    /**
+     * @return the read-only attribute values or <code>null</code> if the attribute values
+     * have not been set.
+     */
     public Collection<TrackedEntityAttributeValue> getAttributes()
     {
-        return attributes;
+        return (attributes == null) ? null : Collections.unmodifiableCollection( attributes );
     }
 
     public void setAttributes( Collection<TrackedEntityAttributeValue> attributes )
     {
-        this.attributes = attributes;
+        this.attributes = (attributes == null) ? null : new ArrayList<>( attributes );
+        updateAttributesById();
+    }
+
+    /**
+     * Removes all attribute values that match the specified filter.
+     *
+     * @param filter the filter that returns <code>true</code> for the attribute values
+     *               that should be removed.
+     * @return <code>true</code> if any attribute value has been removed.
+     */
+    public boolean removeAttributes( @Nonnull Predicate<? super TrackedEntityAttributeValue> filter )
+    {
+        if ( (attributes == null) || !attributes.removeIf( filter ) )
+        {
+            return false;
+        }
+
+        updateAttributesById();
+        return true;
     }
 
     public boolean containsAttribute( @Nonnull String attributeId )
     {
-        return getAttributes().stream().anyMatch( a -> Objects.equals( attributeId, a.getAttributeId() ) );
+        return attributesById.containsKey( attributeId );
     }
 
     public boolean containsAttribute( @Nonnull String attributeId, @Nonnull String value )
     {
-        return getAttributes().stream().anyMatch( a -> Objects.equals( attributeId, a.getAttributeId() ) && a.getValue() != null && Objects.equals( String.valueOf( a.getValue() ), value ) );
+        if ( duplicateAttributes )
+        {
+            return attributes.stream().anyMatch( a -> Objects.equals( attributeId, a.getAttributeId() ) && (a.getValue() != null) && Objects.equals( String.valueOf( a.getValue() ), value ) );
+        }
+
+        final TrackedEntityAttributeValue attributeValue = attributesById.get( attributeId );
+        return (attributeValue != null) && (attributeValue.getValue() != null) && Objects.equals( String.valueOf( attributeValue.getValue() ), value );
     }
 
     public boolean containsAttributeWithValue( @Nonnull String attributeId )
     {
-        return getAttributes().stream().filter( a -> (a.getValue() != null) )
-            .anyMatch( a -> Objects.equals( attributeId, a.getAttributeId() ) );
+        if ( duplicateAttributes )
+        {
+            return attributes.stream().anyMatch( a -> Objects.equals( attributeId, a.getAttributeId() ) && (a.getValue() != null) );
+        }
+
+        final TrackedEntityAttributeValue attributeValue = attributesById.get( attributeId );
+        return (attributeValue != null) && (attributeValue.getValue() != null);
     }
 
     public boolean isModified()
@@ -274,16 +322,47 @@ public class TrackedEntityInstance implements DhisResource, Serializable
     @Nonnull
     public TrackedEntityAttributeValue getAttribute( @Nonnull String attributeId )
     {
-        if ( getAttributes() == null )
+        if ( attributes == null )
         {
             setAttributes( new ArrayList<>() );
         }
-        TrackedEntityAttributeValue attributeValue = getAttributes().stream().filter( a -> Objects.equals( attributeId, a.getAttributeId() ) ).findFirst().orElse( null );
+        TrackedEntityAttributeValue attributeValue = attributesById.get( attributeId );
         if ( attributeValue == null )
         {
             attributeValue = new TrackedEntityAttributeValue( attributeId );
-            getAttributes().add( attributeValue );
+            attributes.add( attributeValue );
+            attributesById.put( attributeId, attributeValue );
         }
         return attributeValue;
     }
+
+    /**
+     * Rebuilds the index of the attribute values by their attribute ID. The index is
+     * rebuilt on every change of the attribute values and is never modified when
+     * reading attribute values. If an attribute is contained more than once, the index
+     * contains the first attribute value. The attribute ID of an attribute value must
+     * not be changed after the attribute value has been added.
+     */
+    private void updateAttributesById()
+    {
+        final Map<String, TrackedEntityAttributeValue> attributesById = new HashMap<>();
+        boolean duplicateAttributes = false;
+
+        if ( attributes != null )
+        {
+            for ( final TrackedEntityAttributeValue attributeValue : attributes )
+            {
+                duplicateAttributes |= (attributesById.putIfAbsent( attributeValue.getAttributeId(), attributeValue ) != null);
+            }
+        }
+
+        this.attributesById = attributesById;
+        this.duplicateAttributes = duplicateAttributes;
+    }
+
+    private void readObject( @Nonnull ObjectInputStream in ) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        updateAttributesById();
+    }
 }
@@ -32,6 +32,7 @@ import org.dhis2.fhir.adapter.dhis.model.Reference;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.impl.RequiredValues;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
 import java.util.Optional;
 
 public interface TrackedEntityMetadataService
@@ -47,4 +48,13 @@ public interface TrackedEntityMetadataService
 
     @Nonnull
     RequiredValues getRequiredValues( @Nonnull String attributeId );
+
+    /**
+     * Fetches the tracked entity types with the specified references in bulk and
+     * stores them in the cache that is used by {@link #findTypeByReference(Reference)}.
+     *
+     * @param references the references of the tracked entity types that should be fetched.
+     * @return the number of references that have been cached.
+     */
+    int prefetchTypesByReferences( @Nonnull Collection<Reference> references );
 }
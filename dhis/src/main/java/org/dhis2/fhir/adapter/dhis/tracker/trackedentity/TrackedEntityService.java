@@ -37,6 +37,7 @@ import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service that allows to create, read and update tracked entity instances.
@@ -54,6 +55,12 @@ public interface TrackedEntityService extends DhisService<TrackedEntityInstance>
     @Nonnull
     Optional<TrackedEntityInstance> findOneById( @Nonnull String id );
 
+    @Nonnull
+    CompletableFuture<Optional<TrackedEntityInstance>> findOneByIdAsync( @Nonnull String id );
+
+    @Nonnull
+    CompletableFuture<Optional<TrackedEntityInstance>> findOneByIdRefreshedAsync( @Nonnull String id );
+
     boolean isLocal( @Nonnull String id );
 
     @Nonnull
@@ -30,14 +30,18 @@ package org.dhis2.fhir.adapter.dhis.tracker.trackedentity.impl;
 
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
 import org.dhis2.fhir.adapter.dhis.model.Reference;
+import org.dhis2.fhir.adapter.dhis.model.ReferenceType;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.ImmutableTrackedEntityType;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityAttributes;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityMetadataService;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityType;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.WritableTrackedEntityType;
+import org.dhis2.fhir.adapter.dhis.util.DhisMetadataPrefetchUtils;
 import org.dhis2.fhir.adapter.rest.RestTemplateUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -45,8 +49,10 @@ import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Service
 public class TrackedEntityMetadataServiceImpl implements TrackedEntityMetadataService
@@ -61,16 +67,22 @@ public class TrackedEntityMetadataServiceImpl implements TrackedEntityMetadataSe
     protected static final String TRACKED_ENTITY_TYPE_BY_NAME_URI = "/trackedEntityTypes.json?" +
         "paging=false&filter=name:eq:{name}&fields=" + TRACKED_ENTITY_TYPE_FIELDS;
 
+    protected static final String TRACKED_ENTITY_TYPES_BY_PROPERTY_URI = "/trackedEntityTypes.json?" +
+        "paging=false&filter={property}:in:[{values}]&fields=" + TRACKED_ENTITY_TYPE_FIELDS;
+
     protected static final String TRACKED_ENTITY_ATTRIBUTES_URI = "/trackedEntityAttributes.json?paging=false&fields=" + TRACKED_ENTITY_ATTRIBUTE_FIELDS;
 
     protected static final String REQUIRED_VALUE_URI = "/trackedEntityAttributes/{attributeId}/requiredValues.json";
 
     private final RestTemplate restTemplate;
 
+    private final CacheManager cacheManager;
+
     @Autowired
-    public TrackedEntityMetadataServiceImpl( @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate restTemplate )
+    public TrackedEntityMetadataServiceImpl( @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate restTemplate, @Nonnull @Qualifier( "dhisCacheManager" ) CacheManager cacheManager )
     {
         this.restTemplate = restTemplate;
+        this.cacheManager = cacheManager;
     }
 
     @HystrixCommand
@@ -134,4 +146,20 @@ public class TrackedEntityMetadataServiceImpl implements TrackedEntityMetadataSe
     {
         return Objects.requireNonNull( restTemplate.getForObject( REQUIRED_VALUE_URI, RequiredValues.class, attributeId ) );
     }
+
+    @Override
+    public int prefetchTypesByReferences( @Nonnull Collection<Reference> references )
+    {
+        final Cache cache = cacheManager.getCache( "trackedEntityTypes" );
+
+        if ( cache == null )
+        {
+            return 0;
+        }
+
+        // tracked entity type does not have a code
+        return DhisMetadataPrefetchUtils.<WritableTrackedEntityType>prefetch( references.stream().filter( r -> r.getType() != ReferenceType.CODE ).collect( Collectors.toList() ), cache,
+            ( propertyName, values ) -> Objects.requireNonNull( restTemplate.getForEntity( TRACKED_ENTITY_TYPES_BY_PROPERTY_URI, TrackedEntityTypes.class, propertyName, values ).getBody() )
+                .getTrackedEntityTypes(), ImmutableTrackedEntityType::new );
+    }
 }
@@ -67,6 +67,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.HttpEntity;
@@ -76,6 +78,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -85,6 +88,7 @@ import javax.annotation.Nullable;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -92,6 +96,8 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -101,6 +107,7 @@ import java.util.stream.Collectors;
  * @author volsch
  */
 @Service
+@SuppressWarnings( "deprecation" )
 public class TrackedEntityServiceImpl implements TrackedEntityService, LocalDhisRepositoryPersistCallback<TrackedEntityInstance>
 {
     private final Logger logger = LoggerFactory.getLogger( getClass() );
@@ -131,8 +138,18 @@ public class TrackedEntityServiceImpl implements TrackedEntityService, LocalDhis
 
     protected static final int MAX_RESERVE_RETRIES = 10;
 
+    protected static final String CACHE_NAME = "trackedEntityInstances";
+
     private final RestTemplate restTemplate;
 
+    private final RestTemplate systemRestTemplate;
+
+    private final AsyncRestTemplate asyncRestTemplate;
+
+    private final AsyncRestTemplate systemAsyncRestTemplate;
+
+    private final CacheManager cacheManager;
+
     private final TrackedEntityMetadataService metadataService;
 
     private final StoredDhisResourceService storedItemService;
@@ -144,10 +161,16 @@ public class TrackedEntityServiceImpl implements TrackedEntityService, LocalDhis
     private final LocalDhisResourceRepositoryTemplate<TrackedEntityInstance> resourceRepositoryTemplate;
 
     @Autowired
-    public TrackedEntityServiceImpl( @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate restTemplate, @Nonnull RequestCacheService requestCacheService,
-        @Nonnull TrackedEntityMetadataService metadataService, @Nonnull StoredDhisResourceService storedItemService )
+    public TrackedEntityServiceImpl( @Nonnull @Qualifier( "userDhis2RestTemplate" ) RestTemplate restTemplate, @Nonnull @Qualifier( "systemDhis2RestTemplate" ) RestTemplate systemRestTemplate,
+        @Nonnull @Qualifier( "userDhis2AsyncRestTemplate" ) AsyncRestTemplate asyncRestTemplate, @Nonnull @Qualifier( "systemDhis2AsyncRestTemplate" ) AsyncRestTemplate systemAsyncRestTemplate,
+        @Nonnull @Qualifier( "dhisCacheManager" ) CacheManager cacheManager, @Nonnull RequestCacheService requestCacheService, @Nonnull TrackedEntityMetadataService metadataService,
+        @Nonnull StoredDhisResourceService storedItemService )
     {
         this.restTemplate = restTemplate;
+        this.systemRestTemplate = systemRestTemplate;
+        this.asyncRestTemplate = asyncRestTemplate;
+        this.systemAsyncRestTemplate = systemAsyncRestTemplate;
+        this.cacheManager = cacheManager;
         this.metadataService = metadataService;
         this.storedItemService = storedItemService;
 
@@ -232,6 +255,51 @@ public class TrackedEntityServiceImpl implements TrackedEntityService, LocalDhis
         return findOneByIdRefreshed( id );
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<Optional<TrackedEntityInstance>> findOneByIdAsync( @Nonnull String id )
+    {
+        final Cache cache = cacheManager.getCache( CACHE_NAME );
+        final Cache.ValueWrapper cachedValue = (cache == null) ? null : cache.get( createFindOneByIdCacheKey( id ) );
+
+        if ( cachedValue != null )
+        {
+            return CompletableFuture.completedFuture( Optional.ofNullable( (TrackedEntityInstance) cachedValue.get() ) );
+        }
+
+        return findOneByIdRefreshedAsync( id );
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Optional<TrackedEntityInstance>> findOneByIdRefreshedAsync( @Nonnull String id )
+    {
+        // the cache of the current request must be resolved by the calling thread
+        final Cache cache = cacheManager.getCache( CACHE_NAME );
+
+        return resourceRepositoryTemplate.findOneByIdAsync( id, this::_findOneByIdRefreshedAsync ).thenApply( result -> {
+            if ( cache != null )
+            {
+                cache.put( createFindOneByIdCacheKey( id ), result.orElse( null ) );
+            }
+
+            return result;
+        } );
+    }
+
+    @Nonnull
+    protected CompletableFuture<TrackedEntityInstance> _findOneByIdRefreshedAsync( @Nonnull String id )
+    {
+        return RestTemplateUtils.getBodyOrNullIfNotFound( asyncRestTemplate.getForEntity( ID_URI, TrackedEntityInstance.class, id ).completable() );
+    }
+
+    @Nonnull
+    protected static Object createFindOneByIdCacheKey( @Nonnull String id )
+    {
+        // must be equal to the key of the cache annotations of the corresponding synchronous methods
+        return Arrays.asList( "findOneById", id );
+    }
+
     @Override
     public boolean isLocal( @Nonnull String id )
     {
@@ -273,9 +341,14 @@ public class TrackedEntityServiceImpl implements TrackedEntityService, LocalDhis
 
     @Nonnull
     @Override
-    public Instant poll( @Nonnull DhisSyncGroup group, @Nonnull Instant lastUpdated, int toleranceMillis, int maxSearchCount, @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
+    public Instant poll( @Nonnull DhisSyncGroup group, @Nonnull Instant lastUpdated, int toleranceMillis, int maxSearchCount, boolean streaming, @Nullable Executor pollExecutor, @Nonnull Set<String> excludedStoredBy, @Nonnull Consumer<Collection<ProcessedItemInfo>> consumer )
     {
-        return new TrackedEntityPolledItemRetriever( restTemplate, toleranceMillis, maxSearchCount, zoneId ).poll( lastUpdated, excludedStoredBy, consumer, null );
+        final TrackedEntityPolledItemRetriever polledItemRetriever = new TrackedEntityPolledItemRetriever( systemRestTemplate, toleranceMillis, maxSearchCount, zoneId );
+        polledItemRetriever.setAsyncRestTemplate( systemAsyncRestTemplate );
+        polledItemRetriever.setStreaming( streaming );
+        polledItemRetriever.setWindowExecutor( pollExecutor );
+
+        return polledItemRetriever.poll( lastUpdated, excludedStoredBy, consumer, null );
     }
 
     @HystrixCommand( ignoreExceptions = { DhisConflictException.class, UnauthorizedException.class } )
@@ -307,12 +380,14 @@ public class TrackedEntityServiceImpl implements TrackedEntityService, LocalDhis
         trackedEntityInstances.forEach( this::clear );
 
         final ResponseEntity<ImportSummariesWebMessage> response =
-            restTemplate.postForEntity( create ? CREATES_URI : UPDATES_URI, new TrackedEntityInstances( trackedEntityInstances ), ImportSummariesWebMessage.class );
+            postBulk( create ? CREATES_URI : UPDATES_URI, new TrackedEntityInstances( trackedEntityInstances ) );
 
         final ImportSummariesWebMessage result = Objects.requireNonNull( response.getBody() );
         final int size = trackedEntityInstances.size();
 
-        if ( result.getStatus() != Status.OK || result.getResponse() == null || result.getResponse().getImportSummaries().size() != size )
+        // a conflict status is returned if at least one resource could not be imported (status of each resource is evaluated below)
+        if ( ((result.getStatus() != Status.OK) && !HttpStatus.CONFLICT.equals( response.getStatusCode() )) ||
+            (result.getResponse() == null) || (result.getResponse().getImportSummaries().size() != size) )
         {
             throw new DhisImportUnsuccessfulException( "Response indicates an unsuccessful import of tracked entity instances." );
         }
@@ -325,8 +400,9 @@ public class TrackedEntityServiceImpl implements TrackedEntityService, LocalDhis
 
             if ( importSummary.getStatus() == ImportStatus.ERROR )
             {
-                persistResult = new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.ERROR, trackedEntityInstance.getId(),
-                    StringUtils.defaultIfBlank( importSummary.getDescription(), "Failed to persist enrollment." ) );
+                // the import of a single resource would have resulted in a conflict status
+                persistResult = new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.CONFLICT, trackedEntityInstance.getId(),
+                    StringUtils.defaultIfBlank( importSummary.getDescription(), "Failed to persist tracked entity instance." ) );
             }
             else
             {
@@ -345,6 +421,25 @@ public class TrackedEntityServiceImpl implements TrackedEntityService, LocalDhis
         }
     }
 
+    @Nonnull
+    protected ResponseEntity<ImportSummariesWebMessage> postBulk( @Nonnull String uri, @Nonnull Object resources )
+    {
+        try
+        {
+            return restTemplate.postForEntity( uri, resources, ImportSummariesWebMessage.class );
+        }
+        catch ( HttpClientErrorException e )
+        {
+            // the import summaries of all resources are included when at least one resource could not be imported
+            if ( HttpStatus.CONFLICT.equals( e.getStatusCode() ) )
+            {
+                return RestTemplateUtils.toResponseEntity( restTemplate, e, ImportSummariesWebMessage.class );
+            }
+
+            throw e;
+        }
+    }
+
     @Override
     @Nonnull
     public TrackedEntityInstance persistSave( @Nonnull TrackedEntityInstance resource )
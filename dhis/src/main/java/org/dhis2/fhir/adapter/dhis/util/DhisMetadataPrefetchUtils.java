@@ -0,0 +1,130 @@
+package org.dhis2.fhir.adapter.dhis.util;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.google.common.collect.Lists;
+import org.dhis2.fhir.adapter.dhis.model.DhisMetadata;
+import org.dhis2.fhir.adapter.dhis.model.Reference;
+import org.dhis2.fhir.adapter.dhis.model.ReferenceType;
+import org.springframework.cache.Cache;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * DHIS2 metadata prefetch utilities. The referenced metadata is fetched with
+ * a single request per reference type and chunk of references (DHIS2 filter
+ * operator <code>in</code>) and stored in the specified cache. The key of the
+ * cache entries is the reference itself.
+ *
+ * @author volsch
+ */
+public abstract class DhisMetadataPrefetchUtils
+{
+    /**
+     * The maximum number of references that are included in a single request
+     * in order to limit the length of the resulting URI.
+     */
+    public static final int MAX_REFERENCES_PER_REQUEST = 50;
+
+    /**
+     * Fetches and caches the specified metadata references. References that
+     * cannot be included in a filter of a request (e.g. names that contain a
+     * comma) and references that cannot be found are not cached and will
+     * be resolved individually when they are used.
+     *
+     * @param references  the references of the metadata that should be fetched.
+     * @param cache       the cache in which the fetched metadata is stored.
+     * @param loader      loads the metadata for the specified DHIS2 property name
+     *                    (<code>id</code>, <code>code</code>, <code>name</code>) and comma
+     *                    separated property values.
+     * @param valueMapper maps the loaded metadata to the value that is stored in the cache.
+     * @param <T>         the concrete type of the loaded metadata.
+     * @return the number of references that have been cached.
+     */
+    public static <T extends DhisMetadata> int prefetch( @Nonnull Collection<Reference> references, @Nonnull Cache cache,
+        @Nonnull BiFunction<String, String, List<? extends T>> loader, @Nonnull Function<T, Object> valueMapper )
+    {
+        int count = 0;
+        for ( final ReferenceType referenceType : ReferenceType.values() )
+        {
+            final List<Reference> typedReferences = references.stream().filter( r -> (r.getType() == referenceType) && r.isValid() && isFilterValue( r.getValue() ) )
+                .distinct().sorted().collect( Collectors.toList() );
+
+            for ( final List<Reference> chunk : Lists.partition( typedReferences, MAX_REFERENCES_PER_REQUEST ) )
+            {
+                final List<? extends T> items = loader.apply( getPropertyName( referenceType ),
+                    chunk.stream().map( Reference::getValue ).collect( Collectors.joining( "," ) ) );
+
+                for ( final T item : items )
+                {
+                    for ( final Reference reference : chunk )
+                    {
+                        if ( item.isReference( reference ) )
+                        {
+                            cache.put( reference, valueMapper.apply( item ) );
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Nonnull
+    private static String getPropertyName( @Nonnull ReferenceType referenceType )
+    {
+        switch ( referenceType )
+        {
+            case ID:
+                return "id";
+            case CODE:
+                return "code";
+            case NAME:
+                return "name";
+            default:
+                throw new AssertionError( "Unhandled reference type: " + referenceType );
+        }
+    }
+
+    private static boolean isFilterValue( @Nonnull String value )
+    {
+        return (value.indexOf( ',' ) < 0) && (value.indexOf( '[' ) < 0) && (value.indexOf( ']' ) < 0);
+    }
+
+    private DhisMetadataPrefetchUtils()
+    {
+        super();
+    }
+}
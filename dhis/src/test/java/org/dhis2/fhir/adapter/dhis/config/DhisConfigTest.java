@@ -0,0 +1,102 @@
+package org.dhis2.fhir.adapter.dhis.config;
+
+/*
+ * Copyright (c) 2004-2018, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.cache.JsonRedisSerializerFactory;
+import org.dhis2.fhir.adapter.cache.SimpleRedisCacheCodec;
+import org.dhis2.fhir.adapter.dhis.model.WritableOption;
+import org.dhis2.fhir.adapter.dhis.model.WritableOptionSet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link DhisConfig}.
+ *
+ * @author volsch
+ */
+public class DhisConfigTest
+{
+    private final JsonRedisSerializerFactory<Object> redisSerializerFactory = new DhisConfig().cacheRedisSerializerFactory();
+
+    @Test
+    public void cacheRedisSerializerJson()
+    {
+        assertRoundTrip( SimpleRedisCacheCodec.JSON );
+    }
+
+    @Test
+    public void cacheRedisSerializerSmile()
+    {
+        final byte[] bytes = assertRoundTrip( SimpleRedisCacheCodec.SMILE );
+        Assert.assertTrue( bytes.length < createRedisSerializer( SimpleRedisCacheCodec.JSON ).serialize( createOptionSet() ).length );
+    }
+
+    @Test
+    public void cacheRedisSerializerCbor()
+    {
+        final byte[] bytes = assertRoundTrip( SimpleRedisCacheCodec.CBOR );
+        Assert.assertTrue( bytes.length < createRedisSerializer( SimpleRedisCacheCodec.JSON ).serialize( createOptionSet() ).length );
+    }
+
+    @Nonnull
+    private byte[] assertRoundTrip( @Nonnull SimpleRedisCacheCodec codec )
+    {
+        final RedisSerializer<Object> redisSerializer = createRedisSerializer( codec );
+        final byte[] bytes = redisSerializer.serialize( createOptionSet() );
+
+        final WritableOptionSet optionSet = (WritableOptionSet) redisSerializer.deserialize( bytes );
+        Assert.assertNotNull( optionSet );
+        Assert.assertEquals( "hg12345678", optionSet.getId() );
+        Assert.assertEquals( 2, optionSet.getOptions().size() );
+        Assert.assertEquals( "c2", optionSet.getOptions().get( 1 ).getCode() );
+        Assert.assertEquals( "v2", optionSet.getOptions().get( 1 ).getName() );
+        return bytes;
+    }
+
+    @Nonnull
+    private RedisSerializer<Object> createRedisSerializer( @Nonnull SimpleRedisCacheCodec codec )
+    {
+        return redisSerializerFactory.createRedisSerializer( codec.createJsonFactory() );
+    }
+
+    @Nonnull
+    private static WritableOptionSet createOptionSet()
+    {
+        final WritableOptionSet optionSet = new WritableOptionSet();
+        optionSet.setId( "hg12345678" );
+        optionSet.setName( "Gender" );
+        optionSet.setOptions( new ArrayList<>( Arrays.asList( new WritableOption( "c1", "v1" ), new WritableOption( "c2", "v2" ) ) ) );
+        return optionSet;
+    }
+}
@@ -46,6 +46,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 /**
@@ -417,4 +419,130 @@ public class LocalDhisResourceRepositoryImplTest
         Assert.assertThat( persistedIds, Matchers.containsInAnyOrder( "a1234567894", "a1234567895" ) );
         Assert.assertThat( persistedResourceKeys, Matchers.containsInAnyOrder( resourceKey5, resourceKey6 ) );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void applySavesChunkedParallel()
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            final LocalDhisResourceRepositoryImpl<TrackedEntityInstance> resourceRepository = new LocalDhisResourceRepositoryImpl<>( TrackedEntityInstance.class, 2, executor );
+            final WritableTrackedEntityType trackedEntityType = new WritableTrackedEntityType();
+            trackedEntityType.setAttributes( Collections.emptyList() );
+
+            final List<Object> resourceKeys = new ArrayList<>();
+            for ( int i = 0; i < 5; i++ )
+            {
+                final Object resourceKey = new Object();
+                resourceKeys.add( resourceKey );
+                resourceRepository.save( new TrackedEntityInstance( trackedEntityType, "a123456789" + i, true ), resourceKey );
+            }
+
+            final Thread callingThread = Thread.currentThread();
+            final List<Integer> chunkSizes = Collections.synchronizedList( new ArrayList<>() );
+            final List<Object> persistedResourceKeys = new ArrayList<>();
+            resourceRepository.applySaves( new TestPersistCallback()
+            {
+                @Override
+                public void persistSave( @Nonnull Collection<TrackedEntityInstance> resources, boolean create, @Nullable Consumer<LocalDhisRepositoryPersistResult> resultConsumer )
+                {
+                    Assert.assertTrue( create );
+                    Assert.assertNotSame( callingThread, Thread.currentThread() );
+                    chunkSizes.add( resources.size() );
+                    resources.forEach( resource -> {
+                        assert resultConsumer != null;
+                        resultConsumer.accept( new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.SUCCESS, resource.getId() ) );
+                    } );
+                }
+            }, ( resource, resourceKey, result ) -> {
+                Assert.assertSame( callingThread, Thread.currentThread() );
+                persistedResourceKeys.add( resourceKey );
+            } );
+
+            Assert.assertThat( chunkSizes, Matchers.containsInAnyOrder( 2, 2, 1 ) );
+            Assert.assertThat( persistedResourceKeys, Matchers.containsInAnyOrder( resourceKeys.toArray() ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void applyDeletesChunkedParallelFailure()
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            final LocalDhisResourceRepositoryImpl<TrackedEntityInstance> resourceRepository = new LocalDhisResourceRepositoryImpl<>( TrackedEntityInstance.class, 1, executor );
+
+            resourceRepository.deleteById( "a1234567890", null, TrackedEntityInstance::new );
+            resourceRepository.deleteById( "a1234567891", null, TrackedEntityInstance::new );
+
+            final List<String> persistedIds = new ArrayList<>();
+            final List<String> failedIds = new ArrayList<>();
+            resourceRepository.applyDeletes( new TestPersistCallback()
+            {
+                @Override
+                public void persistDeleteById( @Nonnull Collection<String> ids, @Nullable Consumer<LocalDhisRepositoryPersistResult> resultConsumer )
+                {
+                    if ( ids.contains( "a1234567891" ) )
+                    {
+                        throw new IllegalStateException( "Failed" );
+                    }
+
+                    ids.forEach( id -> {
+                        assert resultConsumer != null;
+                        resultConsumer.accept( new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.SUCCESS, id ) );
+                    } );
+                }
+            }, ( resource, resourceKey, result ) -> {
+                if ( result.getStatus() == LocalDhisRepositoryPersistStatus.SUCCESS )
+                {
+                    persistedIds.add( resource.getId() );
+                }
+                else
+                {
+                    Assert.assertEquals( LocalDhisRepositoryPersistStatus.ERROR, result.getStatus() );
+                    Assert.assertEquals( "Failed", result.getMessage() );
+                    failedIds.add( resource.getId() );
+                }
+            } );
+
+            Assert.assertEquals( Collections.singletonList( "a1234567890" ), persistedIds );
+            Assert.assertEquals( Collections.singletonList( "a1234567891" ), failedIds );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private abstract static class TestPersistCallback implements LocalDhisRepositoryPersistCallback<TrackedEntityInstance>
+    {
+        @Override
+        public void persistSave( @Nonnull Collection<TrackedEntityInstance> resources, boolean create, @Nullable Consumer<LocalDhisRepositoryPersistResult> resultConsumer )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Nonnull
+        @Override
+        public TrackedEntityInstance persistSave( @Nonnull TrackedEntityInstance resource )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void persistDeleteById( @Nonnull Collection<String> ids, @Nullable Consumer<LocalDhisRepositoryPersistResult> resultConsumer )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean persistDeleteById( @Nonnull String id )
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -37,6 +37,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -63,6 +65,8 @@ public class OrganizationUnitServiceImplTest
 
     private MockRestServiceServer mockServer;
 
+    private CacheManager cacheManager;
+
     private OrganizationUnitService service;
 
     @Before
@@ -71,7 +75,8 @@ public class OrganizationUnitServiceImplTest
         systemRestTemplate = new RestTemplateBuilder().rootUri( "http://localhost:8080/api" ).build();
         userRestTemplate = new RestTemplateBuilder().rootUri( "http://localhost:8080/api" ).build();
         mockServer = MockRestServiceServer.createServer( systemRestTemplate );
-        service = new OrganizationUnitServiceImpl( systemRestTemplate, userRestTemplate );
+        cacheManager = new ConcurrentMapCacheManager();
+        service = new OrganizationUnitServiceImpl( systemRestTemplate, userRestTemplate, cacheManager );
     }
 
     @Test
@@ -0,0 +1,365 @@
+package org.dhis2.fhir.adapter.dhis.poll;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.impl.TrackedEntityPolledItem;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.impl.TrackedEntityPolledItems;
+import org.dhis2.fhir.adapter.data.model.ProcessedItemInfo;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for {@link AbstractPolledItemRetriever}.
+ *
+ * @author volsch
+ */
+public class AbstractPolledItemRetrieverTest
+{
+    private static final ZoneId ZONE_ID = ZoneOffset.UTC;
+
+    @Mock
+    private RestTemplate restTemplate;
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    private TestPolledItemRetriever retriever;
+
+    private final List<List<String>> consumed = new ArrayList<>();
+
+    @Before
+    public void before()
+    {
+        retriever = new TestPolledItemRetriever( restTemplate );
+        // pages are returned from the newest to the oldest item, the window end is inclusive
+        retriever.addPage( null, createItem( "a", 5 ), createItem( "b", 4 ), createItem( "c", 3 ) );
+        retriever.addPage( toInstant( 3 ), createItem( "c", 3 ), createItem( "d", 2 ), createItem( "e", 1 ) );
+        retriever.addPage( toInstant( 1 ), createItem( "e", 1 ) );
+    }
+
+    @Test
+    public void pollNonStreaming()
+    {
+        retriever.poll( toInstant( 0 ), Collections.emptySet(), this::consume, null );
+
+        Assert.assertEquals( Collections.singletonList( Arrays.asList( "e", "d", "c", "b", "a" ) ), consumed );
+    }
+
+    @Test
+    public void pollNonStreamingPartitioned()
+    {
+        retriever.setMaxConsumedSize( 2 );
+        retriever.poll( toInstant( 0 ), Collections.emptySet(), this::consume, null );
+
+        Assert.assertEquals( Arrays.asList( Arrays.asList( "e", "d" ), Arrays.asList( "c", "b" ), Collections.singletonList( "a" ) ), consumed );
+    }
+
+    @Test
+    public void pollStreaming()
+    {
+        retriever.setStreaming( true );
+        retriever.poll( toInstant( 0 ), Collections.emptySet(), this::consume, null );
+
+        Assert.assertEquals( Arrays.asList( Arrays.asList( "c", "b", "a" ), Arrays.asList( "e", "d" ) ), consumed );
+    }
+
+    @Test
+    public void pollStreamingPartitioned()
+    {
+        retriever.setStreaming( true );
+        retriever.setMaxConsumedSize( 2 );
+        retriever.poll( toInstant( 0 ), Collections.emptySet(), this::consume, null );
+
+        Assert.assertEquals( Arrays.asList( Arrays.asList( "c", "b" ), Collections.singletonList( "a" ), Arrays.asList( "e", "d" ) ), consumed );
+    }
+
+    @Test
+    public void pollStreamingExcludedStoredBy()
+    {
+        retriever.setStreaming( true );
+        retriever.poll( toInstant( 0 ), Collections.singleton( "b-user" ), this::consume, null );
+
+        Assert.assertEquals( Arrays.asList( Arrays.asList( "c", "a" ), Arrays.asList( "e", "d" ) ), consumed );
+    }
+
+    @Test
+    public void pollSaturatedTimestamp()
+    {
+        final WindowPolledItemRetriever retriever = new WindowPolledItemRetriever( restTemplate,
+            createItem( "a", 5 ), createItem( "b", 4 ), createItem( "c", 3 ), createItem( "d", 3 ),
+            createItem( "e", 3 ), createItem( "f", 3 ), createItem( "g", 3 ), createItem( "h", 2 ) );
+        retriever.poll( toInstant( 0 ), Collections.emptySet(), this::consume, null );
+
+        Assert.assertEquals( Collections.singletonList( Arrays.asList( "h", "g", "f", "e", "d", "c", "b", "a" ) ), consumed );
+    }
+
+    @Test
+    public void pollSaturatedTimestampStreaming()
+    {
+        final WindowPolledItemRetriever retriever = new WindowPolledItemRetriever( restTemplate,
+            createItem( "a", 5 ), createItem( "b", 4 ), createItem( "c", 3 ), createItem( "d", 3 ),
+            createItem( "e", 3 ), createItem( "f", 3 ), createItem( "g", 3 ), createItem( "h", 2 ) );
+        retriever.setStreaming( true );
+        retriever.poll( toInstant( 0 ), Collections.emptySet(), this::consume, null );
+
+        Assert.assertEquals( Arrays.asList( "a", "b", "c", "d", "e", "f", "g", "h" ),
+            consumed.stream().flatMap( Collection::stream ).sorted().collect( Collectors.toList() ) );
+    }
+
+    @Test
+    public void pollTimestampNextPageBeforeConsumed()
+    {
+        final List<String> events = new ArrayList<>();
+        final WindowPolledItemRetriever retriever = new WindowPolledItemRetriever( restTemplate,
+            createItem( "c", 3 ), createItem( "d", 3 ), createItem( "e", 3 ), createItem( "f", 3 ), createItem( "g", 3 ) )
+        {
+            @Nonnull
+            @Override
+            protected TrackedEntityPolledItems getPolledItems( @Nonnull Instant fromLastUpdated, @Nullable Instant currentToLastUpdated, int page, @Nullable List<Object> variables )
+            {
+                events.add( "page " + page );
+                return super.getPolledItems( fromLastUpdated, currentToLastUpdated, page, variables );
+            }
+        };
+        retriever.setStreaming( true );
+        retriever.pollTimestamp( toInstant( 3 ), retriever.new CollectedResources( Collections.emptySet() ), Collections.emptySet(), items -> {
+            events.add( "consumed " + items.size() );
+            consume( items );
+        }, null );
+
+        Assert.assertEquals( Arrays.asList( "page 1", "page 2", "consumed 3", "consumed 2" ), events );
+        Assert.assertEquals( Arrays.asList( Arrays.asList( "e", "d", "c" ), Arrays.asList( "g", "f" ) ), consumed );
+    }
+
+    @Test
+    public void pollBisected() throws InterruptedException
+    {
+        final List<TrackedEntityPolledItem> items = new ArrayList<>();
+        for ( int i = 0; i < 40; i++ )
+        {
+            items.add( createItem( "i" + (100 + i), 1 + (i / 2) ) );
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        final AtomicInteger executed = new AtomicInteger();
+        try
+        {
+            final WindowPolledItemRetriever retriever = new WindowPolledItemRetriever( restTemplate, items.toArray( new TrackedEntityPolledItem[0] ) );
+            retriever.setWindowExecutor( r -> {
+                executed.incrementAndGet();
+                executor.execute( r );
+            } );
+            retriever.poll( toInstant( 0 ), Collections.emptySet(), this::consume, null );
+
+            Assert.assertEquals( items.stream().map( TrackedEntityPolledItem::getId ).collect( Collectors.toList() ),
+                consumed.stream().flatMap( Collection::stream ).sorted().collect( Collectors.toList() ) );
+            Assert.assertTrue( executed.get() > 0 );
+        }
+        finally
+        {
+            executor.shutdownNow();
+            Assert.assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+        }
+    }
+
+    @Test
+    public void pollBisectedSaturated() throws InterruptedException
+    {
+        final List<TrackedEntityPolledItem> items = new ArrayList<>();
+        for ( int i = 0; i < 40; i++ )
+        {
+            items.add( createItem( "i" + (100 + i), 1 + (i / 2) ) );
+        }
+
+        // same kind of executor as the shared poll executor (one thread and the submitting thread)
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor( 1, 1, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<>(), new ThreadPoolExecutor.CallerRunsPolicy() );
+        try
+        {
+            final WindowPolledItemRetriever retriever = new WindowPolledItemRetriever( restTemplate, items.toArray( new TrackedEntityPolledItem[0] ) );
+            retriever.setWindowExecutor( executor );
+            retriever.poll( toInstant( 0 ), Collections.emptySet(), this::consume, null );
+
+            Assert.assertEquals( items.stream().map( TrackedEntityPolledItem::getId ).collect( Collectors.toList() ),
+                consumed.stream().flatMap( Collection::stream ).sorted().collect( Collectors.toList() ) );
+            Assert.assertTrue( retriever.getMaxActiveCount() <= 2 );
+        }
+        finally
+        {
+            executor.shutdownNow();
+            Assert.assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+        }
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void pollBisectedFailure()
+    {
+        final List<TrackedEntityPolledItem> items = new ArrayList<>();
+        for ( int i = 0; i < 40; i++ )
+        {
+            items.add( createItem( "i" + (100 + i), 1 + (i / 2) ) );
+        }
+
+        final WindowPolledItemRetriever retriever = new WindowPolledItemRetriever( restTemplate, items.toArray( new TrackedEntityPolledItem[0] ) );
+        retriever.setWindowExecutor( Runnable::run );
+        retriever.setFailingLastUpdated( toInstant( 3 ) );
+        retriever.poll( toInstant( 0 ), Collections.emptySet(), this::consume, null );
+    }
+
+    private void consume( @Nonnull Collection<ProcessedItemInfo> items )
+    {
+        final List<String> ids = new ArrayList<>();
+        items.forEach( i -> ids.add( i.getId().substring( i.getId().lastIndexOf( '/' ) + 1 ) ) );
+        consumed.add( ids );
+    }
+
+    @Nonnull
+    private static TrackedEntityPolledItem createItem( @Nonnull String id, int minute )
+    {
+        final TrackedEntityPolledItem item = new TrackedEntityPolledItem();
+        item.setId( id );
+        item.setLastUpdated( LocalDateTime.ofInstant( toInstant( minute ), ZONE_ID ) );
+        item.setStoredBy( id + "-user" );
+        return item;
+    }
+
+    @Nonnull
+    private static Instant toInstant( int minute )
+    {
+        return Instant.parse( "2019-07-01T10:00:00Z" ).plusSeconds( minute * 60L );
+    }
+
+    private static class TestPolledItemRetriever extends AbstractPolledItemRetriever<TrackedEntityPolledItems, TrackedEntityPolledItem>
+    {
+        private final Map<Instant, List<TrackedEntityPolledItem>> pages = new HashMap<>();
+
+        public TestPolledItemRetriever( @Nonnull RestTemplate restTemplate )
+        {
+            super( DhisResourceType.TRACKED_ENTITY, restTemplate, "/test", 0, 3, TrackedEntityPolledItems.class, ZONE_ID );
+        }
+
+        public void addPage( @Nullable Instant currentToLastUpdated, @Nonnull TrackedEntityPolledItem... items )
+        {
+            pages.put( currentToLastUpdated, Arrays.asList( items ) );
+        }
+
+        @Nonnull
+        @Override
+        protected TrackedEntityPolledItems getPolledItems( @Nonnull Instant fromLastUpdated, @Nullable Instant currentToLastUpdated, int page, @Nullable List<Object> variables )
+        {
+            if ( page > 1 )
+            {
+                return new TrackedEntityPolledItems( Collections.emptyList() );
+            }
+            return new TrackedEntityPolledItems( pages.getOrDefault( currentToLastUpdated, Collections.emptyList() ) );
+        }
+    }
+
+    private static class WindowPolledItemRetriever extends AbstractPolledItemRetriever<TrackedEntityPolledItems, TrackedEntityPolledItem>
+    {
+        private final List<TrackedEntityPolledItem> items;
+
+        private volatile Instant failingLastUpdated;
+
+        private final AtomicInteger activeCount = new AtomicInteger();
+
+        private final AtomicInteger maxActiveCount = new AtomicInteger();
+
+        public WindowPolledItemRetriever( @Nonnull RestTemplate restTemplate, @Nonnull TrackedEntityPolledItem... items )
+        {
+            super( DhisResourceType.TRACKED_ENTITY, restTemplate, "/test", 0, 3, TrackedEntityPolledItems.class, ZONE_ID );
+            // items are returned from the newest to the oldest item
+            this.items = Stream.of( items ).sorted( Comparator.comparing( TrackedEntityPolledItem::getLastUpdated ).reversed()
+                .thenComparing( TrackedEntityPolledItem::getId ) ).collect( Collectors.toList() );
+        }
+
+        public void setFailingLastUpdated( @Nullable Instant failingLastUpdated )
+        {
+            this.failingLastUpdated = failingLastUpdated;
+        }
+
+        public int getMaxActiveCount()
+        {
+            return maxActiveCount.get();
+        }
+
+        @Nonnull
+        @Override
+        protected TrackedEntityPolledItems getPolledItems( @Nonnull Instant fromLastUpdated, @Nullable Instant currentToLastUpdated, int page, @Nullable List<Object> variables )
+        {
+            maxActiveCount.accumulateAndGet( activeCount.incrementAndGet(), Math::max );
+            try
+            {
+                if ( (failingLastUpdated != null) && !fromLastUpdated.isAfter( failingLastUpdated ) && ((currentToLastUpdated == null) || !currentToLastUpdated.isBefore( failingLastUpdated )) )
+                {
+                    throw new IllegalStateException();
+                }
+
+                final List<TrackedEntityPolledItem> windowItems = items.stream().filter( i -> {
+                    final Instant lastUpdated = i.getLastUpdated().atZone( ZONE_ID ).toInstant();
+                    return !lastUpdated.isBefore( fromLastUpdated ) && ((currentToLastUpdated == null) || !lastUpdated.isAfter( currentToLastUpdated ));
+                } ).skip( (page - 1) * 3L ).limit( 3 ).collect( Collectors.toList() );
+                return new TrackedEntityPolledItems( windowItems );
+            }
+            finally
+            {
+                activeCount.decrementAndGet();
+            }
+        }
+    }
+}
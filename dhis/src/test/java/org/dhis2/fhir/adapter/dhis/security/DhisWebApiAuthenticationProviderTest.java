@@ -0,0 +1,174 @@
+package org.dhis2.fhir.adapter.dhis.security;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.dhis2.fhir.adapter.dhis.config.DhisEndpointConfig;
+import org.dhis2.fhir.adapter.rest.RestTemplateCookieStore;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.AuthenticationException;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link DhisWebApiAuthenticationProvider}.
+ *
+ * @author volsch
+ */
+public class DhisWebApiAuthenticationProviderTest
+{
+    @Mock
+    private SecurityConfig securityConfig;
+
+    @Mock
+    private ClientHttpRequestFactory clientHttpRequestFactory;
+
+    @Mock
+    private RestTemplateCookieStore cookieStore;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private final DhisEndpointConfig endpointConfig = new DhisEndpointConfig();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger retrieveCount = new AtomicInteger();
+
+    @Before
+    public void before()
+    {
+        endpointConfig.setUrl( "http://localhost:8080" );
+        endpointConfig.setApiVersion( "30" );
+    }
+
+    @Test
+    public void cached()
+    {
+        final DhisWebApiAuthenticationProvider provider = createProvider();
+
+        Assert.assertEquals( "user1", ( (AdapterUser) provider.authenticate( new UsernamePasswordAuthenticationToken( "admin", "district" ) ).getPrincipal() ).getId() );
+        Assert.assertEquals( "user1", ( (AdapterUser) provider.authenticate( new UsernamePasswordAuthenticationToken( "admin", "district" ) ).getPrincipal() ).getId() );
+        Assert.assertEquals( 1, retrieveCount.get() );
+        Assert.assertEquals( 1.0, meterRegistry.get( "cache.gets" ).tag( "result", "hit" ).functionCounter().count(), 0.0 );
+    }
+
+    @Test
+    public void otherPassword()
+    {
+        final DhisWebApiAuthenticationProvider provider = createProvider();
+
+        provider.authenticate( new UsernamePasswordAuthenticationToken( "admin", "district" ) );
+        try
+        {
+            provider.authenticate( new UsernamePasswordAuthenticationToken( "admin", "district2" ) );
+            Assert.fail( "Exception expected." );
+        }
+        catch ( BadCredentialsException e )
+        {
+            // expected
+        }
+        Assert.assertEquals( 2, retrieveCount.get() );
+    }
+
+    @Test
+    public void failureNotCached()
+    {
+        final DhisWebApiAuthenticationProvider provider = createProvider();
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            try
+            {
+                provider.authenticate( new UsernamePasswordAuthenticationToken( "admin", "invalid" ) );
+                Assert.fail( "Exception expected." );
+            }
+            catch ( BadCredentialsException e )
+            {
+                // expected
+            }
+        }
+        Assert.assertEquals( 2, retrieveCount.get() );
+    }
+
+    @Test
+    public void cacheDisabled()
+    {
+        endpointConfig.setAuthenticationCacheTimeout( 0 );
+        final DhisWebApiAuthenticationProvider provider = createProvider();
+
+        provider.authenticate( new UsernamePasswordAuthenticationToken( "admin", "district" ) );
+        provider.authenticate( new UsernamePasswordAuthenticationToken( "admin", "district" ) );
+        Assert.assertEquals( 2, retrieveCount.get() );
+    }
+
+    @Test
+    public void credentialsHash()
+    {
+        final DhisWebApiAuthenticationProvider provider1 = createProvider();
+        final DhisWebApiAuthenticationProvider provider2 = createProvider();
+
+        Assert.assertEquals( provider1.createCredentialsHash( "admin", "district" ), provider1.createCredentialsHash( "admin", "district" ) );
+        Assert.assertNotEquals( provider1.createCredentialsHash( "admin", "district" ), provider1.createCredentialsHash( "admin", "District" ) );
+        Assert.assertNotEquals( provider1.createCredentialsHash( "admin", "district" ), provider2.createCredentialsHash( "admin", "district" ) );
+    }
+
+    @Nonnull
+    private DhisWebApiAuthenticationProvider createProvider()
+    {
+        return new DhisWebApiAuthenticationProvider( new RestTemplateBuilder(), endpointConfig, securityConfig, clientHttpRequestFactory, cookieStore, meterRegistry )
+        {
+            @Nonnull
+            @Override
+            protected AdapterUser retrieveDhisUser( @Nonnull String username, @Nonnull UsernamePasswordAuthenticationToken authentication ) throws AuthenticationException
+            {
+                retrieveCount.incrementAndGet();
+
+                if ( !"district".equals( authentication.getCredentials() ) )
+                {
+                    throw new BadCredentialsException( "Invalid username or password." );
+                }
+
+                return new AdapterUser( "user1", username, Collections.emptyList() );
+            }
+        };
+    }
+}
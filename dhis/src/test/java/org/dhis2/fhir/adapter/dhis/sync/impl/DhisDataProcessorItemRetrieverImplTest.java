@@ -0,0 +1,250 @@
+package org.dhis2.fhir.adapter.dhis.sync.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.auth.Authorization;
+import org.dhis2.fhir.adapter.auth.AuthorizationContext;
+import org.dhis2.fhir.adapter.auth.ThreadLocalAuthorizationContext;
+import org.dhis2.fhir.adapter.data.model.ProcessedItemInfo;
+import org.dhis2.fhir.adapter.dhis.config.DhisConfig;
+import org.dhis2.fhir.adapter.dhis.config.DhisEndpointConfig;
+import org.dhis2.fhir.adapter.dhis.metadata.model.DhisSyncGroup;
+import org.dhis2.fhir.adapter.dhis.model.DhisResource;
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
+import org.dhis2.fhir.adapter.dhis.service.DhisPolledService;
+import org.dhis2.fhir.adapter.dhis.sync.SyncExcludedDhisUsernameRetriever;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Unit tests for {@link DhisDataProcessorItemRetrieverImpl}.
+ *
+ * @author volsch
+ */
+public class DhisDataProcessorItemRetrieverImplTest
+{
+    @Mock
+    private SyncExcludedDhisUsernameRetriever excludedDhisUsernameRetriever;
+
+    @Mock
+    private DhisPolledService<DhisResource> orgUnitPolledService;
+
+    @Mock
+    private DhisPolledService<DhisResource> trackedEntityPolledService;
+
+    @Mock
+    private DhisPolledService<DhisResource> eventPolledService;
+
+    @Mock
+    private DhisSyncGroup group;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private final AuthorizationContext authorizationContext = new ThreadLocalAuthorizationContext();
+
+    private final Authorization systemDhis2Authorization = new Authorization( "Basic abc" );
+
+    private final Instant lastUpdated = Instant.parse( "2019-01-01T10:00:00Z" );
+
+    private final DhisSyncProcessorConfig processorConfig = new DhisSyncProcessorConfig();
+
+    private final DhisEndpointConfig endpointConfig = new DhisEndpointConfig();
+
+    private DhisDataProcessorItemRetrieverImpl retriever;
+
+    @Before
+    public void before()
+    {
+        processorConfig.setResourceTypes( EnumSet.of( DhisResourceType.ORGANIZATION_UNIT, DhisResourceType.TRACKED_ENTITY, DhisResourceType.PROGRAM_STAGE_EVENT ) );
+        processorConfig.setPollParallelCount( 3 );
+
+        Mockito.doReturn( DhisResourceType.ORGANIZATION_UNIT ).when( orgUnitPolledService ).getDhisResourceType();
+        Mockito.doReturn( DhisResourceType.TRACKED_ENTITY ).when( trackedEntityPolledService ).getDhisResourceType();
+        Mockito.doReturn( DhisResourceType.PROGRAM_STAGE_EVENT ).when( eventPolledService ).getDhisResourceType();
+        Mockito.doReturn( Collections.emptySet() ).when( excludedDhisUsernameRetriever ).findAllDhisUsernames();
+
+        retriever = new DhisDataProcessorItemRetrieverImpl( authorizationContext, systemDhis2Authorization, excludedDhisUsernameRetriever,
+            Arrays.asList( orgUnitPolledService, trackedEntityPolledService, eventPolledService ), processorConfig, new DhisConfig(), endpointConfig );
+    }
+
+    @After
+    public void after()
+    {
+        retriever.destroy();
+    }
+
+    @Test
+    public void pollConcurrently() throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch( 3 );
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final Set<Authorization> authorizations = ConcurrentHashMap.newKeySet();
+        final List<ProcessedItemInfo> consumedItems = new ArrayList<>();
+
+        stubPoll( orgUnitPolledService, latch, threads, authorizations, Instant.parse( "2019-01-01T10:05:00Z" ) );
+        stubPoll( trackedEntityPolledService, latch, threads, authorizations, Instant.parse( "2019-01-01T10:03:00Z" ) );
+        stubPoll( eventPolledService, latch, threads, authorizations, Instant.parse( "2019-01-01T10:04:00Z" ) );
+
+        final Instant result = retriever.poll( group, lastUpdated, 1000, consumedItems::addAll );
+
+        Assert.assertEquals( Instant.parse( "2019-01-01T10:03:00Z" ), result );
+        Assert.assertEquals( 3, threads.size() );
+        Assert.assertEquals( Collections.singleton( systemDhis2Authorization ), authorizations );
+        Assert.assertEquals( 3, consumedItems.size() );
+        Assert.assertNull( authorizationContext.getAuthorization().getAuthorization() );
+    }
+
+    @Test
+    public void pollSequentially()
+    {
+        processorConfig.setPollParallelCount( 1 );
+        retriever = new DhisDataProcessorItemRetrieverImpl( authorizationContext, systemDhis2Authorization, excludedDhisUsernameRetriever,
+            Arrays.asList( orgUnitPolledService, trackedEntityPolledService, eventPolledService ), processorConfig, new DhisConfig(), endpointConfig );
+
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final Set<Authorization> authorizations = ConcurrentHashMap.newKeySet();
+        stubPoll( orgUnitPolledService, null, threads, authorizations, Instant.parse( "2019-01-01T10:05:00Z" ) );
+        stubPoll( trackedEntityPolledService, null, threads, authorizations, Instant.parse( "2019-01-01T10:03:00Z" ) );
+        stubPoll( eventPolledService, null, threads, authorizations, Instant.parse( "2019-01-01T10:04:00Z" ) );
+
+        final Instant result = retriever.poll( group, lastUpdated, 1000, items -> {
+        } );
+
+        Assert.assertEquals( Instant.parse( "2019-01-01T10:03:00Z" ), result );
+        Assert.assertEquals( Collections.singleton( Thread.currentThread() ), threads );
+        Assert.assertEquals( Collections.singleton( systemDhis2Authorization ), authorizations );
+    }
+
+    @Test
+    public void pollConcurrentlyLimitedBySystemConnections()
+    {
+        processorConfig.setPollParallelCount( 10 );
+        endpointConfig.setMaxPooledSystemConnections( 2 );
+        retriever.destroy();
+        retriever = new DhisDataProcessorItemRetrieverImpl( authorizationContext, systemDhis2Authorization, excludedDhisUsernameRetriever,
+            Arrays.asList( orgUnitPolledService, trackedEntityPolledService, eventPolledService ), processorConfig, new DhisConfig(), endpointConfig );
+
+        final AtomicInteger activeCount = new AtomicInteger();
+        final AtomicInteger maxActiveCount = new AtomicInteger();
+        final Set<Authorization> authorizations = ConcurrentHashMap.newKeySet();
+        final Runnable part = () -> {
+            maxActiveCount.accumulateAndGet( activeCount.incrementAndGet(), Math::max );
+            authorizations.add( authorizationContext.getAuthorization() );
+            try
+            {
+                Thread.sleep( 20 );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            activeCount.decrementAndGet();
+        };
+
+        for ( final DhisPolledService<DhisResource> polledService : Arrays.asList( orgUnitPolledService, trackedEntityPolledService, eventPolledService ) )
+        {
+            Mockito.doAnswer( invocation -> {
+                // nested parts (e.g. programs) must not wait for a thread of the executor that is blocked by the parent part
+                final Executor pollExecutor = invocation.getArgument( 5 );
+                final List<CompletableFuture<Void>> futures = new ArrayList<>();
+                for ( int i = 0; i < 3; i++ )
+                {
+                    futures.add( CompletableFuture.runAsync( part, pollExecutor ) );
+                }
+                futures.forEach( CompletableFuture::join );
+                return Instant.parse( "2019-01-01T10:05:00Z" );
+            } ).when( polledService ).poll( Mockito.same( group ), Mockito.eq( lastUpdated ), Mockito.anyInt(), Mockito.anyInt(), Mockito.anyBoolean(), Mockito.any(), Mockito.any(), Mockito.any() );
+        }
+
+        final Instant result = retriever.poll( group, lastUpdated, 1000, items -> {
+        } );
+
+        Assert.assertEquals( Instant.parse( "2019-01-01T10:05:00Z" ), result );
+        Assert.assertTrue( maxActiveCount.get() <= 2 );
+        Assert.assertEquals( Collections.singleton( systemDhis2Authorization ), authorizations );
+        Assert.assertNull( authorizationContext.getAuthorization().getAuthorization() );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void pollFailure()
+    {
+        stubPoll( orgUnitPolledService, null, ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet(), Instant.parse( "2019-01-01T10:05:00Z" ) );
+        stubPoll( eventPolledService, null, ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet(), Instant.parse( "2019-01-01T10:04:00Z" ) );
+        Mockito.doThrow( new IllegalStateException() ).when( trackedEntityPolledService ).poll( Mockito.same( group ), Mockito.eq( lastUpdated ), Mockito.anyInt(),
+            Mockito.anyInt(), Mockito.anyBoolean(), Mockito.any(), Mockito.any(), Mockito.any() );
+
+        retriever.poll( group, lastUpdated, 1000, items -> {
+        } );
+    }
+
+    private void stubPoll( @Nonnull DhisPolledService<DhisResource> polledService, @Nullable CountDownLatch latch, @Nonnull Set<Thread> threads, @Nonnull Set<Authorization> authorizations, @Nonnull Instant result )
+    {
+        Mockito.doAnswer( invocation -> {
+            threads.add( Thread.currentThread() );
+            authorizations.add( authorizationContext.getAuthorization() );
+
+            if ( latch != null )
+            {
+                // all resource types must be polled at the same time
+                latch.countDown();
+                Assert.assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+            }
+
+            final Consumer<Collection<ProcessedItemInfo>> consumer = invocation.getArgument( 7 );
+            consumer.accept( Collections.singletonList( Mockito.mock( ProcessedItemInfo.class ) ) );
+            return result;
+        } ).when( polledService ).poll( Mockito.same( group ), Mockito.eq( lastUpdated ), Mockito.anyInt(), Mockito.anyInt(), Mockito.anyBoolean(), Mockito.any(), Mockito.any(), Mockito.any() );
+    }
+}
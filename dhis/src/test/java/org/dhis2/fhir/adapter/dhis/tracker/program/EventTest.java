@@ -0,0 +1,94 @@
+package org.dhis2.fhir.adapter.dhis.tracker.program;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.dhis.model.WritableDataValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link Event}.
+ *
+ * @author volsch
+ */
+public class EventTest
+{
+    @Test
+    public void getDataValue()
+    {
+        final Event event = new Event();
+        final WritableDataValue value1 = new WritableDataValue( "d1", "Test 1" );
+        final WritableDataValue value2 = new WritableDataValue( "d2", "Test 2" );
+        event.setDataValues( new ArrayList<>( Arrays.asList( value1, value2, new WritableDataValue( "d1", "Test 3" ) ) ) );
+
+        Assert.assertSame( value1, event.getDataValue( "d1" ) );
+        Assert.assertSame( value2, event.getDataValue( "d2" ) );
+        Assert.assertEquals( 3, event.getDataValues().size() );
+    }
+
+    @Test
+    public void getDataValueNew()
+    {
+        final Event event = new Event();
+
+        final WritableDataValue value = event.getDataValue( "d1" );
+        Assert.assertEquals( "d1", value.getDataElementId() );
+        Assert.assertTrue( value.isNewResource() );
+        Assert.assertSame( value, event.getDataValue( "d1" ) );
+        Assert.assertEquals( 1, event.getDataValues().size() );
+    }
+
+    @Test
+    public void getDataValueModifiedDataValues()
+    {
+        final Event event = new Event();
+        final WritableDataValue value1 = new WritableDataValue( "d1", "Test 1" );
+        final WritableDataValue value2 = new WritableDataValue( "d2", "Test 2" );
+        event.setDataValues( new ArrayList<>( Arrays.asList( value1, value2 ) ) );
+        Assert.assertSame( value2, event.getDataValue( "d2" ) );
+
+        Assert.assertTrue( event.removeDataValues( dv -> "d2".equals( dv.getDataElementId() ) ) );
+
+        final WritableDataValue newValue2 = event.getDataValue( "d2" );
+        Assert.assertNotSame( value2, newValue2 );
+        Assert.assertTrue( newValue2.isNewResource() );
+        Assert.assertSame( value1, event.getDataValue( "d1" ) );
+        Assert.assertEquals( 2, event.getDataValues().size() );
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void getDataValuesReadOnly()
+    {
+        final Event event = new Event( true );
+        event.getDataValues().clear();
+    }
+}
@@ -55,14 +55,21 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.RequestExpectationManager;
+import org.springframework.test.web.client.SimpleRequestExpectationManager;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.ZoneId;
@@ -81,10 +88,15 @@ import static org.springframework.test.web.client.response.MockRestResponseCreat
  *
  * @author volsch
  */
+@SuppressWarnings( "deprecation" )
 public class EnrollmentServiceImplTest
 {
     private RestTemplate restTemplate;
 
+    private AsyncRestTemplate asyncRestTemplate;
+
+    private CacheManager cacheManager;
+
     private MockRestServiceServer mockServer;
 
     private EnrollmentService service;
@@ -109,8 +121,19 @@ public class EnrollmentServiceImplTest
         requestCacheService = new RequestCacheServiceImpl();
 
         restTemplate = new RestTemplateBuilder().rootUri( "http://localhost:8080/api" ).messageConverters( messageConverter ).build();
-        mockServer = MockRestServiceServer.createServer( restTemplate );
-        service = new EnrollmentServiceImpl( restTemplate, eventService, requestCacheService );
+        asyncRestTemplate = new AsyncRestTemplate( new SimpleClientHttpRequestFactory(), restTemplate );
+        cacheManager = new ConcurrentMapCacheManager();
+        mockServer = createServer();
+        service = new EnrollmentServiceImpl( restTemplate, asyncRestTemplate, cacheManager, eventService, requestCacheService );
+    }
+
+    @Nonnull
+    private MockRestServiceServer createServer()
+    {
+        // synchronous and asynchronous requests are verified by the same expectations
+        final RequestExpectationManager expectationManager = new SimpleRequestExpectationManager();
+        MockRestServiceServer.bindTo( asyncRestTemplate ).build( expectationManager );
+        return MockRestServiceServer.bindTo( restTemplate ).build( expectationManager );
     }
 
     @Test
@@ -132,6 +155,24 @@ public class EnrollmentServiceImplTest
         Assert.assertEquals( new Location( -70.2433, 30.34323 ), ou.get().getCoordinate() );
     }
 
+    @Test
+    public void getLatestActiveRefreshedAsync() throws IOException
+    {
+        mockServer.expect( ExpectedCount.once(), requestTo( "http://localhost:8080/api/enrollments.json?program=93783&programStatus=ACTIVE&trackedEntityInstance=88737&ouMode=ACCESSIBLE&fields=:all&order=lastUpdated:desc&pageSize=1" ) )
+            .andExpect( method( HttpMethod.GET ) ).andRespond( withSuccess( IOUtils.resourceToByteArray( "/org/dhis2/fhir/adapter/dhis/tracker/program/impl/enrollments.json" ), MediaType.APPLICATION_JSON ) );
+
+        Optional<? extends Enrollment> ou = service.findLatestActiveRefreshedAsync( "93783", "88737", false ).join();
+        Assert.assertTrue( ou.isPresent() );
+        Assert.assertEquals( "N4cVHaUjfJO", ou.get().getId() );
+
+        // second lookup must be served by the cache
+        ou = service.findLatestActiveAsync( "93783", "88737", false ).join();
+        Assert.assertTrue( ou.isPresent() );
+        Assert.assertEquals( "N4cVHaUjfJO", ou.get().getId() );
+
+        mockServer.verify();
+    }
+
     @Test
     public void getLatestActiveLocal() throws IOException
     {
@@ -33,9 +33,11 @@ import org.apache.commons.io.IOUtils;
 import org.dhis2.fhir.adapter.cache.RequestCacheContext;
 import org.dhis2.fhir.adapter.cache.RequestCacheService;
 import org.dhis2.fhir.adapter.cache.impl.RequestCacheServiceImpl;
+import org.dhis2.fhir.adapter.data.model.ProcessedItemInfo;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainer;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryTemplate;
 import org.dhis2.fhir.adapter.dhis.local.impl.LocalDhisResourceRepositoryContainerImpl;
+import org.dhis2.fhir.adapter.dhis.metadata.model.DhisSyncGroup;
 import org.dhis2.fhir.adapter.dhis.model.WritableDataValue;
 import org.dhis2.fhir.adapter.dhis.tracker.program.Event;
 import org.dhis2.fhir.adapter.dhis.tracker.program.EventService;
@@ -49,27 +51,44 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.RequestExpectationManager;
+import org.springframework.test.web.client.SimpleRequestExpectationManager;
+import org.springframework.test.web.client.UnorderedRequestExpectationManager;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
@@ -79,10 +98,15 @@ import static org.springframework.test.web.client.response.MockRestResponseCreat
  *
  * @author volsch
  */
+@SuppressWarnings( "deprecation" )
 public class EventServiceImplTest
 {
     private RestTemplate restTemplate;
 
+    private AsyncRestTemplate asyncRestTemplate;
+
+    private CacheManager cacheManager;
+
     private MockRestServiceServer mockServer;
 
     private EventService service;
@@ -107,8 +131,19 @@ public class EventServiceImplTest
         requestCacheService = new RequestCacheServiceImpl();
 
         restTemplate = new RestTemplateBuilder().rootUri( "http://localhost:8080/api" ).messageConverters( messageConverter ).build();
-        mockServer = MockRestServiceServer.createServer( restTemplate );
-        service = new EventServiceImpl( restTemplate, requestCacheService, polledProgramRetriever );
+        asyncRestTemplate = new AsyncRestTemplate( new SimpleClientHttpRequestFactory(), restTemplate );
+        cacheManager = new ConcurrentMapCacheManager();
+        mockServer = createServer( false );
+        service = new EventServiceImpl( restTemplate, restTemplate, asyncRestTemplate, asyncRestTemplate, cacheManager, requestCacheService, polledProgramRetriever );
+    }
+
+    @Nonnull
+    private MockRestServiceServer createServer( boolean ignoreExpectOrder )
+    {
+        // synchronous and asynchronous requests are verified by the same expectations
+        final RequestExpectationManager expectationManager = ignoreExpectOrder ? new UnorderedRequestExpectationManager() : new SimpleRequestExpectationManager();
+        MockRestServiceServer.bindTo( asyncRestTemplate ).build( expectationManager );
+        return MockRestServiceServer.bindTo( restTemplate ).build( expectationManager );
     }
 
     @Test
@@ -227,6 +262,35 @@ public class EventServiceImplTest
         mockServer.verify();
     }
 
+    @Test
+    public void findRefreshedAsync() throws IOException
+    {
+        mockServer.expect( ExpectedCount.once(), requestTo( "http://localhost:8080/api/events.json?program=kgdyunhUgg&trackedEntityInstance=jdhshdfj&ouMode=ACCESSIBLE&fields=deleted,event,orgUnit,program,enrollment,trackedEntityInstance,programStage,status," +
+            "eventDate,dueDate,coordinate,lastUpdated,dataValues%5BdataElement,value,providedElsewhere,lastUpdated,storedBy%5D&skipPaging=true" ) )
+            .andExpect( method( HttpMethod.GET ) ).andRespond( withSuccess( IOUtils.resourceToByteArray( "/org/dhis2/fhir/adapter/dhis/tracker/program/impl/events.json" ), MediaType.APPLICATION_JSON ) );
+
+        final Collection<Event> events = service.findRefreshedAsync( "kgdyunhUgg", "gjddShhdfgh", "jdhshdfj", false ).join();
+        Assert.assertEquals( 2, events.size() );
+        Assert.assertNotNull( Objects.requireNonNull( cacheManager.getCache( "events" ) ).get( Arrays.asList( "find", "kgdyunhUgg", "gjddShhdfgh", "Jskdsjeua1s", "jdhshdfj" ) ) );
+
+        mockServer.verify();
+    }
+
+    @Test
+    public void findRefreshedAsyncLocalOnly()
+    {
+        try ( final RequestCacheContext cacheContext = requestCacheService.createRequestCacheContext() )
+        {
+            cacheContext.setAttribute( LocalDhisResourceRepositoryTemplate.CONTAINER_REQUEST_CACHE_ATTRIBUTE_NAME,
+                new LocalDhisResourceRepositoryContainerImpl( Collections.singleton( Event.class ) ) );
+
+            final Collection<Event> events = service.findRefreshedAsync( "kgdyunhUgg", "gjddShhdfgh", "jdhshdfj", true ).join();
+            Assert.assertEquals( 0, events.size() );
+        }
+
+        mockServer.verify();
+    }
+
     @Test
     public void findOneById() throws IOException
     {
@@ -328,6 +392,45 @@ public class EventServiceImplTest
         mockServer.verify();
     }
 
+    @Test
+    public void minimalUpdateDataValuesAsync() throws IOException
+    {
+        // modified data values are updated concurrently
+        mockServer = createServer( true );
+        for ( final String dataElementId : Arrays.asList( "dsf84sfsdf", "dsfdfj98js" ) )
+        {
+            mockServer.expect( ExpectedCount.once(), requestTo( "http://localhost:8080/api/events/jShdkweusi2/" + dataElementId + ".json?mergeMode=MERGE" ) )
+                .andExpect( content().contentTypeCompatibleWith( MediaType.APPLICATION_JSON ) )
+                .andExpect( method( HttpMethod.PUT ) ).andRespond( withSuccess( IOUtils.resourceToByteArray( "/org/dhis2/fhir/adapter/dhis/tracker/program/impl/updateEvent-response.json" ), MediaType.APPLICATION_JSON ) );
+        }
+
+        final WritableDataValue dataValue1 = new WritableDataValue( "dsf84sfsdf", false );
+        dataValue1.setValue( "Test 1" );
+        dataValue1.setModified();
+
+        final WritableDataValue dataValue2 = new WritableDataValue( "dsfdfj98js", false );
+        dataValue2.setValue( "Test 2" );
+        dataValue2.setModified();
+
+        final WritableDataValue dataValue3 = new WritableDataValue( "dsfdfj98jt", false );
+        dataValue3.setValue( "Test 3" );
+
+        final Event event = new Event();
+        event.setId( "jShdkweusi2" );
+        event.setEnrollmentId( "Jskdsjeua1s" );
+        event.setStatus( EventStatus.ACTIVE );
+        event.setTrackedEntityInstanceId( "jdhshdfj" );
+        event.setProgramId( "kgdyunhUgg" );
+        event.setProgramStageId( "gjddShhdfgh" );
+        event.setOrgUnitId( "jhgtJgrygffg" );
+        event.setDataValues( Arrays.asList( dataValue1, dataValue2, dataValue3 ) );
+
+        final Event updatedEvent = service.createOrMinimalUpdateAsync( event ).join();
+        Assert.assertSame( event, updatedEvent );
+
+        mockServer.verify();
+    }
+
     @Test
     public void persistCreateUpdate() throws IOException
     {
@@ -429,4 +532,66 @@ public class EventServiceImplTest
 
         mockServer.verify();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void pollParallel()
+    {
+        Mockito.doReturn( Arrays.asList( "kgdyunhUgg", "ldhjsjUsid", "xdhsjwUsjd" ) ).when( polledProgramRetriever ).findAllPolledProgramIds();
+
+        mockServer = createServer( true );
+        for ( final String programId : Arrays.asList( "kgdyunhUgg", "ldhjsjUsid", "xdhsjwUsjd" ) )
+        {
+            mockServer.expect( ExpectedCount.once(), requestTo( Matchers.allOf( Matchers.containsString( "program=" + programId ), Matchers.not( Matchers.containsString( "lastUpdatedEndDate" ) ) ) ) )
+                .andExpect( method( HttpMethod.GET ) ).andRespond( withSuccess( "{\"events\":[{\"event\":\"" + programId + "1\",\"lastUpdated\":\"2019-07-01T10:05:00.000\"}," +
+                "{\"event\":\"" + programId + "2\",\"lastUpdated\":\"2019-07-01T10:04:00.000\"}]}", MediaType.APPLICATION_JSON ) );
+            mockServer.expect( ExpectedCount.once(), requestTo( Matchers.allOf( Matchers.containsString( "program=" + programId ), Matchers.containsString( "lastUpdatedEndDate" ) ) ) )
+                .andExpect( method( HttpMethod.GET ) ).andRespond( withSuccess( "{\"events\":[]}", MediaType.APPLICATION_JSON ) );
+        }
+
+        final ExecutorService pollExecutor = Executors.newFixedThreadPool( 2 );
+        final Set<String> ids = new HashSet<>();
+        final Instant begin = Instant.now();
+        final Instant result;
+        try
+        {
+            result = service.poll( new DhisSyncGroup(), LocalDateTime.parse( "2019-07-01T10:00:00" ).atZone( ZoneId.systemDefault() ).toInstant(), 0, 100, false, pollExecutor, Collections.emptySet(),
+                items -> ids.addAll( items.stream().map( ProcessedItemInfo::getId ).collect( Collectors.toList() ) ) );
+        }
+        finally
+        {
+            pollExecutor.shutdownNow();
+        }
+        Assert.assertFalse( result.isBefore( begin ) );
+        Assert.assertEquals( 6, ids.size() );
+        Assert.assertTrue( ids.contains( "events/ldhjsjUsid2" ) );
+
+        mockServer.verify();
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void pollParallelConsumerFailure()
+    {
+        Mockito.doReturn( Arrays.asList( "kgdyunhUgg", "ldhjsjUsid", "xdhsjwUsjd" ) ).when( polledProgramRetriever ).findAllPolledProgramIds();
+
+        mockServer = createServer( true );
+        for ( final String programId : Arrays.asList( "kgdyunhUgg", "ldhjsjUsid", "xdhsjwUsjd" ) )
+        {
+            mockServer.expect( ExpectedCount.once(), requestTo( Matchers.allOf( Matchers.containsString( "program=" + programId ), Matchers.not( Matchers.containsString( "lastUpdatedEndDate" ) ) ) ) )
+                .andExpect( method( HttpMethod.GET ) ).andRespond( withSuccess( "{\"events\":[{\"event\":\"" + programId + "1\",\"lastUpdated\":\"2019-07-01T10:05:00.000\"}]}", MediaType.APPLICATION_JSON ) );
+            mockServer.expect( ExpectedCount.manyTimes(), requestTo( Matchers.allOf( Matchers.containsString( "program=" + programId ), Matchers.containsString( "lastUpdatedEndDate" ) ) ) )
+                .andExpect( method( HttpMethod.GET ) ).andRespond( withSuccess( "{\"events\":[]}", MediaType.APPLICATION_JSON ) );
+        }
+
+        final ExecutorService pollExecutor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            service.poll( new DhisSyncGroup(), LocalDateTime.parse( "2019-07-01T10:00:00" ).atZone( ZoneId.systemDefault() ).toInstant(), 0, 100, false, pollExecutor, Collections.emptySet(), items -> {
+                throw new IllegalStateException();
+            } );
+        }
+        finally
+        {
+            pollExecutor.shutdownNow();
+        }
+    }
+}
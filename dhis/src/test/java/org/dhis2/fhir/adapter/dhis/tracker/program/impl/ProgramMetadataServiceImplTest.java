@@ -34,10 +34,14 @@ import org.dhis2.fhir.adapter.dhis.model.ReferenceType;
 import org.dhis2.fhir.adapter.dhis.tracker.program.Program;
 import org.dhis2.fhir.adapter.dhis.tracker.program.ProgramMetadataService;
 import org.dhis2.fhir.adapter.model.ValueType;
+import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -47,6 +51,8 @@ import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.Optional;
 
 import static org.junit.Assert.*;
@@ -67,6 +73,8 @@ public class ProgramMetadataServiceImplTest
 
     private MockRestServiceServer mockServer;
 
+    private CacheManager cacheManager;
+
     private ProgramMetadataService service;
 
     @Before
@@ -75,7 +83,8 @@ public class ProgramMetadataServiceImplTest
         systemRestTemplate = new RestTemplateBuilder().rootUri( "http://localhost:8080/api" ).build();
         userRestTemplate = new RestTemplateBuilder().rootUri( "http://localhost:8080/api" ).build();
         mockServer = MockRestServiceServer.createServer( systemRestTemplate );
-        service = new ProgramMetadataServiceImpl( systemRestTemplate, userRestTemplate );
+        cacheManager = new ConcurrentMapCacheManager();
+        service = new ProgramMetadataServiceImpl( systemRestTemplate, userRestTemplate, cacheManager );
     }
 
     @Test
@@ -178,6 +187,24 @@ public class ProgramMetadataServiceImplTest
         Assert.assertFalse( ou.isPresent() );
     }
 
+    @Test
+    public void prefetchMetadataByReferences() throws IOException
+    {
+        mockServer.expect( requestTo( CoreMatchers.endsWith( "&filter=name:in:%5BChild%20Programme%5D" ) ) ).andExpect( method( HttpMethod.GET ) )
+            .andRespond( withSuccess( IOUtils.resourceToByteArray( "/org/dhis2/fhir/adapter/dhis/tracker/program/impl/programs.json" ), MediaType.APPLICATION_JSON ) );
+        mockServer.expect( requestTo( CoreMatchers.endsWith( "&filter=id:in:%5BIpHINAT79UW,a8sHINAT79U%5D" ) ) ).andExpect( method( HttpMethod.GET ) )
+            .andRespond( withSuccess( IOUtils.resourceToByteArray( "/org/dhis2/fhir/adapter/dhis/tracker/program/impl/programs.json" ), MediaType.APPLICATION_JSON ) );
+
+        Assert.assertEquals( 2, service.prefetchMetadataByReferences( Arrays.asList( new Reference( "a8sHINAT79U", ReferenceType.ID ),
+            new Reference( "IpHINAT79UW", ReferenceType.ID ), new Reference( "Child Programme", ReferenceType.NAME ), new Reference( "IpHINAT79UW", ReferenceType.ID ) ) ) );
+        mockServer.verify();
+
+        final Cache cache = Objects.requireNonNull( cacheManager.getCache( "programMetadata" ) );
+        assertProgram( cache.get( new Reference( "IpHINAT79UW", ReferenceType.ID ), Program.class ) );
+        assertProgram( cache.get( new Reference( "Child Programme", ReferenceType.NAME ), Program.class ) );
+        Assert.assertNull( cache.get( new Reference( "a8sHINAT79U", ReferenceType.ID ) ) );
+    }
+
     private void assertProgram( Program program )
     {
         assertNotNull( program );
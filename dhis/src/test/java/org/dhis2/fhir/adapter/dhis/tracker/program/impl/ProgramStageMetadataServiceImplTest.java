@@ -38,6 +38,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -67,6 +69,8 @@ public class ProgramStageMetadataServiceImplTest
 
     private MockRestServiceServer mockServer;
 
+    private CacheManager cacheManager;
+
     private ProgramStageMetadataService service;
 
     @Before
@@ -75,7 +79,8 @@ public class ProgramStageMetadataServiceImplTest
         systemRestTemplate = new RestTemplateBuilder().rootUri( "http://localhost:8080/api" ).build();
         userRestTemplate = new RestTemplateBuilder().rootUri( "http://localhost:8080/api" ).build();
         mockServer = MockRestServiceServer.createServer( systemRestTemplate );
-        service = new ProgramStageMetadataServiceImpl( systemRestTemplate, userRestTemplate );
+        cacheManager = new ConcurrentMapCacheManager();
+        service = new ProgramStageMetadataServiceImpl( systemRestTemplate, userRestTemplate, cacheManager );
     }
 
     @Test
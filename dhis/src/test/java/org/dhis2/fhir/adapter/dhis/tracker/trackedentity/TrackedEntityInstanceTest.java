@@ -0,0 +1,132 @@
+package org.dhis2.fhir.adapter.dhis.tracker.trackedentity;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link TrackedEntityInstance}.
+ *
+ * @author volsch
+ */
+public class TrackedEntityInstanceTest
+{
+    @Test
+    public void getAttribute()
+    {
+        final TrackedEntityInstance tei = new TrackedEntityInstance();
+        final TrackedEntityAttributeValue value1 = new TrackedEntityAttributeValue( "a1", "Test 1" );
+        final TrackedEntityAttributeValue value2 = new TrackedEntityAttributeValue( "a2", null );
+        tei.setAttributes( new ArrayList<>( Arrays.asList( value1, value2, new TrackedEntityAttributeValue( "a1", "Test 3" ) ) ) );
+
+        Assert.assertSame( value1, tei.getAttribute( "a1" ) );
+        Assert.assertSame( value2, tei.getAttribute( "a2" ) );
+        Assert.assertTrue( tei.containsAttribute( "a1" ) );
+        Assert.assertTrue( tei.containsAttribute( "a1", "Test 1" ) );
+        Assert.assertTrue( tei.containsAttribute( "a1", "Test 3" ) );
+        Assert.assertFalse( tei.containsAttribute( "a1", "Test 4" ) );
+        Assert.assertTrue( tei.containsAttributeWithValue( "a1" ) );
+        Assert.assertTrue( tei.containsAttribute( "a2" ) );
+        Assert.assertFalse( tei.containsAttributeWithValue( "a2" ) );
+        Assert.assertFalse( tei.containsAttribute( "a3" ) );
+    }
+
+    @Test
+    public void getAttributeNew()
+    {
+        final TrackedEntityInstance tei = new TrackedEntityInstance();
+        Assert.assertFalse( tei.containsAttribute( "a1" ) );
+
+        final TrackedEntityAttributeValue value = tei.getAttribute( "a1" );
+        Assert.assertEquals( "a1", value.getAttributeId() );
+        Assert.assertSame( value, tei.getAttribute( "a1" ) );
+        Assert.assertEquals( 1, tei.getAttributes().size() );
+        Assert.assertTrue( tei.containsAttribute( "a1" ) );
+    }
+
+    @Test
+    public void getAttributeModifiedAttributes()
+    {
+        final TrackedEntityInstance tei = new TrackedEntityInstance();
+        final TrackedEntityAttributeValue value1 = new TrackedEntityAttributeValue( "a1", "Test 1" );
+        tei.setAttributes( new ArrayList<>( Arrays.asList( value1, new TrackedEntityAttributeValue( "a2", "Test 2" ) ) ) );
+        Assert.assertTrue( tei.containsAttribute( "a2" ) );
+
+        Assert.assertTrue( tei.removeAttributes( a -> "a2".equals( a.getAttributeId() ) ) );
+        Assert.assertFalse( tei.containsAttribute( "a2" ) );
+
+        final TrackedEntityAttributeValue value3 = tei.getAttribute( "a3" );
+        Assert.assertTrue( tei.containsAttribute( "a3" ) );
+        Assert.assertSame( value1, tei.getAttribute( "a1" ) );
+        Assert.assertEquals( 2, tei.getAttributes().size() );
+        Assert.assertSame( value3, tei.getAttributes().stream().skip( 1 ).findFirst().orElse( null ) );
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void getAttributesReadOnly()
+    {
+        final TrackedEntityInstance tei = new TrackedEntityInstance();
+        tei.setAttributes( new ArrayList<>() );
+        tei.getAttributes().add( new TrackedEntityAttributeValue( "a1", "Test 1" ) );
+    }
+
+    @Test
+    public void serializable()
+    {
+        final TrackedEntityInstance tei = new TrackedEntityInstance();
+        tei.setAttributes( new ArrayList<>( Arrays.asList( new TrackedEntityAttributeValue( "a1", "Test 1" ), new TrackedEntityAttributeValue( "a2", "Test 2" ) ) ) );
+
+        final TrackedEntityInstance copy = SerializationUtils.clone( tei );
+        Assert.assertTrue( copy.containsAttribute( "a2", "Test 2" ) );
+        Assert.assertSame( copy.getAttributes().iterator().next(), copy.getAttribute( "a1" ) );
+    }
+
+    @Test
+    public void json() throws Exception
+    {
+        final ObjectMapper mapper = new ObjectMapper();
+        final TrackedEntityInstance tei = mapper.readValue( "{\"trackedEntityInstance\":\"Jskdsjeua1s\",\"attributes\":[" +
+            "{\"attribute\":\"a1\",\"value\":\"Test 1\"},{\"attribute\":\"a2\",\"value\":\"Test 2\"}]}", TrackedEntityInstance.class );
+        Assert.assertEquals( "Test 2", tei.getAttribute( "a2" ).getValue() );
+
+        final String json = mapper.writeValueAsString( tei );
+        Assert.assertFalse( json.contains( "attributesById" ) );
+
+        final List<?> attributes = (List<?>) mapper.readValue( json, Map.class ).get( "attributes" );
+        Assert.assertEquals( 2, attributes.size() );
+    }
+}
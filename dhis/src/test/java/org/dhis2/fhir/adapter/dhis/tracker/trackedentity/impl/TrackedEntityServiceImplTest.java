@@ -33,6 +33,8 @@ import org.apache.commons.io.IOUtils;
 import org.dhis2.fhir.adapter.cache.RequestCacheContext;
 import org.dhis2.fhir.adapter.cache.RequestCacheService;
 import org.dhis2.fhir.adapter.cache.impl.RequestCacheServiceImpl;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryPersistResult;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryPersistStatus;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainer;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryTemplate;
 import org.dhis2.fhir.adapter.dhis.local.impl.LocalDhisResourceRepositoryContainerImpl;
@@ -54,14 +56,21 @@ import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.RequestExpectationManager;
+import org.springframework.test.web.client.SimpleRequestExpectationManager;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
@@ -79,10 +88,15 @@ import static org.springframework.test.web.client.response.MockRestResponseCreat
  *
  * @author volsch
  */
+@SuppressWarnings( "deprecation" )
 public class TrackedEntityServiceImplTest
 {
     private RestTemplate restTemplate;
 
+    private AsyncRestTemplate asyncRestTemplate;
+
+    private CacheManager cacheManager;
+
     private MockRestServiceServer mockServer;
 
     private TrackedEntityService service;
@@ -115,12 +129,23 @@ public class TrackedEntityServiceImplTest
         trackedEntityType.setAttributes( Collections.emptyList() );
 
         restTemplate = new RestTemplateBuilder().rootUri( "http://localhost:8080/api" ).messageConverters( messageConverter ).build();
-        mockServer = MockRestServiceServer.createServer( restTemplate );
-        service = new TrackedEntityServiceImpl( restTemplate, requestCacheService, metadataService, storedDhisResourceService );
+        asyncRestTemplate = new AsyncRestTemplate( new SimpleClientHttpRequestFactory(), restTemplate );
+        cacheManager = new ConcurrentMapCacheManager();
+        mockServer = createServer();
+        service = new TrackedEntityServiceImpl( restTemplate, restTemplate, asyncRestTemplate, asyncRestTemplate, cacheManager, requestCacheService, metadataService, storedDhisResourceService );
 
         Mockito.doReturn( Optional.of( new DhisSyncGroup() ) ).when( storedDhisResourceService ).findSyncGroupById( Mockito.eq( DhisSyncGroup.DEFAULT_ID ) );
     }
 
+    @Nonnull
+    private MockRestServiceServer createServer()
+    {
+        // synchronous and asynchronous requests are verified by the same expectations
+        final RequestExpectationManager expectationManager = new SimpleRequestExpectationManager();
+        MockRestServiceServer.bindTo( asyncRestTemplate ).build( expectationManager );
+        return MockRestServiceServer.bindTo( restTemplate ).build( expectationManager );
+    }
+
     @Test
     public void find() throws IOException
     {
@@ -216,6 +241,33 @@ public class TrackedEntityServiceImplTest
         Assert.assertFalse( ou.isPresent() );
     }
 
+    @Test
+    public void findOneByIdAsync() throws IOException
+    {
+        mockServer.expect( requestTo( "http://localhost:8080/api/trackedEntityInstances/Jskdsjeua1s.json?fields=deleted,trackedEntityInstance,trackedEntityType,orgUnit,coordinates,lastUpdated,attributes%5Battribute,value,lastUpdated,storedBy%5D" ) )
+            .andExpect( method( HttpMethod.GET ) ).andRespond( withSuccess( IOUtils.resourceToByteArray( "/org/dhis2/fhir/adapter/dhis/tracker/program/impl/trackedEntityInstance.json" ), MediaType.APPLICATION_JSON ) );
+
+        Optional<? extends TrackedEntityInstance> ou = service.findOneByIdAsync( "Jskdsjeua1s" ).join();
+        Assert.assertTrue( ou.isPresent() );
+
+        Assert.assertEquals( "Jskdsjeua1s", ou.get().getId() );
+        Assert.assertEquals( "pMEnu7BjqMz", ou.get().getOrgUnitId() );
+
+        mockServer.verify();
+    }
+
+    @Test
+    public void findOneByIdAsyncNotFound()
+    {
+        mockServer.expect( requestTo( "http://localhost:8080/api/trackedEntityInstances/N4cVHaUjfJO.json?fields=deleted,trackedEntityInstance,trackedEntityType,orgUnit,coordinates,lastUpdated,attributes%5Battribute,value,lastUpdated,storedBy%5D" ) )
+            .andExpect( method( HttpMethod.GET ) ).andRespond( withStatus( HttpStatus.NOT_FOUND ).contentType( MediaType.APPLICATION_JSON ) );
+
+        Optional<? extends TrackedEntityInstance> ou = service.findOneByIdAsync( "N4cVHaUjfJO" ).join();
+        Assert.assertFalse( ou.isPresent() );
+
+        mockServer.verify();
+    }
+
     @Test
     public void create() throws IOException
     {
@@ -293,6 +345,36 @@ public class TrackedEntityServiceImplTest
         mockServer.verify();
     }
 
+    @Test
+    public void persistCreateConflict() throws IOException
+    {
+        mockServer.expect( ExpectedCount.once(), requestTo( "http://localhost:8080/api/trackedEntityInstances.json?strategy=CREATE" ) )
+            .andExpect( content().contentTypeCompatibleWith( MediaType.APPLICATION_JSON ) )
+            .andExpect( content().json( IOUtils.resourceToString( "/org/dhis2/fhir/adapter/dhis/tracker/program/impl/createTrackedEntityInstances.json", StandardCharsets.UTF_8 ) ) )
+            .andExpect( method( HttpMethod.POST ) ).andRespond( withStatus( HttpStatus.CONFLICT ).contentType( MediaType.APPLICATION_JSON )
+            .body( IOUtils.resourceToByteArray( "/org/dhis2/fhir/adapter/dhis/tracker/program/impl/createTrackedEntityInstances-conflict-response.json" ) ) );
+
+        try ( final RequestCacheContext cacheContext = requestCacheService.createRequestCacheContext() )
+        {
+            final LocalDhisResourceRepositoryContainer repositoryContainer = new LocalDhisResourceRepositoryContainerImpl( Collections.singleton( TrackedEntityInstance.class ) );
+            cacheContext.setAttribute( LocalDhisResourceRepositoryTemplate.CONTAINER_REQUEST_CACHE_ATTRIBUTE_NAME, repositoryContainer );
+
+            final TrackedEntityInstance newTrackedEntityInstance = new TrackedEntityInstance( trackedEntityType, "Jskdsjeua1s", true );
+            newTrackedEntityInstance.setOrgUnitId( "pMEnu7BjqMz" );
+            service.createOrUpdate( newTrackedEntityInstance );
+
+            final List<LocalDhisRepositoryPersistResult> results = new ArrayList<>();
+            repositoryContainer.apply( ( resource, resourceKey, result ) -> results.add( result ) );
+            Assert.assertEquals( 1, results.size() );
+            Assert.assertEquals( LocalDhisRepositoryPersistStatus.CONFLICT, results.get( 0 ).getStatus() );
+            Assert.assertEquals( "Jskdsjeua1s", results.get( 0 ).getResourceId() );
+            Assert.assertEquals( "Non-unique attribute value.", results.get( 0 ).getMessage() );
+            Assert.assertTrue( newTrackedEntityInstance.isNewResource() );
+        }
+
+        mockServer.verify();
+    }
+
     @Test
     public void persistDelete() throws IOException
     {
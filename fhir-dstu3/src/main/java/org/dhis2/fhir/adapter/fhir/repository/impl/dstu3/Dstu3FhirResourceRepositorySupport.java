@@ -35,6 +35,7 @@ import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
 import org.dhis2.fhir.adapter.fhir.repository.impl.AbstractFhirRepositoryResourceUtils;
 import org.dhis2.fhir.adapter.fhir.repository.impl.AbstractFhirResourceRepositorySupport;
 import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.IdType;
 import org.hl7.fhir.dstu3.model.Resource;
 import org.hl7.fhir.dstu3.model.Subscription;
 import org.hl7.fhir.instance.model.api.IAnyResource;
@@ -47,6 +48,7 @@ import javax.annotation.Nullable;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * Implementation of {@link Dstu3FhirResourceRepositorySupport} for DSTU3.
@@ -124,4 +126,46 @@ public class Dstu3FhirResourceRepositorySupport extends AbstractFhirResourceRepo
         } ).forEach( bundle::addEntry );
         return bundle;
     }
+
+    @Nonnull
+    @Override
+    protected IBaseBundle createBatchBundle( @Nonnull List<? extends IBaseResource> resources )
+    {
+        final Bundle bundle = new Bundle();
+        bundle.setType( Bundle.BundleType.BATCH );
+        resources.stream().map( r -> {
+            final Resource resource = (Resource) r;
+            final Bundle.BundleEntryComponent component = new Bundle.BundleEntryComponent();
+            component.setResource( resource );
+
+            if ( resource.getIdElement().hasIdPart() )
+            {
+                component.getRequest().setMethod( Bundle.HTTPVerb.PUT ).setUrl( resource.fhirType() + "/" + resource.getIdElement().getIdPart() );
+
+                if ( resource.getIdElement().hasVersionIdPart() )
+                {
+                    // same optimistic locking as with a versioned update of a single resource
+                    component.getRequest().setIfMatch( "W/\"" + resource.getIdElement().getVersionIdPart() + "\"" );
+                }
+            }
+            else
+            {
+                component.getRequest().setMethod( Bundle.HTTPVerb.POST ).setUrl( resource.fhirType() );
+            }
+
+            return component;
+        } ).forEach( bundle::addEntry );
+        return bundle;
+    }
+
+    @Nonnull
+    @Override
+    protected List<BatchEntryResponse> getBatchEntryResponses( @Nonnull IBaseBundle bundle )
+    {
+        return ( (Bundle) bundle ).getEntry().stream().map( e -> {
+            final Bundle.BundleEntryResponseComponent response = e.getResponse();
+            return new BatchEntryResponse( BatchEntryResponse.parseStatusCode( response.getStatus() ), response.getStatus(),
+                response.hasLocation() ? new IdType( response.getLocation() ) : null, e.getResource() );
+        } ).collect( Collectors.toList() );
+    }
 }
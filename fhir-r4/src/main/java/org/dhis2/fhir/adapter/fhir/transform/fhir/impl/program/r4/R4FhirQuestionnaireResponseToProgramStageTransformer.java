@@ -148,7 +148,7 @@ public class R4FhirQuestionnaireResponseToProgramStageTransformer extends Abstra
             dataElementIds.add( item.getLinkId() );
         } );
 
-        event.getDataValues().removeIf( dataValue -> !dataElementIds.contains( dataValue.getDataElementId() ) );
+        event.removeDataValues( dataValue -> !dataElementIds.contains( dataValue.getDataElementId() ) );
         event.setModified();
     }
 
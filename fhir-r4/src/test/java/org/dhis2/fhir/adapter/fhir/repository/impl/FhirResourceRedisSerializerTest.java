@@ -0,0 +1,126 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2018, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import org.dhis2.fhir.adapter.cache.CompressingRedisSerializer;
+import org.dhis2.fhir.adapter.cache.SimpleRedisCacheCodec;
+import org.dhis2.fhir.adapter.spring.StaticObjectProvider;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import javax.annotation.Nonnull;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link FhirResourceRedisSerializer}.
+ *
+ * @author volsch
+ */
+public class FhirResourceRedisSerializerTest
+{
+    private final FhirResourceRedisSerializer serializer = new FhirResourceRedisSerializer( new StaticObjectProvider<>( Collections.singletonList( FhirContext.forR4() ) ) );
+
+    @Test
+    public void json()
+    {
+        Assert.assertSame( serializer, serializer.createRedisSerializer( SimpleRedisCacheCodec.JSON.createJsonFactory() ) );
+
+        final byte[] bytes = serializer.serialize( createObservation() );
+        Assert.assertTrue( new String( bytes, StandardCharsets.UTF_8 ).contains( "\"value\":1.10" ) );
+        assertObservation( serializer.deserialize( bytes ) );
+    }
+
+    @Test
+    public void compressedJsonReadsJson()
+    {
+        final RedisSerializer<IBaseResource> compressingSerializer = new CompressingRedisSerializer<>(
+            serializer.createRedisSerializer( SimpleRedisCacheCodec.COMPRESSED_JSON.createJsonFactory() ), 16 );
+        final byte[] bytes = serializer.serialize( createObservation() );
+        assertObservation( compressingSerializer.deserialize( bytes ) );
+
+        final byte[] compressedBytes = compressingSerializer.serialize( createObservation() );
+        Assert.assertTrue( compressedBytes.length < bytes.length );
+        assertObservation( compressingSerializer.deserialize( compressedBytes ) );
+    }
+
+    @Test
+    public void smile()
+    {
+        final RedisSerializer<IBaseResource> smileSerializer = serializer.createRedisSerializer( SimpleRedisCacheCodec.SMILE.createJsonFactory() );
+        final byte[] bytes = smileSerializer.serialize( createObservation() );
+        Assert.assertTrue( bytes.length < serializer.serialize( createObservation() ).length );
+        assertObservation( smileSerializer.deserialize( bytes ) );
+    }
+
+    @Test
+    public void cbor()
+    {
+        final RedisSerializer<IBaseResource> cborSerializer = serializer.createRedisSerializer( SimpleRedisCacheCodec.CBOR.createJsonFactory() );
+        final byte[] bytes = cborSerializer.serialize( createObservation() );
+        Assert.assertTrue( bytes.length < serializer.serialize( createObservation() ).length );
+        assertObservation( cborSerializer.deserialize( bytes ) );
+    }
+
+    @Test
+    public void nullValue()
+    {
+        final RedisSerializer<IBaseResource> smileSerializer = serializer.createRedisSerializer( SimpleRedisCacheCodec.SMILE.createJsonFactory() );
+        Assert.assertNull( smileSerializer.deserialize( smileSerializer.serialize( null ) ) );
+    }
+
+    @Nonnull
+    private static Observation createObservation()
+    {
+        final Observation observation = new Observation();
+        observation.setId( "Observation/bDaZJx3Mpwz" );
+        observation.setStatus( Observation.ObservationStatus.FINAL );
+        observation.getCode().addCoding().setSystem( "http://loinc.org" ).setCode( "8302-2" ).setDisplay( "Body height" );
+        observation.setSubject( new Reference( "Patient/JeR2Ul4mZfx" ) );
+        observation.setValue( new Quantity().setValue( new BigDecimal( "1.10" ) ).setUnit( "m" ).setSystem( "http://unitsofmeasure.org" ).setCode( "m" ) );
+        return observation;
+    }
+
+    private static void assertObservation( @Nonnull IBaseResource resource )
+    {
+        final Observation observation = (Observation) resource;
+        Assert.assertEquals( "bDaZJx3Mpwz", observation.getIdElement().getIdPart() );
+        Assert.assertEquals( "8302-2", observation.getCode().getCodingFirstRep().getCode() );
+        Assert.assertEquals( "Patient/JeR2Ul4mZfx", observation.getSubject().getReference() );
+        // precision of decimal values is significant in FHIR
+        Assert.assertEquals( "1.10", observation.getValueQuantity().getValueElement().getValueAsString() );
+    }
+}
@@ -0,0 +1,123 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl.r4;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientSystemRepository;
+import org.dhis2.fhir.adapter.fhir.repository.impl.AbstractFhirResourceRepositorySupport;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link R4FhirResourceRepositorySupport}.
+ *
+ * @author volsch
+ */
+public class R4FhirResourceRepositorySupportTest
+{
+    @Mock
+    private FhirClientSystemRepository fhirClientSystemRepository;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private R4FhirResourceRepositorySupport support;
+
+    @Before
+    public void setUp()
+    {
+        support = new R4FhirResourceRepositorySupport( fhirClientSystemRepository );
+    }
+
+    @Test
+    public void createBatchBundle()
+    {
+        final Patient patient = new Patient();
+        patient.setId( "a1234567890" );
+        final Observation observation = new Observation();
+
+        final Bundle bundle = (Bundle) support.createBatchBundle( Arrays.asList( patient, observation ) );
+
+        Assert.assertEquals( Bundle.BundleType.BATCH, bundle.getType() );
+        Assert.assertEquals( 2, bundle.getEntry().size() );
+        Assert.assertSame( patient, bundle.getEntry().get( 0 ).getResource() );
+        Assert.assertEquals( Bundle.HTTPVerb.PUT, bundle.getEntry().get( 0 ).getRequest().getMethod() );
+        Assert.assertEquals( "Patient/a1234567890", bundle.getEntry().get( 0 ).getRequest().getUrl() );
+        Assert.assertNull( bundle.getEntry().get( 0 ).getRequest().getIfMatch() );
+        Assert.assertSame( observation, bundle.getEntry().get( 1 ).getResource() );
+        Assert.assertEquals( Bundle.HTTPVerb.POST, bundle.getEntry().get( 1 ).getRequest().getMethod() );
+        Assert.assertEquals( "Observation", bundle.getEntry().get( 1 ).getRequest().getUrl() );
+    }
+
+    @Test
+    public void createBatchBundleVersioned()
+    {
+        final Patient patient = new Patient();
+        patient.setId( "Patient/a1234567890/_history/3" );
+
+        final Bundle bundle = (Bundle) support.createBatchBundle( Collections.singletonList( patient ) );
+
+        Assert.assertEquals( 1, bundle.getEntry().size() );
+        Assert.assertEquals( Bundle.HTTPVerb.PUT, bundle.getEntry().get( 0 ).getRequest().getMethod() );
+        Assert.assertEquals( "Patient/a1234567890", bundle.getEntry().get( 0 ).getRequest().getUrl() );
+        Assert.assertEquals( "W/\"3\"", bundle.getEntry().get( 0 ).getRequest().getIfMatch() );
+    }
+
+    @Test
+    public void getBatchEntryResponses()
+    {
+        final Bundle bundle = new Bundle();
+        bundle.setType( Bundle.BundleType.BATCHRESPONSE );
+        bundle.addEntry().getResponse().setStatus( "201 Created" ).setLocation( "Observation/4711/_history/1" );
+        bundle.addEntry().getResponse().setStatus( "412 Precondition Failed" );
+
+        final List<AbstractFhirResourceRepositorySupport.BatchEntryResponse> responses = support.getBatchEntryResponses( bundle );
+
+        Assert.assertEquals( 2, responses.size() );
+        Assert.assertTrue( responses.get( 0 ).isSuccessful() );
+        Assert.assertEquals( 201, responses.get( 0 ).getStatusCode() );
+        Assert.assertNotNull( responses.get( 0 ).getLocation() );
+        Assert.assertEquals( "4711", responses.get( 0 ).getLocation().getIdPart() );
+        Assert.assertEquals( "1", responses.get( 0 ).getLocation().getVersionIdPart() );
+        Assert.assertFalse( responses.get( 1 ).isSuccessful() );
+        Assert.assertEquals( 412, responses.get( 1 ).getStatusCode() );
+        Assert.assertNull( responses.get( 1 ).getLocation() );
+    }
+}
@@ -31,6 +31,7 @@ package org.dhis2.fhir.adapter.fhir.server.provider.r4;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainerFactory;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirResourceType;
@@ -84,6 +85,9 @@ public class R4BundleResourceProviderTest
     @Mock
     private RequestCacheService requestCacheService;
 
+    @Mock
+    private LocalDhisResourceRepositoryContainerFactory repositoryContainerFactory;
+
     @InjectMocks
     private R4BundleResourceProvider provider;
 
@@ -53,6 +53,11 @@ public class FhirClientProcessorConfig implements Serializable
     @Min( value = 1 )
     private int parallelCount = 1;
 
+    @Min( value = 0 )
+    private int processedChunkSize;
+
+    private boolean processedFilterEnabled;
+
     private boolean storeFhirResource;
 
     public int getMaxSearchCount()
@@ -85,6 +90,26 @@ public class FhirClientProcessorConfig implements Serializable
         this.parallelCount = parallelCount;
     }
 
+    public int getProcessedChunkSize()
+    {
+        return processedChunkSize;
+    }
+
+    public void setProcessedChunkSize( int processedChunkSize )
+    {
+        this.processedChunkSize = processedChunkSize;
+    }
+
+    public boolean isProcessedFilterEnabled()
+    {
+        return processedFilterEnabled;
+    }
+
+    public void setProcessedFilterEnabled( boolean processedFilterEnabled )
+    {
+        this.processedFilterEnabled = processedFilterEnabled;
+    }
+
     public boolean isStoreFhirResource()
     {
         return storeFhirResource;
@@ -220,6 +220,18 @@ public class FhirClientRestHookProcessorImpl extends
         return processorConfig.getMaxSearchCount();
     }
 
+    @Override
+    protected int getProcessedChunkSize()
+    {
+        return processorConfig.getProcessedChunkSize();
+    }
+
+    @Override
+    protected boolean isProcessedFilterEnabled()
+    {
+        return processorConfig.isProcessedFilterEnabled();
+    }
+
     @Nonnull
     @Override
     protected DataProcessorItemRetriever<FhirClientResource> getDataProcessorItemRetriever( @Nonnull FhirClientResource group )
@@ -32,6 +32,7 @@ import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
 import org.hibernate.annotations.GenericGenerator;
 
+import javax.annotation.Nonnull;
 import javax.persistence.Basic;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -89,6 +90,19 @@ public class FhirDhisAssignment implements Serializable
 
     private String dhisResourceId;
 
+    public FhirDhisAssignment()
+    {
+        super();
+    }
+
+    public FhirDhisAssignment( @Nonnull AbstractRule rule, @Nonnull FhirClient fhirClient, @Nonnull String fhirResourceId, @Nonnull String dhisResourceId )
+    {
+        this.rule = rule;
+        this.fhirClient = fhirClient;
+        this.fhirResourceId = fhirResourceId;
+        this.dhisResourceId = dhisResourceId;
+    }
+
     @GeneratedValue( generator = "custom-uuid2" )
     @GenericGenerator( name = "custom-uuid2", strategy = "org.dhis2.fhir.adapter.hibernate.CustomUuidGenerator" )
     @Id
@@ -36,6 +36,7 @@ import org.hl7.fhir.instance.model.api.IIdType;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 
 /**
  * Custom repository for {@link FhirDhisAssignment}s.
@@ -44,6 +45,13 @@ import javax.annotation.Nullable;
  */
 public interface CustomFhirDhisAssignmentRepository
 {
+    /**
+     * Request cache attribute that contains the collection of assignments that have not
+     * yet been saved (e.g. while processing a batch). These assignments are found by the
+     * lookups of DHIS resource IDs before the saved assignments.
+     */
+    String PENDING_ASSIGNMENTS_REQUEST_CACHE_ATTRIBUTE_NAME = CustomFhirDhisAssignmentRepository.class.getSimpleName().concat( ".pendingAssignments" );
+
     @Nullable
     String findFirstDhisResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient fhirClient, @Nonnull IIdType fhirResourceId );
 
@@ -60,5 +68,25 @@ public interface CustomFhirDhisAssignmentRepository
 
     boolean saveFhirResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient fhirClient, @Nonnull DhisResourceId dhisResourceId, @Nonnull IIdType fhirResourceId );
 
+    /**
+     * Saves the assigned DHIS resource IDs of the FHIR resource IDs of the specified
+     * assignments. Existing assignments of the FHIR resource IDs are updated.
+     *
+     * @param fhirClient  the FHIR client to which all assignments belong.
+     * @param assignments the assignments that should be saved.
+     * @return the number of assignments that have been created or updated.
+     */
+    int saveDhisResourceIds( @Nonnull FhirClient fhirClient, @Nonnull Collection<FhirDhisAssignment> assignments );
+
+    /**
+     * Saves the assigned FHIR resource IDs of the DHIS resource IDs of the specified
+     * assignments. Existing assignments of the DHIS resource IDs are updated.
+     *
+     * @param fhirClient  the FHIR client to which all assignments belong.
+     * @param assignments the assignments that should be saved.
+     * @return the number of assignments that have been created or updated.
+     */
+    int saveFhirResourceIds( @Nonnull FhirClient fhirClient, @Nonnull Collection<FhirDhisAssignment> assignments );
+
     boolean deleteFhirResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient fhirClient, @Nonnull IIdType fhirResourceId );
 }
@@ -28,12 +28,16 @@ package org.dhis2.fhir.adapter.fhir.data.repository.impl;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.google.common.collect.Lists;
+import org.dhis2.fhir.adapter.cache.RequestCacheContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
 import org.dhis2.fhir.adapter.dhis.model.DhisResourceId;
 import org.dhis2.fhir.adapter.fhir.data.model.FhirDhisAssignment;
 import org.dhis2.fhir.adapter.fhir.data.repository.CustomFhirDhisAssignmentRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
 import org.dhis2.fhir.adapter.util.SqlExceptionUtils;
+import org.hibernate.Session;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -51,7 +55,20 @@ import javax.persistence.EntityManager;
 import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceException;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * Implementation of {@link CustomFhirDhisAssignmentRepository}.
@@ -60,6 +77,21 @@ import java.time.Instant;
  */
 public class CustomFhirDhisAssignmentRepositoryImpl implements CustomFhirDhisAssignmentRepository
 {
+    /**
+     * The maximum number of IDs or assignments that are included in a single SQL statement.
+     */
+    protected static final int MAX_BATCH_SIZE = 500;
+
+    protected static final String UPSERT_SQL_PREFIX = "INSERT INTO fhir_dhis_assignment(id,created_at,rule_id,fhir_client_id,fhir_resource_id,dhis_resource_id) VALUES ";
+
+    protected static final String UPSERT_SQL_VALUES = "(?,?,?,?,?,?)";
+
+    protected static final String UPSERT_DHIS_RESOURCE_ID_SQL_SUFFIX = " ON CONFLICT (rule_id,fhir_client_id,fhir_resource_id) DO UPDATE SET dhis_resource_id=EXCLUDED.dhis_resource_id " +
+        "WHERE fhir_dhis_assignment.dhis_resource_id<>EXCLUDED.dhis_resource_id";
+
+    protected static final String UPSERT_FHIR_RESOURCE_ID_SQL_SUFFIX = " ON CONFLICT (rule_id,fhir_client_id,dhis_resource_id) DO UPDATE SET fhir_resource_id=EXCLUDED.fhir_resource_id " +
+        "WHERE fhir_dhis_assignment.fhir_resource_id<>EXCLUDED.fhir_resource_id";
+
     private final PlatformTransactionManager platformTransactionManager;
 
     @PersistenceContext
@@ -67,33 +99,56 @@ public class CustomFhirDhisAssignmentRepositoryImpl implements CustomFhirDhisAss
 
     private final PersistenceExceptionTranslator persistenceExceptionTranslator;
 
+    private final RequestCacheService requestCacheService;
+
+    private volatile Boolean upsertSupported;
+
     public CustomFhirDhisAssignmentRepositoryImpl( @Nonnull PlatformTransactionManager platformTransactionManager,
-        @Nonnull EntityManager entityManager, @Nonnull @Qualifier( "&entityManagerFactory" ) PersistenceExceptionTranslator persistenceExceptionTranslator )
+        @Nonnull EntityManager entityManager, @Nonnull @Qualifier( "&entityManagerFactory" ) PersistenceExceptionTranslator persistenceExceptionTranslator,
+        @Nonnull RequestCacheService requestCacheService )
     {
         this.platformTransactionManager = platformTransactionManager;
         this.entityManager = entityManager;
         this.persistenceExceptionTranslator = persistenceExceptionTranslator;
+        this.requestCacheService = requestCacheService;
     }
 
     @Nullable
     @Override
     public String findFirstDhisResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull IIdType fhirResourceId )
     {
-        return findFirstDhisResourceId( rule, subscription, fhirResourceId, false );
+        final String fhirResourceIdPart = fhirResourceId.getIdPart();
+        final FhirDhisAssignment pendingAssignment = findLastPendingAssignment(
+            a -> isPendingAssignment( a, rule, subscription ) && fhirResourceIdPart.equals( a.getFhirResourceId() ) );
+
+        if ( pendingAssignment != null )
+        {
+            return pendingAssignment.getDhisResourceId();
+        }
+
+        return findFirstDhisResourceId( rule, subscription, fhirResourceIdPart, false );
     }
 
-    protected String findFirstDhisResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull IIdType fhirResourceId, boolean locked )
+    protected String findFirstDhisResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull String fhirResourceId, boolean locked )
     {
         return entityManager.createNamedQuery( FhirDhisAssignment.FIND_FIRST_RULED_ID_BY_FHIR_NAMED_QUERY, String.class )
             .setLockMode( locked ? LockModeType.PESSIMISTIC_WRITE : LockModeType.NONE )
             .setParameter( "ruleId", rule.getId() ).setParameter( "subscriptionId", subscription.getId() )
-            .setParameter( "fhirResourceId", fhirResourceId.getIdPart() ).getResultList().stream().findFirst().orElse( null );
+            .setParameter( "fhirResourceId", fhirResourceId ).getResultList().stream().findFirst().orElse( null );
     }
 
     @Nullable
     @Override
     public String findFirstDhisResourceId( @Nonnull FhirClient fhirClient, @Nonnull IIdType fhirResourceId )
     {
+        final FhirDhisAssignment pendingAssignment = findLastPendingAssignment(
+            a -> Objects.equals( a.getFhirClient().getId(), fhirClient.getId() ) && fhirResourceId.getIdPart().equals( a.getFhirResourceId() ) );
+
+        if ( pendingAssignment != null )
+        {
+            return pendingAssignment.getDhisResourceId();
+        }
+
         return entityManager.createNamedQuery( FhirDhisAssignment.FIND_FIRST_ID_BY_FHIR_NAMED_QUERY, String.class )
             .setParameter( "fhirClientId", fhirClient.getId() ).setParameter( "fhirResourceId", fhirResourceId.getIdPart() ).getResultList().stream().findFirst().orElse( null );
     }
@@ -101,10 +156,15 @@ public class CustomFhirDhisAssignmentRepositoryImpl implements CustomFhirDhisAss
     @Nullable
     @Override
     public String findFirstFhirResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull DhisResourceId dhisResourceId )
+    {
+        return findFirstFhirResourceId( rule, subscription, dhisResourceId.getId() );
+    }
+
+    protected String findFirstFhirResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull String dhisResourceId )
     {
         return entityManager.createNamedQuery( FhirDhisAssignment.FIND_FIRST_RULED_ID_BY_DHIS_NAMED_QUERY, String.class )
             .setParameter( "ruleId", rule.getId() ).setParameter( "subscriptionId", subscription.getId() )
-            .setParameter( "dhisResourceId", dhisResourceId.getId() ).getResultList().stream().findFirst().orElse( null );
+            .setParameter( "dhisResourceId", dhisResourceId ).getResultList().stream().findFirst().orElse( null );
     }
 
     @Nullable
@@ -115,9 +175,39 @@ public class CustomFhirDhisAssignmentRepositoryImpl implements CustomFhirDhisAss
             .setParameter( "fhirClientId", fhirClient.getId() ).setParameter( "dhisResourceId", dhisResourceId.getId() ).getResultList().stream().findFirst().orElse( null );
     }
 
+    @Nullable
+    protected FhirDhisAssignment findLastPendingAssignment( @Nonnull Predicate<FhirDhisAssignment> predicate )
+    {
+        final List<FhirDhisAssignment> pendingAssignments = new ArrayList<>( getPendingAssignments() );
+        Collections.reverse( pendingAssignments );
+
+        return pendingAssignments.stream().filter( predicate ).findFirst().orElse( null );
+    }
+
+    @Nonnull
+    @SuppressWarnings( "unchecked" )
+    protected Collection<FhirDhisAssignment> getPendingAssignments()
+    {
+        final RequestCacheContext requestCacheContext = requestCacheService.getCurrentRequestCacheContext();
+        final Collection<FhirDhisAssignment> pendingAssignments = (requestCacheContext == null) ? null :
+            requestCacheContext.getAttribute( PENDING_ASSIGNMENTS_REQUEST_CACHE_ATTRIBUTE_NAME, Collection.class );
+
+        return (pendingAssignments == null) ? Collections.emptyList() : pendingAssignments;
+    }
+
+    private static boolean isPendingAssignment( @Nonnull FhirDhisAssignment assignment, @Nonnull AbstractRule rule, @Nonnull FhirClient fhirClient )
+    {
+        return Objects.equals( assignment.getRule().getId(), rule.getId() ) && Objects.equals( assignment.getFhirClient().getId(), fhirClient.getId() );
+    }
+
     @Override
     @Transactional( propagation = Propagation.NOT_SUPPORTED )
     public boolean saveDhisResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient fhirClient, @Nonnull IIdType fhirResourceId, @Nonnull DhisResourceId dhisResourceId )
+    {
+        return saveDhisResourceId( rule, fhirClient, fhirResourceId.getIdPart(), dhisResourceId.getId() );
+    }
+
+    protected boolean saveDhisResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient fhirClient, @Nonnull String fhirResourceId, @Nonnull String dhisResourceId )
     {
         boolean updated = false;
         final TransactionStatus transactionStatus = platformTransactionManager.getTransaction( new DefaultTransactionDefinition() );
@@ -128,12 +218,12 @@ public class CustomFhirDhisAssignmentRepositoryImpl implements CustomFhirDhisAss
             {
                 updated = persist( rule, fhirClient, fhirResourceId, dhisResourceId );
             }
-            else if ( !existingId.equals( dhisResourceId.getId() ) )
+            else if ( !existingId.equals( dhisResourceId ) )
             {
                 final FhirDhisAssignment assignment = entityManager.createNamedQuery( FhirDhisAssignment.FIND_FIRST_BY_FHIR_NAMED_QUERY, FhirDhisAssignment.class )
                     .setParameter( "ruleId", rule.getId() ).setParameter( "subscriptionId", fhirClient.getId() )
-                    .setParameter( "fhirResourceId", fhirResourceId.getIdPart() ).setLockMode( LockModeType.PESSIMISTIC_WRITE ).getSingleResult();
-                assignment.setDhisResourceId( dhisResourceId.getId() );
+                    .setParameter( "fhirResourceId", fhirResourceId ).setLockMode( LockModeType.PESSIMISTIC_WRITE ).getSingleResult();
+                assignment.setDhisResourceId( dhisResourceId );
                 updated = true;
             }
         }
@@ -147,6 +237,11 @@ public class CustomFhirDhisAssignmentRepositoryImpl implements CustomFhirDhisAss
     @Override
     @Transactional( propagation = Propagation.NOT_SUPPORTED )
     public boolean saveFhirResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull DhisResourceId dhisResourceId, @Nonnull IIdType fhirResourceId )
+    {
+        return saveFhirResourceId( rule, subscription, dhisResourceId.getId(), fhirResourceId.getIdPart() );
+    }
+
+    protected boolean saveFhirResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull String dhisResourceId, @Nonnull String fhirResourceId )
     {
         boolean updated = false;
         final TransactionStatus transactionStatus = platformTransactionManager.getTransaction( new DefaultTransactionDefinition() );
@@ -157,12 +252,12 @@ public class CustomFhirDhisAssignmentRepositoryImpl implements CustomFhirDhisAss
             {
                 updated = persist( rule, subscription, fhirResourceId, dhisResourceId );
             }
-            else if ( !existingId.equals( fhirResourceId.getIdPart() ) )
+            else if ( !existingId.equals( fhirResourceId ) )
             {
                 final FhirDhisAssignment assignment = entityManager.createNamedQuery( FhirDhisAssignment.FIND_FIRST_BY_DHIS_NAMED_QUERY, FhirDhisAssignment.class )
                     .setParameter( "ruleId", rule.getId() ).setParameter( "subscriptionId", subscription.getId() )
-                    .setParameter( "dhisResourceId", dhisResourceId.getId() ).setLockMode( LockModeType.PESSIMISTIC_WRITE ).getSingleResult();
-                assignment.setFhirResourceId( fhirResourceId.getIdPart() );
+                    .setParameter( "dhisResourceId", dhisResourceId ).setLockMode( LockModeType.PESSIMISTIC_WRITE ).getSingleResult();
+                assignment.setFhirResourceId( fhirResourceId );
                 updated = true;
             }
         }
@@ -173,6 +268,130 @@ public class CustomFhirDhisAssignmentRepositoryImpl implements CustomFhirDhisAss
         return updated;
     }
 
+    @Override
+    @Transactional( propagation = Propagation.NOT_SUPPORTED )
+    public int saveDhisResourceIds( @Nonnull FhirClient fhirClient, @Nonnull Collection<FhirDhisAssignment> assignments )
+    {
+        // the last assignment of a FHIR resource wins (as if saved one after the other)
+        final Map<List<Object>, FhirDhisAssignment> uniqueAssignments = assignments.stream().collect( Collectors.toMap(
+            a -> Lists.newArrayList( a.getRule().getId(), a.getFhirResourceId() ), Function.identity(), ( a1, a2 ) -> a2, LinkedHashMap::new ) );
+        final Integer updated = upsert( fhirClient, uniqueAssignments.values(), UPSERT_DHIS_RESOURCE_ID_SQL_SUFFIX );
+
+        if ( updated != null )
+        {
+            return updated;
+        }
+
+        return (int) uniqueAssignments.values().stream().filter( a -> saveDhisResourceId( a.getRule(), fhirClient, a.getFhirResourceId(), a.getDhisResourceId() ) ).count();
+    }
+
+    @Override
+    @Transactional( propagation = Propagation.NOT_SUPPORTED )
+    public int saveFhirResourceIds( @Nonnull FhirClient fhirClient, @Nonnull Collection<FhirDhisAssignment> assignments )
+    {
+        // the last assignment of a DHIS resource wins (as if saved one after the other)
+        final Map<List<Object>, FhirDhisAssignment> uniqueAssignments = assignments.stream().collect( Collectors.toMap(
+            a -> Lists.newArrayList( a.getRule().getId(), a.getDhisResourceId() ), Function.identity(), ( a1, a2 ) -> a2, LinkedHashMap::new ) );
+        final Integer updated = upsert( fhirClient, uniqueAssignments.values(), UPSERT_FHIR_RESOURCE_ID_SQL_SUFFIX );
+
+        if ( updated != null )
+        {
+            return updated;
+        }
+
+        return (int) uniqueAssignments.values().stream().filter( a -> saveFhirResourceId( a.getRule(), fhirClient, a.getDhisResourceId(), a.getFhirResourceId() ) ).count();
+    }
+
+    /**
+     * Inserts or updates the specified assignments with a single statement for each batch
+     * of assignments. This is only supported by PostgreSQL. If the statement violates the
+     * unique key that is not handled by the statement, all changes are rolled back.
+     *
+     * @param fhirClient  the FHIR client to which all assignments belong.
+     * @param assignments the assignments that should be inserted or updated.
+     * @param sqlSuffix   the conflict clause of the statement that specifies the unique key that is handled.
+     * @return the number of created or updated assignments or <code>null</code> if
+     * the assignments must be saved one after the other.
+     */
+    @Nullable
+    protected Integer upsert( @Nonnull FhirClient fhirClient, @Nonnull Collection<FhirDhisAssignment> assignments, @Nonnull String sqlSuffix )
+    {
+        if ( assignments.isEmpty() )
+        {
+            return 0;
+        }
+
+        if ( !isUpsertSupported() )
+        {
+            return null;
+        }
+
+        final Timestamp createdAt = Timestamp.from( Instant.now() );
+        int updated = 0;
+
+        final TransactionStatus transactionStatus = platformTransactionManager.getTransaction( new DefaultTransactionDefinition() );
+        try
+        {
+            for ( final List<FhirDhisAssignment> partitionedAssignments : Lists.partition( Lists.newArrayList( assignments ), MAX_BATCH_SIZE ) )
+            {
+                final String sql = partitionedAssignments.stream().map( a -> UPSERT_SQL_VALUES ).collect( Collectors.joining( ",", UPSERT_SQL_PREFIX, sqlSuffix ) );
+
+                updated += entityManager.unwrap( Session.class ).doReturningWork( connection -> {
+                    try ( final PreparedStatement ps = connection.prepareStatement( sql ) )
+                    {
+                        int index = 0;
+
+                        for ( final FhirDhisAssignment assignment : partitionedAssignments )
+                        {
+                            ps.setObject( ++index, UUID.randomUUID() );
+                            ps.setTimestamp( ++index, createdAt );
+                            ps.setObject( ++index, assignment.getRule().getId() );
+                            ps.setObject( ++index, fhirClient.getId() );
+                            ps.setString( ++index, assignment.getFhirResourceId() );
+                            ps.setString( ++index, assignment.getDhisResourceId() );
+                        }
+
+                        return ps.executeUpdate();
+                    }
+                } );
+            }
+        }
+        catch ( PersistenceException e )
+        {
+            transactionStatus.setRollbackOnly();
+
+            final RuntimeException runtimeException = DataAccessUtils.translateIfNecessary( e, persistenceExceptionTranslator );
+            if ( runtimeException instanceof DataIntegrityViolationException &&
+                SqlExceptionUtils.isUniqueKeyViolation( ( (DataIntegrityViolationException) runtimeException ).getMostSpecificCause() ) )
+            {
+                // conflicts with the other unique key must be handled individually
+                return null;
+            }
+
+            throw runtimeException;
+        }
+        finally
+        {
+            finalizeTransaction( transactionStatus );
+        }
+
+        return updated;
+    }
+
+    protected boolean isUpsertSupported()
+    {
+        Boolean supported = upsertSupported;
+
+        if ( supported == null )
+        {
+            final String databaseProductName = entityManager.unwrap( Session.class ).doReturningWork( connection -> connection.getMetaData().getDatabaseProductName() );
+            supported = "PostgreSQL".equalsIgnoreCase( databaseProductName );
+            upsertSupported = supported;
+        }
+
+        return supported;
+    }
+
     @Override
     @Transactional
     public boolean deleteFhirResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull IIdType fhirResourceId )
@@ -188,14 +407,14 @@ public class CustomFhirDhisAssignmentRepositoryImpl implements CustomFhirDhisAss
         return false;
     }
 
-    private boolean persist( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull IIdType fhirResourceId, @Nonnull DhisResourceId dhisResourceId )
+    private boolean persist( @Nonnull AbstractRule rule, @Nonnull FhirClient subscription, @Nonnull String fhirResourceId, @Nonnull String dhisResourceId )
     {
         final FhirDhisAssignment assignment = new FhirDhisAssignment();
         assignment.setCreatedAt( Instant.now() );
         assignment.setRule( entityManager.getReference( AbstractRule.class, rule.getId() ) );
         assignment.setFhirClient( entityManager.getReference( FhirClient.class, subscription.getId() ) );
-        assignment.setFhirResourceId( fhirResourceId.getIdPart() );
-        assignment.setDhisResourceId( dhisResourceId.getId() );
+        assignment.setFhirResourceId( fhirResourceId );
+        assignment.setDhisResourceId( dhisResourceId );
 
         try
         {
@@ -55,4 +55,25 @@ public class CustomProcessedFhirResourceRepositoryImpl extends AbstractProcessed
     {
         return ProcessedFhirResource.class;
     }
+
+    @Nonnull
+    @Override
+    protected String getTableName()
+    {
+        return "fhir_processed_resource";
+    }
+
+    @Nonnull
+    @Override
+    protected String getGroupColumnName()
+    {
+        return "fhir_client_resource_id";
+    }
+
+    @Nonnull
+    @Override
+    protected String getProcessedIdColumnName()
+    {
+        return "versioned_fhir_resource_id";
+    }
 }
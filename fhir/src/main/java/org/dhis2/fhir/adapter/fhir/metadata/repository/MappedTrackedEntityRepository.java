@@ -42,6 +42,7 @@ import org.springframework.data.rest.core.annotation.RestResource;
 import org.springframework.security.access.prepost.PreAuthorize;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -71,6 +72,11 @@ public interface MappedTrackedEntityRepository extends JpaRepository<MappedTrack
     @Query( value = "SELECT e FROM #{#entityName} e WHERE e.trackedEntityReference IN (:references)" )
     Optional<MappedTrackedEntity> findOneByTrackedEntityReference( @Param( "references" ) @Nonnull Set<Reference> references );
 
+    @RestResource( exported = false )
+    @Query( value = "SELECT e.trackedEntityReference FROM #{#entityName} e WHERE e.enabled=true" )
+    @Nonnull
+    Collection<Reference> findAllEnabledTrackedEntityReferences();
+
     @Override
     @Nonnull
     @CacheEvict( allEntries = true )
@@ -74,6 +74,11 @@ public interface MappedTrackerProgramRepository extends JpaRepository<MappedTrac
     @Nonnull
     Collection<Reference> findAllPolledProgramReferences();
 
+    @RestResource( exported = false )
+    @Query( value = "SELECT p.programReference FROM #{#entityName} p WHERE p.enabled=true" )
+    @Nonnull
+    Collection<Reference> findAllEnabledProgramReferences();
+
     @Nonnull
     @RestResource( exported = false )
     @Query( value = "SELECT e FROM #{#entityName} e WHERE e.programReference IN (:references)" )
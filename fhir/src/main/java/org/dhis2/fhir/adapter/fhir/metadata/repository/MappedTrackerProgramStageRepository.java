@@ -43,6 +43,7 @@ import org.springframework.data.rest.core.annotation.RestResource;
 import org.springframework.security.access.prepost.PreAuthorize;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -72,6 +73,11 @@ public interface MappedTrackerProgramStageRepository extends JpaRepository<Mappe
     @Query( value = "SELECT e FROM #{#entityName} e WHERE e.program=:program AND e.programStageReference IN (:references)" )
     Optional<MappedTrackerProgramStage> findOneByProgramAndProgramStageReference( @Param( "program" ) @Nonnull MappedTrackerProgram program, @Param( "references" ) @Nonnull Set<Reference> references );
 
+    @RestResource( exported = false )
+    @Query( value = "SELECT s.programStageReference FROM #{#entityName} s WHERE s.enabled=true AND s.program.enabled=true" )
+    @Nonnull
+    Collection<Reference> findAllEnabledProgramStageReferences();
+
     @Override
     @Nonnull
     @CacheEvict( allEntries = true )
@@ -0,0 +1,56 @@
+package org.dhis2.fhir.adapter.fhir.metadata.repository;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.model.Metadata;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+
+/**
+ * Tracks changes of adapter metadata and invalidates the metadata caches that
+ * depend on the changed metadata type. Only the caches that may contain or may
+ * have been selected by the changed metadata are invalidated. Within a transaction
+ * the invalidations are collected and performed once after the commit.
+ *
+ * @author volsch
+ */
+public interface MetadataChangeTracker
+{
+    void changed( @Nonnull Class<? extends Metadata> metadataClass );
+
+    void changed( @Nonnull Collection<Class<? extends Metadata>> metadataClasses );
+
+    /**
+     * @param metadataClass the metadata class for which the dependent caches should be returned.
+     * @return the names of the metadata caches that depend on the specified metadata type.
+     */
+    @Nonnull
+    Collection<String> getDependentCacheNames( @Nonnull Class<? extends Metadata> metadataClass );
+}
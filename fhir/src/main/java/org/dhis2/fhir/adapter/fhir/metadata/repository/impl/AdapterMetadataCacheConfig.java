@@ -29,6 +29,7 @@ package org.dhis2.fhir.adapter.fhir.metadata.repository.impl;
  */
 
 import org.dhis2.fhir.adapter.cache.AbstractSimpleCacheConfig;
+import org.dhis2.fhir.adapter.cache.JsonRedisSerializerFactory;
 import org.dhis2.fhir.adapter.cache.RequestCacheService;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -36,7 +37,6 @@ import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.annotation.Validated;
 
@@ -64,8 +64,8 @@ public class AdapterMetadataCacheConfig extends AbstractSimpleCacheConfig
 
     @Bean
     @Nonnull
-    protected CacheManager metadataCacheManager( @Nonnull RequestCacheService requestCacheService, @Nonnull ObjectProvider<RedisConnectionFactory> redisConnectionFactoryProvider, @Nonnull GenericJackson2JsonRedisSerializer redisSerializer )
+    protected CacheManager metadataCacheManager( @Nonnull RequestCacheService requestCacheService, @Nonnull ObjectProvider<RedisConnectionFactory> redisConnectionFactoryProvider, @Nonnull JsonRedisSerializerFactory<Object> redisSerializerFactory )
     {
-        return createCacheManager( requestCacheService, redisConnectionFactoryProvider, redisSerializer );
+        return createCacheManager( requestCacheService, redisConnectionFactoryProvider, redisSerializerFactory );
     }
 }
@@ -0,0 +1,217 @@
+package org.dhis2.fhir.adapter.fhir.metadata.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.Code;
+import org.dhis2.fhir.adapter.fhir.metadata.model.CodeCategory;
+import org.dhis2.fhir.adapter.fhir.metadata.model.CodeSet;
+import org.dhis2.fhir.adapter.fhir.metadata.model.Constant;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScript;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScriptArg;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientSystem;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirResourceMapping;
+import org.dhis2.fhir.adapter.fhir.metadata.model.MappedTrackedEntity;
+import org.dhis2.fhir.adapter.fhir.metadata.model.MappedTrackerProgram;
+import org.dhis2.fhir.adapter.fhir.metadata.model.MappedTrackerProgramStage;
+import org.dhis2.fhir.adapter.fhir.metadata.model.Script;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptArg;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptSource;
+import org.dhis2.fhir.adapter.fhir.metadata.model.System;
+import org.dhis2.fhir.adapter.fhir.metadata.model.SystemCode;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MetadataChangeTracker;
+import org.dhis2.fhir.adapter.model.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Implementation of {@link MetadataChangeTracker}. The dependencies between the
+ * metadata types and the metadata caches are static. A metadata type for which no
+ * dependency is known invalidates all metadata caches.
+ *
+ * @author volsch
+ */
+@Component
+public class MetadataChangeTrackerImpl implements MetadataChangeTracker
+{
+    private static final Map<String, Set<Class<? extends Metadata>>> CACHE_DEPENDENCIES = new LinkedHashMap<>();
+
+    static
+    {
+        dependsOn( "codeCategory", CodeCategory.class );
+        dependsOn( "code", Code.class, CodeCategory.class, System.class, SystemCode.class, CodeSet.class );
+        dependsOn( "codeSet", CodeSet.class, Code.class, CodeCategory.class );
+        dependsOn( "constant", Constant.class );
+        dependsOn( "system", System.class );
+        dependsOn( "systemCode", SystemCode.class, System.class, Code.class, CodeCategory.class, CodeSet.class );
+        dependsOn( "script", Script.class, ScriptArg.class, ScriptSource.class );
+        dependsOn( "scriptArg", ScriptArg.class, Script.class );
+        dependsOn( "scriptSource", ScriptSource.class, Script.class );
+        dependsOn( "executableScript", ExecutableScript.class, ExecutableScriptArg.class, Script.class, ScriptArg.class, ScriptSource.class );
+        dependsOn( "executableScriptArg", ExecutableScriptArg.class, ExecutableScript.class, Script.class, ScriptArg.class );
+        dependsOn( "resourceMapping", FhirResourceMapping.class, ExecutableScript.class, ExecutableScriptArg.class, Script.class, ScriptArg.class );
+        dependsOn( "mappedTrackedEntity", MappedTrackedEntity.class, ExecutableScript.class, ExecutableScriptArg.class, Script.class, ScriptArg.class );
+        dependsOn( "mappedProgram", MappedTrackerProgram.class, MappedTrackedEntity.class, ExecutableScript.class, ExecutableScriptArg.class, Script.class, ScriptArg.class );
+        dependsOn( "mappedProgramStage", MappedTrackerProgramStage.class, MappedTrackerProgram.class, MappedTrackedEntity.class,
+            ExecutableScript.class, ExecutableScriptArg.class, Script.class, ScriptArg.class );
+        dependsOn( "polledProgram", MappedTrackerProgram.class );
+        dependsOn( "rule", AbstractRule.class, MappedTrackedEntity.class, MappedTrackerProgram.class, MappedTrackerProgramStage.class,
+            ExecutableScript.class, ExecutableScriptArg.class, Script.class, ScriptArg.class, ScriptSource.class,
+            CodeSet.class, Code.class, SystemCode.class, System.class );
+        dependsOn( "programStageRule", AbstractRule.class, MappedTrackedEntity.class, MappedTrackerProgram.class, MappedTrackerProgramStage.class,
+            ExecutableScript.class, ExecutableScriptArg.class, Script.class, ScriptArg.class, ScriptSource.class,
+            CodeSet.class, Code.class, SystemCode.class, System.class );
+        dependsOn( "fhirClient", FhirClient.class, FhirClientResource.class, FhirClientSystem.class, System.class );
+        dependsOn( "fhirClientResource", FhirClientResource.class, FhirClient.class, FhirClientSystem.class );
+        dependsOn( "fhirClientSystem", FhirClientSystem.class, FhirClient.class, System.class );
+    }
+
+    @SafeVarargs
+    private static void dependsOn( @Nonnull String cacheName, @Nonnull Class<? extends Metadata>... metadataClasses )
+    {
+        CACHE_DEPENDENCIES.put( cacheName, new LinkedHashSet<>( Arrays.asList( metadataClasses ) ) );
+    }
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final CacheManager cacheManager;
+
+    public MetadataChangeTrackerImpl( @Nonnull @Qualifier( "metadataCacheManager" ) CacheManager cacheManager )
+    {
+        this.cacheManager = cacheManager;
+    }
+
+    @Override
+    public void changed( @Nonnull Class<? extends Metadata> metadataClass )
+    {
+        changed( Collections.singleton( metadataClass ) );
+    }
+
+    @Override
+    public void changed( @Nonnull Collection<Class<? extends Metadata>> metadataClasses )
+    {
+        final Set<String> cacheNames = metadataClasses.stream().flatMap( mc -> getDependentCacheNames( mc ).stream() )
+            .collect( Collectors.toCollection( TreeSet::new ) );
+
+        if ( cacheNames.isEmpty() )
+        {
+            return;
+        }
+
+        if ( TransactionSynchronizationManager.isSynchronizationActive() )
+        {
+            getPendingCacheNames().addAll( cacheNames );
+        }
+        else
+        {
+            clear( cacheNames );
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Collection<String> getDependentCacheNames( @Nonnull Class<? extends Metadata> metadataClass )
+    {
+        final Set<String> cacheNames = CACHE_DEPENDENCIES.entrySet().stream()
+            .filter( e -> e.getValue().stream().anyMatch( c -> c.isAssignableFrom( metadataClass ) ) )
+            .map( Map.Entry::getKey ).collect( Collectors.toCollection( TreeSet::new ) );
+
+        if ( cacheNames.isEmpty() )
+        {
+            // dependencies of unknown metadata cannot be determined
+            cacheNames.addAll( cacheManager.getCacheNames() );
+        }
+
+        return cacheNames;
+    }
+
+    @Nonnull
+    protected Set<String> getPendingCacheNames()
+    {
+        @SuppressWarnings( "unchecked" )
+        Set<String> pendingCacheNames = (Set<String>) TransactionSynchronizationManager.getResource( this );
+
+        if ( pendingCacheNames == null )
+        {
+            final Set<String> cacheNames = new TreeSet<>();
+            TransactionSynchronizationManager.bindResource( this, cacheNames );
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCommit()
+                {
+                    clear( cacheNames );
+                }
+
+                @Override
+                public void afterCompletion( int status )
+                {
+                    TransactionSynchronizationManager.unbindResourceIfPossible( MetadataChangeTrackerImpl.this );
+                }
+            } );
+            pendingCacheNames = cacheNames;
+        }
+
+        return pendingCacheNames;
+    }
+
+    protected void clear( @Nonnull Collection<String> cacheNames )
+    {
+        logger.debug( "Clearing metadata caches {}.", cacheNames );
+
+        for ( final String cacheName : cacheNames )
+        {
+            final Cache cache = cacheManager.getCache( cacheName );
+
+            if ( cache != null )
+            {
+                cache.clear();
+            }
+        }
+    }
+}
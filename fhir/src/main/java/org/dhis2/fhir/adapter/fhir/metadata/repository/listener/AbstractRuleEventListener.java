@@ -29,16 +29,27 @@ package org.dhis2.fhir.adapter.fhir.metadata.repository.listener;
  */
 
 import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisRuleIndex;
 import org.springframework.data.rest.core.event.AbstractRepositoryEventListener;
 
+import javax.annotation.Nonnull;
+
 /**
  * Event listener that prepares {@link AbstractRule} class before saving.
+ * After saving or deleting, the compiled rule is evicted from the rule index.
  *
  * @param <T> the concrete entity class
  * @author volsch
  */
 public abstract class AbstractRuleEventListener<T extends AbstractRule> extends AbstractRepositoryEventListener<T>
 {
+    private final FhirToDhisRuleIndex fhirToDhisRuleIndex;
+
+    protected AbstractRuleEventListener( @Nonnull FhirToDhisRuleIndex fhirToDhisRuleIndex )
+    {
+        this.fhirToDhisRuleIndex = fhirToDhisRuleIndex;
+    }
+
     @Override
     protected void onBeforeCreate( AbstractRule entity )
     {
@@ -53,4 +64,22 @@ public abstract class AbstractRuleEventListener<T extends AbstractRule> extends
             entity.getDhisDataReferences().stream().filter( dr -> dr.getRule() == null ).forEach( dr -> dr.setRule( entity ) );
         }
     }
+
+    @Override
+    protected void onAfterCreate( AbstractRule entity )
+    {
+        onAfterSave( entity );
+    }
+
+    @Override
+    protected void onAfterSave( AbstractRule entity )
+    {
+        fhirToDhisRuleIndex.evict( entity.getId() );
+    }
+
+    @Override
+    protected void onAfterDelete( AbstractRule entity )
+    {
+        fhirToDhisRuleIndex.evict( entity.getId() );
+    }
 }
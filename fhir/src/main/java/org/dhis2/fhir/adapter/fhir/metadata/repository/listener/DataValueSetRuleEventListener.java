@@ -29,8 +29,11 @@ package org.dhis2.fhir.adapter.fhir.metadata.repository.listener;
  */
 
 import org.dhis2.fhir.adapter.fhir.metadata.model.DataValueSetRule;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisRuleIndex;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Nonnull;
+
 /**
  * Event listener that prepares {@link DataValueSetRule} class before saving.
  *
@@ -39,4 +42,8 @@ import org.springframework.stereotype.Component;
 @Component
 public class DataValueSetRuleEventListener extends AbstractRuleEventListener<DataValueSetRule>
 {
+    public DataValueSetRuleEventListener( @Nonnull FhirToDhisRuleIndex fhirToDhisRuleIndex )
+    {
+        super( fhirToDhisRuleIndex );
+    }
 }
@@ -29,8 +29,11 @@ package org.dhis2.fhir.adapter.fhir.metadata.repository.listener;
  */
 
 import org.dhis2.fhir.adapter.fhir.metadata.model.EnrollmentRule;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisRuleIndex;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Nonnull;
+
 /**
  * Event listener that prepares {@link EnrollmentRule} class before saving.
  *
@@ -39,4 +42,8 @@ import org.springframework.stereotype.Component;
 @Component
 public class EnrollmentRuleEventListener extends AbstractRuleEventListener<EnrollmentRule>
 {
+    public EnrollmentRuleEventListener( @Nonnull FhirToDhisRuleIndex fhirToDhisRuleIndex )
+    {
+        super( fhirToDhisRuleIndex );
+    }
 }
@@ -32,6 +32,7 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
 import org.dhis2.fhir.adapter.fhir.metadata.model.RequestHeader;
+import org.dhis2.fhir.adapter.fhir.repository.FhirGenericClientRegistry;
 import org.springframework.core.annotation.Order;
 import org.springframework.data.rest.core.event.AbstractRepositoryEventListener;
 import org.springframework.stereotype.Component;
@@ -48,7 +49,8 @@ import java.util.Objects;
 /**
  * Event listener that prepares {@link FhirClient} class before saving.
  * Removed secret values that are <code>null</code> are taken from previous
- * version of the data.
+ * version of the data. After saving or deleting, the generic client that has
+ * been registered for the FHIR client is evicted.
  *
  * @author volsch
  */
@@ -61,10 +63,13 @@ public class FhirClientEventListener extends AbstractRepositoryEventListener<Fhi
 
     private HttpServletRequest servletRequest;
 
-    public FhirClientEventListener( @Nonnull EntityManager entityManager, @Nonnull HttpServletRequest servletRequest )
+    private FhirGenericClientRegistry fhirGenericClientRegistry;
+
+    public FhirClientEventListener( @Nonnull EntityManager entityManager, @Nonnull HttpServletRequest servletRequest, @Nonnull FhirGenericClientRegistry fhirGenericClientRegistry )
     {
         this.entityManager = entityManager;
         this.servletRequest = servletRequest;
+        this.fhirGenericClientRegistry = fhirGenericClientRegistry;
     }
 
     @Override
@@ -84,6 +89,18 @@ public class FhirClientEventListener extends AbstractRepositoryEventListener<Fhi
         onBeforeSave( entity, previousEntity );
     }
 
+    @Override
+    protected void onAfterSave( FhirClient entity )
+    {
+        fhirGenericClientRegistry.evict( entity.getId() );
+    }
+
+    @Override
+    protected void onAfterDelete( FhirClient entity )
+    {
+        fhirGenericClientRegistry.evict( entity.getId() );
+    }
+
     protected void onBeforeSave( FhirClient entity, FhirClient previousEntity )
     {
         if ( (entity.getAdapterEndpoint() != null) && (entity.getAdapterEndpoint().getBaseUrl() == null) )
@@ -1,7 +1,7 @@
-package org.dhis2.fhir.adapter.lock.impl;
+package org.dhis2.fhir.adapter.fhir.metadata.repository.listener;
 
 /*
- * Copyright (c) 2004-2018, University of Oslo
+ * Copyright (c) 2004-2019, University of Oslo
  * All rights reserved.
  *
  * Redistribution and use in source and binary forms, with or without
@@ -28,64 +28,58 @@ package org.dhis2.fhir.adapter.lock.impl;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
-import org.dhis2.fhir.adapter.lock.LockContext;
-import org.dhis2.fhir.adapter.lock.LockManager;
-import org.springframework.stereotype.Service;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MetadataChangeTracker;
+import org.dhis2.fhir.adapter.model.Metadata;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.rest.core.event.AbstractRepositoryEventListener;
+import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
-import javax.sql.DataSource;
-import java.util.Optional;
 
 /**
- * Lock manager that creates a lock context that uses the PostgreSQL Advisory Lock
- * to implement a distributed lock.
+ * Event listener that notifies the metadata change tracker about changed
+ * metadata, so that dependent metadata caches are invalidated.
  *
  * @author volsch
  */
-@Service
-public class PostgreSqlAdvisoryLockManagerImpl implements LockManager
+@Component
+@Order( value = 20 )
+public class MetadataChangeEventListener extends AbstractRepositoryEventListener<Metadata>
 {
-    private final ThreadLocal<LockContext> threadLocal = new ThreadLocal<>();
+    private final MetadataChangeTracker metadataChangeTracker;
 
-    private final DataSource dataSource;
+    public MetadataChangeEventListener( @Nonnull MetadataChangeTracker metadataChangeTracker )
+    {
+        this.metadataChangeTracker = metadataChangeTracker;
+    }
 
-    public PostgreSqlAdvisoryLockManagerImpl( @Nonnull DataSource dataSource )
+    @Override
+    protected void onAfterCreate( Metadata entity )
     {
-        this.dataSource = dataSource;
+        metadataChangeTracker.changed( entity.getClass() );
     }
 
-    @Nonnull
     @Override
-    public LockContext begin()
+    protected void onAfterSave( Metadata entity )
     {
-        if ( threadLocal.get() != null )
-        {
-            throw new IllegalStateException( "The current thread already owns a lock context." );
-        }
-        final LockContext lockContext = new PostgreSqlAdvisoryLockContextImpl( this );
-        threadLocal.set( lockContext );
-        return lockContext;
+        metadataChangeTracker.changed( entity.getClass() );
     }
 
-    @Nonnull
     @Override
-    public Optional<LockContext> getCurrentLockContext()
+    protected void onAfterLinkSave( Metadata parent, Object linked )
     {
-        return Optional.ofNullable( threadLocal.get() );
+        metadataChangeTracker.changed( parent.getClass() );
     }
 
-    @Nonnull
-    DataSource getDataSource()
+    @Override
+    protected void onAfterLinkDelete( Metadata parent, Object linked )
     {
-        return dataSource;
+        metadataChangeTracker.changed( parent.getClass() );
     }
 
-    void removeFromThread( @Nonnull PostgreSqlAdvisoryLockContextImpl lockContext )
+    @Override
+    protected void onAfterDelete( Metadata entity )
     {
-        if ( threadLocal.get() == null )
-        {
-            throw new IllegalStateException( "Current thread does not own a lock context." );
-        }
-        threadLocal.set( null );
+        metadataChangeTracker.changed( entity.getClass() );
     }
 }
@@ -46,6 +46,7 @@ import org.dhis2.fhir.adapter.fhir.metadata.model.CodeMetadata;
 import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptMetadata;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirResourceMappingRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackerProgramRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MetadataChangeTracker;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.MetadataRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.ProgramStageRuleRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.validator.MetadataValidator;
@@ -56,15 +57,12 @@ import org.dhis2.fhir.adapter.fhir.metadata.service.MetadataImportService;
 import org.dhis2.fhir.adapter.fhir.metadata.service.MetadataImportSeverity;
 import org.dhis2.fhir.adapter.model.Metadata;
 import org.dhis2.fhir.adapter.model.VersionedBaseMetadata;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.cache.CacheManager;
 import org.springframework.context.MessageSource;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.support.TransactionSynchronizationAdapter;
-import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.CollectionUtils;
 import org.springframework.validation.Errors;
 
 import javax.annotation.Nonnull;
@@ -77,7 +75,6 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -98,7 +95,7 @@ public class MetadataImportServiceImpl extends AbstractMetadataService implement
 
     private final EntityManager entityManager;
 
-    private final CacheManager cacheManager;
+    private final MetadataChangeTracker metadataChangeTracker;
 
     private final ObjectMapper mapper;
 
@@ -107,14 +104,14 @@ public class MetadataImportServiceImpl extends AbstractMetadataService implement
         @Nonnull FhirResourceMappingRepository fhirResourceMappingRepository,
         @Nonnull List<? extends MetadataValidator<? extends Metadata>> validators,
         @Nonnull List<? extends MetadataRepository<? extends Metadata>> repositories,
-        @Nonnull EntityManager entityManager, @Nonnull @Qualifier( "metadataCacheManager" ) CacheManager cacheManager )
+        @Nonnull EntityManager entityManager, @Nonnull MetadataChangeTracker metadataChangeTracker )
     {
         super( trackerProgramRepository, programStageRuleRepository, fhirResourceMappingRepository, repositories );
 
         this.messageSource = messageSource;
         this.validators = validators.stream().collect( Collectors.toMap( MetadataValidator::getMetadataClass, v -> v ) );
         this.entityManager = entityManager;
-        this.cacheManager = cacheManager;
+        this.metadataChangeTracker = metadataChangeTracker;
 
         mapper = new ObjectMapper();
         mapper.disable( FAIL_ON_UNWRAPPED_TYPE_IDENTIFIERS );
@@ -202,15 +199,9 @@ public class MetadataImportServiceImpl extends AbstractMetadataService implement
         }
 
         result.setSuccess( true );
-        TransactionSynchronizationManager.registerSynchronization(
-            new TransactionSynchronizationAdapter()
-            {
-                @Override
-                public void afterCommit()
-                {
-                    cacheManager.getCacheNames().forEach( cacheName -> Objects.requireNonNull( cacheManager.getCache( cacheName ) ).clear() );
-                }
-            } );
+        // only caches that depend on the imported metadata types are invalidated after commit
+        metadataChangeTracker.changed( Arrays.stream( MetadataExportField.values() ).map( MetadataExportField::getMetadataClass )
+            .filter( mc -> !CollectionUtils.isEmpty( metadataExport.get( mc ) ) ).collect( Collectors.toList() ) );
 
         return result;
     }
@@ -35,6 +35,7 @@ import ca.uhn.fhir.rest.client.api.IClientInterceptor;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.client.api.IHttpRequest;
 import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
 import ca.uhn.fhir.rest.client.interceptor.AdditionalRequestHeadersInterceptor;
 import ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor;
 import org.apache.commons.lang3.StringUtils;
@@ -60,7 +61,13 @@ public abstract class FhirClientUtils
     @Nonnull
     public static IGenericClient createClient( @Nonnull FhirContext fhirContext, @Nonnull ClientFhirEndpoint fhirEndpoint )
     {
-        final IGenericClient client = fhirContext.newRestfulGenericClient( fhirEndpoint.getBaseUrl() );
+        return createClient( fhirContext.getRestfulClientFactory(), fhirEndpoint );
+    }
+
+    @Nonnull
+    public static IGenericClient createClient( @Nonnull IRestfulClientFactory restfulClientFactory, @Nonnull ClientFhirEndpoint fhirEndpoint )
+    {
+        final IGenericClient client = restfulClientFactory.newGenericClient( fhirEndpoint.getBaseUrl() );
         if ( fhirEndpoint.isLogging() )
         {
             client.registerInterceptor( new LoggingInterceptor( fhirEndpoint.isVerboseLogging() ) );
@@ -28,11 +28,13 @@ package org.dhis2.fhir.adapter.fhir.repository;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 
 /**
  * The repository that is used to store FHIR Resources.
@@ -44,5 +46,16 @@ public interface FhirRepository
     @Nullable
     FhirRepositoryOperationOutcome save( @Nonnull FhirClientResource fhirClientResource, @Nonnull IBaseResource resource, @Nullable FhirRepositoryOperation fhirRepositoryOperation );
 
+    /**
+     * Saves the specified FHIR resources of the specified FHIR client. The
+     * resulting DHIS2 resources are collected and persisted in bulk at the end.
+     * The result of each FHIR resource is reported back to the corresponding
+     * batch item. Exceptions that relate to a single item are not thrown.
+     *
+     * @param fhirClient the FHIR client to which all batch items belong.
+     * @param batchItems the batch items that should be saved.
+     */
+    void saveAll( @Nonnull FhirClient fhirClient, @Nonnull Collection<FhirRepositoryBatchItem> batchItems );
+
     boolean delete( @Nonnull FhirClientResource fhirClientResource, @Nonnull DhisFhirResourceId dhisFhirResourceId );
 }
@@ -37,6 +37,7 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -77,5 +78,15 @@ public interface FhirResourceRepository
     @Nonnull
     IBaseResource save( @Nonnull FhirClient fhirClient, @Nonnull IBaseResource resource, @Nullable String dhisResourceId );
 
+    /**
+     * Saves all specified FHIR resources on the FHIR endpoint of the specified FHIR client
+     * with a single batch request. The saved FHIR resource or the failure is reported back
+     * to each single item.
+     *
+     * @param fhirClient the FHIR client on which the FHIR resources should be saved.
+     * @param items      the items that contain the FHIR resources that should be saved.
+     */
+    void saveAll( @Nonnull FhirClient fhirClient, @Nonnull List<FhirResourceRepositoryBatchItem> items );
+
     boolean delete( @Nonnull FhirClient fhirClient, @Nonnull IBaseResource resource );
 }
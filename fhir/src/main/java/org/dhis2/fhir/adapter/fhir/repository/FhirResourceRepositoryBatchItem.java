@@ -1,4 +1,4 @@
-package org.dhis2.fhir.adapter.fhir.server.provider;
+package org.dhis2.fhir.adapter.fhir.repository;
 
 /*
  * Copyright (c) 2004-2019, University of Oslo
@@ -28,51 +28,52 @@ package org.dhis2.fhir.adapter.fhir.server.provider;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
-import ca.uhn.fhir.rest.api.server.IBundleProvider;
-import ca.uhn.fhir.rest.server.IPagingProvider;
-import org.dhis2.fhir.adapter.fhir.transform.config.FhirRestInterfaceConfig;
-import org.springframework.stereotype.Component;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
- * A paging provider that do not support paging.
+ * A single FHIR resource that is saved on the FHIR endpoint of a FHIR client
+ * together with other FHIR resources in a batch. The saved FHIR resource is
+ * reported back to the item.
  *
  * @author volsch
  */
-@Component
-public class NonPagingProvider implements IPagingProvider
+public class FhirResourceRepositoryBatchItem extends RepositoryBatchItem
 {
-    private final FhirRestInterfaceConfig restInterfaceConfig;
+    private final IBaseResource resource;
 
-    public NonPagingProvider( @Nonnull FhirRestInterfaceConfig restInterfaceConfig )
+    private final String dhisResourceId;
+
+    private IBaseResource result;
+
+    public FhirResourceRepositoryBatchItem( @Nonnull IBaseResource resource, @Nullable String dhisResourceId )
     {
-        this.restInterfaceConfig = restInterfaceConfig;
+        this.resource = resource;
+        this.dhisResourceId = dhisResourceId;
     }
 
-    @Override
-    public int getDefaultPageSize()
+    @Nonnull
+    public IBaseResource getResource()
     {
-        return restInterfaceConfig.getDefaultSearchCount();
+        return resource;
     }
 
-    @Override
-    public int getMaximumPageSize()
+    @Nullable
+    public String getDhisResourceId()
     {
-        return restInterfaceConfig.getMaxSearchCount();
+        return dhisResourceId;
     }
 
-    @Override
-    public IBundleProvider retrieveResultList( String theSearchId )
+    @Nullable
+    public IBaseResource getResult()
     {
-        // retrieving result list is not supported
-        return null;
+        return result;
     }
 
-    @Override
-    public String storeResultList( IBundleProvider theList )
+    public void setResult( @Nonnull IBaseResource result )
     {
-        // storing result list is not supported
-        return null;
+        this.result = result;
     }
 }
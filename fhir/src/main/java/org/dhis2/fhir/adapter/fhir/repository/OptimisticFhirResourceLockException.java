@@ -37,6 +37,11 @@ public class OptimisticFhirResourceLockException extends RuntimeException
 {
     private static final long serialVersionUID = -337431800952060847L;
 
+    public OptimisticFhirResourceLockException( String message )
+    {
+        super( message );
+    }
+
     public OptimisticFhirResourceLockException( String message, Throwable cause )
     {
         super( message, cause );
@@ -0,0 +1,205 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.repository.RepositoryBatchItem;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects items that are processed concurrently by different threads into
+ * batches (one open batch for each FHIR client). The thread that opens a batch
+ * waits until the batch is full or the maximum delay has elapsed and processes
+ * the complete batch. All other threads wait until the batch has been processed.
+ * Every thread receives the result of its own item.
+ *
+ * @param <I> the concrete type of the batch items.
+ * @author volsch
+ */
+public abstract class AbstractFhirClientBatchProcessor<I extends RepositoryBatchItem>
+{
+    private final FhirResourceBatchConfig config;
+
+    private final Map<UUID, Batch<I>> openBatches = new HashMap<>();
+
+    protected AbstractFhirClientBatchProcessor( @Nonnull FhirResourceBatchConfig config )
+    {
+        this.config = config;
+    }
+
+    public boolean isEnabled()
+    {
+        return config.isEnabled();
+    }
+
+    /**
+     * Processes the specified item together with other items that are processed
+     * concurrently. The method returns when the batch that contains the item has
+     * been processed.
+     *
+     * @param fhirClient the FHIR client to which the item belongs.
+     * @param batchItem  the item that should be processed.
+     * @throws RuntimeException the exception that occurred when processing the specified item.
+     */
+    protected void process( @Nonnull FhirClient fhirClient, @Nonnull I batchItem )
+    {
+        final Batch<I> batch;
+        final boolean owner;
+
+        synchronized ( openBatches )
+        {
+            Batch<I> openBatch = openBatches.get( fhirClient.getId() );
+            owner = (openBatch == null);
+
+            if ( owner )
+            {
+                openBatch = new Batch<>( fhirClient );
+                openBatches.put( fhirClient.getId(), openBatch );
+            }
+
+            openBatch.getItems().add( batchItem );
+
+            if ( openBatch.getItems().size() >= config.getMaxSize() )
+            {
+                openBatches.remove( fhirClient.getId() );
+                openBatches.notifyAll();
+            }
+
+            batch = openBatch;
+        }
+
+        if ( owner )
+        {
+            awaitClosed( batch );
+            process( batch );
+        }
+        else
+        {
+            Uninterruptibles.awaitUninterruptibly( batch.getProcessed() );
+        }
+
+        if ( batchItem.isFailed() )
+        {
+            throw batchItem.getException();
+        }
+    }
+
+    /**
+     * Processes all items of a batch. The outcome of every single item must
+     * be reported back to the item. An exception that is thrown by this method
+     * is reported to all items.
+     *
+     * @param fhirClient the FHIR client to which the items belong.
+     * @param items      the items of the batch.
+     */
+    protected abstract void processBatch( @Nonnull FhirClient fhirClient, @Nonnull List<I> items );
+
+    protected void awaitClosed( @Nonnull Batch<I> batch )
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( config.getMaxDelayMillis() );
+
+        synchronized ( openBatches )
+        {
+            long remainingNanos;
+
+            while ( (openBatches.get( batch.getFhirClient().getId() ) == batch) && ((remainingNanos = deadline - System.nanoTime()) > 0) )
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.timedWait( openBatches, remainingNanos );
+                }
+                catch ( InterruptedException e )
+                {
+                    // batch will be processed immediately
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            openBatches.remove( batch.getFhirClient().getId(), batch );
+        }
+    }
+
+    protected void process( @Nonnull Batch<I> batch )
+    {
+        try
+        {
+            processBatch( batch.getFhirClient(), batch.getItems() );
+        }
+        catch ( RuntimeException e )
+        {
+            batch.getItems().forEach( i -> i.failed( e ) );
+        }
+        finally
+        {
+            batch.getProcessed().countDown();
+        }
+    }
+
+    protected static class Batch<I>
+    {
+        private final FhirClient fhirClient;
+
+        private final List<I> items = new ArrayList<>();
+
+        private final CountDownLatch processed = new CountDownLatch( 1 );
+
+        public Batch( @Nonnull FhirClient fhirClient )
+        {
+            this.fhirClient = fhirClient;
+        }
+
+        @Nonnull
+        public FhirClient getFhirClient()
+        {
+            return fhirClient;
+        }
+
+        @Nonnull
+        public List<I> getItems()
+        {
+            return items;
+        }
+
+        @Nonnull
+        public CountDownLatch getProcessed()
+        {
+            return processed;
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.dhis2.fhir.adapter.fhir.model.FhirVersionRestricted;
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -61,6 +62,26 @@ public abstract class AbstractFhirResourceRepositorySupport implements FhirVersi
     @Nonnull
     protected abstract IBaseBundle createBundle( @Nonnull List<? extends IBaseResource> resources );
 
+    /**
+     * Creates a batch bundle that contains the specified resources. Resources
+     * that have already an ID are updated, all other resources are created.
+     *
+     * @param resources the resources that should be included in the batch bundle.
+     * @return the created batch bundle.
+     */
+    @Nonnull
+    protected abstract IBaseBundle createBatchBundle( @Nonnull List<? extends IBaseResource> resources );
+
+    /**
+     * Returns the responses of the entries of the specified batch response
+     * bundle in the order of the entries of the batch bundle.
+     *
+     * @param bundle the batch response bundle.
+     * @return the responses of the batch response bundle entries.
+     */
+    @Nonnull
+    protected abstract List<BatchEntryResponse> getBatchEntryResponses( @Nonnull IBaseBundle bundle );
+
     @Nonnull
     protected String createWebHookUrl( @Nonnull FhirClientResource fhirClientResource )
     {
@@ -75,4 +96,74 @@ public abstract class AbstractFhirResourceRepositorySupport implements FhirVersi
         url.append( fhirClientResource.getId() );
         return url.toString();
     }
+
+    /**
+     * FHIR version independent response of a single entry of a batch response bundle.
+     */
+    public static class BatchEntryResponse
+    {
+        private final int statusCode;
+
+        private final String status;
+
+        private final IIdType location;
+
+        private final IBaseResource resource;
+
+        public BatchEntryResponse( int statusCode, @Nullable String status, @Nullable IIdType location, @Nullable IBaseResource resource )
+        {
+            this.statusCode = statusCode;
+            this.status = status;
+            this.location = location;
+            this.resource = resource;
+        }
+
+        public static int parseStatusCode( @Nullable String status )
+        {
+            if ( status == null )
+            {
+                return 0;
+            }
+
+            final String trimmedStatus = status.trim();
+            final int index = trimmedStatus.indexOf( ' ' );
+
+            try
+            {
+                return Integer.parseInt( ( index < 0 ) ? trimmedStatus : trimmedStatus.substring( 0, index ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                return 0;
+            }
+        }
+
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        public boolean isSuccessful()
+        {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        @Nullable
+        public String getStatus()
+        {
+            return status;
+        }
+
+        @Nullable
+        public IIdType getLocation()
+        {
+            return location;
+        }
+
+        @Nullable
+        public IBaseResource getResource()
+        {
+            return resource;
+        }
+    }
 }
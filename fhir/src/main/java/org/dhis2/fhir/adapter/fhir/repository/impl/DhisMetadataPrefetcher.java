@@ -0,0 +1,226 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.cache.SimpleCacheType;
+import org.dhis2.fhir.adapter.dhis.config.DhisMetadataCacheConfig;
+import org.dhis2.fhir.adapter.dhis.model.Reference;
+import org.dhis2.fhir.adapter.dhis.tracker.program.ProgramMetadataService;
+import org.dhis2.fhir.adapter.dhis.tracker.program.ProgramStageMetadataService;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityMetadataService;
+import org.dhis2.fhir.adapter.fhir.metadata.model.MappedTrackedEntity;
+import org.dhis2.fhir.adapter.fhir.metadata.model.MappedTrackerProgram;
+import org.dhis2.fhir.adapter.fhir.metadata.model.MappedTrackerProgramStage;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackedEntityRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackerProgramRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackerProgramStageRepository;
+import org.dhis2.fhir.adapter.fhir.security.AdapterSystemAuthenticationToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.event.AfterCreateEvent;
+import org.springframework.data.rest.core.event.AfterSaveEvent;
+import org.springframework.data.rest.core.event.RepositoryEvent;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.ToIntFunction;
+
+/**
+ * Fetches the DHIS2 metadata that is referenced by enabled tracker program,
+ * tracker program stage and tracked entity mappings in bulk and stores it in
+ * the DHIS2 metadata cache. This is done at startup before any listener or
+ * scheduled processor has been started, and whenever one of these mappings
+ * has been created or changed.
+ *
+ * @author volsch
+ */
+@Component
+public class DhisMetadataPrefetcher implements SmartLifecycle
+{
+    /**
+     * JMS listener containers use the highest phase and are started after the prefetch.
+     */
+    public static final int PHASE = 0;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final DhisMetadataCacheConfig cacheConfig;
+
+    private final ProgramMetadataService programMetadataService;
+
+    private final ProgramStageMetadataService programStageMetadataService;
+
+    private final TrackedEntityMetadataService trackedEntityMetadataService;
+
+    private final MappedTrackerProgramRepository programRepository;
+
+    private final MappedTrackerProgramStageRepository programStageRepository;
+
+    private final MappedTrackedEntityRepository trackedEntityRepository;
+
+    private volatile boolean running;
+
+    public DhisMetadataPrefetcher( @Nonnull DhisMetadataCacheConfig cacheConfig,
+        @Nonnull ProgramMetadataService programMetadataService, @Nonnull ProgramStageMetadataService programStageMetadataService,
+        @Nonnull TrackedEntityMetadataService trackedEntityMetadataService, @Nonnull MappedTrackerProgramRepository programRepository,
+        @Nonnull MappedTrackerProgramStageRepository programStageRepository, @Nonnull MappedTrackedEntityRepository trackedEntityRepository )
+    {
+        this.cacheConfig = cacheConfig;
+        this.programMetadataService = programMetadataService;
+        this.programStageMetadataService = programStageMetadataService;
+        this.trackedEntityMetadataService = trackedEntityMetadataService;
+        this.programRepository = programRepository;
+        this.programStageRepository = programStageRepository;
+        this.trackedEntityRepository = trackedEntityRepository;
+    }
+
+    public boolean isEnabled()
+    {
+        return cacheConfig.isPrefetchEnabled() && (cacheConfig.getType() != SimpleCacheType.NONE);
+    }
+
+    /**
+     * Prefetches the DHIS2 metadata that is referenced by all enabled mappings.
+     */
+    public void prefetchAll()
+    {
+        final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.getContext().setAuthentication( new AdapterSystemAuthenticationToken() );
+        try
+        {
+            prefetch( "programs", programRepository.findAllEnabledProgramReferences(), programMetadataService::prefetchMetadataByReferences );
+            prefetch( "program stages", programStageRepository.findAllEnabledProgramStageReferences(), programStageMetadataService::prefetchMetadataByReferences );
+            prefetch( "tracked entity types", trackedEntityRepository.findAllEnabledTrackedEntityReferences(), trackedEntityMetadataService::prefetchTypesByReferences );
+        }
+        finally
+        {
+            SecurityContextHolder.getContext().setAuthentication( authentication );
+        }
+    }
+
+    @EventListener
+    public void onAfterCreate( @Nonnull AfterCreateEvent event )
+    {
+        onChange( event );
+    }
+
+    @EventListener
+    public void onAfterSave( @Nonnull AfterSaveEvent event )
+    {
+        onChange( event );
+    }
+
+    protected void onChange( @Nonnull RepositoryEvent event )
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+
+        final Object source = event.getSource();
+        if ( source instanceof MappedTrackerProgram )
+        {
+            prefetch( "programs", Collections.singleton( ( (MappedTrackerProgram) source ).getProgramReference() ), programMetadataService::prefetchMetadataByReferences );
+        }
+        else if ( source instanceof MappedTrackerProgramStage )
+        {
+            prefetch( "program stages", Collections.singleton( ( (MappedTrackerProgramStage) source ).getProgramStageReference() ), programStageMetadataService::prefetchMetadataByReferences );
+        }
+        else if ( source instanceof MappedTrackedEntity )
+        {
+            prefetch( "tracked entity types", Collections.singleton( ( (MappedTrackedEntity) source ).getTrackedEntityReference() ), trackedEntityMetadataService::prefetchTypesByReferences );
+        }
+    }
+
+    protected void prefetch( @Nonnull String name, @Nonnull Collection<Reference> references, @Nonnull ToIntFunction<Collection<Reference>> prefetcher )
+    {
+        if ( references.isEmpty() )
+        {
+            return;
+        }
+
+        try
+        {
+            final int count = prefetcher.applyAsInt( references );
+            logger.info( "Prefetched {} of {} referenced DHIS2 {}.", count, references.size(), name );
+        }
+        catch ( RuntimeException e )
+        {
+            // referenced metadata will be fetched when it is used
+            logger.warn( "Could not prefetch referenced DHIS2 " + name + ".", e );
+        }
+    }
+
+    @Override
+    public void start()
+    {
+        if ( isEnabled() )
+        {
+            prefetchAll();
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop( @Nonnull Runnable callback )
+    {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public int getPhase()
+    {
+        return PHASE;
+    }
+}
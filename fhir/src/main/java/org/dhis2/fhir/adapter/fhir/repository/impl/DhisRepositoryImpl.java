@@ -31,6 +31,7 @@ package org.dhis2.fhir.adapter.fhir.repository.impl;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.server.SimpleBundleProvider;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
 import org.dhis2.fhir.adapter.auth.Authorization;
 import org.dhis2.fhir.adapter.auth.AuthorizationContext;
@@ -74,6 +75,7 @@ import org.dhis2.fhir.adapter.lock.LockManager;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -91,6 +93,8 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /**
@@ -99,7 +103,7 @@ import java.util.stream.Collectors;
  * @author volsch
  */
 @Component
-public class DhisRepositoryImpl implements DhisRepository
+public class DhisRepositoryImpl implements DhisRepository, DisposableBean
 {
     private final Logger logger = LoggerFactory.getLogger( getClass() );
 
@@ -121,8 +125,12 @@ public class DhisRepositoryImpl implements DhisRepository
 
     private final FhirDhisAssignmentRepository fhirDhisAssignmentRepository;
 
+    private final FhirResourceExportBatchProcessor fhirResourceExportBatchProcessor;
+
     private final FhirRestInterfaceConfig fhirRestInterfaceConfig;
 
+    private final ExecutorService searchReadAheadExecutor;
+
     public DhisRepositoryImpl(
         @Nonnull AuthorizationContext authorizationContext,
         @Nonnull Authorization systemDhis2Authorization,
@@ -133,6 +141,7 @@ public class DhisRepositoryImpl implements DhisRepository
         @Nonnull DhisToFhirTransformerService dhisToFhirTransformerService,
         @Nonnull FhirResourceRepository fhirResourceRepository,
         @Nonnull FhirDhisAssignmentRepository fhirDhisAssignmentRepository,
+        @Nonnull FhirResourceExportBatchProcessor fhirResourceExportBatchProcessor,
         @Nonnull FhirRestInterfaceConfig fhirRestInterfaceConfig )
     {
         this.authorizationContext = authorizationContext;
@@ -144,7 +153,27 @@ public class DhisRepositoryImpl implements DhisRepository
         this.dhisToFhirTransformerService = dhisToFhirTransformerService;
         this.fhirResourceRepository = fhirResourceRepository;
         this.fhirDhisAssignmentRepository = fhirDhisAssignmentRepository;
+        this.fhirResourceExportBatchProcessor = fhirResourceExportBatchProcessor;
         this.fhirRestInterfaceConfig = fhirRestInterfaceConfig;
+
+        if ( fhirRestInterfaceConfig.isPagingEnabled() && (fhirRestInterfaceConfig.getSearchReadAheadThreads() > 0) )
+        {
+            searchReadAheadExecutor = Executors.newFixedThreadPool( fhirRestInterfaceConfig.getSearchReadAheadThreads(),
+                new ThreadFactoryBuilder().setNameFormat( "search-read-ahead-%d" ).setDaemon( true ).build() );
+        }
+        else
+        {
+            searchReadAheadExecutor = null;
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        if ( searchReadAheadExecutor != null )
+        {
+            searchReadAheadExecutor.shutdownNow();
+        }
     }
 
     @HystrixCommand( ignoreExceptions = { MissingDhisResourceException.class, TransformerDataException.class, TransformerMappingException.class, UnauthorizedException.class } )
@@ -288,6 +317,10 @@ public class DhisRepositoryImpl implements DhisRepository
                 logger.debug( "More than one matching DHIS resource type ({}) for FHIR resource {} and codes {}. " +
                     "Search is not supported in this case.", dhisResourceTypes, fhirResourceType, filteredCodes );
             }
+            else if ( !unlimitedCount && fhirRestInterfaceConfig.isPagingEnabled() )
+            {
+                return createSearchBundleProvider( fhirClient, filter, lastUpdatedDateRange, dhisResourceTypes.stream().findFirst().get(), rules, resultingCount );
+            }
             else
             {
                 result = search( fhirClient, fhirResourceType, filteredCodes, filter, lastUpdatedDateRange, dhisResourceTypes.stream().findFirst().get(), rules, resultingCount );
@@ -296,6 +329,25 @@ public class DhisRepositoryImpl implements DhisRepository
         return new SimpleBundleProvider( result ).setSize( (result.size() < resultingCount) ? result.size() : null );
     }
 
+    @Nonnull
+    protected IBundleProvider createSearchBundleProvider( @Nonnull FhirClient fhirClient, @Nullable Map<String, List<String>> filter, @Nullable DateRangeParam lastUpdatedDateRange,
+        @Nonnull DhisResourceType dhisResourceType, @Nonnull List<RuleInfo<? extends AbstractRule>> rules, int pageSize )
+    {
+        if ( pageSize == 0 )
+        {
+            return new SimpleBundleProvider( Collections.emptyList() ).setSize( 0 );
+        }
+
+        final DhisToFhirDataProvider<? extends AbstractRule> dataProvider = dhisToFhirTransformerService.getDataProvider( fhirClient.getFhirVersion(), dhisResourceType );
+        final PreparedDhisToFhirSearch preparedSearch = dataProvider.prepareSearchCasted( fhirClient.getFhirVersion(), rules, filter, lastUpdatedDateRange, pageSize );
+
+        final DhisToFhirSearchBundleProvider bundleProvider = new DhisToFhirSearchBundleProvider( fhirClient, rules, dataProvider, preparedSearch, pageSize,
+            dhisToFhirTransformerService, requestCacheService, authorizationContext, searchReadAheadExecutor );
+        bundleProvider.initialize();
+
+        return bundleProvider;
+    }
+
     @Nonnull
     protected List<IBaseResource> search( @Nonnull FhirClient fhirClient, @Nonnull FhirResourceType fhirResourceType, @Nullable Set<SystemCodeValue> filteredCodes, @Nullable Map<String, List<String>> filter, @Nullable DateRangeParam lastUpdatedDateRange,
         @Nonnull DhisResourceType dhisResourceType, @Nonnull List<RuleInfo<? extends AbstractRule>> rules, int count )
@@ -452,12 +504,21 @@ public class DhisRepositoryImpl implements DhisRepository
                         }
                         else
                         {
-                            final IBaseResource resultingResource = fhirResourceRepository
-                                .save( transformerRequest.getFhirClient(), outcome.getResource(), resource.getId() );
+                            final IBaseResource resultingResource;
+                            if ( fhirResourceExportBatchProcessor.isEnabled() )
+                            {
+                                // assignments of all FHIR resources of the batch are saved together with a single operation
+                                resultingResource = fhirResourceExportBatchProcessor.save( transformerRequest.getFhirClient(), outcome.getRule(),
+                                    outcome.getResource(), resource.getResourceId() );
+                            }
+                            else
+                            {
+                                resultingResource = fhirResourceRepository.save( transformerRequest.getFhirClient(), outcome.getResource(), resource.getId() );
+                                fhirDhisAssignmentRepository.saveFhirResourceId( outcome.getRule(), transformerRequest.getFhirClient(),
+                                    resource.getResourceId(), resultingResource.getIdElement() );
+                            }
                             // resource may have been set as attribute in transformer context (e.g. shared encounter)
                             outcome.getResource().setId( resultingResource.getIdElement() );
-                            fhirDhisAssignmentRepository.saveFhirResourceId( outcome.getRule(), transformerRequest.getFhirClient(),
-                                resource.getResourceId(), resultingResource.getIdElement() );
                             logger.info( "Saved FHIR resource {} for FHIR client {}.",
                                 resultingResource.getIdElement().toUnqualified(), transformerRequest.getFhirClient().getId() );
                         }
@@ -0,0 +1,357 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.model.primitive.InstantDt;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import org.dhis2.fhir.adapter.auth.Authorization;
+import org.dhis2.fhir.adapter.auth.AuthorizationContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.dhis.model.DhisResource;
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
+import org.dhis2.fhir.adapter.fhir.security.AdapterSystemAuthenticationToken;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirDataProvider;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirSearchResult;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirSearchState;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirTransformOutcome;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirTransformerRequest;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirTransformerService;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.PreparedDhisToFhirSearch;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.model.ImmutableDhisRequest;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.model.WritableDhisRequest;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Bundle provider that transforms the result of a search on DHIS2 lazily. Only the
+ * resources of the requested page, the previous page and the read-ahead of the next
+ * page are held in memory. Resources before the previous page have been discarded
+ * and cannot be requested anymore. The search on DHIS2 is continued by using the
+ * search state that has been returned by the last search. As soon as a client pages
+ * beyond the first page, the page after the requested page is fetched and transformed
+ * ahead in the background when a read-ahead executor is available. The read-ahead is
+ * performed with the authorization and the security context of the requesting client.
+ *
+ * @author volsch
+ */
+public class DhisToFhirSearchBundleProvider implements IBundleProvider
+{
+    private final String uuid = UUID.randomUUID().toString();
+
+    private final IPrimitiveType<Date> published = InstantDt.withCurrentTime();
+
+    private final FhirClient fhirClient;
+
+    private final List<RuleInfo<? extends AbstractRule>> rules;
+
+    private final DhisToFhirDataProvider<? extends AbstractRule> dataProvider;
+
+    private final PreparedDhisToFhirSearch preparedSearch;
+
+    private final int pageSize;
+
+    private final DhisToFhirTransformerService dhisToFhirTransformerService;
+
+    private final RequestCacheService requestCacheService;
+
+    private final AuthorizationContext authorizationContext;
+
+    private final Executor readAheadExecutor;
+
+    private final List<IBaseResource> resources = new ArrayList<>();
+
+    private final LinkedList<DhisResource> dhisResources = new LinkedList<>();
+
+    private int offset;
+
+    private DhisToFhirSearchState searchState;
+
+    private boolean dhisExhausted;
+
+    private DhisToFhirTransformerRequest transformerRequest;
+
+    private volatile CompletableFuture<Void> readAhead;
+
+    public DhisToFhirSearchBundleProvider( @Nonnull FhirClient fhirClient, @Nonnull List<RuleInfo<? extends AbstractRule>> rules,
+        @Nonnull DhisToFhirDataProvider<? extends AbstractRule> dataProvider, @Nonnull PreparedDhisToFhirSearch preparedSearch, int pageSize,
+        @Nonnull DhisToFhirTransformerService dhisToFhirTransformerService, @Nonnull RequestCacheService requestCacheService,
+        @Nonnull AuthorizationContext authorizationContext, @Nullable Executor readAheadExecutor )
+    {
+        this.fhirClient = fhirClient;
+        this.rules = rules;
+        this.dataProvider = dataProvider;
+        this.preparedSearch = preparedSearch;
+        this.pageSize = pageSize;
+        this.dhisToFhirTransformerService = dhisToFhirTransformerService;
+        this.requestCacheService = requestCacheService;
+        this.authorizationContext = authorizationContext;
+        this.readAheadExecutor = readAheadExecutor;
+    }
+
+    /**
+     * Transforms the resources of the first page and one additional resource. If the
+     * search result fits on the first page, the size of the search result is known
+     * afterwards. The current thread must have been prepared for the transformation.
+     */
+    public synchronized void initialize()
+    {
+        fill( pageSize + 1 );
+    }
+
+    @Override
+    public IPrimitiveType<Date> getPublished()
+    {
+        return published;
+    }
+
+    @Nonnull
+    @Override
+    public List<IBaseResource> getResources( int fromIndex, int toIndex )
+    {
+        awaitReadAhead();
+
+        final Authorization authorization = authorizationContext.getAuthorization();
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+        final List<IBaseResource> result;
+        synchronized ( this )
+        {
+            if ( fromIndex < offset )
+            {
+                throw new ResourceGoneException( "Search results before index " + offset + " are no longer available." );
+            }
+
+            executeInContext( () -> fill( toIndex ) );
+
+            final int endIndex = Math.min( toIndex, offset + resources.size() );
+            result = (fromIndex >= endIndex) ? Collections.emptyList() : new ArrayList<>( resources.subList( fromIndex - offset, endIndex - offset ) );
+
+            // the previous page is kept to support a link to the previous page
+            discard( fromIndex - (toIndex - fromIndex) );
+
+            if ( fromIndex > 0 )
+            {
+                // the client pages through the result and will most likely request the next page
+                readAhead( authorization, securityContext, toIndex + (toIndex - fromIndex) + 1 );
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public String getUuid()
+    {
+        return uuid;
+    }
+
+    @Override
+    public Integer preferredPageSize()
+    {
+        return pageSize;
+    }
+
+    @Nullable
+    @Override
+    public Integer size()
+    {
+        awaitReadAhead();
+
+        synchronized ( this )
+        {
+            return isComplete() ? (offset + resources.size()) : null;
+        }
+    }
+
+    protected boolean isComplete()
+    {
+        return dhisExhausted && dhisResources.isEmpty() && (transformerRequest == null);
+    }
+
+    protected void fill( int toIndex )
+    {
+        while ( (offset + resources.size() < toIndex) && !isComplete() )
+        {
+            if ( transformerRequest != null )
+            {
+                final DhisToFhirTransformOutcome<? extends IBaseResource> outcome = dhisToFhirTransformerService.transform( transformerRequest );
+
+                if ( outcome == null )
+                {
+                    transformerRequest = null;
+                }
+                else
+                {
+                    if ( outcome.getResource() != null )
+                    {
+                        resources.add( outcome.getResource() );
+                    }
+
+                    transformerRequest = outcome.getNextTransformerRequest();
+                }
+            }
+            else if ( !dhisResources.isEmpty() )
+            {
+                final DhisResource dhisResource = Objects.requireNonNull( dhisResources.poll() );
+                final WritableDhisRequest dhisRequest = new WritableDhisRequest( true, true, true );
+                dhisRequest.setResourceType( dhisResource.getResourceType() );
+                dhisRequest.setLastUpdated( dhisResource.getLastUpdated() );
+
+                transformerRequest = dhisToFhirTransformerService.createTransformerRequest( fhirClient, new ImmutableDhisRequest( dhisRequest ), dhisResource, rules );
+            }
+            else
+            {
+                // fetches the remaining resources of the page that is currently being filled
+                final DhisToFhirSearchResult<? extends DhisResource> searchResult =
+                    dataProvider.search( preparedSearch, searchState, pageSize - ((offset + resources.size()) % pageSize) );
+
+                if ( searchResult == null )
+                {
+                    dhisExhausted = true;
+                }
+                else
+                {
+                    searchState = searchResult.getState();
+                    dhisResources.addAll( searchResult.getResult() );
+                }
+            }
+        }
+    }
+
+    private void discard( int fromIndex )
+    {
+        final int count = Math.min( fromIndex - offset, resources.size() );
+
+        if ( count > 0 )
+        {
+            resources.subList( 0, count ).clear();
+            offset += count;
+        }
+    }
+
+    private void readAhead( @Nonnull Authorization authorization, @Nonnull SecurityContext securityContext, int toIndex )
+    {
+        if ( (readAheadExecutor == null) || isComplete() || (offset + resources.size() >= toIndex) )
+        {
+            return;
+        }
+
+        readAhead = CompletableFuture.runAsync( () -> {
+            final SecurityContext previousSecurityContext = SecurityContextHolder.getContext();
+
+            authorizationContext.setAuthorization( authorization );
+            SecurityContextHolder.setContext( securityContext );
+            try
+            {
+                synchronized ( this )
+                {
+                    executeInContext( () -> fill( toIndex ) );
+                }
+            }
+            finally
+            {
+                SecurityContextHolder.setContext( previousSecurityContext );
+                authorizationContext.resetAuthorization();
+            }
+        }, readAheadExecutor );
+    }
+
+    private void awaitReadAhead()
+    {
+        final CompletableFuture<Void> future = readAhead;
+
+        if ( future == null )
+        {
+            return;
+        }
+
+        try
+        {
+            future.join();
+        }
+        catch ( CompletionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            if ( e.getCause() instanceof Error )
+            {
+                throw (Error) e.getCause();
+            }
+
+            throw e;
+        }
+        finally
+        {
+            readAhead = null;
+        }
+    }
+
+    private void executeInContext( @Nonnull Runnable runnable )
+    {
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+
+        if ( securityContext.getAuthentication() == null )
+        {
+            // the security context may be shared with the client and must not be modified
+            final SecurityContext systemSecurityContext = SecurityContextHolder.createEmptyContext();
+            systemSecurityContext.setAuthentication( new AdapterSystemAuthenticationToken() );
+            SecurityContextHolder.setContext( systemSecurityContext );
+        }
+
+        try ( final RequestCacheContext requestCacheContext = requestCacheService.createRequestCacheContext( true ) )
+        {
+            runnable.run();
+        }
+        finally
+        {
+            SecurityContextHolder.setContext( securityContext );
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import java.io.Serializable;
+
+/**
+ * The configuration of the pooled HTTP connections that are used to access
+ * the remote FHIR endpoints of the FHIR clients. Each remote FHIR endpoint
+ * uses its own connection pool.
+ *
+ * @author volsch
+ */
+@Validated
+public class FhirClientConnectionConfig implements Serializable
+{
+    private static final long serialVersionUID = 3604473364911474418L;
+
+    @Min( 1 )
+    private int maxPooledConnections = 20;
+
+    @Min( 0 )
+    private int keepAliveMillis = 60_000;
+
+    public int getMaxPooledConnections()
+    {
+        return maxPooledConnections;
+    }
+
+    public void setMaxPooledConnections( int maxPooledConnections )
+    {
+        this.maxPooledConnections = maxPooledConnections;
+    }
+
+    public int getKeepAliveMillis()
+    {
+        return keepAliveMillis;
+    }
+
+    public void setKeepAliveMillis( int keepAliveMillis )
+    {
+        this.keepAliveMillis = keepAliveMillis;
+    }
+}
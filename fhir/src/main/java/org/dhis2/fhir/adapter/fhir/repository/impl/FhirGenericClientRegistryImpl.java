@@ -0,0 +1,312 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.client.apache.ApacheRestfulClientFactory;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ClientFhirEndpoint;
+import org.dhis2.fhir.adapter.fhir.repository.FhirClientUtils;
+import org.dhis2.fhir.adapter.fhir.repository.FhirGenericClientRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of {@link FhirGenericClientRegistry}. Each remote FHIR endpoint
+ * gets its own pool of HTTP connections. A generic client is replaced when the
+ * settings of its FHIR endpoint change. Replaced and evicted generic clients are
+ * retired. Their HTTP client and connections are closed as soon as there are no
+ * more running requests and the grace period for requests that have not yet been
+ * started has elapsed.
+ *
+ * @author volsch
+ */
+@Component
+public class FhirGenericClientRegistryImpl implements FhirGenericClientRegistry, DisposableBean
+{
+    public static final long RETIRED_CLIENT_GRACE_MILLIS = 60_000;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final RepositoryConfig repositoryConfig;
+
+    private final long retiredClientGraceMillis;
+
+    private final ConcurrentMap<UUID, RegisteredClient> clients = new ConcurrentHashMap<>();
+
+    private final Queue<RegisteredClient> retiredClients = new ConcurrentLinkedQueue<>();
+
+    @Autowired
+    public FhirGenericClientRegistryImpl( @Nonnull RepositoryConfig repositoryConfig )
+    {
+        this( repositoryConfig, RETIRED_CLIENT_GRACE_MILLIS );
+    }
+
+    FhirGenericClientRegistryImpl( @Nonnull RepositoryConfig repositoryConfig, long retiredClientGraceMillis )
+    {
+        this.repositoryConfig = repositoryConfig;
+        this.retiredClientGraceMillis = retiredClientGraceMillis;
+    }
+
+    @Nonnull
+    @Override
+    public IGenericClient getClient( @Nonnull FhirContext fhirContext, @Nonnull UUID fhirClientId, @Nonnull ClientFhirEndpoint fhirEndpoint )
+    {
+        final List<Object> settings = createSettings( fhirContext, fhirEndpoint );
+        final RegisteredClient registeredClient = clients.get( fhirClientId );
+        if ( (registeredClient != null) && registeredClient.getSettings().equals( settings ) )
+        {
+            return registeredClient.getClient();
+        }
+
+        final IGenericClient client = clients.compute( fhirClientId, ( id, existingClient ) -> {
+            if ( existingClient != null )
+            {
+                if ( existingClient.getSettings().equals( settings ) )
+                {
+                    return existingClient;
+                }
+                retire( existingClient );
+            }
+            logger.debug( "Creating generic client for FHIR client {} and endpoint {}.", fhirClientId, fhirEndpoint.getBaseUrl() );
+            return createClient( fhirContext, fhirEndpoint, settings );
+        } ).getClient();
+
+        closeRetiredClients();
+
+        return client;
+    }
+
+    @Override
+    public void evict( @Nonnull UUID fhirClientId )
+    {
+        final RegisteredClient registeredClient = clients.remove( fhirClientId );
+        if ( registeredClient != null )
+        {
+            logger.debug( "Evicted generic client for FHIR client {}.", fhirClientId );
+            retire( registeredClient );
+        }
+
+        closeRetiredClients();
+    }
+
+    /**
+     * Closes all retired clients that are no longer in use and whose grace period has elapsed.
+     */
+    @Scheduled( initialDelay = RETIRED_CLIENT_GRACE_MILLIS, fixedDelay = RETIRED_CLIENT_GRACE_MILLIS )
+    public void closeRetiredClients()
+    {
+        final long minRetiredNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos( retiredClientGraceMillis );
+        final Iterator<RegisteredClient> iterator = retiredClients.iterator();
+
+        while ( iterator.hasNext() )
+        {
+            final RegisteredClient registeredClient = iterator.next();
+
+            if ( registeredClient.getRetiredNanos() - minRetiredNanos <= 0 && !registeredClient.isInUse() )
+            {
+                iterator.remove();
+                registeredClient.close();
+            }
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        clients.values().forEach( this::retire );
+        clients.clear();
+
+        RegisteredClient registeredClient;
+
+        while ( ( registeredClient = retiredClients.poll() ) != null )
+        {
+            registeredClient.close();
+        }
+    }
+
+    protected void retire( @Nonnull RegisteredClient registeredClient )
+    {
+        registeredClient.retire();
+        retiredClients.add( registeredClient );
+    }
+
+    int getRetiredClientCount()
+    {
+        return retiredClients.size();
+    }
+
+    @Nonnull
+    protected RegisteredClient createClient( @Nonnull FhirContext fhirContext, @Nonnull ClientFhirEndpoint fhirEndpoint, @Nonnull List<Object> settings )
+    {
+        final FhirClientConnectionConfig connectionConfig = repositoryConfig.getFhirClientConnection();
+        final IRestfulClientFactory defaultClientFactory = fhirContext.getRestfulClientFactory();
+        final long keepAliveMillis = connectionConfig.getKeepAliveMillis();
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal( connectionConfig.getMaxPooledConnections() );
+        connectionManager.setDefaultMaxPerRoute( connectionConfig.getMaxPooledConnections() );
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout( defaultClientFactory.getConnectTimeout() )
+            .setSocketTimeout( defaultClientFactory.getSocketTimeout() )
+            .setConnectionRequestTimeout( defaultClientFactory.getConnectionRequestTimeout() ).build();
+
+        final CloseableHttpClient httpClient = HttpClients.custom().useSystemProperties()
+            .setConnectionManager( connectionManager )
+            .setDefaultRequestConfig( requestConfig )
+            .setKeepAliveStrategy( ( response, context ) -> {
+                final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration( response, context );
+                return ((duration < 0) || (duration > keepAliveMillis)) ? keepAliveMillis : duration;
+            } ).build();
+
+        final ApacheRestfulClientFactory clientFactory = new ApacheRestfulClientFactory( fhirContext );
+        clientFactory.setServerValidationMode( defaultClientFactory.getServerValidationMode() );
+        clientFactory.setHttpClient( httpClient );
+
+        return new RegisteredClient( settings, FhirClientUtils.createClient( clientFactory, fhirEndpoint ), httpClient, connectionManager );
+    }
+
+    @Nonnull
+    protected static List<Object> createSettings( @Nonnull FhirContext fhirContext, @Nonnull ClientFhirEndpoint fhirEndpoint )
+    {
+        final List<Object> headers = new ArrayList<>();
+        if ( fhirEndpoint.getHeaders() != null )
+        {
+            fhirEndpoint.getHeaders().forEach( h -> headers.add( new AbstractMap.SimpleImmutableEntry<>( h.getName(), h.getValue() ) ) );
+        }
+        return Arrays.asList( fhirContext.getVersion().getVersion(), fhirEndpoint.getBaseUrl(), fhirEndpoint.isLogging(),
+            fhirEndpoint.isVerboseLogging(), fhirEndpoint.isUseJsonFormat(), headers );
+    }
+
+    protected static class RegisteredClient
+    {
+        private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+        private final List<Object> settings;
+
+        private final IGenericClient client;
+
+        private final CloseableHttpClient httpClient;
+
+        private final PoolingHttpClientConnectionManager connectionManager;
+
+        private volatile long retiredNanos;
+
+        private volatile boolean closed;
+
+        public RegisteredClient( @Nonnull List<Object> settings, @Nonnull IGenericClient client, @Nonnull CloseableHttpClient httpClient,
+            @Nonnull PoolingHttpClientConnectionManager connectionManager )
+        {
+            this.settings = settings;
+            this.client = client;
+            this.httpClient = httpClient;
+            this.connectionManager = connectionManager;
+        }
+
+        @Nonnull
+        public List<Object> getSettings()
+        {
+            return settings;
+        }
+
+        @Nonnull
+        public IGenericClient getClient()
+        {
+            return client;
+        }
+
+        public long getRetiredNanos()
+        {
+            return retiredNanos;
+        }
+
+        public boolean isClosed()
+        {
+            return closed;
+        }
+
+        /**
+         * @return <code>true</code> if there are running requests or requests that wait for a connection.
+         */
+        public boolean isInUse()
+        {
+            final PoolStats stats = connectionManager.getTotalStats();
+
+            return stats.getLeased() > 0 || stats.getPending() > 0;
+        }
+
+        public void retire()
+        {
+            retiredNanos = System.nanoTime();
+            // idle connections are no longer needed
+            connectionManager.closeIdleConnections( 0, TimeUnit.MILLISECONDS );
+        }
+
+        public void close()
+        {
+            closed = true;
+
+            try
+            {
+                // closes also the connection manager and all its connections
+                httpClient.close();
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Could not close HTTP client of generic client: {}", e.getMessage() );
+            }
+        }
+    }
+}
@@ -38,12 +38,23 @@ import org.dhis2.fhir.adapter.cache.RequestCacheContext;
 import org.dhis2.fhir.adapter.cache.RequestCacheService;
 import org.dhis2.fhir.adapter.data.model.ProcessedItemInfo;
 import org.dhis2.fhir.adapter.dhis.DhisConflictException;
+import org.dhis2.fhir.adapter.dhis.DhisImportUnsuccessfulException;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryPersistStatus;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainer;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainerFactory;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryTemplate;
 import org.dhis2.fhir.adapter.dhis.model.DhisResource;
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceId;
 import org.dhis2.fhir.adapter.dhis.sync.DhisResourceRepository;
+import org.dhis2.fhir.adapter.dhis.tracker.program.Enrollment;
+import org.dhis2.fhir.adapter.dhis.tracker.program.Event;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityInstance;
 import org.dhis2.fhir.adapter.fhir.client.ProcessedFhirItemInfoUtils;
 import org.dhis2.fhir.adapter.fhir.client.StoredFhirResourceService;
+import org.dhis2.fhir.adapter.fhir.data.model.FhirDhisAssignment;
 import org.dhis2.fhir.adapter.fhir.data.repository.FhirDhisAssignmentRepository;
 import org.dhis2.fhir.adapter.fhir.data.repository.SubscriptionFhirResourceRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
 import org.dhis2.fhir.adapter.fhir.metadata.model.AuthenticationMethod;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
@@ -53,6 +64,7 @@ import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientResourceReposit
 import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientSystemRepository;
 import org.dhis2.fhir.adapter.fhir.repository.DhisFhirResourceId;
 import org.dhis2.fhir.adapter.fhir.repository.FhirRepository;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryBatchItem;
 import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryOperation;
 import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryOperationOutcome;
 import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepository;
@@ -65,14 +77,17 @@ import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformOutcome;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerRequest;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerService;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.TrackedEntityInstanceNotFoundException;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.trackedentity.FhirToTrackedEntityTransformer;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.model.FhirRequestMethod;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.model.ResourceSystem;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.model.WritableFhirRequest;
 import org.dhis2.fhir.adapter.lock.LockContext;
 import org.dhis2.fhir.adapter.lock.LockManager;
+import org.dhis2.fhir.adapter.lock.LockOrderException;
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IDomainResource;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -84,11 +99,19 @@ import javax.annotation.Nullable;
 import java.nio.charset.StandardCharsets;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -104,6 +127,9 @@ public class FhirRepositoryImpl implements FhirRepository
 
     public static final int MAX_CONFLICT_RETRIES = 2;
 
+    private static final Set<Class<? extends DhisResource>> SUPPORTED_REPOSITORY_CLASSES = Collections.unmodifiableSet(
+        new LinkedHashSet<>( Arrays.asList( TrackedEntityInstance.class, Enrollment.class, Event.class ) ) );
+
     private final AuthorizationContext authorizationContext;
 
     private final LockManager lockManager;
@@ -122,6 +148,8 @@ public class FhirRepositoryImpl implements FhirRepository
 
     private final FhirDhisAssignmentRepository fhirDhisAssignmentRepository;
 
+    private final LocalDhisResourceRepositoryContainerFactory repositoryContainerFactory;
+
     private final ZoneId zoneId = ZoneId.systemDefault();
 
     private final AtomicLong processedCount = new AtomicLong();
@@ -135,7 +163,8 @@ public class FhirRepositoryImpl implements FhirRepository
         @Nonnull FhirResourceRepository fhirResourceRepository,
         @Nonnull FhirToDhisTransformerService fhirToDhisTransformerService,
         @Nonnull DhisResourceRepository dhisResourceRepository,
-        @Nonnull FhirDhisAssignmentRepository fhirDhisAssignmentRepository )
+        @Nonnull FhirDhisAssignmentRepository fhirDhisAssignmentRepository,
+        @Nonnull LocalDhisResourceRepositoryContainerFactory repositoryContainerFactory )
     {
         this.authorizationContext = authorizationContext;
         this.lockManager = lockManager;
@@ -146,6 +175,7 @@ public class FhirRepositoryImpl implements FhirRepository
         this.fhirToDhisTransformerService = fhirToDhisTransformerService;
         this.dhisResourceRepository = dhisResourceRepository;
         this.fhirDhisAssignmentRepository = fhirDhisAssignmentRepository;
+        this.repositoryContainerFactory = repositoryContainerFactory;
     }
 
     @Override
@@ -170,6 +200,114 @@ public class FhirRepositoryImpl implements FhirRepository
         return saveInternally( fhirClientResource, resource, fhirRepositoryOperation, false );
     }
 
+    @Override
+    @HystrixCommand( ignoreExceptions = UnauthorizedException.class )
+    @Transactional( propagation = Propagation.NOT_SUPPORTED )
+    public void saveAll( @Nonnull FhirClient fhirClient, @Nonnull Collection<FhirRepositoryBatchItem> batchItems )
+    {
+        logger.info( "Processing batch of {} FHIR resources of FHIR client {}.", batchItems.size(), fhirClient.getId() );
+        authorizationContext.setAuthorization( createAuthorization( fhirClient ) );
+        try
+        {
+            final Set<FhirRepositoryBatchItem> separateBatchItems = new LinkedHashSet<>();
+
+            // the locks of all batch items must be held until the batch has been persisted
+            try ( final LockContext lockContext = lockManager.begin() )
+            {
+                // locks the FHIR resources of the batch with a single statement in their natural order (the transformation
+                // of a FHIR resource of a tracked entity instance uses the same key)
+                lockContext.lock( batchItems.stream().map( i -> FhirToTrackedEntityTransformer.createLockKey( i.getResource() ) ).collect( Collectors.toList() ) );
+
+                try ( final RequestCacheContext requestCacheContext = requestCacheService.createRequestCacheContext() )
+                {
+                    // collects persistence operations in order to apply them at the end in an optimized way
+                    final LocalDhisResourceRepositoryContainer repositoryContainer = repositoryContainerFactory.create( SUPPORTED_REPOSITORY_CLASSES );
+                    requestCacheContext.setAttribute( LocalDhisResourceRepositoryTemplate.CONTAINER_REQUEST_CACHE_ATTRIBUTE_NAME, repositoryContainer );
+                    // collects assignments in order to save them at the end with a single operation (subsequent items find them already)
+                    final List<FhirDhisAssignment> assignments = new ArrayList<>();
+                    final Map<FhirDhisAssignment, FhirRepositoryBatchItem> assignmentBatchItems = new IdentityHashMap<>();
+                    requestCacheContext.setAttribute( FhirDhisAssignmentRepository.PENDING_ASSIGNMENTS_REQUEST_CACHE_ATTRIBUTE_NAME, assignments );
+
+                    for ( final FhirRepositoryBatchItem batchItem : batchItems )
+                    {
+                        requestCacheContext.setAttribute( LocalDhisResourceRepositoryTemplate.RESOURCE_KEY_REQUEST_CACHE_ATTRIBUTE_NAME, batchItem );
+                        final int assignmentCount = assignments.size();
+
+                        try
+                        {
+                            saveRetriedWithoutTrackedEntityInstance( batchItem.getFhirClientResource(), batchItem.getResource() );
+                        }
+                        catch ( LockOrderException e )
+                        {
+                            // waiting for a lock (e.g. of the tracked entity instance of an observation) while holding the locks of the batch may cause a dead lock
+                            logger.info( "Lock required by FHIR resource {} is held by another lock context. Processing FHIR resource separately after batch: {}",
+                                batchItem.getResource().getIdElement().toUnqualifiedVersionless(), e.getMessage() );
+                            separateBatchItems.add( batchItem );
+                        }
+                        catch ( RuntimeException e )
+                        {
+                            batchItem.failed( e );
+                        }
+
+                        assignments.subList( assignmentCount, assignments.size() ).forEach( a -> assignmentBatchItems.put( a, batchItem ) );
+                    }
+
+                    requestCacheContext.removeAttribute( LocalDhisResourceRepositoryTemplate.RESOURCE_KEY_REQUEST_CACHE_ATTRIBUTE_NAME );
+                    repositoryContainer.apply( ( resource, resourceKey, result ) -> {
+                        if ( (result.getStatus() != LocalDhisRepositoryPersistStatus.SUCCESS) && (resourceKey instanceof FhirRepositoryBatchItem) )
+                        {
+                            final FhirRepositoryBatchItem batchItem = (FhirRepositoryBatchItem) resourceKey;
+
+                            if ( result.getStatus() == LocalDhisRepositoryPersistStatus.CONFLICT )
+                            {
+                                if ( !batchItem.isFailed() )
+                                {
+                                    separateBatchItems.add( batchItem );
+                                }
+                            }
+                            else
+                            {
+                                batchItem.failed( new DhisImportUnsuccessfulException(
+                                    "Persisting " + resource.getResourceType() + " " + resource.getId() + " in batch failed: " + result.getMessage() ) );
+                            }
+                        }
+                    } );
+
+                    requestCacheContext.removeAttribute( FhirDhisAssignmentRepository.PENDING_ASSIGNMENTS_REQUEST_CACHE_ATTRIBUTE_NAME );
+                    // assignments of failed items may refer to DHIS2 resources that have not been persisted
+                    fhirDhisAssignmentRepository.saveDhisResourceIds( fhirClient, assignments.stream()
+                        .filter( a -> !assignmentBatchItems.get( a ).isFailed() && !separateBatchItems.contains( assignmentBatchItems.get( a ) ) ).collect( Collectors.toList() ) );
+                }
+            }
+
+            // conflicts and items that required locks out of order are handled in the same way as if the items had not been processed
+            // in a batch (each item uses its own lock context after the locks of the batch have been released)
+            for ( final FhirRepositoryBatchItem batchItem : separateBatchItems )
+            {
+                if ( batchItem.isFailed() )
+                {
+                    continue;
+                }
+
+                logger.info( "Processing FHIR resource {} of batch separately.", batchItem.getResource().getIdElement().toUnqualifiedVersionless() );
+
+                try
+                {
+                    saveRetriedWithoutTrackedEntityInstance( batchItem.getFhirClientResource(), batchItem.getResource() );
+                }
+                catch ( RuntimeException e )
+                {
+                    batchItem.failed( e );
+                }
+            }
+        }
+        finally
+        {
+            authorizationContext.resetAuthorization();
+        }
+        logger.info( "Processed batch of {} FHIR resources of FHIR client {}.", batchItems.size(), fhirClient.getId() );
+    }
+
     @Override
     @HystrixCommand( ignoreExceptions = { DhisConflictException.class, TransformerDataException.class, TransformerMappingException.class, TrackedEntityInstanceNotFoundException.class, DhisDataExistsException.class, UnauthorizedException.class } )
     @Transactional( propagation = Propagation.NOT_SUPPORTED )
@@ -382,7 +520,8 @@ public class FhirRepositoryImpl implements FhirRepository
         do
         {
             FhirToDhisTransformOutcome<? extends DhisResource> outcome;
-            try ( final LockContext lockContext = lockManager.begin() )
+            // in batch mode the lock context of the batch is used (resources are persisted at the end of the batch)
+            try ( final LockContext lockContext = lockManager.getCurrentLockContext().isPresent() ? null : lockManager.begin() )
             {
                 try ( final RequestCacheContext requestCacheContext = requestCacheService.createRequestCacheContext( true ) )
                 {
@@ -400,9 +539,7 @@ public class FhirRepositoryImpl implements FhirRepository
 
                     if ( fhirRepositoryOperation == null )
                     {
-                        fhirDhisAssignmentRepository.saveDhisResourceId(
-                            outcome.getRule(), fhirClientResource.getFhirClient(),
-                            resource.getIdElement(), outcome.getResource().getResourceId() );
+                        saveDhisResourceId( outcome.getRule(), fhirClientResource.getFhirClient(), resource.getIdElement(), outcome.getResource().getResourceId() );
                     }
 
                     if ( operationOutcome == null )
@@ -426,6 +563,22 @@ public class FhirRepositoryImpl implements FhirRepository
         return operationOutcome;
     }
 
+    protected void saveDhisResourceId( @Nonnull AbstractRule rule, @Nonnull FhirClient fhirClient, @Nonnull IIdType fhirResourceId, @Nonnull DhisResourceId dhisResourceId )
+    {
+        final RequestCacheContext requestCacheContext = requestCacheService.getCurrentRequestCacheContext();
+        final List<FhirDhisAssignment> assignments = (requestCacheContext == null) ? null :
+            requestCacheContext.getAttribute( FhirDhisAssignmentRepository.PENDING_ASSIGNMENTS_REQUEST_CACHE_ATTRIBUTE_NAME, List.class );
+
+        if ( assignments == null )
+        {
+            fhirDhisAssignmentRepository.saveDhisResourceId( rule, fhirClient, fhirResourceId, dhisResourceId );
+        }
+        else
+        {
+            assignments.add( new FhirDhisAssignment( rule, fhirClient, fhirResourceId.getIdPart(), dhisResourceId.getId() ) );
+        }
+    }
+
     @Nonnull
     protected String createDhisFhirResourceId( @Nonnull FhirToDhisTransformOutcome<? extends DhisResource> outcome, @Nonnull DhisResource persistedDhisResource )
     {
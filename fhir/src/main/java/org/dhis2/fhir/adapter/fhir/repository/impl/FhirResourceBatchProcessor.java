@@ -0,0 +1,84 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepository;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryBatchItem;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Collects FHIR resources that are saved concurrently by the listeners of the
+ * FHIR resource queue into batches (one open batch for each FHIR client). The
+ * listener that opens a batch waits until the batch is full or the maximum delay
+ * has elapsed and processes the complete batch. All other listeners wait until
+ * the batch has been processed. Every listener receives the result of its own
+ * FHIR resource. Therefore acknowledging and retrying of the queued messages
+ * still takes place for each single message.
+ *
+ * @author volsch
+ */
+@Component
+@ConditionalOnProperty( name = "dhis2.fhir-adapter.import-enabled" )
+public class FhirResourceBatchProcessor extends AbstractFhirClientBatchProcessor<FhirRepositoryBatchItem>
+{
+    private final FhirRepository fhirRepository;
+
+    public FhirResourceBatchProcessor( @Nonnull FhirRepository fhirRepository, @Nonnull RepositoryConfig repositoryConfig )
+    {
+        super( repositoryConfig.getFhirResourceBatch() );
+        this.fhirRepository = fhirRepository;
+    }
+
+    /**
+     * Saves the specified FHIR resource together with other FHIR resources that
+     * are saved concurrently. The method returns when the batch that contains
+     * the FHIR resource has been processed.
+     *
+     * @param fhirClientResource the FHIR client resource to which the FHIR resource belongs.
+     * @param resource           the FHIR resource that should be saved.
+     * @throws RuntimeException the exception that occurred when processing the specified FHIR resource.
+     */
+    public void save( @Nonnull FhirClientResource fhirClientResource, @Nonnull IBaseResource resource )
+    {
+        process( fhirClientResource.getFhirClient(), new FhirRepositoryBatchItem( fhirClientResource, resource ) );
+    }
+
+    @Override
+    protected void processBatch( @Nonnull FhirClient fhirClient, @Nonnull List<FhirRepositoryBatchItem> items )
+    {
+        fhirRepository.saveAll( fhirClient, items );
+    }
+}
@@ -0,0 +1,132 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceId;
+import org.dhis2.fhir.adapter.fhir.data.model.FhirDhisAssignment;
+import org.dhis2.fhir.adapter.fhir.data.repository.FhirDhisAssignmentRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepository;
+import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepositoryBatchItem;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Collects FHIR resources that are exported concurrently by the listeners of the
+ * DHIS resource queue into batches (one open batch for each FHIR client). Every
+ * batch is saved on the FHIR endpoint of the FHIR client with a single FHIR batch
+ * bundle request. The assignments of the DHIS resources to the saved FHIR resources
+ * of the batch are saved afterwards with a single operation. Every listener receives
+ * the saved FHIR resource of its own FHIR resource. Therefore acknowledging and
+ * retrying of the queued messages still takes place for each single message.
+ *
+ * @author volsch
+ */
+@Component
+public class FhirResourceExportBatchProcessor extends AbstractFhirClientBatchProcessor<FhirResourceExportBatchProcessor.ExportBatchItem>
+{
+    private final FhirResourceRepository fhirResourceRepository;
+
+    private final FhirDhisAssignmentRepository fhirDhisAssignmentRepository;
+
+    public FhirResourceExportBatchProcessor( @Nonnull FhirResourceRepository fhirResourceRepository, @Nonnull FhirDhisAssignmentRepository fhirDhisAssignmentRepository,
+        @Nonnull RepositoryConfig repositoryConfig )
+    {
+        super( repositoryConfig.getFhirResourceExportBatch() );
+        this.fhirResourceRepository = fhirResourceRepository;
+        this.fhirDhisAssignmentRepository = fhirDhisAssignmentRepository;
+    }
+
+    /**
+     * Saves the specified FHIR resource together with other FHIR resources that
+     * are saved concurrently. The method returns when the batch that contains
+     * the FHIR resource and the assignment to the DHIS resource have been saved.
+     *
+     * @param fhirClient     the FHIR client on which the FHIR resource should be saved.
+     * @param rule           the rule that has been used to create the FHIR resource.
+     * @param resource       the FHIR resource that should be saved.
+     * @param dhisResourceId the ID of the DHIS resource from which the FHIR resource has been created.
+     * @return the saved FHIR resource.
+     * @throws RuntimeException the exception that occurred when saving the specified FHIR resource.
+     */
+    @Nonnull
+    public IBaseResource save( @Nonnull FhirClient fhirClient, @Nonnull AbstractRule rule, @Nonnull IBaseResource resource, @Nonnull DhisResourceId dhisResourceId )
+    {
+        final ExportBatchItem batchItem = new ExportBatchItem( rule, resource, dhisResourceId );
+        process( fhirClient, batchItem );
+
+        return (batchItem.getResult() == null) ? resource : batchItem.getResult();
+    }
+
+    @Override
+    protected void processBatch( @Nonnull FhirClient fhirClient, @Nonnull List<ExportBatchItem> items )
+    {
+        fhirResourceRepository.saveAll( fhirClient, new ArrayList<>( items ) );
+
+        fhirDhisAssignmentRepository.saveFhirResourceIds( fhirClient, items.stream().filter( i -> !i.isFailed() && (i.getResult() != null) )
+            .map( i -> new FhirDhisAssignment( i.getRule(), fhirClient, i.getResult().getIdElement().getIdPart(), i.getDhisResourceIdentifier().getId() ) )
+            .collect( Collectors.toList() ) );
+    }
+
+    /**
+     * A single FHIR resource of the batch together with the data that is required to
+     * assign the DHIS resource to the saved FHIR resource.
+     */
+    protected static class ExportBatchItem extends FhirResourceRepositoryBatchItem
+    {
+        private final AbstractRule rule;
+
+        private final DhisResourceId dhisResourceIdentifier;
+
+        public ExportBatchItem( @Nonnull AbstractRule rule, @Nonnull IBaseResource resource, @Nonnull DhisResourceId dhisResourceIdentifier )
+        {
+            super( resource, dhisResourceIdentifier.getId() );
+            this.rule = rule;
+            this.dhisResourceIdentifier = dhisResourceIdentifier;
+        }
+
+        @Nonnull
+        public AbstractRule getRule()
+        {
+            return rule;
+        }
+
+        @Nonnull
+        public DhisResourceId getDhisResourceIdentifier()
+        {
+            return dhisResourceIdentifier;
+        }
+    }
+}
@@ -96,6 +96,8 @@ public class FhirResourceQueueListener
 
     private final FhirRepository fhirRepository;
 
+    private final FhirResourceBatchProcessor batchProcessor;
+
     private final ZoneId zoneId = ZoneId.systemDefault();
 
     private final AtomicLong processedCount = new AtomicLong();
@@ -108,6 +110,7 @@ public class FhirResourceQueueListener
         @Nonnull StoredFhirResourceService storedItemService,
         @Nonnull FhirResourceRepository fhirResourceRepository,
         @Nonnull FhirRepository fhirRepository,
+        @Nonnull FhirResourceBatchProcessor batchProcessor,
         @Nonnull FhirToDhisTransformerService fhirToDhisTransformerService,
         @Nonnull DhisResourceRepository dhisResourceRepository,
         @Nonnull FhirDhisAssignmentRepository fhirDhisAssignmentRepository )
@@ -117,6 +120,7 @@ public class FhirResourceQueueListener
         this.storedItemService = storedItemService;
         this.fhirResourceRepository = fhirResourceRepository;
         this.fhirRepository = fhirRepository;
+        this.batchProcessor = batchProcessor;
     }
 
     @HystrixCommand( ignoreExceptions = RetryQueueDeliveryException.class )
@@ -179,7 +183,14 @@ public class FhirResourceQueueListener
                         resource.get().getIdElement().toUnqualified(), fhirClientResource.getId(), fhirResource.isPersistedDataItem(), currentProcessedCount );
                     try
                     {
-                        fhirRepository.save( fhirClientResource, resource.get(), null );
+                        if ( batchProcessor.isEnabled() )
+                        {
+                            batchProcessor.save( fhirClientResource, resource.get() );
+                        }
+                        else
+                        {
+                            fhirRepository.save( fhirClientResource, resource.get(), null );
+                        }
                     }
                     catch ( DhisConflictException e )
                     {
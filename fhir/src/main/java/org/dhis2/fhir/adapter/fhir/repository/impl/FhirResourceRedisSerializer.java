@@ -29,6 +29,11 @@ package org.dhis2.fhir.adapter.fhir.repository.impl;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.dhis2.fhir.adapter.cache.JsonRedisSerializerFactory;
 import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.springframework.beans.factory.ObjectProvider;
@@ -45,6 +50,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
@@ -53,21 +59,44 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
- * Serializer for HAPI FHIR Resources for caching them in Redis.
+ * Serializer for HAPI FHIR Resources for caching them in Redis. The resources are
+ * serialized as HAPI FHIR JSON. If a binary Jackson data format (e.g. Smile) is used,
+ * the JSON of the resource is transcoded to the binary data format.
  *
  * @author volsch
  */
 @Component
-public class FhirResourceRedisSerializer implements RedisSerializer<IBaseResource>
+public class FhirResourceRedisSerializer implements RedisSerializer<IBaseResource>, JsonRedisSerializerFactory<IBaseResource>
 {
     private static final byte[] EMPTY_ARRAY = new byte[0];
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().enable( JsonGenerator.Feature.WRITE_BIGDECIMAL_AS_PLAIN );
+
     private final Map<FhirVersion, FhirContext> fhirContexts;
 
+    private final JsonFactory binaryJsonFactory;
+
     public FhirResourceRedisSerializer( @Nonnull ObjectProvider<List<FhirContext>> fhirContexts )
     {
-        this.fhirContexts = fhirContexts.getIfAvailable( Collections::emptyList ).stream().filter( fc -> (FhirVersion.get( fc.getVersion().getVersion() ) != null) )
-            .collect( Collectors.toMap( fc -> FhirVersion.get( fc.getVersion().getVersion() ), fc -> fc ) );
+        this( fhirContexts.getIfAvailable( Collections::emptyList ).stream().filter( fc -> (FhirVersion.get( fc.getVersion().getVersion() ) != null) )
+            .collect( Collectors.toMap( fc -> FhirVersion.get( fc.getVersion().getVersion() ), fc -> fc ) ), null );
+    }
+
+    protected FhirResourceRedisSerializer( @Nonnull Map<FhirVersion, FhirContext> fhirContexts, @Nullable JsonFactory binaryJsonFactory )
+    {
+        this.fhirContexts = fhirContexts;
+        this.binaryJsonFactory = binaryJsonFactory;
+    }
+
+    @Nonnull
+    @Override
+    public RedisSerializer<IBaseResource> createRedisSerializer( @Nonnull JsonFactory jsonFactory )
+    {
+        if ( JsonFactory.FORMAT_NAME_JSON.equals( jsonFactory.getFormatName() ) )
+        {
+            return (binaryJsonFactory == null) ? this : new FhirResourceRedisSerializer( fhirContexts, null );
+        }
+        return new FhirResourceRedisSerializer( fhirContexts, jsonFactory );
     }
 
     @Override
@@ -94,10 +123,21 @@ public class FhirResourceRedisSerializer implements RedisSerializer<IBaseResourc
         {
             final DataOutputStream out = new DataOutputStream( bs );
             out.writeUTF( fhirVersion.name() );
-            final Writer w = new OutputStreamWriter( out, StandardCharsets.UTF_8 );
-            context.newJsonParser().encodeResourceToWriter( resource, w );
-            // flush internal buffers to byte array output stream
-            w.close();
+            if ( binaryJsonFactory == null )
+            {
+                final Writer w = new OutputStreamWriter( out, StandardCharsets.UTF_8 );
+                context.newJsonParser().encodeResourceToWriter( resource, w );
+                // flush internal buffers to byte array output stream
+                w.close();
+            }
+            else
+            {
+                try ( final JsonParser parser = JSON_FACTORY.createParser( context.newJsonParser().encodeResourceToString( resource ) );
+                      final JsonGenerator generator = binaryJsonFactory.createGenerator( out ) )
+                {
+                    transcode( parser, generator );
+                }
+            }
             out.close();
             bs.close();
         }
@@ -137,11 +177,47 @@ public class FhirResourceRedisSerializer implements RedisSerializer<IBaseResourc
                 throw new SerializationException( "Could not deserialize FHIR resource since FHIR context is not available for FHIR version " + fhirVersion + "." );
             }
 
-            return context.newJsonParser().parseResource( new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+            if ( binaryJsonFactory == null )
+            {
+                return context.newJsonParser().parseResource( new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+            }
+
+            final StringWriter w = new StringWriter( bytes.length * 2 );
+            try ( final JsonParser parser = binaryJsonFactory.createParser( in );
+                  final JsonGenerator generator = JSON_FACTORY.createGenerator( w ) )
+            {
+                transcode( parser, generator );
+            }
+            return context.newJsonParser().parseResource( w.toString() );
         }
         catch ( IOException e )
         {
             throw new SerializationException( "Could not deserialize FHIR resource.", e );
         }
     }
+
+    /**
+     * Copies all tokens from the specified parser to the specified generator.
+     * Decimal values are copied with their exact value and precision since the
+     * precision of FHIR decimal values is significant.
+     *
+     * @param parser    the parser from which the tokens are read.
+     * @param generator the generator to which the tokens are written.
+     * @throws IOException thrown if the tokens could not be read or written.
+     */
+    protected static void transcode( @Nonnull JsonParser parser, @Nonnull JsonGenerator generator ) throws IOException
+    {
+        JsonToken token;
+        while ( (token = parser.nextToken()) != null )
+        {
+            if ( token == JsonToken.VALUE_NUMBER_FLOAT )
+            {
+                generator.writeNumber( parser.getDecimalValue() );
+            }
+            else
+            {
+                generator.copyCurrentEvent( parser );
+            }
+        }
+    }
 }
@@ -51,8 +51,10 @@ import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientResourceReposit
 import org.dhis2.fhir.adapter.fhir.metadata.repository.event.AutoCreatedFhirClientResourceEvent;
 import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
 import org.dhis2.fhir.adapter.fhir.model.SystemCodeValue;
-import org.dhis2.fhir.adapter.fhir.repository.FhirClientUtils;
+import org.dhis2.fhir.adapter.fhir.repository.FhirGenericClientRegistry;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryException;
 import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepository;
+import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepositoryBatchItem;
 import org.dhis2.fhir.adapter.fhir.repository.FhirResourceTransformationException;
 import org.dhis2.fhir.adapter.fhir.repository.OptimisticFhirResourceLockException;
 import org.dhis2.fhir.adapter.fhir.script.ScriptExecutionException;
@@ -61,9 +63,13 @@ import org.dhis2.fhir.adapter.rest.RestBadRequestException;
 import org.dhis2.fhir.adapter.util.NameUtils;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
@@ -75,6 +81,7 @@ import org.springframework.transaction.event.TransactionalEventListener;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -100,16 +107,23 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
 
     private final FhirClientResourceRepository fhirClientResourceRepository;
 
+    private final FhirGenericClientRegistry fhirGenericClientRegistry;
+
     private final Map<FhirVersion, FhirContext> fhirContexts;
 
+    private final CacheManager fhirCacheManager;
+
     private final Map<FhirVersion, AbstractFhirResourceRepositorySupport> supports = new HashMap<>();
 
     public FhirResourceRepositoryImpl( @Nonnull ScriptExecutor scriptExecutor, @Nonnull StoredFhirResourceService storedItemService, @Nonnull FhirClientResourceRepository fhirClientResourceRepository,
+        @Nonnull FhirGenericClientRegistry fhirGenericClientRegistry, @Nonnull @Qualifier( "fhirCacheManager" ) CacheManager fhirCacheManager,
         @Nonnull ObjectProvider<List<FhirContext>> fhirContexts, @Nonnull ObjectProvider<List<AbstractFhirResourceRepositorySupport>> supports )
     {
         this.scriptExecutor = scriptExecutor;
         this.storedItemService = storedItemService;
         this.fhirClientResourceRepository = fhirClientResourceRepository;
+        this.fhirGenericClientRegistry = fhirGenericClientRegistry;
+        this.fhirCacheManager = fhirCacheManager;
         this.fhirContexts = fhirContexts.getIfAvailable( Collections::emptyList ).stream().filter( fc -> (FhirVersion.get( fc.getVersion().getVersion() ) != null) )
             .collect( Collectors.toMap( fc -> FhirVersion.get( fc.getVersion().getVersion() ), fc -> fc ) );
         supports.getIfAvailable( Collections::emptyList ).forEach( s -> s.getFhirVersions().forEach( v -> FhirResourceRepositoryImpl.this.supports.put( v, s ) ) );
@@ -123,7 +137,7 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
     }
 
     @HystrixCommand( ignoreExceptions = FhirResourceTransformationException.class )
-    @CachePut( key = "{#fhirClientId, #fhirVersion, #resourceType, #resourceId, #transform}", unless = "#result==null" )
+    @CachePut( key = "T(org.dhis2.fhir.adapter.fhir.repository.impl.FhirResourceRepositoryImpl).createResourceCacheKey(#fhirClientId, #fhirVersion, #resourceType, #resourceId, #transform)", unless = "#result==null" )
     @Nonnull
     @Override
     public Optional<IBaseResource> findRefreshed( @Nonnull UUID fhirClientId, @Nonnull FhirVersion fhirVersion, @Nonnull ClientFhirEndpoint fhirEndpoint, @Nonnull String resourceType, @Nonnull String resourceId, boolean transform )
@@ -135,7 +149,7 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
         }
 
         final FhirContext fhirContext = fhirContexts.get( fhirVersion );
-        final IGenericClient client = FhirClientUtils.createClient( fhirContext, fhirEndpoint );
+        final IGenericClient client = fhirGenericClientRegistry.getClient( fhirContext, fhirClientId, fhirEndpoint );
 
         logger.debug( "Reading {}/{} from FHIR endpoints {}.", resourceType, resourceId, fhirEndpoint.getBaseUrl() );
         IBaseResource resource;
@@ -152,7 +166,7 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
     }
 
     @HystrixCommand( ignoreExceptions = FhirResourceTransformationException.class )
-    @CachePut( key = "{#fhirClientId, #fhirVersion, #resourceType, #resourceId, true}", unless = "#result==null" )
+    @CachePut( key = "T(org.dhis2.fhir.adapter.fhir.repository.impl.FhirResourceRepositoryImpl).createResourceCacheKey(#fhirClientId, #fhirVersion, #resourceType, #resourceId, true)", unless = "#result==null" )
     @Nonnull
     @Override
     public Optional<IBaseResource> findRefreshed( @Nonnull UUID fhirClientId, @Nonnull FhirVersion fhirVersion, @Nonnull ClientFhirEndpoint fhirEndpoint, @Nonnull String resourceType, @Nonnull String resourceId )
@@ -161,7 +175,7 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
     }
 
     @HystrixCommand( ignoreExceptions = FhirResourceTransformationException.class )
-    @Cacheable( key = "{#fhirClientId, #fhirVersion, #resourceType, #resourceId, true}", unless = "#result==null" )
+    @Cacheable( key = "T(org.dhis2.fhir.adapter.fhir.repository.impl.FhirResourceRepositoryImpl).createResourceCacheKey(#fhirClientId, #fhirVersion, #resourceType, #resourceId, true)", unless = "#result==null" )
     @Nonnull
     @Override
     public Optional<IBaseResource> find( @Nonnull UUID fhirClientId, @Nonnull FhirVersion fhirVersion, @Nonnull ClientFhirEndpoint fhirEndpoint, @Nonnull String resourceType, @Nonnull String resourceId )
@@ -240,8 +254,7 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
     }
 
     @HystrixCommand
-    @CacheEvict( key = "{#fhirClient.id, #fhirClient.fhirVersion, " +
-        "T(org.dhis2.fhir.adapter.fhir.metadata.model.FhirResourceType).getByResource(#resource).getResourceTypeName(), #resource.getIdElement().getIdPart(), true}" )
+    @CacheEvict( key = "T(org.dhis2.fhir.adapter.fhir.repository.impl.FhirResourceRepositoryImpl).createResourceCacheKey(#fhirClient, #resource)" )
     @Override
     public boolean delete( @Nonnull FhirClient fhirClient, @Nonnull IBaseResource resource )
     {
@@ -252,7 +265,7 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
         }
 
         final FhirContext fhirContext = fhirContexts.get( fhirClient.getFhirVersion() );
-        final IGenericClient client = FhirClientUtils.createClient( fhirContext, fhirClient.getFhirEndpoint() );
+        final IGenericClient client = fhirGenericClientRegistry.getClient( fhirContext, fhirClient.getId(), fhirClient.getFhirEndpoint() );
 
         try
         {
@@ -272,8 +285,7 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
     }
 
     @HystrixCommand
-    @CacheEvict( key = "{#fhirClient.id, #fhirClient.fhirVersion, " +
-        "T(org.dhis2.fhir.adapter.fhir.metadata.model.FhirResourceType).getByResource(#resource).getResourceTypeName(), #resource.getIdElement().getIdPart(), true}" )
+    @CacheEvict( key = "T(org.dhis2.fhir.adapter.fhir.repository.impl.FhirResourceRepositoryImpl).createResourceCacheKey(#fhirClient, #resource)" )
     @Nonnull
     @Override
     public IBaseResource save( @Nonnull FhirClient fhirClient, @Nonnull IBaseResource resource, @Nullable String dhisResourceId )
@@ -285,7 +297,7 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
         }
 
         final FhirContext fhirContext = fhirContexts.get( fhirClient.getFhirVersion() );
-        final IGenericClient client = FhirClientUtils.createClient( fhirContext, fhirClient.getFhirEndpoint() );
+        final IGenericClient client = fhirGenericClientRegistry.getClient( fhirContext, fhirClient.getId(), fhirClient.getFhirEndpoint() );
 
         final IBaseResource preparedResource = prepareResource( resource, dhisResourceId );
         final MethodOutcome methodOutcome;
@@ -307,22 +319,88 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
             methodOutcome = client.create().resource( preparedResource ).prefer( PreferReturnEnum.REPRESENTATION ).execute();
         }
 
+        return stored( fhirClient, preparedResource, methodOutcome.getResource(), methodOutcome.getId() );
+    }
+
+    @HystrixCommand
+    @Override
+    public void saveAll( @Nonnull FhirClient fhirClient, @Nonnull List<FhirResourceRepositoryBatchItem> items )
+    {
+        if ( !fhirClient.getFhirEndpoint().isUseRemote() )
+        {
+            logger.debug( "Remote for FHIR client {} should not be used. Saving of resources will not be performed.", fhirClient.getId() );
+            items.forEach( i -> i.setResult( i.getResource() ) );
+            return;
+        }
+
+        final FhirContext fhirContext = fhirContexts.get( fhirClient.getFhirVersion() );
+        final IGenericClient client = fhirGenericClientRegistry.getClient( fhirContext, fhirClient.getId(), fhirClient.getFhirEndpoint() );
+        final AbstractFhirResourceRepositorySupport support = supports.get( fhirClient.getFhirVersion() );
+
+        final List<IBaseResource> preparedResources = items.stream().map( i -> prepareResource( i.getResource(), i.getDhisResourceId() ) ).collect( Collectors.toList() );
+        final IBaseBundle responseBundle;
+
+        logger.debug( "Saving {} resources on FHIR endpoints {} with a single batch request.", items.size(), fhirClient.getFhirEndpoint().getBaseUrl() );
+        try
+        {
+            responseBundle = client.transaction().withBundle( support.createBatchBundle( preparedResources ) ).execute();
+        }
+        finally
+        {
+            preparedResources.forEach( r -> evict( fhirClient, r ) );
+        }
+
+        final List<AbstractFhirResourceRepositorySupport.BatchEntryResponse> responses = support.getBatchEntryResponses( responseBundle );
+
+        if ( responses.size() != items.size() )
+        {
+            throw new FhirRepositoryException( "FHIR client " + fhirClient.getId() + " returned " + responses.size() +
+                " batch response entries for " + items.size() + " batch request entries." );
+        }
+
+        for ( int i = 0; i < items.size(); i++ )
+        {
+            final FhirResourceRepositoryBatchItem item = items.get( i );
+            final IBaseResource preparedResource = preparedResources.get( i );
+            final AbstractFhirResourceRepositorySupport.BatchEntryResponse response = responses.get( i );
+
+            if ( response.isSuccessful() )
+            {
+                final IIdType id = ((response.getLocation() == null) && (response.getResource() != null)) ? response.getResource().getIdElement() : response.getLocation();
+                item.setResult( stored( fhirClient, preparedResource, response.getResource(), id ) );
+            }
+            else if ( response.getStatusCode() == 412 )
+            {
+                item.failed( new OptimisticFhirResourceLockException( "Could not update FHIR resource " +
+                    preparedResource.getIdElement() + " because of an optimistic locking failure." ) );
+            }
+            else
+            {
+                item.failed( new FhirRepositoryException( "Could not save FHIR resource " + preparedResource.getIdElement() +
+                    " on FHIR client " + fhirClient.getId() + " (status " + response.getStatus() + ")." ) );
+            }
+        }
+    }
+
+    @Nonnull
+    protected IBaseResource stored( @Nonnull FhirClient fhirClient, @Nonnull IBaseResource preparedResource, @Nullable IBaseResource savedResource, @Nullable IIdType id )
+    {
         ProcessedItemInfo processedItemInfo = null;
 
-        if ( (methodOutcome.getResource() != null) && (methodOutcome.getResource().getMeta() != null) )
+        if ( (savedResource != null) && (savedResource.getMeta() != null) )
         {
             // resource itself may contain old version ID (even if it should not)
-            processedItemInfo = ProcessedFhirItemInfoUtils.create( methodOutcome.getResource(), methodOutcome.getId().getVersionIdPart() );
+            processedItemInfo = ProcessedFhirItemInfoUtils.create( savedResource, (id == null) ? null : id.getVersionIdPart() );
         }
-        else if ( (methodOutcome.getId() != null) && methodOutcome.getId().hasVersionIdPart() )
+        else if ( (id != null) && id.hasVersionIdPart() )
         {
-            processedItemInfo = ProcessedFhirItemInfoUtils.create( preparedResource, methodOutcome.getId() );
+            processedItemInfo = ProcessedFhirItemInfoUtils.create( preparedResource, id );
         }
 
         if ( processedItemInfo == null )
         {
             logger.info( "FHIR client {} does neither return complete resource with update timestamp nor a version. " +
-                "Duplicate detection for resource {} will not work.", fhirClient.getId(), methodOutcome.getId() );
+                "Duplicate detection for resource {} will not work.", fhirClient.getId(), id );
         }
         else
         {
@@ -331,23 +409,66 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
 
         final IBaseResource result;
 
-        if ( methodOutcome.getResource() == null )
+        if ( savedResource == null )
         {
-            result = resource;
+            result = preparedResource;
 
-            if ( methodOutcome.getId() != null )
+            if ( id != null )
             {
-                result.setId( methodOutcome.getId() );
+                result.setId( id );
             }
         }
         else
         {
-            result = methodOutcome.getResource();
+            result = savedResource;
         }
 
         return result;
     }
 
+    protected void evict( @Nonnull FhirClient fhirClient, @Nonnull IBaseResource resource )
+    {
+        final Cache cache = fhirCacheManager.getCache( "fhirResources" );
+
+        if ( cache != null )
+        {
+            cache.evict( createResourceCacheKey( fhirClient, resource ) );
+        }
+    }
+
+    /**
+     * Creates the key of a cached resource. The key is used by the cache annotations of
+     * this repository and when cached resources are evicted programmatically.
+     *
+     * @param fhirClientId the ID of the FHIR client from which the resource has been read.
+     * @param fhirVersion  the FHIR version of the resource.
+     * @param resourceType the resource type name of the resource.
+     * @param resourceId   the ID of the resource.
+     * @param transform    <code>true</code> if the resource has been transformed.
+     * @return the key of the cached resource.
+     */
+    @Nonnull
+    public static List<Object> createResourceCacheKey( @Nonnull UUID fhirClientId, @Nonnull FhirVersion fhirVersion, @Nullable String resourceType, @Nullable String resourceId, boolean transform )
+    {
+        return Arrays.asList( fhirClientId, fhirVersion, resourceType, resourceId, transform );
+    }
+
+    /**
+     * Creates the key of the cached transformed resource that is saved to or deleted from the specified FHIR client.
+     *
+     * @param fhirClient the FHIR client to which the resource is saved.
+     * @param resource   the resource that is saved.
+     * @return the key of the cached resource.
+     */
+    @Nonnull
+    public static List<Object> createResourceCacheKey( @Nonnull FhirClient fhirClient, @Nonnull IBaseResource resource )
+    {
+        final FhirResourceType fhirResourceType = FhirResourceType.getByResource( resource );
+
+        return createResourceCacheKey( fhirClient.getId(), fhirClient.getFhirVersion(),
+            ( fhirResourceType == null ) ? null : fhirResourceType.getResourceTypeName(), resource.getIdElement().getIdPart(), true );
+    }
+
     @Nonnull
     protected <T extends IBaseResource> T prepareResource( @Nonnull T resource, @Nullable String dhisResourceId )
     {
@@ -371,7 +492,8 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
     {
         final FhirVersion fhirVersion = event.getFhirClientResource().getFhirClient().getFhirVersion();
         final FhirContext fhirContext = fhirContexts.get( fhirVersion );
-        final IGenericClient client = FhirClientUtils.createClient( fhirContext, event.getFhirClientResource().getFhirClient().getFhirEndpoint() );
+        final IGenericClient client = fhirGenericClientRegistry.getClient( fhirContext, event.getFhirClientResource().getFhirClient().getId(),
+            event.getFhirClientResource().getFhirClient().getFhirEndpoint() );
 
         final AbstractFhirResourceRepositorySupport support = supports.get( fhirVersion );
         final MethodOutcome methodOutcome;
@@ -399,7 +521,7 @@ public class FhirResourceRepositoryImpl implements FhirResourceRepository
         }
 
         final FhirContext fhirContext = fhirContexts.get( fhirVersion );
-        final IGenericClient client = FhirClientUtils.createClient( fhirContext, fhirEndpoint );
+        final IGenericClient client = fhirGenericClientRegistry.getClient( fhirContext, fhirClientId, fhirEndpoint );
         final AbstractFhirResourceRepositorySupport support = supports.get( fhirVersion );
 
         logger.debug( "Reading {}?{}={} from FHIR endpoints {}.", resourceType, identifier, field, fhirEndpoint.getBaseUrl() );
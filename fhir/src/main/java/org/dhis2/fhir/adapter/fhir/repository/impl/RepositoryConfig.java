@@ -63,6 +63,21 @@ public class RepositoryConfig implements Serializable
     @Valid
     private QueueConfig fhirResourceDlQueue = new QueueConfig();
 
+    @NotNull
+    @NestedConfigurationProperty
+    @Valid
+    private FhirResourceBatchConfig fhirResourceBatch = new FhirResourceBatchConfig();
+
+    @NotNull
+    @NestedConfigurationProperty
+    @Valid
+    private FhirResourceBatchConfig fhirResourceExportBatch = new FhirResourceBatchConfig();
+
+    @NotNull
+    @NestedConfigurationProperty
+    @Valid
+    private FhirClientConnectionConfig fhirClientConnection = new FhirClientConnectionConfig();
+
     public QueueConfig getFhirResourceQueue()
     {
         return fhirResourceQueue;
@@ -82,4 +97,34 @@ public class RepositoryConfig implements Serializable
     {
         this.fhirResourceDlQueue = fhirResourceDlQueue;
     }
+
+    public FhirResourceBatchConfig getFhirResourceBatch()
+    {
+        return fhirResourceBatch;
+    }
+
+    public void setFhirResourceBatch( @Nonnull FhirResourceBatchConfig fhirResourceBatch )
+    {
+        this.fhirResourceBatch = fhirResourceBatch;
+    }
+
+    public FhirResourceBatchConfig getFhirResourceExportBatch()
+    {
+        return fhirResourceExportBatch;
+    }
+
+    public void setFhirResourceExportBatch( @Nonnull FhirResourceBatchConfig fhirResourceExportBatch )
+    {
+        this.fhirResourceExportBatch = fhirResourceExportBatch;
+    }
+
+    public FhirClientConnectionConfig getFhirClientConnection()
+    {
+        return fhirClientConnection;
+    }
+
+    public void setFhirClientConnection( @Nonnull FhirClientConnectionConfig fhirClientConnection )
+    {
+        this.fhirClientConnection = fhirClientConnection;
+    }
 }
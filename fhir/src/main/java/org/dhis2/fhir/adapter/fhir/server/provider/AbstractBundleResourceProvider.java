@@ -37,8 +37,8 @@ import org.dhis2.fhir.adapter.cache.RequestCacheContext;
 import org.dhis2.fhir.adapter.cache.RequestCacheService;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryPersistStatus;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainer;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainerFactory;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryTemplate;
-import org.dhis2.fhir.adapter.dhis.local.impl.LocalDhisResourceRepositoryContainerImpl;
 import org.dhis2.fhir.adapter.dhis.model.DhisResource;
 import org.dhis2.fhir.adapter.dhis.tracker.program.Enrollment;
 import org.dhis2.fhir.adapter.dhis.tracker.program.Event;
@@ -93,6 +93,8 @@ public abstract class AbstractBundleResourceProvider<T extends IBaseBundle> exte
 
     private final RequestCacheService requestCacheService;
 
+    private final LocalDhisResourceRepositoryContainerFactory repositoryContainerFactory;
+
     private static final Set<Class<? extends DhisResource>> SUPPORTED_REPOSITORY_CLASSES = Collections.unmodifiableSet(
         new LinkedHashSet<>( Arrays.asList( TrackedEntityInstance.class, Enrollment.class, Event.class ) ) );
 
@@ -100,11 +102,12 @@ public abstract class AbstractBundleResourceProvider<T extends IBaseBundle> exte
         @Nonnull FhirClientResourceRepository fhirClientResourceRepository,
         @Nonnull FhirClientSystemRepository fhirClientSystemRepository,
         @Nonnull FhirRepository fhirRepository, @Nonnull DhisRepository dhisRepository,
-        @Nonnull RequestCacheService requestCacheService )
+        @Nonnull RequestCacheService requestCacheService, @Nonnull LocalDhisResourceRepositoryContainerFactory repositoryContainerFactory )
     {
         super( fhirClientResourceRepository, fhirClientSystemRepository, fhirRepository, dhisRepository );
 
         this.requestCacheService = requestCacheService;
+        this.repositoryContainerFactory = repositoryContainerFactory;
     }
 
     @Nonnull
@@ -138,7 +141,7 @@ public abstract class AbstractBundleResourceProvider<T extends IBaseBundle> exte
             try ( final RequestCacheContext requestCacheContext = requestCacheService.createRequestCacheContext() )
             {
                 // collects persistence operations in order to apply them at the end in an optimized way
-                final LocalDhisResourceRepositoryContainer repositoryContainer = new LocalDhisResourceRepositoryContainerImpl( SUPPORTED_REPOSITORY_CLASSES );
+                final LocalDhisResourceRepositoryContainer repositoryContainer = repositoryContainerFactory.create( SUPPORTED_REPOSITORY_CLASSES );
                 requestCacheContext.setAttribute( LocalDhisResourceRepositoryTemplate.CONTAINER_REQUEST_CACHE_ATTRIBUTE_NAME, repositoryContainer );
 
                 processDeletes( requestCacheContext, batchRequest );
@@ -0,0 +1,153 @@
+package org.dhis2.fhir.adapter.fhir.server.provider;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.IPagingProvider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+import org.dhis2.fhir.adapter.auth.AuthorizationContext;
+import org.dhis2.fhir.adapter.fhir.transform.config.FhirRestInterfaceConfig;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A paging provider that keeps the bundle providers of searches in an expiring
+ * in-memory cache. A stored bundle provider can only be retrieved with the same
+ * authorization with which it has been stored. If paging has been disabled, the
+ * paging provider does not support paging.
+ *
+ * @author volsch
+ */
+@Component
+public class CursorPagingProvider implements IPagingProvider
+{
+    private final FhirRestInterfaceConfig restInterfaceConfig;
+
+    private final AuthorizationContext authorizationContext;
+
+    private final Cache<String, Cursor> cursors;
+
+    public CursorPagingProvider( @Nonnull FhirRestInterfaceConfig restInterfaceConfig, @Nonnull AuthorizationContext authorizationContext )
+    {
+        this.restInterfaceConfig = restInterfaceConfig;
+        this.authorizationContext = authorizationContext;
+        this.cursors = Caffeine.newBuilder()
+            .expireAfterAccess( restInterfaceConfig.getPagingCursorExpirySeconds(), TimeUnit.SECONDS )
+            .maximumSize( restInterfaceConfig.getMaxPagingCursors() ).executor( Runnable::run ).build();
+    }
+
+    @Override
+    public int getDefaultPageSize()
+    {
+        return restInterfaceConfig.getDefaultSearchCount();
+    }
+
+    @Override
+    public int getMaximumPageSize()
+    {
+        return restInterfaceConfig.getMaxSearchCount();
+    }
+
+    @Override
+    public IBundleProvider retrieveResultList( String theSearchId )
+    {
+        if ( !restInterfaceConfig.isPagingEnabled() || StringUtils.isBlank( theSearchId ) )
+        {
+            return null;
+        }
+
+        final Cursor cursor = cursors.getIfPresent( theSearchId );
+        if ( (cursor == null) || !cursor.getAuthorizationHash().equals( getAuthorizationHash() ) )
+        {
+            return null;
+        }
+
+        return cursor.getBundleProvider();
+    }
+
+    @Override
+    public String storeResultList( IBundleProvider theList )
+    {
+        if ( !restInterfaceConfig.isPagingEnabled() )
+        {
+            // storing result list is not supported
+            return null;
+        }
+
+        final String searchId = StringUtils.defaultIfBlank( theList.getUuid(), UUID.randomUUID().toString() );
+        cursors.put( searchId, new Cursor( theList, getAuthorizationHash() ) );
+
+        return searchId;
+    }
+
+    protected long getCursorCount()
+    {
+        cursors.cleanUp();
+        return cursors.estimatedSize();
+    }
+
+    @Nonnull
+    private String getAuthorizationHash()
+    {
+        final String authorization = authorizationContext.getAuthorization().getAuthorization();
+        return Hashing.sha256().hashString( StringUtils.defaultString( authorization ), StandardCharsets.UTF_8 ).toString();
+    }
+
+    private static class Cursor
+    {
+        private final IBundleProvider bundleProvider;
+
+        private final String authorizationHash;
+
+        public Cursor( @Nonnull IBundleProvider bundleProvider, @Nonnull String authorizationHash )
+        {
+            this.bundleProvider = bundleProvider;
+            this.authorizationHash = authorizationHash;
+        }
+
+        @Nonnull
+        public IBundleProvider getBundleProvider()
+        {
+            return bundleProvider;
+        }
+
+        @Nonnull
+        public String getAuthorizationHash()
+        {
+            return authorizationHash;
+        }
+    }
+}
@@ -59,6 +59,17 @@ public class FhirRestInterfaceConfig implements Serializable
     @Min( 1 )
     private int maxSearchCount = 10_000;
 
+    private boolean pagingEnabled = true;
+
+    @Min( 1 )
+    private int pagingCursorExpirySeconds = 600;
+
+    @Min( 1 )
+    private int maxPagingCursors = 1_000;
+
+    @Min( 0 )
+    private int searchReadAheadThreads = 4;
+
     public boolean isDstu3Enabled()
     {
         return dstu3Enabled;
@@ -98,4 +109,44 @@ public class FhirRestInterfaceConfig implements Serializable
     {
         this.maxSearchCount = maxSearchCount;
     }
+
+    public boolean isPagingEnabled()
+    {
+        return pagingEnabled;
+    }
+
+    public void setPagingEnabled( boolean pagingEnabled )
+    {
+        this.pagingEnabled = pagingEnabled;
+    }
+
+    public int getPagingCursorExpirySeconds()
+    {
+        return pagingCursorExpirySeconds;
+    }
+
+    public void setPagingCursorExpirySeconds( int pagingCursorExpirySeconds )
+    {
+        this.pagingCursorExpirySeconds = pagingCursorExpirySeconds;
+    }
+
+    public int getMaxPagingCursors()
+    {
+        return maxPagingCursors;
+    }
+
+    public void setMaxPagingCursors( int maxPagingCursors )
+    {
+        this.maxPagingCursors = maxPagingCursors;
+    }
+
+    public int getSearchReadAheadThreads()
+    {
+        return searchReadAheadThreads;
+    }
+
+    public void setSearchReadAheadThreads( int searchReadAheadThreads )
+    {
+        this.searchReadAheadThreads = searchReadAheadThreads;
+    }
 }
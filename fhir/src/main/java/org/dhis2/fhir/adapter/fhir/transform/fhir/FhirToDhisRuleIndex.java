@@ -0,0 +1,71 @@
+package org.dhis2.fhir.adapter.fhir.transform.fhir;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
+import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.CompiledFhirToDhisRule;
+
+import javax.annotation.Nonnull;
+import java.util.UUID;
+
+/**
+ * Index of compiled rules that is used to narrow the rules that must be
+ * evaluated when transforming a FHIR resource to a DHIS resource. Compiled
+ * rules must be evicted when the underlying rule has been changed or deleted.
+ *
+ * @author volsch
+ */
+public interface FhirToDhisRuleIndex
+{
+    /**
+     * Returns the compiled data of the specified rule for the specified FHIR version.
+     * The rule is compiled if it has not yet been compiled or if the compiled data
+     * does no longer match the current version of the rule or its applicable script.
+     *
+     * @param fhirVersion the FHIR version for which the rule should be compiled.
+     * @param ruleInfo    the rule for which the compiled data should be returned.
+     * @return the compiled data of the rule.
+     */
+    @Nonnull
+    CompiledFhirToDhisRule getCompiledRule( @Nonnull FhirVersion fhirVersion, @Nonnull RuleInfo<? extends AbstractRule> ruleInfo );
+
+    /**
+     * Evicts all compiled data of the rule with the specified ID.
+     *
+     * @param ruleId the ID of the rule for which the compiled data should be evicted.
+     */
+    void evict( @Nonnull UUID ruleId );
+
+    /**
+     * Evicts the compiled data of all rules.
+     */
+    void evictAll();
+}
@@ -0,0 +1,140 @@
+package org.dhis2.fhir.adapter.fhir.transform.fhir.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScriptInfo;
+import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
+import org.dhis2.fhir.adapter.fhir.model.SystemCodeValue;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compiled data of a rule that is required to decide quickly if the rule is
+ * applicable for a FHIR resource and which transformers can handle the rule.
+ * If the applicable script of the rule just checks the code of the FHIR resource,
+ * the check can be performed without executing the script. Rules that use the
+ * same applicable script with the same arguments have the same applicability key.
+ * The applicability of such rules needs to be evaluated only once per transformation.
+ *
+ * @author volsch
+ */
+public class CompiledFhirToDhisRule
+{
+    private final Long ruleVersion;
+
+    private final Long applicableScriptVersion;
+
+    private final Long applicableScriptSourceVersion;
+
+    private final List<FhirToDhisTransformer<?, ?>> transformers;
+
+    private final boolean applicableScript;
+
+    private final SystemCodeValue applicableCode;
+
+    private final Object applicabilityKey;
+
+    public CompiledFhirToDhisRule( @Nonnull RuleInfo<? extends AbstractRule> ruleInfo, @Nullable ExecutableScriptInfo applicableScriptInfo, @Nonnull List<FhirToDhisTransformer<?, ?>> transformers,
+        @Nullable SystemCodeValue applicableCode, @Nullable Object applicabilityKey )
+    {
+        this.ruleVersion = ruleInfo.getRule().getVersion();
+        this.applicableScriptVersion = (applicableScriptInfo == null) ? null : applicableScriptInfo.getExecutableScript().getVersion();
+        this.applicableScriptSourceVersion = (applicableScriptInfo == null) ? null : applicableScriptInfo.getScriptSource().getVersion();
+        this.transformers = transformers;
+        this.applicableScript = (ruleInfo.getRule().getApplicableImpScript() != null);
+        this.applicableCode = applicableCode;
+        this.applicabilityKey = applicabilityKey;
+    }
+
+    /**
+     * @return the transformers that can handle the rule ordered by their priority.
+     */
+    @Nonnull
+    public List<FhirToDhisTransformer<?, ?>> getTransformers()
+    {
+        return transformers;
+    }
+
+    /**
+     * @return <code>true</code> if an applicable script must be evaluated to decide if
+     * the rule is applicable, <code>false</code> if the rule is always applicable.
+     */
+    public boolean isApplicableScript()
+    {
+        return applicableScript;
+    }
+
+    /**
+     * @return the code the FHIR resource must contain in order to make the rule applicable or
+     * <code>null</code> if the applicable script must be executed.
+     */
+    @Nullable
+    public SystemCodeValue getApplicableCode()
+    {
+        return applicableCode;
+    }
+
+    /**
+     * @return the key of the applicable script and its arguments or <code>null</code>
+     * if the result of the applicable script cannot be shared with other rules.
+     */
+    @Nullable
+    public Object getApplicabilityKey()
+    {
+        return applicabilityKey;
+    }
+
+    /**
+     * Checks if this compiled data still matches the specified rule and its applicable script.
+     * This may not be the case if the rule has been changed by another instance of the adapter.
+     *
+     * @param ruleInfo             the rule that should be checked.
+     * @param applicableScriptInfo the current applicable script of the rule.
+     * @return <code>true</code> if the compiled data still matches the rule, <code>false</code> otherwise.
+     */
+    public boolean isCurrent( @Nonnull RuleInfo<? extends AbstractRule> ruleInfo, @Nullable ExecutableScriptInfo applicableScriptInfo )
+    {
+        if ( !Objects.equals( ruleVersion, ruleInfo.getRule().getVersion() ) )
+        {
+            return false;
+        }
+
+        if ( applicableScriptInfo == null )
+        {
+            return (applicableScriptVersion == null) && (applicableScriptSourceVersion == null);
+        }
+
+        return Objects.equals( applicableScriptVersion, applicableScriptInfo.getExecutableScript().getVersion() ) &&
+            Objects.equals( applicableScriptSourceVersion, applicableScriptInfo.getScriptSource().getVersion() );
+    }
+}
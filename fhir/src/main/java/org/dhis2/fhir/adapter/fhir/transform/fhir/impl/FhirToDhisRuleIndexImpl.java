@@ -0,0 +1,189 @@
+package org.dhis2.fhir.adapter.fhir.transform.fhir.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.commons.lang3.StringUtils;
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.DataType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScript;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScriptInfo;
+import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptSourceType;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.ExecutableScriptRepository;
+import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
+import org.dhis2.fhir.adapter.fhir.model.FhirVersionedValue;
+import org.dhis2.fhir.adapter.fhir.model.SystemCodeValue;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisRuleIndex;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Implementation of {@link FhirToDhisRuleIndex}. Rules are compiled lazily when they
+ * are used the first time for a FHIR version. Applicable scripts that just check if
+ * the code of the FHIR resource contains a code with a literal system and code
+ * (e.g. <code>codeUtils.containsCode(input.code, 'http://loinc.org', '8302-2')</code>)
+ * are compiled to a simple code check.
+ *
+ * @author volsch
+ */
+@Component
+public class FhirToDhisRuleIndexImpl implements FhirToDhisRuleIndex
+{
+    private static final Pattern CONTAINS_CODE_PATTERN = Pattern.compile( "\\s*codeUtils\\s*\\.\\s*containsCode\\s*\\(\\s*input\\s*\\.\\s*(?:getCode\\s*\\(\\s*\\)|code)\\s*,\\s*" +
+        "(?:'([^'\\\\]*)'|\"([^\"\\\\]*)\")\\s*,\\s*(?:'([^'\\\\]+)'|\"([^\"\\\\]+)\")\\s*\\)\\s*;?\\s*" );
+
+    private final ExecutableScriptRepository executableScriptRepository;
+
+    private final Map<FhirVersionedValue<DhisResourceType>, SortedSet<FhirToDhisTransformer<?, ?>>> transformers = new HashMap<>();
+
+    private final ConcurrentMap<FhirVersionedValue<UUID>, CompiledFhirToDhisRule> compiledRules = new ConcurrentHashMap<>();
+
+    public FhirToDhisRuleIndexImpl( @Nonnull ExecutableScriptRepository executableScriptRepository, @Nonnull ObjectProvider<List<FhirToDhisTransformer<?, ?>>> transformersProvider )
+    {
+        this.executableScriptRepository = executableScriptRepository;
+
+        transformersProvider.ifAvailable( transformers ->
+        {
+            for ( final FhirToDhisTransformer<?, ?> transformer : transformers )
+            {
+                for ( final FhirVersion fhirVersion : transformer.getFhirVersions() )
+                {
+                    this.transformers.computeIfAbsent( new FhirVersionedValue<>( fhirVersion, transformer.getDhisResourceType() ),
+                        fvv -> new TreeSet<>( Collections.reverseOrder() ) ).add( transformer );
+                }
+            }
+        } );
+    }
+
+    @Nonnull
+    @Override
+    public CompiledFhirToDhisRule getCompiledRule( @Nonnull FhirVersion fhirVersion, @Nonnull RuleInfo<? extends AbstractRule> ruleInfo )
+    {
+        final UUID ruleId = ruleInfo.getRule().getId();
+        final ExecutableScriptInfo applicableScriptInfo = (ruleInfo.getRule().getApplicableImpScript() == null) ? null :
+            executableScriptRepository.findInfo( ruleInfo.getRule().getApplicableImpScript(), fhirVersion ).orElse( null );
+
+        if ( ruleId == null )
+        {
+            return compile( fhirVersion, ruleInfo, applicableScriptInfo );
+        }
+
+        final FhirVersionedValue<UUID> key = new FhirVersionedValue<>( fhirVersion, ruleId );
+        CompiledFhirToDhisRule compiledRule = compiledRules.get( key );
+
+        if ( (compiledRule == null) || !compiledRule.isCurrent( ruleInfo, applicableScriptInfo ) )
+        {
+            compiledRule = compile( fhirVersion, ruleInfo, applicableScriptInfo );
+            compiledRules.put( key, compiledRule );
+        }
+
+        return compiledRule;
+    }
+
+    @Override
+    public void evict( @Nonnull UUID ruleId )
+    {
+        compiledRules.keySet().removeIf( key -> ruleId.equals( key.getValue() ) );
+    }
+
+    @Override
+    public void evictAll()
+    {
+        compiledRules.clear();
+    }
+
+    @Nonnull
+    protected CompiledFhirToDhisRule compile( @Nonnull FhirVersion fhirVersion, @Nonnull RuleInfo<? extends AbstractRule> ruleInfo, @Nullable ExecutableScriptInfo applicableScriptInfo )
+    {
+        final AbstractRule rule = ruleInfo.getRule();
+        final SortedSet<FhirToDhisTransformer<?, ?>> transformers = this.transformers.get( new FhirVersionedValue<>( fhirVersion, rule.getDhisResourceType() ) );
+        final List<FhirToDhisTransformer<?, ?>> ruleTransformers = (transformers == null) ? Collections.emptyList() :
+            transformers.stream().filter( t -> t.getRuleClass().isInstance( rule ) ).collect( Collectors.toList() );
+
+        return new CompiledFhirToDhisRule( ruleInfo, applicableScriptInfo, ruleTransformers, createApplicableCode( applicableScriptInfo ), createApplicabilityKey( ruleInfo ) );
+    }
+
+    @Nullable
+    protected static SystemCodeValue createApplicableCode( @Nullable ExecutableScriptInfo applicableScriptInfo )
+    {
+        if ( (applicableScriptInfo == null) || (applicableScriptInfo.getScript().getReturnType() != DataType.BOOLEAN) ||
+            (applicableScriptInfo.getScriptSource().getSourceType() != ScriptSourceType.JAVASCRIPT) || (applicableScriptInfo.getScriptSource().getSourceText() == null) )
+        {
+            return null;
+        }
+
+        final Matcher matcher = CONTAINS_CODE_PATTERN.matcher( applicableScriptInfo.getScriptSource().getSourceText() );
+
+        if ( !matcher.matches() )
+        {
+            return null;
+        }
+
+        final String system = (matcher.group( 1 ) == null) ? matcher.group( 2 ) : matcher.group( 1 );
+        final String code = (matcher.group( 3 ) == null) ? matcher.group( 4 ) : matcher.group( 3 );
+
+        return new SystemCodeValue( system, code );
+    }
+
+    @Nullable
+    protected static Object createApplicabilityKey( @Nonnull RuleInfo<? extends AbstractRule> ruleInfo )
+    {
+        final ExecutableScript applicableImpScript = ruleInfo.getRule().getApplicableImpScript();
+
+        if ( (applicableImpScript == null) || (applicableImpScript.getId() == null) )
+        {
+            return null;
+        }
+
+        // the result of the applicable script depends only on the executable script (includes overridden arguments) and the arguments of the rule
+        final Map<String, Object> arguments = new TreeMap<>();
+        ruleInfo.getDhisDataReferences().stream().filter( r -> StringUtils.isNotBlank( r.getScriptArgName() ) )
+            .forEach( r -> arguments.put( r.getScriptArgName(), r.getDataReference() ) );
+
+        return Arrays.asList( applicableImpScript.getId(), applicableImpScript.getVersion(), arguments );
+    }
+}
@@ -31,6 +31,7 @@ package org.dhis2.fhir.adapter.fhir.transform.fhir.impl;
 import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
 import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptVariable;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerContext;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerRequest;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.util.FhirToDhisTransformerUtils;
@@ -39,6 +40,7 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -65,6 +67,8 @@ public class FhirToDhisTransformerRequestImpl implements FhirToDhisTransformerRe
 
     private int ruleIndex;
 
+    private transient Map<String, Object> scriptVariables;
+
     public FhirToDhisTransformerRequestImpl( @Nonnull FhirClientResource fhirClientResource, @Nonnull FhirToDhisTransformerContext context, @Nonnull IBaseResource input, @Nonnull Map<String, FhirToDhisTransformerUtils> transformerUtils,
         @Nonnull List<RuleInfo<? extends AbstractRule>> rules )
     {
@@ -108,6 +112,32 @@ public class FhirToDhisTransformerRequestImpl implements FhirToDhisTransformerRe
         return rules;
     }
 
+    /**
+     * Returns the script variables that are used for the evaluation of a rule. The same
+     * map is reused for all rules of this request and is reset to the initial variables
+     * (transformer utilities, context and input) whenever this method is invoked.
+     *
+     * @return the script variables that contain only the initial variables.
+     */
+    @Nonnull
+    public Map<String, Object> resetScriptVariables()
+    {
+        if ( scriptVariables == null )
+        {
+            scriptVariables = new HashMap<>( transformerUtils.size() + 16 );
+        }
+        else
+        {
+            scriptVariables.clear();
+        }
+
+        scriptVariables.putAll( transformerUtils );
+        scriptVariables.put( ScriptVariable.CONTEXT.getVariableName(), context );
+        scriptVariables.put( ScriptVariable.INPUT.getVariableName(), input );
+
+        return scriptVariables;
+    }
+
     public boolean isFirstRule()
     {
         return (ruleIndex == 0);
@@ -29,8 +29,10 @@ package org.dhis2.fhir.adapter.fhir.transform.fhir.impl;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryTemplate;
 import org.dhis2.fhir.adapter.dhis.model.DhisResource;
-import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
 import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirResourceType;
@@ -38,7 +40,7 @@ import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
 import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptVariable;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.RuleRepository;
 import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
-import org.dhis2.fhir.adapter.fhir.model.FhirVersionedValue;
+import org.dhis2.fhir.adapter.fhir.model.SystemCodeValue;
 import org.dhis2.fhir.adapter.fhir.repository.DhisFhirResourceId;
 import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepository;
 import org.dhis2.fhir.adapter.fhir.script.ScriptExecutor;
@@ -46,6 +48,7 @@ import org.dhis2.fhir.adapter.fhir.transform.FatalTransformerException;
 import org.dhis2.fhir.adapter.fhir.transform.TransformerException;
 import org.dhis2.fhir.adapter.fhir.transform.TransformerMappingException;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisDeleteTransformOutcome;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisRuleIndex;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformOutcome;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerContext;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerRequest;
@@ -71,8 +74,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 /**
@@ -87,39 +88,31 @@ public class FhirToDhisTransformerServiceImpl implements FhirToDhisTransformerSe
 
     private final LockManager lockManager;
 
+    private final RequestCacheService requestCacheService;
+
     private final FhirResourceRepository fhirResourceRepository;
 
     private final RuleRepository ruleRepository;
 
-    private final Map<FhirVersionedValue<DhisResourceType>, SortedSet<FhirToDhisTransformer<?, ?>>> transformers = new HashMap<>();
+    private final FhirToDhisRuleIndex ruleIndex;
 
     private final Map<FhirVersion, Map<String, FhirToDhisTransformerUtils>> transformerUtils = new HashMap<>();
 
     private final ScriptExecutor scriptExecutor;
 
-    public FhirToDhisTransformerServiceImpl( @Nonnull LockManager lockManager,
+    public FhirToDhisTransformerServiceImpl( @Nonnull LockManager lockManager, @Nonnull RequestCacheService requestCacheService,
         @Nonnull FhirResourceRepository fhirResourceRepository, @Nonnull RuleRepository ruleRepository,
-        @Nonnull ObjectProvider<List<FhirToDhisTransformer<?, ?>>> transformersProvider,
+        @Nonnull FhirToDhisRuleIndex ruleIndex,
         @Nonnull ObjectProvider<List<FhirToDhisTransformerUtils>> transformUtilsProvider,
         @Nonnull ScriptExecutor scriptExecutor )
     {
         this.lockManager = lockManager;
+        this.requestCacheService = requestCacheService;
         this.fhirResourceRepository = fhirResourceRepository;
         this.ruleRepository = ruleRepository;
+        this.ruleIndex = ruleIndex;
         this.scriptExecutor = scriptExecutor;
 
-        transformersProvider.ifAvailable( transformers ->
-        {
-            for ( final FhirToDhisTransformer<?, ?> transformer : transformers )
-            {
-                for ( final FhirVersion fhirVersion : transformer.getFhirVersions() )
-                {
-                    this.transformers.computeIfAbsent( new FhirVersionedValue<>( fhirVersion, transformer.getDhisResourceType() ),
-                        fvv -> new TreeSet<>( Collections.reverseOrder() ) ).add( transformer );
-                }
-            }
-        } );
-
         transformUtilsProvider.ifAvailable( fhirToDhisTransformerUtils ->
         {
             for ( final FhirToDhisTransformerUtils tu : fhirToDhisTransformerUtils )
@@ -178,10 +171,10 @@ public class FhirToDhisTransformerServiceImpl implements FhirToDhisTransformerSe
             return null;
         }
 
-        final SortedSet<FhirToDhisTransformer<?, ?>> transformers = this.transformers.get(
-            new FhirVersionedValue<>( fhirClientResource.getFhirClient().getFhirVersion(), ruleInfo.getRule().getDhisResourceType() ) );
+        final List<FhirToDhisTransformer<?, ?>> transformers =
+            ruleIndex.getCompiledRule( fhirClientResource.getFhirClient().getFhirVersion(), ruleInfo ).getTransformers();
 
-        if ( transformers == null )
+        if ( transformers.isEmpty() )
         {
             throw new TransformerMappingException( "No transformer can be found for FHIR version " +
                 fhirClientResource.getFhirClient().getFhirVersion() + " mapping of DHIS resource type " + ruleInfo.getRule().getDhisResourceType() );
@@ -234,25 +227,25 @@ public class FhirToDhisTransformerServiceImpl implements FhirToDhisTransformerSe
                 transformerRequestImpl.getContext().getFhirRequest().getVersion() );
         }
 
+        final FhirVersion fhirVersion = transformerRequestImpl.getContext().getFhirRequest().getVersion();
+        final List<SystemCodeValue> resourceCodes = codeTransformerUtils.getResourceCodes( transformerRequestImpl.getInput() );
+        final Map<Object, Boolean> applicabilities = new HashMap<>();
         final boolean firstRule = transformerRequestImpl.isFirstRule();
         RuleInfo<? extends AbstractRule> ruleInfo;
         while ( (ruleInfo = transformerRequestImpl.nextRule()) != null )
         {
-            final SortedSet<FhirToDhisTransformer<?, ?>> transformers = this.transformers.get(
-                new FhirVersionedValue<>( transformerRequestImpl.getContext().getFhirRequest().getVersion(), ruleInfo.getRule().getDhisResourceType() ) );
+            final CompiledFhirToDhisRule compiledRule = ruleIndex.getCompiledRule( fhirVersion, ruleInfo );
 
-            if ( transformers == null )
+            if ( compiledRule.getTransformers().isEmpty() )
             {
                 throw new TransformerMappingException( "No transformer can be found for FHIR version " +
-                    transformerRequestImpl.getContext().getFhirRequest().getVersion() + " mapping of DHIS resource type " + ruleInfo.getRule().getDhisResourceType() );
+                    fhirVersion + " mapping of DHIS resource type " + ruleInfo.getRule().getDhisResourceType() );
             }
 
-            final Map<String, Object> scriptVariables = new HashMap<>( transformerUtils );
-            scriptVariables.put( ScriptVariable.CONTEXT.getVariableName(), transformerRequestImpl.getContext() );
-            scriptVariables.put( ScriptVariable.INPUT.getVariableName(), transformerRequestImpl.getInput() );
-            if ( isApplicable( transformerRequestImpl.getContext(), transformerRequestImpl.getInput(), ruleInfo, scriptVariables ) )
+            final Map<String, Object> scriptVariables = transformerRequestImpl.resetScriptVariables();
+            if ( isApplicable( transformerRequestImpl.getContext(), ruleInfo, compiledRule, resourceCodes, applicabilities, scriptVariables ) )
             {
-                for ( final FhirToDhisTransformer<?, ?> transformer : transformers )
+                for ( final FhirToDhisTransformer<?, ?> transformer : compiledRule.getTransformers() )
                 {
                     final FhirToDhisTransformOutcome<? extends DhisResource> outcome = transformer.transformCasted( transformerRequest.getFhirClientResource(),
                         transformerRequestImpl.getContext(), transformerRequestImpl.getInput(), ruleInfo, scriptVariables );
@@ -267,7 +260,11 @@ public class FhirToDhisTransformerServiceImpl implements FhirToDhisTransformerSe
                     }
 
                     // if the previous transformation caused a lock of any resource this must be released since the transformation has been rolled back
-                    lockManager.getCurrentLockContext().ifPresent( LockContext::unlockAll );
+                    // (the locks of a batch must be held until all resources of the batch have been persisted)
+                    if ( !isBatchItem() )
+                    {
+                        lockManager.getCurrentLockContext().ifPresent( LockContext::unlockAll );
+                    }
                 }
             }
         }
@@ -280,14 +277,40 @@ public class FhirToDhisTransformerServiceImpl implements FhirToDhisTransformerSe
         return null;
     }
 
-    private boolean isApplicable( @Nonnull FhirToDhisTransformerContext context, @Nonnull IBaseResource input,
-        @Nonnull RuleInfo<? extends AbstractRule> ruleInfo, @Nonnull Map<String, Object> scriptVariables ) throws TransformerException
+    protected boolean isBatchItem()
     {
-        if ( ruleInfo.getRule().getApplicableImpScript() == null )
+        final RequestCacheContext requestCacheContext = requestCacheService.getCurrentRequestCacheContext();
+        return (requestCacheContext != null) &&
+            (requestCacheContext.getAttribute( LocalDhisResourceRepositoryTemplate.RESOURCE_KEY_REQUEST_CACHE_ATTRIBUTE_NAME, Object.class ) != null);
+    }
+
+    private boolean isApplicable( @Nonnull FhirToDhisTransformerContext context, @Nonnull RuleInfo<? extends AbstractRule> ruleInfo, @Nonnull CompiledFhirToDhisRule compiledRule,
+        @Nullable List<SystemCodeValue> resourceCodes, @Nonnull Map<Object, Boolean> applicabilities, @Nonnull Map<String, Object> scriptVariables ) throws TransformerException
+    {
+        if ( !compiledRule.isApplicableScript() )
         {
             return true;
         }
 
-        return Boolean.TRUE.equals( TransformerUtils.executeScript( scriptExecutor, context, ruleInfo, ruleInfo.getRule().getApplicableImpScript(), scriptVariables, Boolean.class ) );
+        if ( (compiledRule.getApplicableCode() != null) && (resourceCodes != null) )
+        {
+            return resourceCodes.contains( compiledRule.getApplicableCode() );
+        }
+
+        // rules that differ only in their transformation share the result of the applicable script
+        final Object applicabilityKey = compiledRule.getApplicabilityKey();
+        Boolean applicable = (applicabilityKey == null) ? null : applicabilities.get( applicabilityKey );
+
+        if ( applicable == null )
+        {
+            applicable = Boolean.TRUE.equals( TransformerUtils.executeScript( scriptExecutor, context, ruleInfo, ruleInfo.getRule().getApplicableImpScript(), scriptVariables, Boolean.class ) );
+
+            if ( applicabilityKey != null )
+            {
+                applicabilities.put( applicabilityKey, applicable );
+            }
+        }
+
+        return applicable;
     }
 }
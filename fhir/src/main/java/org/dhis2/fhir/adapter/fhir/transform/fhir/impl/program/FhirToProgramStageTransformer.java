@@ -87,6 +87,7 @@ import org.dhis2.fhir.adapter.fhir.transform.util.TransformerUtils;
 import org.dhis2.fhir.adapter.lock.LockManager;
 import org.dhis2.fhir.adapter.model.ValueType;
 import org.dhis2.fhir.adapter.spring.StaticObjectProvider;
+import org.dhis2.fhir.adapter.util.CompletableFutureUtils;
 import org.dhis2.fhir.adapter.util.DateTimeUtils;
 import org.dhis2.fhir.adapter.util.LazyObject;
 import org.hl7.fhir.instance.model.api.IAnyResource;
@@ -111,6 +112,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -957,15 +959,39 @@ public class FhirToProgramStageTransformer extends AbstractFhirToDhisTransformer
         lockManager.getCurrentLockContext().orElseThrow( () -> new FatalTransformerException( "No lock context available." ) )
             .lock( "in-te:" + trackedEntityInstance.getId() );
 
-        Enrollment enrollment;
+        final String trackedEntityInstanceId = Objects.requireNonNull( trackedEntityInstance.getId() );
+        final boolean trackedEntityInstanceLocal = trackedEntityInstance.isLocal();
 
-        if ( sync || refreshed )
+        // the enrollment, its events and the tracked entity instance are looked up concurrently
+        final CompletableFuture<Optional<Enrollment>> enrollmentFuture = (sync || refreshed) ?
+            enrollmentService.findLatestActiveRefreshedAsync( program.getId(), trackedEntityInstanceId, trackedEntityInstanceLocal ) :
+            enrollmentService.findLatestActiveAsync( program.getId(), trackedEntityInstanceId, trackedEntityInstanceLocal );
+        CompletableFuture<Collection<Event>> eventsFuture = null;
+        CompletableFuture<Optional<TrackedEntityInstance>> trackedEntityInstanceFuture = null;
+
+        // there is no need to look up further resources if the enrollment lookup already failed (e.g. unauthorized)
+        if ( !enrollmentFuture.isCompletedExceptionally() )
         {
-            enrollment = enrollmentService.findLatestActiveRefreshed( program.getId(), Objects.requireNonNull( trackedEntityInstance.getId() ), trackedEntityInstance.isLocal() ).orElse( null );
+            // events are not looked up if it is already known that there is no active enrollment (e.g. cached)
+            if ( refreshed && (!enrollmentFuture.isDone() || enrollmentFuture.join().isPresent()) )
+            {
+                eventsFuture = eventService.findRefreshedAsync( program.getId(), programStage.getId(), trackedEntityInstanceId, trackedEntityInstanceLocal );
+            }
+
+            if ( trackedEntityInstance instanceof WritableScriptedTrackedEntityInstance )
+            {
+                trackedEntityInstanceFuture = ((WritableScriptedTrackedEntityInstance) trackedEntityInstance).loadAsync();
+            }
         }
-        else
+
+        // local resource repositories must not be accessed before all lookups have been completed
+        CompletableFutureUtils.awaitAll( enrollmentFuture, eventsFuture, trackedEntityInstanceFuture );
+
+        Enrollment enrollment = CompletableFutureUtils.join( enrollmentFuture ).orElse( null );
+
+        if ( trackedEntityInstanceFuture != null )
         {
-            enrollment = enrollmentService.findLatestActive( program.getId(), Objects.requireNonNull( trackedEntityInstance.getId() ), trackedEntityInstance.isLocal() ).orElse( null );
+            ((WritableScriptedTrackedEntityInstance) trackedEntityInstance).setLoadedResource( CompletableFutureUtils.join( trackedEntityInstanceFuture ).orElse( null ) );
         }
 
         List<Event> events = Collections.emptyList();
@@ -977,13 +1003,18 @@ public class FhirToProgramStageTransformer extends AbstractFhirToDhisTransformer
             // prevent modifying cached instance (especially included events)
             enrollment = SerializationUtils.clone( enrollment );
 
-            if ( refreshed )
+            if ( (eventsFuture != null) && (trackedEntityInstanceLocal || !enrollment.isLocal()) )
+            {
+                final String enrollmentId = enrollment.getId();
+                foundEvents = CompletableFutureUtils.join( eventsFuture ).stream().filter( e -> Objects.equals( enrollmentId, e.getEnrollmentId() ) ).collect( Collectors.toList() );
+            }
+            else if ( refreshed )
             {
-                foundEvents = eventService.findRefreshed( program.getId(), programStage.getId(), enrollment.getId(), trackedEntityInstance.getId(), enrollment.isLocal() );
+                foundEvents = eventService.findRefreshed( program.getId(), programStage.getId(), enrollment.getId(), trackedEntityInstanceId, enrollment.isLocal() );
             }
             else
             {
-                foundEvents = eventService.find( program.getId(), programStage.getId(), enrollment.getId(), trackedEntityInstance.getId(), enrollment.isLocal() );
+                foundEvents = eventService.find( program.getId(), programStage.getId(), enrollment.getId(), trackedEntityInstanceId, enrollment.isLocal() );
             }
 
             final Enrollment _enrollment = enrollment;
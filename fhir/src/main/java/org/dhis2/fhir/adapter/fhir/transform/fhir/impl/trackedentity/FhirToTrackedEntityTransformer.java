@@ -242,7 +242,7 @@ public class FhirToTrackedEntityTransformer extends AbstractFhirToDhisTransforme
         if ( sync )
         {
             lockManager.getCurrentLockContext().orElseThrow( () -> new FatalTransformerException( "No lock context available." ) )
-                .lock( "in-te-fhir-resource-id:" + baseResource.getIdElement().toUnqualifiedVersionless() );
+                .lock( createLockKey( baseResource ) );
         }
         return getTrackedEntityInstanceByIdentifier( context, ruleInfo, baseResource, scriptVariables, sync );
     }
@@ -311,6 +311,18 @@ public class FhirToTrackedEntityTransformer extends AbstractFhirToDhisTransforme
         return getIdentifier( context, baseResource, scriptVariables );
     }
 
+    /**
+     * Returns the key that is locked before the tracked entity instance of the specified FHIR resource is looked up.
+     *
+     * @param teiResource the FHIR resource of the tracked entity instance.
+     * @return the lock key.
+     */
+    @Nonnull
+    public static String createLockKey( @Nonnull IBaseResource teiResource )
+    {
+        return "in-te-fhir-resource-id:" + teiResource.getIdElement().toUnqualifiedVersionless();
+    }
+
     @Nullable
     private IBaseResource getTeiResource( @Nonnull FhirToDhisTransformerContext context, @Nonnull RuleInfo<TrackedEntityRule> ruleInfo, @Nonnull Map<String, Object> scriptVariables )
     {
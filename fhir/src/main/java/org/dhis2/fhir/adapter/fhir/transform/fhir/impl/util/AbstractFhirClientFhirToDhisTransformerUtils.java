@@ -38,7 +38,7 @@ import org.dhis2.fhir.adapter.fhir.metadata.model.SystemCode;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientResourceRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.SystemCodeRepository;
 import org.dhis2.fhir.adapter.fhir.model.SystemCodeValue;
-import org.dhis2.fhir.adapter.fhir.repository.FhirClientUtils;
+import org.dhis2.fhir.adapter.fhir.repository.FhirGenericClientRegistry;
 import org.dhis2.fhir.adapter.fhir.script.ScriptExecutionContext;
 import org.dhis2.fhir.adapter.fhir.script.ScriptExecutionException;
 import org.dhis2.fhir.adapter.fhir.transform.TransformerMappingException;
@@ -84,13 +84,17 @@ public abstract class AbstractFhirClientFhirToDhisTransformerUtils extends Abstr
 
     private final SystemCodeRepository systemCodeRepository;
 
+    private final FhirGenericClientRegistry fhirGenericClientRegistry;
+
     protected AbstractFhirClientFhirToDhisTransformerUtils( @Nonnull ScriptExecutionContext scriptExecutionContext, @Nonnull FhirContext fhirContext,
-        @Nonnull FhirClientResourceRepository fhirClientResourceRepository, @Nonnull SystemCodeRepository systemCodeRepository )
+        @Nonnull FhirClientResourceRepository fhirClientResourceRepository, @Nonnull SystemCodeRepository systemCodeRepository,
+        @Nonnull FhirGenericClientRegistry fhirGenericClientRegistry )
     {
         super( scriptExecutionContext );
         this.fhirContext = fhirContext;
         this.fhirClientResourceRepository = fhirClientResourceRepository;
         this.systemCodeRepository = systemCodeRepository;
+        this.fhirGenericClientRegistry = fhirGenericClientRegistry;
     }
 
     @Nonnull
@@ -249,6 +253,6 @@ public abstract class AbstractFhirClientFhirToDhisTransformerUtils extends Abstr
         {
             return Optional.empty();
         }
-        return Optional.of( FhirClientUtils.createClient( fhirContext, fhirClientResource.getFhirClient().getFhirEndpoint() ) );
+        return Optional.of( fhirGenericClientRegistry.getClient( fhirContext, fhirClientResource.getFhirClient().getId(), fhirClientResource.getFhirClient().getFhirEndpoint() ) );
     }
 }
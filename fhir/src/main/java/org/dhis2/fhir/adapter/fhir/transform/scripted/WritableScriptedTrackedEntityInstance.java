@@ -59,6 +59,7 @@ import java.time.ZonedDateTime;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Writable scripted tracked entity instance that is used in evaluation and transformation
@@ -435,16 +436,55 @@ public class WritableScriptedTrackedEntityInstance extends WritableScriptedLazyD
             new TransformerMappingException( "Tracked entity type attribute does not exist: " + attributeReference ) );
     }
 
+    /**
+     * Starts loading the tracked entity instance if it has not yet been loaded and if it is
+     * not a local resource. The result must be passed to {@link #setLoadedResource(TrackedEntityInstance)}
+     * before the tracked entity instance is accessed again.
+     *
+     * @return the future that returns the tracked entity instance or <code>null</code> if
+     * it must not be loaded.
+     */
+    @Nullable
+    public CompletableFuture<Optional<TrackedEntityInstance>> loadAsync()
+    {
+        if ( isLoaded() || (service == null) || service.isLocal( Objects.requireNonNull( getId() ) ) )
+        {
+            return null;
+        }
+
+        return service.findOneByIdAsync( Objects.requireNonNull( getId() ) );
+    }
+
+    /**
+     * Sets the tracked entity instance that has been loaded by {@link #loadAsync()} unless
+     * the tracked entity instance has been loaded in the meantime.
+     *
+     * @param trackedEntityInstance the loaded tracked entity instance or <code>null</code>
+     *                              if it could not be found.
+     */
+    public void setLoadedResource( @Nullable TrackedEntityInstance trackedEntityInstance )
+    {
+        if ( !isLoaded() && (trackedEntityInstance != null) )
+        {
+            resource = trackedEntityInstance;
+        }
+    }
+
     @Override
     protected final void load()
     {
-        if ( !isLoaded() || trackedEntityType == null )
+        if ( !isLoaded() )
         {
             final String id = getId();
-            final TrackedEntityInstance trackedEntityInstance;
 
-            resource = trackedEntityInstance = service.findOneById( Objects.requireNonNull( id ) )
+            resource = service.findOneById( Objects.requireNonNull( id ) )
                 .orElseThrow( () -> new TransformerDataException( "Tracked entity instance " + id + " could not be found." ) );
+        }
+
+        if ( trackedEntityType == null )
+        {
+            final TrackedEntityInstance trackedEntityInstance = (TrackedEntityInstance) resource;
+
             trackedEntityType = metadataService.findTypeByReference( new Reference( trackedEntityInstance.getTypeId(), ReferenceType.ID ) )
                 .orElseThrow( () -> new TransformerDataException( "Tracked entity type " + trackedEntityInstance.getTypeId() +
                     " of tracked entity instance " + trackedEntityInstance.getId() + " could not be found." ) );
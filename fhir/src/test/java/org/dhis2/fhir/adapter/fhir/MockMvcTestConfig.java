@@ -28,14 +28,24 @@ package org.dhis2.fhir.adapter.fhir;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.StringUtils;
 import org.dhis2.fhir.adapter.cache.CacheBasePackage;
+import org.dhis2.fhir.adapter.cache.JsonRedisSerializerFactory;
 import org.dhis2.fhir.adapter.converter.ZonedDateTimeToDateConverter;
 import org.dhis2.fhir.adapter.fhir.data.DataBasePackage;
 import org.dhis2.fhir.adapter.fhir.metadata.MetadataBasePackage;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.ExecutableScriptRepository;
+import org.dhis2.fhir.adapter.fhir.repository.FhirGenericClientRegistry;
+import org.dhis2.fhir.adapter.fhir.repository.impl.FhirGenericClientRegistryImpl;
+import org.dhis2.fhir.adapter.fhir.repository.impl.RepositoryConfig;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisRuleIndex;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.impl.FhirToDhisRuleIndexImpl;
 import org.dhis2.fhir.adapter.rest.RestBasePackage;
 import org.dhis2.fhir.adapter.script.ScriptEvaluator;
 import org.dhis2.fhir.adapter.script.impl.ScriptEvaluatorImpl;
+import org.dhis2.fhir.adapter.spring.StaticObjectProvider;
 import org.dhis2.fhir.adapter.validator.EnumValue;
 import org.dhis2.fhir.adapter.validator.EnumValueValidator;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
@@ -62,6 +72,7 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import javax.annotation.Nonnull;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Properties;
 
@@ -82,6 +93,20 @@ public class MockMvcTestConfig
         return new ScriptEvaluatorImpl( "nashorn", Arrays.asList( "-doe", "--no-java", "--no-syntax-extensions" ), 3600, 1000 );
     }
 
+    @Nonnull
+    @Bean
+    protected FhirGenericClientRegistry fhirGenericClientRegistry()
+    {
+        return new FhirGenericClientRegistryImpl( new RepositoryConfig() );
+    }
+
+    @Nonnull
+    @Bean
+    protected FhirToDhisRuleIndex fhirToDhisRuleIndex( @Nonnull ExecutableScriptRepository executableScriptRepository )
+    {
+        return new FhirToDhisRuleIndexImpl( executableScriptRepository, new StaticObjectProvider<>( Collections.emptyList() ) );
+    }
+
     @Bean
     @Nonnull
     public WebMvcConfigurer mvcConfigurer()
@@ -98,9 +123,10 @@ public class MockMvcTestConfig
 
     @Nonnull
     @Bean
-    protected GenericJackson2JsonRedisSerializer genericJackson2JsonRedisSerializer()
+    protected JsonRedisSerializerFactory<Object> cacheRedisSerializerFactory()
     {
-        return new GenericJackson2JsonRedisSerializer();
+        return jsonFactory -> new GenericJackson2JsonRedisSerializer( new ObjectMapper( jsonFactory )
+            .enableDefaultTyping( ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY ) );
     }
 
     @Nonnull
@@ -0,0 +1,154 @@
+package org.dhis2.fhir.adapter.fhir.data.repository;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.model.primitive.IdDt;
+import org.dhis2.fhir.adapter.cache.RequestCacheContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceId;
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
+import org.dhis2.fhir.adapter.fhir.AbstractJpaRepositoryTest;
+import org.dhis2.fhir.adapter.fhir.data.model.FhirDhisAssignment;
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.TrackedEntityRule;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Tests for the bulk operations of {@link FhirDhisAssignmentRepository}.
+ *
+ * @author volsch
+ */
+public class FhirDhisAssignmentRepositoryTest extends AbstractJpaRepositoryTest
+{
+    @Autowired
+    private FhirDhisAssignmentRepository repository;
+
+    @Autowired
+    private RequestCacheService requestCacheService;
+
+    private AbstractRule rule;
+
+    private FhirClient fhirClient;
+
+    @Before
+    public void setUp()
+    {
+        rule = new TrackedEntityRule();
+        rule.setId( entityManager.createQuery( "SELECT r.id FROM AbstractRule r ORDER BY r.id", UUID.class ).setMaxResults( 1 ).getSingleResult() );
+
+        fhirClient = new FhirClient();
+        fhirClient.setId( entityManager.createQuery( "SELECT c.id FROM FhirClient c ORDER BY c.id", UUID.class ).setMaxResults( 1 ).getSingleResult() );
+    }
+
+    @Test
+    public void saveDhisResourceIds()
+    {
+        final String fhirId1 = createUnique( 20 );
+        final String fhirId2 = createUnique( 20 );
+        final String fhirId3 = createUnique( 20 );
+
+        Assert.assertEquals( 2, repository.saveDhisResourceIds( fhirClient, Arrays.asList(
+            new FhirDhisAssignment( rule, fhirClient, fhirId1, "a0123456789" ),
+            new FhirDhisAssignment( rule, fhirClient, fhirId2, "b0123456789" ) ) ) );
+        Assert.assertEquals( 2, repository.saveDhisResourceIds( fhirClient, Arrays.asList(
+            new FhirDhisAssignment( rule, fhirClient, fhirId1, "a0123456789" ),
+            new FhirDhisAssignment( rule, fhirClient, fhirId2, "c0123456789" ),
+            new FhirDhisAssignment( rule, fhirClient, fhirId3, "d0123456789" ) ) ) );
+
+        Assert.assertEquals( "a0123456789", repository.findFirstDhisResourceId( rule, fhirClient, new IdDt( "Patient", fhirId1 ) ) );
+        Assert.assertEquals( "c0123456789", repository.findFirstDhisResourceId( rule, fhirClient, new IdDt( "Patient", fhirId2 ) ) );
+        Assert.assertEquals( "d0123456789", repository.findFirstDhisResourceId( rule, fhirClient, new IdDt( "Patient", fhirId3 ) ) );
+    }
+
+    @Test
+    public void findPendingDhisResourceIds()
+    {
+        final String fhirId1 = createUnique( 20 );
+        final String fhirId2 = createUnique( 20 );
+        final String fhirId3 = createUnique( 20 );
+
+        Assert.assertEquals( 2, repository.saveDhisResourceIds( fhirClient, Arrays.asList(
+            new FhirDhisAssignment( rule, fhirClient, fhirId1, "a0123456789" ),
+            new FhirDhisAssignment( rule, fhirClient, fhirId2, "b0123456789" ) ) ) );
+
+        try ( final RequestCacheContext requestCacheContext = requestCacheService.createRequestCacheContext() )
+        {
+            requestCacheContext.setAttribute( FhirDhisAssignmentRepository.PENDING_ASSIGNMENTS_REQUEST_CACHE_ATTRIBUTE_NAME, Arrays.asList(
+                new FhirDhisAssignment( rule, fhirClient, fhirId2, "c0123456789" ),
+                new FhirDhisAssignment( rule, fhirClient, fhirId3, "d0123456789" ),
+                new FhirDhisAssignment( rule, fhirClient, fhirId3, "e0123456789" ) ) );
+
+            Assert.assertEquals( "a0123456789", repository.findFirstDhisResourceId( rule, fhirClient, new IdDt( "Patient", fhirId1 ) ) );
+            Assert.assertEquals( "c0123456789", repository.findFirstDhisResourceId( rule, fhirClient, new IdDt( "Patient", fhirId2 ) ) );
+            Assert.assertEquals( "e0123456789", repository.findFirstDhisResourceId( rule, fhirClient, new IdDt( "Patient", fhirId3 ) ) );
+            Assert.assertEquals( "e0123456789", repository.findFirstDhisResourceId( fhirClient, new IdDt( "Patient", fhirId3 ) ) );
+        }
+
+        Assert.assertNull( repository.findFirstDhisResourceId( rule, fhirClient, new IdDt( "Patient", fhirId3 ) ) );
+    }
+
+    @Test
+    public void saveFhirResourceIds()
+    {
+        final String dhisId1 = createUnique( 11 );
+        final String dhisId2 = createUnique( 11 );
+        final String dhisId3 = createUnique( 11 );
+        final String fhirId1 = createUnique( 20 );
+        final String fhirId2 = createUnique( 20 );
+        final String fhirId3 = createUnique( 20 );
+        final String fhirId4 = createUnique( 20 );
+
+        Assert.assertEquals( 2, repository.saveFhirResourceIds( fhirClient, Arrays.asList(
+            new FhirDhisAssignment( rule, fhirClient, fhirId1, dhisId1 ),
+            new FhirDhisAssignment( rule, fhirClient, fhirId2, dhisId2 ) ) ) );
+        Assert.assertEquals( 2, repository.saveFhirResourceIds( fhirClient, Arrays.asList(
+            new FhirDhisAssignment( rule, fhirClient, fhirId1, dhisId1 ),
+            new FhirDhisAssignment( rule, fhirClient, fhirId3, dhisId2 ),
+            new FhirDhisAssignment( rule, fhirClient, fhirId4, dhisId3 ) ) ) );
+
+        Assert.assertEquals( fhirId1, repository.findFirstFhirResourceId( rule, fhirClient, new DhisResourceId( DhisResourceType.TRACKED_ENTITY, dhisId1 ) ) );
+        Assert.assertEquals( fhirId3, repository.findFirstFhirResourceId( rule, fhirClient, new DhisResourceId( DhisResourceType.TRACKED_ENTITY, dhisId2 ) ) );
+        Assert.assertEquals( fhirId4, repository.findFirstFhirResourceId( rule, fhirClient, new DhisResourceId( DhisResourceType.TRACKED_ENTITY, dhisId3 ) ) );
+    }
+
+    @Test
+    public void saveEmpty()
+    {
+        Assert.assertEquals( 0, repository.saveDhisResourceIds( fhirClient, Collections.emptyList() ) );
+        Assert.assertEquals( 0, repository.saveFhirResourceIds( fhirClient, Collections.emptyList() ) );
+    }
+}
@@ -0,0 +1,135 @@
+package org.dhis2.fhir.adapter.fhir.data.repository;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.fhir.AbstractJpaRepositoryTest;
+import org.dhis2.fhir.adapter.fhir.data.model.ProcessedFhirResource;
+import org.dhis2.fhir.adapter.fhir.data.model.ProcessedFhirResourceId;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for the chunked processing of {@link ProcessedFhirResourceRepository}.
+ *
+ * @author volsch
+ */
+public class ProcessedFhirResourceRepositoryTest extends AbstractJpaRepositoryTest
+{
+    @Autowired
+    private ProcessedFhirResourceRepository repository;
+
+    private FhirClientResource fhirClientResource;
+
+    @Before
+    public void setUp()
+    {
+        fhirClientResource = entityManager.createQuery( "SELECT r FROM FhirClientResource r ORDER BY r.id", FhirClientResource.class ).setMaxResults( 1 ).getSingleResult();
+    }
+
+    @Test
+    public void processAll()
+    {
+        final String id1 = createUnique( 100 );
+        final String id2 = createUnique( 100 );
+        final String id3 = createUnique( 100 );
+
+        final List<String> storedIds = new ArrayList<>();
+        repository.processAll( fhirClientResource, Arrays.asList( create( id1 ), create( id2 ), create( id1 ) ), items -> items.forEach( i -> storedIds.add( i.getId().getProcessedId() ) ) );
+        Assert.assertEquals( Arrays.asList( id1, id2 ), storedIds );
+
+        storedIds.clear();
+        repository.processAll( fhirClientResource, Arrays.asList( create( id2 ), create( id3 ) ), items -> items.forEach( i -> storedIds.add( i.getId().getProcessedId() ) ) );
+        Assert.assertEquals( Collections.singletonList( id3 ), storedIds );
+
+        Assert.assertEquals( new HashSet<>( Arrays.asList( id1, id2, id3 ) ), repository.find( fhirClientResource, Arrays.asList( id1, id2, id3, createUnique( 100 ) ) ) );
+    }
+
+    @Test
+    public void processAllConsumerFailure()
+    {
+        final List<String> ids = Arrays.asList( createUnique( 100 ), createUnique( 100 ) );
+
+        try
+        {
+            repository.processAll( fhirClientResource, ids.stream().map( this::create ).collect( Collectors.toList() ), items -> {
+                throw new IllegalStateException( "Enqueuing failed." );
+            } );
+            Assert.fail( "Exception expected." );
+        }
+        catch ( RuntimeException e )
+        {
+            // expected
+        }
+
+        Assert.assertTrue( repository.find( fhirClientResource, ids ).isEmpty() );
+    }
+
+    @Test
+    public void processAllEmpty()
+    {
+        final List<ProcessedFhirResource> storedItems = new ArrayList<>();
+        repository.processAll( fhirClientResource, Collections.emptyList(), storedItems::addAll );
+        Assert.assertTrue( storedItems.isEmpty() );
+    }
+
+    @Test
+    public void findAllProcessedIds()
+    {
+        final FhirClientResource otherFhirClientResource = entityManager.createQuery( "SELECT r FROM FhirClientResource r WHERE r.id<>:id ORDER BY r.id", FhirClientResource.class )
+            .setParameter( "id", fhirClientResource.getId() ).setMaxResults( 1 ).getSingleResult();
+        final Instant processedAt = Instant.now().truncatedTo( ChronoUnit.MILLIS ).plus( 1, ChronoUnit.DAYS );
+        final ProcessedFhirResource processedFhirResource = new ProcessedFhirResource( new ProcessedFhirResourceId( otherFhirClientResource, createUnique( 100 ) ), processedAt );
+        repository.processAll( otherFhirClientResource, Collections.singletonList( processedFhirResource ), items -> {
+        } );
+
+        final Set<String> ids = new HashSet<>();
+        repository.findAllProcessedIds( otherFhirClientResource, ids::add );
+        Assert.assertTrue( ids.contains( processedFhirResource.getId().getProcessedId() ) );
+        Assert.assertEquals( ids.size(), repository.countProcessed( otherFhirClientResource ) );
+        Assert.assertEquals( processedAt, repository.findLastProcessedAt( otherFhirClientResource ) );
+    }
+
+    private ProcessedFhirResource create( String processedId )
+    {
+        return new ProcessedFhirResource( new ProcessedFhirResourceId( fhirClientResource, processedId ), Instant.now() );
+    }
+}
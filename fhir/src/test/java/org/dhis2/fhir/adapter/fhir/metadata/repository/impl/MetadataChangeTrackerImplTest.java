@@ -0,0 +1,150 @@
+package org.dhis2.fhir.adapter.fhir.metadata.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.fhir.metadata.model.Code;
+import org.dhis2.fhir.adapter.fhir.metadata.model.Constant;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ProgramStageRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.RuleDhisDataReference;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptSource;
+import org.dhis2.fhir.adapter.model.Metadata;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link MetadataChangeTrackerImpl}.
+ *
+ * @author volsch
+ */
+public class MetadataChangeTrackerImplTest
+{
+    private final CacheManager cacheManager = new ConcurrentMapCacheManager( "code", "codeSet", "constant", "rule", "programStageRule", "script", "scriptSource", "executableScript" );
+
+    private MetadataChangeTrackerImpl tracker;
+
+    @Before
+    public void before()
+    {
+        tracker = new MetadataChangeTrackerImpl( cacheManager );
+        cacheManager.getCacheNames().forEach( name -> cacheManager.getCache( name ).put( "test", name ) );
+    }
+
+    @After
+    public void after()
+    {
+        TransactionSynchronizationManager.clear();
+        TransactionSynchronizationManager.unbindResourceIfPossible( tracker );
+    }
+
+    @Test
+    public void dependentCacheNames()
+    {
+        Assert.assertEquals( Arrays.asList( "code", "codeSet", "programStageRule", "rule", "systemCode" ), new ArrayList<>( tracker.getDependentCacheNames( Code.class ) ) );
+        Assert.assertEquals( Collections.singletonList( "constant" ), new ArrayList<>( tracker.getDependentCacheNames( Constant.class ) ) );
+        Assert.assertEquals( Arrays.asList( "programStageRule", "rule" ), new ArrayList<>( tracker.getDependentCacheNames( ProgramStageRule.class ) ) );
+    }
+
+    @Test
+    public void dependentCacheNamesUnknown()
+    {
+        final Collection<String> cacheNames = tracker.getDependentCacheNames( RuleDhisDataReference.class );
+
+        Assert.assertEquals( cacheManager.getCacheNames().size(), cacheNames.size() );
+        Assert.assertTrue( cacheNames.containsAll( cacheManager.getCacheNames() ) );
+    }
+
+    @Test
+    public void changedWithoutTransaction()
+    {
+        tracker.changed( Constant.class );
+
+        Assert.assertNull( cacheManager.getCache( "constant" ).get( "test" ) );
+        Assert.assertNotNull( cacheManager.getCache( "code" ).get( "test" ) );
+        Assert.assertNotNull( cacheManager.getCache( "rule" ).get( "test" ) );
+    }
+
+    @Test
+    public void changedAfterCommit()
+    {
+        TransactionSynchronizationManager.initSynchronization();
+
+        tracker.changed( Constant.class );
+        tracker.changed( Arrays.asList( ScriptSource.class, Constant.class ) );
+
+        final List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        Assert.assertEquals( 1, synchronizations.size() );
+        assertCached( "constant", "script", "scriptSource", "executableScript", "rule", "programStageRule", "code" );
+
+        synchronizations.forEach( TransactionSynchronization::afterCommit );
+        synchronizations.forEach( s -> s.afterCompletion( TransactionSynchronization.STATUS_COMMITTED ) );
+
+        Assert.assertNull( cacheManager.getCache( "constant" ).get( "test" ) );
+        Assert.assertNull( cacheManager.getCache( "script" ).get( "test" ) );
+        Assert.assertNull( cacheManager.getCache( "scriptSource" ).get( "test" ) );
+        Assert.assertNull( cacheManager.getCache( "executableScript" ).get( "test" ) );
+        Assert.assertNull( cacheManager.getCache( "rule" ).get( "test" ) );
+        assertCached( "code", "codeSet" );
+        Assert.assertNull( TransactionSynchronizationManager.getResource( tracker ) );
+    }
+
+    @Test
+    public void notChangedAfterRollback()
+    {
+        TransactionSynchronizationManager.initSynchronization();
+
+        tracker.changed( Metadata.class );
+
+        TransactionSynchronizationManager.getSynchronizations().forEach( s -> s.afterCompletion( TransactionSynchronization.STATUS_ROLLED_BACK ) );
+
+        assertCached( cacheManager.getCacheNames().toArray( new String[0] ) );
+        Assert.assertNull( TransactionSynchronizationManager.getResource( tracker ) );
+    }
+
+    private void assertCached( String... cacheNames )
+    {
+        for ( final String cacheName : cacheNames )
+        {
+            final Cache.ValueWrapper valueWrapper = cacheManager.getCache( cacheName ).get( "test" );
+            Assert.assertNotNull( cacheName, valueWrapper );
+        }
+    }
+}
@@ -57,6 +57,7 @@ import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirResourceMappingReposi
 import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackedEntityRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackerProgramRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackerProgramStageRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MetadataChangeTracker;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.MetadataRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.ProgramStageRuleRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.ScriptArgRepository;
@@ -78,7 +79,6 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
-import org.springframework.cache.CacheManager;
 import org.springframework.context.MessageSource;
 import org.springframework.context.support.StaticMessageSource;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -92,7 +92,6 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -165,7 +164,7 @@ public class MetadataImportServiceImplTest
     private EntityManager entityManager;
 
     @Mock
-    private CacheManager cacheManager;
+    private MetadataChangeTracker metadataChangeTracker;
 
     private MetadataImportServiceImpl service;
 
@@ -202,11 +201,9 @@ public class MetadataImportServiceImplTest
             executableScriptRepository, scriptRepository, scriptArgRepository, codeSetRepository, codeRepository, codeCategoryRepository,
             systemRepository, systemCodeRepository, mappedTrackedEntityRepository, mappedTrackerProgramStageRepository, scriptSourceRepository );
 
-        Mockito.doReturn( Collections.emptyList() ).when( cacheManager ).getCacheNames();
-
         service = new MetadataImportServiceImpl( messageSource, trackerProgramRepository, programStageRuleRepository,
             fhirResourceMappingRepository, Arrays.asList( programStageRuleMetadataValidator, otherMetadataValidator ),
-            new ArrayList<>( metadataRepositories ), entityManager, cacheManager );
+            new ArrayList<>( metadataRepositories ), entityManager, metadataChangeTracker );
     }
 
     @SuppressWarnings( "unchecked" )
@@ -240,6 +237,8 @@ public class MetadataImportServiceImplTest
         }
         Assert.assertTrue( result.isSuccess() );
 
+        Mockito.verify( metadataChangeTracker ).changed( Mockito.argThat( (Collection<Class<? extends Metadata>> c) -> c.size() == 15 && c.contains( Code.class ) && c.contains( ProgramStageRule.class ) ) );
+
         Assert.assertEquals( 15, allMetadata.size() );
         Assert.assertTrue( allMetadata.containsKey( Code.class ) );
         Assert.assertEquals( 117, allMetadata.get( Code.class ).size() );
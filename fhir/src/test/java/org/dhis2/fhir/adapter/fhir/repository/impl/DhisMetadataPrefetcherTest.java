@@ -0,0 +1,139 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.cache.SimpleCacheType;
+import org.dhis2.fhir.adapter.dhis.config.DhisMetadataCacheConfig;
+import org.dhis2.fhir.adapter.dhis.model.Reference;
+import org.dhis2.fhir.adapter.dhis.model.ReferenceType;
+import org.dhis2.fhir.adapter.dhis.tracker.program.ProgramMetadataService;
+import org.dhis2.fhir.adapter.dhis.tracker.program.ProgramStageMetadataService;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityMetadataService;
+import org.dhis2.fhir.adapter.fhir.metadata.model.MappedTrackedEntity;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackedEntityRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackerProgramRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.MappedTrackerProgramStageRepository;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.data.rest.core.event.AfterSaveEvent;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link DhisMetadataPrefetcher}.
+ *
+ * @author volsch
+ */
+public class DhisMetadataPrefetcherTest
+{
+    @Mock
+    private ProgramMetadataService programMetadataService;
+
+    @Mock
+    private ProgramStageMetadataService programStageMetadataService;
+
+    @Mock
+    private TrackedEntityMetadataService trackedEntityMetadataService;
+
+    @Mock
+    private MappedTrackerProgramRepository programRepository;
+
+    @Mock
+    private MappedTrackerProgramStageRepository programStageRepository;
+
+    @Mock
+    private MappedTrackedEntityRepository trackedEntityRepository;
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    private DhisMetadataCacheConfig cacheConfig;
+
+    private DhisMetadataPrefetcher prefetcher;
+
+    @Before
+    public void before()
+    {
+        cacheConfig = new DhisMetadataCacheConfig();
+        cacheConfig.setType( SimpleCacheType.CAFFEINE );
+        prefetcher = new DhisMetadataPrefetcher( cacheConfig, programMetadataService, programStageMetadataService, trackedEntityMetadataService,
+            programRepository, programStageRepository, trackedEntityRepository );
+    }
+
+    @Test
+    public void start()
+    {
+        Mockito.doReturn( Arrays.asList( Reference.createIdReference( "IpHINAT79UW" ), new Reference( "Child Programme", ReferenceType.NAME ) ) )
+            .when( programRepository ).findAllEnabledProgramReferences();
+        Mockito.doReturn( Collections.emptyList() ).when( programStageRepository ).findAllEnabledProgramStageReferences();
+        Mockito.doReturn( Collections.singletonList( Reference.createIdReference( "nEenWmSyUEp" ) ) ).when( trackedEntityRepository ).findAllEnabledTrackedEntityReferences();
+        Mockito.doThrow( new ResourceAccessException( "Test" ) ).when( trackedEntityMetadataService ).prefetchTypesByReferences( Mockito.any() );
+
+        prefetcher.start();
+
+        Assert.assertTrue( prefetcher.isRunning() );
+        Assert.assertNull( SecurityContextHolder.getContext().getAuthentication() );
+        Mockito.verify( programMetadataService ).prefetchMetadataByReferences(
+            Mockito.eq( Arrays.asList( Reference.createIdReference( "IpHINAT79UW" ), new Reference( "Child Programme", ReferenceType.NAME ) ) ) );
+        Mockito.verify( trackedEntityMetadataService ).prefetchTypesByReferences( Mockito.eq( Collections.singletonList( Reference.createIdReference( "nEenWmSyUEp" ) ) ) );
+        Mockito.verifyZeroInteractions( programStageMetadataService );
+    }
+
+    @Test
+    public void startDisabled()
+    {
+        cacheConfig.setPrefetchEnabled( false );
+
+        prefetcher.start();
+
+        Assert.assertTrue( prefetcher.isRunning() );
+        Mockito.verifyZeroInteractions( programRepository, programStageRepository, trackedEntityRepository );
+    }
+
+    @Test
+    public void onAfterSave()
+    {
+        final MappedTrackedEntity trackedEntity = new MappedTrackedEntity();
+        trackedEntity.setTrackedEntityReference( Reference.createIdReference( "nEenWmSyUEp" ) );
+
+        prefetcher.onAfterSave( new AfterSaveEvent( trackedEntity ) );
+
+        Mockito.verify( trackedEntityMetadataService ).prefetchTypesByReferences( Mockito.eq( Collections.singleton( Reference.createIdReference( "nEenWmSyUEp" ) ) ) );
+        Mockito.verifyZeroInteractions( programMetadataService, programStageMetadataService );
+    }
+}
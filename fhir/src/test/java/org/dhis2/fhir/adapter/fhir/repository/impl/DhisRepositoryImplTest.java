@@ -96,6 +96,9 @@ public class DhisRepositoryImplTest
     @Mock
     private FhirDhisAssignmentRepository fhirDhisAssignmentRepository;
 
+    @Mock
+    private FhirResourceExportBatchProcessor fhirResourceExportBatchProcessor;
+
     @Mock
     private FhirRestInterfaceConfig fhirRestInterfaceConfig;
 
@@ -0,0 +1,295 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import org.dhis2.fhir.adapter.auth.Authorization;
+import org.dhis2.fhir.adapter.auth.AuthorizationContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.dhis.model.DhisResource;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityInstance;
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
+import org.dhis2.fhir.adapter.fhir.metadata.model.TrackedEntityRule;
+import org.dhis2.fhir.adapter.fhir.security.AdapterSystemAuthenticationToken;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirDataProvider;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirSearchResult;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirSearchState;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirTransformOutcome;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirTransformerRequest;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.DhisToFhirTransformerService;
+import org.dhis2.fhir.adapter.fhir.transform.dhis.PreparedDhisToFhirSearch;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Unit tests for {@link DhisToFhirSearchBundleProvider}.
+ *
+ * @author volsch
+ */
+public class DhisToFhirSearchBundleProviderTest
+{
+    @Mock
+    private FhirClient fhirClient;
+
+    @Mock
+    private DhisToFhirDataProvider<? extends AbstractRule> dataProvider;
+
+    @Mock
+    private PreparedDhisToFhirSearch preparedSearch;
+
+    @Mock
+    private DhisToFhirTransformerService dhisToFhirTransformerService;
+
+    @Mock
+    private RequestCacheService requestCacheService;
+
+    @Mock
+    private AuthorizationContext authorizationContext;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private final List<RuleInfo<? extends AbstractRule>> rules = Collections.singletonList( new RuleInfo<>( new TrackedEntityRule(), Collections.emptyList() ) );
+
+    private final Map<DhisToFhirTransformerRequest, IBaseResource> transformedResources = new HashMap<>();
+
+    private final List<IBaseResource> resources = new ArrayList<>();
+
+    private final List<Authentication> searchAuthentications = new ArrayList<>();
+
+    @Before
+    public void before()
+    {
+        Mockito.doReturn( new Authorization( "Basic abc" ) ).when( authorizationContext ).getAuthorization();
+        Mockito.doAnswer( invocation -> {
+            final DhisToFhirTransformerRequest transformerRequest = Mockito.mock( DhisToFhirTransformerRequest.class );
+            final IBaseResource resource = Mockito.mock( IBaseResource.class );
+            transformedResources.put( transformerRequest, resource );
+            resources.add( resource );
+            return transformerRequest;
+        } ).when( dhisToFhirTransformerService ).createTransformerRequest( Mockito.same( fhirClient ), Mockito.any(), Mockito.any( DhisResource.class ), Mockito.same( rules ) );
+        Mockito.doAnswer( invocation -> new DhisToFhirTransformOutcome<>( new TrackedEntityRule(), transformedResources.get( invocation.getArgument( 0 ) ) ) )
+            .when( dhisToFhirTransformerService ).transform( Mockito.any() );
+    }
+
+    @Test
+    public void pages()
+    {
+        final DhisToFhirSearchBundleProvider bundleProvider = createBundleProvider( 25, null );
+        bundleProvider.initialize();
+        Assert.assertNull( bundleProvider.size() );
+        Assert.assertEquals( Integer.valueOf( 10 ), bundleProvider.preferredPageSize() );
+
+        List<IBaseResource> result = bundleProvider.getResources( 0, 10 );
+        Assert.assertEquals( resources.subList( 0, 10 ), result );
+        result = bundleProvider.getResources( 10, 20 );
+        Assert.assertEquals( resources.subList( 10, 20 ), result );
+        Assert.assertNull( bundleProvider.size() );
+        result = bundleProvider.getResources( 20, 30 );
+        Assert.assertEquals( resources.subList( 20, 25 ), result );
+        Assert.assertEquals( Integer.valueOf( 25 ), bundleProvider.size() );
+        Assert.assertTrue( bundleProvider.getResources( 30, 40 ).isEmpty() );
+    }
+
+    @Test
+    public void pagesLazily()
+    {
+        final DhisToFhirSearchBundleProvider bundleProvider = createBundleProvider( 25, null );
+        bundleProvider.initialize();
+        Assert.assertEquals( 11, resources.size() );
+
+        bundleProvider.getResources( 0, 10 );
+        Assert.assertEquals( 11, resources.size() );
+
+        bundleProvider.getResources( 10, 20 );
+        Assert.assertEquals( 20, resources.size() );
+        Mockito.verify( dataProvider, Mockito.times( 2 ) ).search( Mockito.same( preparedSearch ), Mockito.any(), Mockito.eq( 10 ) );
+    }
+
+    @Test
+    public void sizeOfSinglePage()
+    {
+        final DhisToFhirSearchBundleProvider bundleProvider = createBundleProvider( 5, null );
+        bundleProvider.initialize();
+        Assert.assertEquals( Integer.valueOf( 5 ), bundleProvider.size() );
+        Assert.assertEquals( resources, bundleProvider.getResources( 0, 10 ) );
+    }
+
+    @Test( expected = ResourceGoneException.class )
+    public void discardedPage()
+    {
+        final DhisToFhirSearchBundleProvider bundleProvider = createBundleProvider( 25, null );
+        bundleProvider.initialize();
+        bundleProvider.getResources( 0, 10 );
+        bundleProvider.getResources( 10, 20 );
+        bundleProvider.getResources( 20, 30 );
+
+        Assert.assertEquals( resources.subList( 10, 20 ), bundleProvider.getResources( 10, 20 ) );
+        bundleProvider.getResources( 0, 10 );
+    }
+
+    @Test
+    public void readAhead()
+    {
+        final DhisToFhirSearchBundleProvider bundleProvider = createBundleProvider( 25, Runnable::run );
+        bundleProvider.initialize();
+
+        List<IBaseResource> result = bundleProvider.getResources( 0, 10 );
+        Assert.assertEquals( resources.subList( 0, 10 ), result );
+        // no read-ahead as long as the client has not requested the next page
+        Assert.assertEquals( 11, resources.size() );
+        Assert.assertNull( bundleProvider.size() );
+
+        result = bundleProvider.getResources( 10, 20 );
+        Assert.assertEquals( resources.subList( 10, 20 ), result );
+        Assert.assertEquals( 25, resources.size() );
+        Assert.assertEquals( Integer.valueOf( 25 ), bundleProvider.size() );
+
+        Mockito.verify( authorizationContext, Mockito.times( 1 ) ).setAuthorization( Mockito.any( Authorization.class ) );
+        Mockito.verify( authorizationContext, Mockito.times( 1 ) ).resetAuthorization();
+    }
+
+    @Test
+    public void readAheadSecurityContext()
+    {
+        final Authentication authentication = new TestingAuthenticationToken( "test", "test" );
+        final DhisToFhirSearchBundleProvider bundleProvider = createBundleProvider( 45, runnable -> new Thread( runnable ).start() );
+
+        SecurityContextHolder.getContext().setAuthentication( authentication );
+        try
+        {
+            bundleProvider.initialize();
+            bundleProvider.getResources( 0, 10 );
+            bundleProvider.getResources( 10, 20 );
+            // waits for the completion of the read-ahead
+            Assert.assertNull( bundleProvider.size() );
+
+            Assert.assertEquals( 31, resources.size() );
+            Assert.assertEquals( 4, searchAuthentications.size() );
+            searchAuthentications.forEach( a -> Assert.assertSame( authentication, a ) );
+            Assert.assertSame( authentication, SecurityContextHolder.getContext().getAuthentication() );
+        }
+        finally
+        {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @Test
+    public void withoutAuthentication()
+    {
+        final DhisToFhirSearchBundleProvider bundleProvider = createBundleProvider( 45, null );
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+
+        try
+        {
+            // the current thread must have been prepared for the initialization
+            bundleProvider.initialize();
+            searchAuthentications.clear();
+            bundleProvider.getResources( 0, 10 );
+            bundleProvider.getResources( 10, 20 );
+            bundleProvider.getResources( 20, 30 );
+
+            Assert.assertFalse( searchAuthentications.isEmpty() );
+            searchAuthentications.forEach( a -> Assert.assertTrue( a instanceof AdapterSystemAuthenticationToken ) );
+            Assert.assertSame( securityContext, SecurityContextHolder.getContext() );
+            Assert.assertNull( securityContext.getAuthentication() );
+        }
+        finally
+        {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void readAheadFailure()
+    {
+        final DhisToFhirSearchBundleProvider bundleProvider = createBundleProvider( 45, Runnable::run );
+        bundleProvider.initialize();
+        bundleProvider.getResources( 0, 10 );
+        bundleProvider.getResources( 10, 20 );
+        Mockito.doThrow( new IllegalStateException() ).when( dataProvider ).search( Mockito.any(), Mockito.any(), Mockito.anyInt() );
+
+        // read-ahead of the next page fails
+        bundleProvider.getResources( 20, 30 );
+        bundleProvider.getResources( 30, 40 );
+    }
+
+    @Nonnull
+    private DhisToFhirSearchBundleProvider createBundleProvider( int count, @Nullable Executor executor )
+    {
+        final List<DhisToFhirSearchState> states = new ArrayList<>();
+        Mockito.doAnswer( invocation -> {
+            searchAuthentications.add( SecurityContextHolder.getContext().getAuthentication() );
+
+            final DhisToFhirSearchState state = invocation.getArgument( 1 );
+            final int from = (state == null) ? 0 : ((states.indexOf( state ) + 1) * 10);
+
+            if ( from >= count )
+            {
+                return null;
+            }
+
+            final List<DhisResource> result = new ArrayList<>();
+            for ( int i = from; i < Math.min( from + invocation.<Integer>getArgument( 2 ), count ); i++ )
+            {
+                result.add( new TrackedEntityInstance() );
+            }
+
+            final DhisToFhirSearchState nextState = Mockito.mock( DhisToFhirSearchState.class );
+            states.add( nextState );
+            return new DhisToFhirSearchResult<>( result, nextState );
+        } ).when( dataProvider ).search( Mockito.same( preparedSearch ), Mockito.any(), Mockito.anyInt() );
+
+        return new DhisToFhirSearchBundleProvider( fhirClient, rules, dataProvider, preparedSearch, 10,
+            dhisToFhirTransformerService, requestCacheService, authorizationContext, executor );
+    }
+}
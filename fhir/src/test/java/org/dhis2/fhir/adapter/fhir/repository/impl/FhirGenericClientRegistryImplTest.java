@@ -0,0 +1,169 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.model.api.IFhirVersion;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ClientFhirEndpoint;
+import org.dhis2.fhir.adapter.fhir.metadata.model.RequestHeader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Unit tests for {@link FhirGenericClientRegistryImpl}.
+ *
+ * @author volsch
+ */
+public class FhirGenericClientRegistryImplTest
+{
+    @Mock
+    private FhirContext fhirContext;
+
+    @Mock
+    private IFhirVersion fhirVersion;
+
+    @Mock
+    private IRestfulClientFactory restfulClientFactory;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private FhirGenericClientRegistryImpl registry;
+
+    private final UUID fhirClientId = UUID.randomUUID();
+
+    private ClientFhirEndpoint fhirEndpoint;
+
+    @Before
+    public void setUp()
+    {
+        Mockito.when( fhirContext.getVersion() ).thenReturn( fhirVersion );
+        Mockito.when( fhirVersion.getVersion() ).thenReturn( FhirVersionEnum.R4 );
+        Mockito.when( fhirContext.getRestfulClientFactory() ).thenReturn( restfulClientFactory );
+        Mockito.when( restfulClientFactory.getServerValidationMode() ).thenReturn( ServerValidationModeEnum.NEVER );
+
+        registry = new FhirGenericClientRegistryImpl( new RepositoryConfig(), 0 );
+
+        fhirEndpoint = new ClientFhirEndpoint();
+        fhirEndpoint.setBaseUrl( "http://localhost:8081/fhir" );
+        fhirEndpoint.setHeaders( new ArrayList<>() );
+        fhirEndpoint.getHeaders().add( new RequestHeader( "Authorization", "Bearer 123", true ) );
+    }
+
+    @Test
+    public void getClientShared()
+    {
+        final IGenericClient client = registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        Assert.assertEquals( "http://localhost:8081/fhir", client.getServerBase() );
+        Assert.assertSame( client, registry.getClient( fhirContext, fhirClientId, fhirEndpoint ) );
+    }
+
+    @Test
+    public void getClientOtherFhirClient()
+    {
+        final IGenericClient client = registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        Assert.assertNotSame( client, registry.getClient( fhirContext, UUID.randomUUID(), fhirEndpoint ) );
+    }
+
+    @Test
+    public void getClientChangedBaseUrl()
+    {
+        final IGenericClient client = registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        fhirEndpoint.setBaseUrl( "http://localhost:8082/fhir" );
+
+        final IGenericClient changedClient = registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        Assert.assertNotSame( client, changedClient );
+        Assert.assertEquals( "http://localhost:8082/fhir", changedClient.getServerBase() );
+    }
+
+    @Test
+    public void getClientChangedHeader()
+    {
+        final IGenericClient client = registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        fhirEndpoint.getHeaders().get( 0 ).setValue( "Bearer 456" );
+
+        Assert.assertNotSame( client, registry.getClient( fhirContext, fhirClientId, fhirEndpoint ) );
+    }
+
+    @Test
+    public void evict()
+    {
+        final IGenericClient client = registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        registry.evict( fhirClientId );
+
+        Assert.assertNotSame( client, registry.getClient( fhirContext, fhirClientId, fhirEndpoint ) );
+    }
+
+    @Test
+    public void getClientChangedClosesRetired()
+    {
+        registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        fhirEndpoint.setBaseUrl( "http://localhost:8082/fhir" );
+        registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+
+        Assert.assertEquals( 0, registry.getRetiredClientCount() );
+    }
+
+    @Test
+    public void evictRetiredWithinGracePeriod()
+    {
+        registry = new FhirGenericClientRegistryImpl( new RepositoryConfig() );
+        registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        registry.evict( fhirClientId );
+        registry.closeRetiredClients();
+
+        Assert.assertEquals( 1, registry.getRetiredClientCount() );
+    }
+
+    @Test
+    public void destroy()
+    {
+        registry = new FhirGenericClientRegistryImpl( new RepositoryConfig() );
+        final IGenericClient client = registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        registry.evict( fhirClientId );
+        registry.getClient( fhirContext, fhirClientId, fhirEndpoint );
+        registry.destroy();
+
+        Assert.assertEquals( 0, registry.getRetiredClientCount() );
+        Assert.assertNotSame( client, registry.getClient( fhirContext, fhirClientId, fhirEndpoint ) );
+    }
+}
@@ -28,31 +28,51 @@ package org.dhis2.fhir.adapter.fhir.repository.impl;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import ca.uhn.fhir.model.primitive.IdDt;
 import org.dhis2.fhir.adapter.auth.AuthorizationContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheContext;
 import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.dhis.DhisConflictException;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryPersistResult;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryPersistStatus;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisRepositoryResultCallback;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainer;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainerFactory;
 import org.dhis2.fhir.adapter.dhis.sync.DhisResourceRepository;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityInstance;
 import org.dhis2.fhir.adapter.fhir.client.StoredFhirResourceService;
 import org.dhis2.fhir.adapter.fhir.data.repository.FhirDhisAssignmentRepository;
 import org.dhis2.fhir.adapter.fhir.data.repository.SubscriptionFhirResourceRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.model.AuthenticationMethod;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
+import org.dhis2.fhir.adapter.fhir.metadata.model.SubscriptionDhisEndpoint;
 import org.dhis2.fhir.adapter.fhir.metadata.model.TrackedEntityRule;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientResourceRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientSystemRepository;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryBatchItem;
 import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryOperation;
 import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryOperationType;
 import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepository;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformOutcome;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerService;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.model.FhirRequestMethod;
+import org.dhis2.fhir.adapter.lock.LockContext;
 import org.dhis2.fhir.adapter.lock.LockManager;
+import org.dhis2.fhir.adapter.lock.LockOrderException;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.UUID;
 
 /**
@@ -95,12 +115,223 @@ public class FhirRepositoryImplTest
     @Mock
     private FhirDhisAssignmentRepository fhirDhisAssignmentRepository;
 
+    @Mock
+    private LocalDhisResourceRepositoryContainerFactory repositoryContainerFactory;
+
+    @Mock
+    private LocalDhisResourceRepositoryContainer repositoryContainer;
+
+    @Mock
+    private LockContext lockContext;
+
+    @Mock
+    private RequestCacheContext requestCacheContext;
+
     @InjectMocks
     private FhirRepositoryImpl repository;
 
     @Rule
     public MockitoRule mockitoRule = MockitoJUnit.rule();
 
+    @Test
+    public void saveAllHoldsLocksUntilPersisted()
+    {
+        final SubscriptionDhisEndpoint dhisEndpoint = new SubscriptionDhisEndpoint();
+        dhisEndpoint.setAuthenticationMethod( AuthenticationMethod.BASIC );
+        dhisEndpoint.setUsername( "admin" );
+        dhisEndpoint.setPassword( "district" );
+
+        final FhirClient fhirClient = new FhirClient();
+        fhirClient.setId( UUID.randomUUID() );
+        fhirClient.setDhisEndpoint( dhisEndpoint );
+
+        Mockito.doReturn( lockContext ).when( lockManager ).begin();
+        Mockito.doReturn( requestCacheContext ).when( requestCacheService ).createRequestCacheContext();
+        Mockito.doReturn( repositoryContainer ).when( repositoryContainerFactory ).create( Mockito.any() );
+
+        repository.saveAll( fhirClient, Collections.emptyList() );
+
+        final InOrder inOrder = Mockito.inOrder( lockManager, repositoryContainer, fhirDhisAssignmentRepository, lockContext );
+        inOrder.verify( lockManager ).begin();
+        inOrder.verify( repositoryContainer ).apply( Mockito.any() );
+        inOrder.verify( fhirDhisAssignmentRepository ).saveDhisResourceIds( Mockito.same( fhirClient ), Mockito.any() );
+        inOrder.verify( lockContext ).close();
+    }
+
+    @Test
+    public void saveAllLocksResourcesOfBatch()
+    {
+        final SubscriptionDhisEndpoint dhisEndpoint = new SubscriptionDhisEndpoint();
+        dhisEndpoint.setAuthenticationMethod( AuthenticationMethod.BASIC );
+        dhisEndpoint.setUsername( "admin" );
+        dhisEndpoint.setPassword( "district" );
+
+        final FhirClient fhirClient = new FhirClient();
+        fhirClient.setId( UUID.randomUUID() );
+        fhirClient.setDhisEndpoint( dhisEndpoint );
+
+        final FhirClientResource fhirClientResource = new FhirClientResource();
+        fhirClientResource.setFhirClient( fhirClient );
+
+        final IBaseResource resource1 = Mockito.mock( IBaseResource.class );
+        Mockito.doReturn( new IdDt( "Patient", "b1", "2" ) ).when( resource1 ).getIdElement();
+        final IBaseResource resource2 = Mockito.mock( IBaseResource.class );
+        Mockito.doReturn( new IdDt( "Patient", "a1" ) ).when( resource2 ).getIdElement();
+
+        Mockito.doReturn( lockContext ).when( lockManager ).begin();
+        Mockito.doReturn( requestCacheContext ).when( requestCacheService ).createRequestCacheContext();
+        Mockito.doReturn( repositoryContainer ).when( repositoryContainerFactory ).create( Mockito.any() );
+
+        final FhirRepositoryImpl spiedRepository = Mockito.spy( repository );
+        Mockito.doReturn( null ).when( spiedRepository ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.any() );
+
+        spiedRepository.saveAll( fhirClient, Arrays.asList(
+            new FhirRepositoryBatchItem( fhirClientResource, resource1 ), new FhirRepositoryBatchItem( fhirClientResource, resource2 ) ) );
+
+        // all keys must be passed at once, so that they can be locked with a single statement
+        final InOrder inOrder = Mockito.inOrder( lockContext, spiedRepository );
+        inOrder.verify( lockContext ).lock( Mockito.eq( Arrays.asList( "in-te-fhir-resource-id:Patient/b1", "in-te-fhir-resource-id:Patient/a1" ) ) );
+        inOrder.verify( spiedRepository, Mockito.times( 2 ) ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.any() );
+        inOrder.verify( lockContext ).close();
+        Mockito.verify( lockContext, Mockito.never() ).lock( Mockito.anyString() );
+    }
+
+    @Test
+    public void saveAllRetriesConflicts()
+    {
+        final SubscriptionDhisEndpoint dhisEndpoint = new SubscriptionDhisEndpoint();
+        dhisEndpoint.setAuthenticationMethod( AuthenticationMethod.BASIC );
+        dhisEndpoint.setUsername( "admin" );
+        dhisEndpoint.setPassword( "district" );
+
+        final FhirClient fhirClient = new FhirClient();
+        fhirClient.setId( UUID.randomUUID() );
+        fhirClient.setDhisEndpoint( dhisEndpoint );
+
+        final FhirClientResource fhirClientResource = new FhirClientResource();
+        fhirClientResource.setFhirClient( fhirClient );
+
+        final IBaseResource resource1 = Mockito.mock( IBaseResource.class, Mockito.RETURNS_DEEP_STUBS );
+        final IBaseResource resource2 = Mockito.mock( IBaseResource.class, Mockito.RETURNS_DEEP_STUBS );
+        final FhirRepositoryBatchItem batchItem1 = new FhirRepositoryBatchItem( fhirClientResource, resource1 );
+        final FhirRepositoryBatchItem batchItem2 = new FhirRepositoryBatchItem( fhirClientResource, resource2 );
+
+        final TrackedEntityInstance trackedEntityInstance = new TrackedEntityInstance();
+        trackedEntityInstance.setId( "b1234567890" );
+
+        Mockito.doReturn( lockContext ).when( lockManager ).begin();
+        Mockito.doReturn( requestCacheContext ).when( requestCacheService ).createRequestCacheContext();
+        Mockito.doReturn( repositoryContainer ).when( repositoryContainerFactory ).create( Mockito.any() );
+        Mockito.doAnswer( invocation -> {
+            final LocalDhisRepositoryResultCallback callback = invocation.getArgument( 0 );
+            callback.persisted( trackedEntityInstance, batchItem1,
+                new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.CONFLICT, "b1234567890", "Conflict" ) );
+            return null;
+        } ).when( repositoryContainer ).apply( Mockito.any() );
+
+        final FhirRepositoryImpl spiedRepository = Mockito.spy( repository );
+        Mockito.doReturn( null ).when( spiedRepository ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.any() );
+
+        spiedRepository.saveAll( fhirClient, Arrays.asList( batchItem1, batchItem2 ) );
+
+        Assert.assertFalse( batchItem1.isFailed() );
+        Assert.assertFalse( batchItem2.isFailed() );
+
+        final InOrder inOrder = Mockito.inOrder( spiedRepository, repositoryContainer, lockContext );
+        inOrder.verify( spiedRepository ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.same( resource1 ) );
+        inOrder.verify( spiedRepository ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.same( resource2 ) );
+        inOrder.verify( repositoryContainer ).apply( Mockito.any() );
+        // the locks of the batch are released before the item is processed separately
+        inOrder.verify( lockContext ).close();
+        inOrder.verify( spiedRepository ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.same( resource1 ) );
+        Mockito.verify( spiedRepository, Mockito.times( 3 ) ).saveRetriedWithoutTrackedEntityInstance( Mockito.any(), Mockito.any() );
+    }
+
+    @Test
+    public void saveAllProcessesLockOrderViolationsSeparately()
+    {
+        final SubscriptionDhisEndpoint dhisEndpoint = new SubscriptionDhisEndpoint();
+        dhisEndpoint.setAuthenticationMethod( AuthenticationMethod.BASIC );
+        dhisEndpoint.setUsername( "admin" );
+        dhisEndpoint.setPassword( "district" );
+
+        final FhirClient fhirClient = new FhirClient();
+        fhirClient.setId( UUID.randomUUID() );
+        fhirClient.setDhisEndpoint( dhisEndpoint );
+
+        final FhirClientResource fhirClientResource = new FhirClientResource();
+        fhirClientResource.setFhirClient( fhirClient );
+
+        final IBaseResource resource1 = Mockito.mock( IBaseResource.class, Mockito.RETURNS_DEEP_STUBS );
+        final IBaseResource resource2 = Mockito.mock( IBaseResource.class, Mockito.RETURNS_DEEP_STUBS );
+        final FhirRepositoryBatchItem batchItem1 = new FhirRepositoryBatchItem( fhirClientResource, resource1 );
+        final FhirRepositoryBatchItem batchItem2 = new FhirRepositoryBatchItem( fhirClientResource, resource2 );
+
+        Mockito.doReturn( lockContext ).when( lockManager ).begin();
+        Mockito.doReturn( requestCacheContext ).when( requestCacheService ).createRequestCacheContext();
+        Mockito.doReturn( repositoryContainer ).when( repositoryContainerFactory ).create( Mockito.any() );
+
+        final FhirRepositoryImpl spiedRepository = Mockito.spy( repository );
+        Mockito.doThrow( new LockOrderException( "Out of order" ) ).doReturn( null ).when( spiedRepository )
+            .saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.same( resource1 ) );
+        Mockito.doReturn( null ).when( spiedRepository ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.same( resource2 ) );
+
+        spiedRepository.saveAll( fhirClient, Arrays.asList( batchItem1, batchItem2 ) );
+
+        Assert.assertFalse( batchItem1.isFailed() );
+        Assert.assertFalse( batchItem2.isFailed() );
+
+        final InOrder inOrder = Mockito.inOrder( spiedRepository, repositoryContainer, lockContext );
+        inOrder.verify( spiedRepository ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.same( resource1 ) );
+        inOrder.verify( spiedRepository ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.same( resource2 ) );
+        inOrder.verify( repositoryContainer ).apply( Mockito.any() );
+        inOrder.verify( lockContext ).close();
+        inOrder.verify( spiedRepository ).saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.same( resource1 ) );
+        Mockito.verify( spiedRepository, Mockito.times( 3 ) ).saveRetriedWithoutTrackedEntityInstance( Mockito.any(), Mockito.any() );
+    }
+
+    @Test
+    public void saveAllConflictRetryFails()
+    {
+        final SubscriptionDhisEndpoint dhisEndpoint = new SubscriptionDhisEndpoint();
+        dhisEndpoint.setAuthenticationMethod( AuthenticationMethod.BASIC );
+        dhisEndpoint.setUsername( "admin" );
+        dhisEndpoint.setPassword( "district" );
+
+        final FhirClient fhirClient = new FhirClient();
+        fhirClient.setId( UUID.randomUUID() );
+        fhirClient.setDhisEndpoint( dhisEndpoint );
+
+        final FhirClientResource fhirClientResource = new FhirClientResource();
+        fhirClientResource.setFhirClient( fhirClient );
+
+        final IBaseResource resource = Mockito.mock( IBaseResource.class, Mockito.RETURNS_DEEP_STUBS );
+        final FhirRepositoryBatchItem batchItem = new FhirRepositoryBatchItem( fhirClientResource, resource );
+
+        final TrackedEntityInstance trackedEntityInstance = new TrackedEntityInstance();
+        trackedEntityInstance.setId( "b1234567890" );
+
+        Mockito.doReturn( lockContext ).when( lockManager ).begin();
+        Mockito.doReturn( requestCacheContext ).when( requestCacheService ).createRequestCacheContext();
+        Mockito.doReturn( repositoryContainer ).when( repositoryContainerFactory ).create( Mockito.any() );
+        Mockito.doAnswer( invocation -> {
+            final LocalDhisRepositoryResultCallback callback = invocation.getArgument( 0 );
+            callback.persisted( trackedEntityInstance, batchItem,
+                new LocalDhisRepositoryPersistResult( LocalDhisRepositoryPersistStatus.CONFLICT, "b1234567890", "Conflict" ) );
+            return null;
+        } ).when( repositoryContainer ).apply( Mockito.any() );
+
+        final FhirRepositoryImpl spiedRepository = Mockito.spy( repository );
+        final DhisConflictException conflictException = new DhisConflictException( "Conflict" );
+        Mockito.doReturn( null ).doThrow( conflictException ).when( spiedRepository )
+            .saveRetriedWithoutTrackedEntityInstance( Mockito.same( fhirClientResource ), Mockito.same( resource ) );
+
+        spiedRepository.saveAll( fhirClient, Collections.singletonList( batchItem ) );
+
+        Assert.assertSame( conflictException, batchItem.getException() );
+        Mockito.verify( fhirDhisAssignmentRepository ).saveDhisResourceIds( Mockito.same( fhirClient ), Mockito.eq( Collections.emptyList() ) );
+    }
+
     @Test
     public void getRequestMethodCreate()
     {
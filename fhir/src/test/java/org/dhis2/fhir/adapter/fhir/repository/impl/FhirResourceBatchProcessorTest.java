@@ -0,0 +1,148 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.dhis.DhisImportUnsuccessfulException;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepository;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryBatchItem;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link FhirResourceBatchProcessor}.
+ *
+ * @author volsch
+ */
+public class FhirResourceBatchProcessorTest
+{
+    @Mock
+    private FhirRepository fhirRepository;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private RepositoryConfig repositoryConfig;
+
+    private FhirClientResource fhirClientResource;
+
+    private FhirResourceBatchProcessor processor;
+
+    @Before
+    public void setUp()
+    {
+        repositoryConfig = new RepositoryConfig();
+        repositoryConfig.getFhirResourceBatch().setEnabled( true );
+        repositoryConfig.getFhirResourceBatch().setMaxSize( 2 );
+        repositoryConfig.getFhirResourceBatch().setMaxDelayMillis( 60_000 );
+
+        final FhirClient fhirClient = new FhirClient();
+        fhirClient.setId( UUID.randomUUID() );
+        fhirClientResource = new FhirClientResource();
+        fhirClientResource.setFhirClient( fhirClient );
+
+        processor = new FhirResourceBatchProcessor( fhirRepository, repositoryConfig );
+    }
+
+    @Test
+    @SuppressWarnings( "unchecked" )
+    public void saveBatched() throws Exception
+    {
+        final IBaseResource patient1 = Mockito.mock( IBaseResource.class );
+        final IBaseResource patient2 = Mockito.mock( IBaseResource.class );
+
+        Mockito.doAnswer( invocation -> {
+            final Collection<FhirRepositoryBatchItem> items = invocation.getArgument( 1 );
+            Assert.assertEquals( 2, items.size() );
+            items.stream().filter( i -> i.getResource() == patient2 ).forEach( i -> i.failed( new DhisImportUnsuccessfulException( "Test" ) ) );
+            return null;
+        } ).when( fhirRepository ).saveAll( Mockito.same( fhirClientResource.getFhirClient() ), ArgumentMatchers.anyCollection() );
+
+        final ExecutorService executorService = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            final Future<?> future1 = executorService.submit( () -> processor.save( fhirClientResource, patient1 ) );
+            final Future<?> future2 = executorService.submit( () -> processor.save( fhirClientResource, patient2 ) );
+
+            future1.get( 10, TimeUnit.SECONDS );
+            try
+            {
+                future2.get( 10, TimeUnit.SECONDS );
+                Assert.fail( "Exception expected." );
+            }
+            catch ( ExecutionException e )
+            {
+                Assert.assertTrue( e.getCause() instanceof DhisImportUnsuccessfulException );
+            }
+        }
+        finally
+        {
+            executorService.shutdownNow();
+        }
+
+        Mockito.verify( fhirRepository, Mockito.times( 1 ) ).saveAll( Mockito.any(), Mockito.anyCollection() );
+    }
+
+    @Test
+    public void saveIncompleteBatch()
+    {
+        repositoryConfig.getFhirResourceBatch().setMaxDelayMillis( 10 );
+
+        final IBaseResource patient = Mockito.mock( IBaseResource.class );
+        processor.save( fhirClientResource, patient );
+
+        Mockito.verify( fhirRepository ).saveAll( Mockito.same( fhirClientResource.getFhirClient() ), Mockito.argThat( items -> items.size() == 1 ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void saveBatchFailed()
+    {
+        repositoryConfig.getFhirResourceBatch().setMaxDelayMillis( 0 );
+        Mockito.doThrow( new IllegalStateException() ).when( fhirRepository ).saveAll( Mockito.any(), Mockito.anyCollection() );
+
+        processor.save( fhirClientResource, Mockito.mock( IBaseResource.class ) );
+    }
+}
@@ -0,0 +1,182 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceId;
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
+import org.dhis2.fhir.adapter.fhir.data.model.FhirDhisAssignment;
+import org.dhis2.fhir.adapter.fhir.data.repository.FhirDhisAssignmentRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.TrackedEntityRule;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryException;
+import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepository;
+import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepositoryBatchItem;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link FhirResourceExportBatchProcessor}.
+ *
+ * @author volsch
+ */
+public class FhirResourceExportBatchProcessorTest
+{
+    @Mock
+    private FhirResourceRepository fhirResourceRepository;
+
+    @Mock
+    private FhirDhisAssignmentRepository fhirDhisAssignmentRepository;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private RepositoryConfig repositoryConfig;
+
+    private FhirClient fhirClient;
+
+    private AbstractRule rule;
+
+    private FhirResourceExportBatchProcessor processor;
+
+    @Before
+    public void setUp()
+    {
+        repositoryConfig = new RepositoryConfig();
+        repositoryConfig.getFhirResourceExportBatch().setEnabled( true );
+        repositoryConfig.getFhirResourceExportBatch().setMaxSize( 2 );
+        repositoryConfig.getFhirResourceExportBatch().setMaxDelayMillis( 60_000 );
+
+        fhirClient = new FhirClient();
+        fhirClient.setId( UUID.randomUUID() );
+
+        rule = new TrackedEntityRule();
+        rule.setId( UUID.randomUUID() );
+
+        processor = new FhirResourceExportBatchProcessor( fhirResourceRepository, fhirDhisAssignmentRepository, repositoryConfig );
+    }
+
+    @Test
+    public void isEnabled()
+    {
+        Assert.assertTrue( processor.isEnabled() );
+        repositoryConfig.getFhirResourceExportBatch().setEnabled( false );
+        Assert.assertFalse( processor.isEnabled() );
+    }
+
+    @Test
+    @SuppressWarnings( "unchecked" )
+    public void saveBatched() throws Exception
+    {
+        final IBaseResource patient1 = Mockito.mock( IBaseResource.class );
+        final IBaseResource patient2 = Mockito.mock( IBaseResource.class );
+        final IBaseResource savedPatient1 = Mockito.mock( IBaseResource.class, Mockito.RETURNS_DEEP_STUBS );
+        Mockito.doReturn( "x1" ).when( savedPatient1.getIdElement() ).getIdPart();
+
+        Mockito.doAnswer( invocation -> {
+            final List<FhirResourceRepositoryBatchItem> items = invocation.getArgument( 1 );
+            Assert.assertEquals( 2, items.size() );
+            items.stream().filter( i -> i.getResource() == patient1 ).forEach( i -> i.setResult( savedPatient1 ) );
+            items.stream().filter( i -> i.getResource() == patient2 ).forEach( i -> i.failed( new FhirRepositoryException( "Test" ) ) );
+            return null;
+        } ).when( fhirResourceRepository ).saveAll( Mockito.same( fhirClient ), ArgumentMatchers.anyList() );
+
+        final ExecutorService executorService = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            final Future<IBaseResource> future1 = executorService.submit( () -> processor.save( fhirClient, rule, patient1, new DhisResourceId( DhisResourceType.TRACKED_ENTITY, "a1234567890" ) ) );
+            final Future<IBaseResource> future2 = executorService.submit( () -> processor.save( fhirClient, rule, patient2, new DhisResourceId( DhisResourceType.TRACKED_ENTITY, "b1234567890" ) ) );
+
+            Assert.assertSame( savedPatient1, future1.get( 10, TimeUnit.SECONDS ) );
+            try
+            {
+                future2.get( 10, TimeUnit.SECONDS );
+                Assert.fail( "Exception expected." );
+            }
+            catch ( ExecutionException e )
+            {
+                Assert.assertTrue( e.getCause() instanceof FhirRepositoryException );
+            }
+        }
+        finally
+        {
+            executorService.shutdownNow();
+        }
+
+        Mockito.verify( fhirResourceRepository, Mockito.times( 1 ) ).saveAll( Mockito.any(), Mockito.anyList() );
+
+        final ArgumentCaptor<Collection<FhirDhisAssignment>> assignmentsCaptor = ArgumentCaptor.forClass( Collection.class );
+        Mockito.verify( fhirDhisAssignmentRepository ).saveFhirResourceIds( Mockito.same( fhirClient ), assignmentsCaptor.capture() );
+        // only the assignment of the successfully saved FHIR resource must be saved
+        Assert.assertEquals( 1, assignmentsCaptor.getValue().size() );
+        final FhirDhisAssignment assignment = assignmentsCaptor.getValue().iterator().next();
+        Assert.assertSame( rule, assignment.getRule() );
+        Assert.assertEquals( "x1", assignment.getFhirResourceId() );
+        Assert.assertEquals( "a1234567890", assignment.getDhisResourceId() );
+    }
+
+    @Test
+    public void saveIncompleteBatch()
+    {
+        repositoryConfig.getFhirResourceExportBatch().setMaxDelayMillis( 10 );
+
+        final IBaseResource patient = Mockito.mock( IBaseResource.class );
+        Assert.assertSame( patient, processor.save( fhirClient, rule, patient, new DhisResourceId( DhisResourceType.TRACKED_ENTITY, "a1234567890" ) ) );
+
+        Mockito.verify( fhirResourceRepository ).saveAll( Mockito.same( fhirClient ),
+            Mockito.argThat( items -> items.size() == 1 && items.get( 0 ).getResource() == patient ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void saveBatchFailed()
+    {
+        repositoryConfig.getFhirResourceExportBatch().setMaxDelayMillis( 0 );
+        Mockito.doThrow( new IllegalStateException() ).when( fhirResourceRepository ).saveAll( Mockito.any(), Mockito.anyList() );
+
+        processor.save( fhirClient, rule, Mockito.mock( IBaseResource.class ), new DhisResourceId( DhisResourceType.TRACKED_ENTITY, "a1234567890" ) );
+    }
+}
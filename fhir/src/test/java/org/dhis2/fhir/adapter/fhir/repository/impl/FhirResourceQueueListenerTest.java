@@ -0,0 +1,189 @@
+package org.dhis2.fhir.adapter.fhir.repository.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.auth.AuthorizationContext;
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
+import org.dhis2.fhir.adapter.dhis.DhisConflictException;
+import org.dhis2.fhir.adapter.dhis.sync.DhisResourceRepository;
+import org.dhis2.fhir.adapter.fhir.client.StoredFhirResourceService;
+import org.dhis2.fhir.adapter.fhir.data.repository.FhirDhisAssignmentRepository;
+import org.dhis2.fhir.adapter.fhir.data.repository.SubscriptionFhirResourceRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirResourceType;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientResourceRepository;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientSystemRepository;
+import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepository;
+import org.dhis2.fhir.adapter.fhir.repository.FhirRepositoryBatchItem;
+import org.dhis2.fhir.adapter.fhir.repository.FhirResource;
+import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepository;
+import org.dhis2.fhir.adapter.fhir.transform.TransformerDataException;
+import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerService;
+import org.dhis2.fhir.adapter.lock.LockManager;
+import org.dhis2.fhir.adapter.queue.RetryQueueDeliveryException;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Unit tests for {@link FhirResourceQueueListener}.
+ *
+ * @author volsch
+ */
+public class FhirResourceQueueListenerTest
+{
+    @Mock
+    private AuthorizationContext authorizationContext;
+
+    @Mock
+    private LockManager lockManager;
+
+    @Mock
+    private RequestCacheService requestCacheService;
+
+    @Mock
+    private FhirClientSystemRepository fhirClientSystemRepository;
+
+    @Mock
+    private FhirClientResourceRepository fhirClientResourceRepository;
+
+    @Mock
+    private SubscriptionFhirResourceRepository subscriptionFhirResourceRepository;
+
+    @Mock
+    private StoredFhirResourceService storedItemService;
+
+    @Mock
+    private FhirResourceRepository fhirResourceRepository;
+
+    @Mock
+    private FhirRepository fhirRepository;
+
+    @Mock
+    private FhirToDhisTransformerService fhirToDhisTransformerService;
+
+    @Mock
+    private DhisResourceRepository dhisResourceRepository;
+
+    @Mock
+    private FhirDhisAssignmentRepository fhirDhisAssignmentRepository;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private FhirClientResource fhirClientResource;
+
+    private IBaseResource resource;
+
+    private FhirResource fhirResource;
+
+    private FhirResourceQueueListener listener;
+
+    @Before
+    public void setUp()
+    {
+        final RepositoryConfig repositoryConfig = new RepositoryConfig();
+        repositoryConfig.getFhirResourceBatch().setEnabled( true );
+        repositoryConfig.getFhirResourceBatch().setMaxSize( 1 );
+        repositoryConfig.getFhirResourceBatch().setMaxDelayMillis( 60_000 );
+
+        final FhirClient fhirClient = new FhirClient();
+        fhirClient.setId( UUID.randomUUID() );
+        fhirClient.setFhirVersion( FhirVersion.R4 );
+
+        fhirClientResource = new FhirClientResource();
+        fhirClientResource.setId( UUID.randomUUID() );
+        fhirClientResource.setFhirClient( fhirClient );
+        fhirClientResource.setFhirResourceType( FhirResourceType.OBSERVATION );
+
+        resource = Mockito.mock( IBaseResource.class, Mockito.RETURNS_DEEP_STUBS );
+        Mockito.doReturn( "a1" ).when( resource.getIdElement() ).getIdPart();
+        Mockito.doReturn( "2" ).when( resource.getMeta() ).getVersionId();
+        Mockito.doReturn( null ).when( resource.getMeta() ).getLastUpdated();
+
+        fhirResource = new FhirResource();
+        fhirResource.setFhirClientResourceId( fhirClientResource.getId() );
+        fhirResource.setId( "a1" );
+
+        Mockito.doReturn( Optional.of( fhirClientResource ) ).when( fhirClientResourceRepository ).findOneByIdCached( Mockito.eq( fhirClientResource.getId() ) );
+        Mockito.doReturn( Optional.empty() ).when( subscriptionFhirResourceRepository ).findResource( Mockito.same( fhirClientResource ), Mockito.eq( "a1" ) );
+        Mockito.doReturn( Optional.of( resource ) ).when( fhirResourceRepository ).findRefreshed( Mockito.eq( fhirClient.getId() ), Mockito.eq( FhirVersion.R4 ),
+            Mockito.any(), Mockito.eq( "Observation" ), Mockito.eq( "a1" ) );
+
+        listener = new FhirResourceQueueListener( authorizationContext, lockManager, requestCacheService, fhirClientSystemRepository, fhirClientResourceRepository,
+            subscriptionFhirResourceRepository, storedItemService, fhirResourceRepository, fhirRepository, new FhirResourceBatchProcessor( fhirRepository, repositoryConfig ),
+            fhirToDhisTransformerService, dhisResourceRepository, fhirDhisAssignmentRepository );
+    }
+
+    @Test
+    public void receiveBatchedConflict()
+    {
+        Mockito.doAnswer( invocation -> {
+            final Collection<FhirRepositoryBatchItem> items = invocation.getArgument( 1 );
+            items.forEach( i -> i.failed( new DhisConflictException( "Non-unique attribute value." ) ) );
+            return null;
+        } ).when( fhirRepository ).saveAll( Mockito.same( fhirClientResource.getFhirClient() ), ArgumentMatchers.anyCollection() );
+
+        listener.receive( fhirResource );
+
+        Mockito.verify( fhirRepository, Mockito.never() ).save( Mockito.any(), Mockito.any(), Mockito.any() );
+        Mockito.verify( storedItemService ).stored( Mockito.same( fhirClientResource.getFhirClient() ), ArgumentMatchers.endsWith( "/a1|2" ) );
+    }
+
+    @Test( expected = RetryQueueDeliveryException.class )
+    public void receiveBatchedTransformerDataException()
+    {
+        Mockito.doAnswer( invocation -> {
+            final Collection<FhirRepositoryBatchItem> items = invocation.getArgument( 1 );
+            items.forEach( i -> i.failed( new TransformerDataException( "Test" ) ) );
+            return null;
+        } ).when( fhirRepository ).saveAll( Mockito.same( fhirClientResource.getFhirClient() ), ArgumentMatchers.anyCollection() );
+
+        try
+        {
+            listener.receive( fhirResource );
+        }
+        finally
+        {
+            Mockito.verify( storedItemService, Mockito.never() ).stored( Mockito.any(), Mockito.any() );
+        }
+    }
+}
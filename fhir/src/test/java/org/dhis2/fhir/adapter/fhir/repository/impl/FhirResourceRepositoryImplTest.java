@@ -33,7 +33,10 @@ import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.model.api.IFhirVersion;
 import ca.uhn.fhir.model.primitive.IdDt;
 import org.dhis2.fhir.adapter.fhir.client.StoredFhirResourceService;
+import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirClientResourceRepository;
+import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
+import org.dhis2.fhir.adapter.fhir.repository.FhirGenericClientRegistry;
 import org.dhis2.fhir.adapter.fhir.script.ScriptExecutor;
 import org.dhis2.fhir.adapter.spring.StaticObjectProvider;
 import org.hl7.fhir.instance.model.api.IBaseMetaType;
@@ -47,10 +50,13 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Implementation of {@link FhirResourceRepositoryImpl}.
@@ -68,6 +74,15 @@ public class FhirResourceRepositoryImplTest
     @Mock
     private FhirClientResourceRepository fhirClientResourceRepository;
 
+    @Mock
+    private FhirGenericClientRegistry fhirGenericClientRegistry;
+
+    @Mock
+    private CacheManager fhirCacheManager;
+
+    @Mock
+    private Cache cache;
+
     @Mock
     private FhirContext fhirContextDstu3;
 
@@ -93,7 +108,7 @@ public class FhirResourceRepositoryImplTest
         Mockito.when( fhirContextR4.getVersion() ).thenReturn( fhirVersionR4 );
         Mockito.when( fhirVersionR4.getVersion() ).thenReturn( FhirVersionEnum.R4 );
 
-        repository = new FhirResourceRepositoryImpl( scriptExecutor, storedItemService, fhirClientResourceRepository,
+        repository = new FhirResourceRepositoryImpl( scriptExecutor, storedItemService, fhirClientResourceRepository, fhirGenericClientRegistry, fhirCacheManager,
             new StaticObjectProvider<>( Arrays.asList( fhirContextDstu3, fhirContextR4 ) ), new StaticObjectProvider<>( Collections.emptyList() ) );
     }
 
@@ -130,6 +145,25 @@ public class FhirResourceRepositoryImplTest
         Assert.assertEquals( "d0123456789", planDefinition.getIdElement().getIdPart() );
     }
 
+    @Test
+    public void evict()
+    {
+        final FhirClient fhirClient = new FhirClient();
+        fhirClient.setId( UUID.randomUUID() );
+        fhirClient.setFhirVersion( FhirVersion.R4 );
+
+        final Patient patient = new Patient();
+        patient.setId( "a0123456789" );
+
+        Mockito.when( fhirCacheManager.getCache( Mockito.eq( "fhirResources" ) ) ).thenReturn( cache );
+        repository.evict( fhirClient, patient );
+
+        // must match the key of cached resources that have been read by their ID
+        Mockito.verify( cache ).evict( Mockito.eq( Arrays.asList( fhirClient.getId(), FhirVersion.R4, "Patient", "a0123456789", true ) ) );
+        Assert.assertEquals( Arrays.asList( fhirClient.getId(), FhirVersion.R4, "Patient", "a0123456789", true ),
+            FhirResourceRepositoryImpl.createResourceCacheKey( fhirClient.getId(), FhirVersion.R4, "Patient", "a0123456789", true ) );
+    }
+
     public static class Patient extends AbstractBaseResource
     {
         private static final long serialVersionUID = -1428885428508171576L;
@@ -35,6 +35,8 @@ import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import org.dhis2.fhir.adapter.cache.RequestCacheContext;
 import org.dhis2.fhir.adapter.cache.RequestCacheService;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainer;
+import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryContainerFactory;
+import org.dhis2.fhir.adapter.dhis.local.impl.LocalDhisResourceRepositoryContainerImpl;
 import org.dhis2.fhir.adapter.dhis.local.LocalDhisResourceRepositoryTemplate;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClient;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
@@ -131,6 +133,9 @@ public class AbstractBundleResourceProviderTest
     @Mock
     private RequestCacheContext requestCacheContext;
 
+    @Mock
+    private LocalDhisResourceRepositoryContainerFactory repositoryContainerFactory;
+
     @Mock
     private RequestDetails requestDetails;
 
@@ -150,9 +155,11 @@ public class AbstractBundleResourceProviderTest
     public void setUp()
     {
         bundleResourceProvider = Mockito.mock( AbstractBundleResourceProvider.class, Mockito.withSettings()
-            .useConstructor( fhirClientResourceRepository, fhirClientSystemRepository, fhirRepository, dhisRepository, requestCacheService )
+            .useConstructor( fhirClientResourceRepository, fhirClientSystemRepository, fhirRepository, dhisRepository, requestCacheService, repositoryContainerFactory )
             .defaultAnswer( Mockito.CALLS_REAL_METHODS ) );
 
+        Mockito.when( repositoryContainerFactory.create( Mockito.any() ) ).thenAnswer( invocation -> new LocalDhisResourceRepositoryContainerImpl( invocation.getArgument( 0 ) ) );
+
         fhirClient.setId( FhirClient.getIdByFhirVersion( FhirVersion.DSTU3 ) );
         patientClientResource.setFhirClient( fhirClient );
         observationClientResource.setFhirClient( fhirClient );
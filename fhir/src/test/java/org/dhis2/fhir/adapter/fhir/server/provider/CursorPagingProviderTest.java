@@ -0,0 +1,121 @@
+package org.dhis2.fhir.adapter.fhir.server.provider;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import org.dhis2.fhir.adapter.auth.Authorization;
+import org.dhis2.fhir.adapter.auth.AuthorizationContext;
+import org.dhis2.fhir.adapter.fhir.transform.config.FhirRestInterfaceConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+/**
+ * Unit tests for {@link CursorPagingProvider}.
+ *
+ * @author volsch
+ */
+public class CursorPagingProviderTest
+{
+    @Mock
+    private AuthorizationContext authorizationContext;
+
+    @Mock
+    private IBundleProvider bundleProvider;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private FhirRestInterfaceConfig restInterfaceConfig;
+
+    @Before
+    public void before()
+    {
+        restInterfaceConfig = new FhirRestInterfaceConfig();
+        restInterfaceConfig.setMaxPagingCursors( 2 );
+        Mockito.doReturn( new Authorization( "Basic abc" ) ).when( authorizationContext ).getAuthorization();
+        Mockito.doReturn( "4f1c8e0d-0d9a-4cb1-a0e6-7a8e35b0c1f2" ).when( bundleProvider ).getUuid();
+    }
+
+    @Test
+    public void storeAndRetrieve()
+    {
+        final CursorPagingProvider pagingProvider = new CursorPagingProvider( restInterfaceConfig, authorizationContext );
+        final String searchId = pagingProvider.storeResultList( bundleProvider );
+
+        Assert.assertEquals( "4f1c8e0d-0d9a-4cb1-a0e6-7a8e35b0c1f2", searchId );
+        Assert.assertSame( bundleProvider, pagingProvider.retrieveResultList( searchId ) );
+    }
+
+    @Test
+    public void retrieveUnknown()
+    {
+        final CursorPagingProvider pagingProvider = new CursorPagingProvider( restInterfaceConfig, authorizationContext );
+        pagingProvider.storeResultList( bundleProvider );
+
+        Assert.assertNull( pagingProvider.retrieveResultList( "a9a8a6e5-8f9a-4d47-9b4c-0f6c1e2d3b4a" ) );
+    }
+
+    @Test
+    public void retrieveOtherAuthorization()
+    {
+        final CursorPagingProvider pagingProvider = new CursorPagingProvider( restInterfaceConfig, authorizationContext );
+        final String searchId = pagingProvider.storeResultList( bundleProvider );
+
+        Mockito.doReturn( new Authorization( "Basic xyz" ) ).when( authorizationContext ).getAuthorization();
+        Assert.assertNull( pagingProvider.retrieveResultList( searchId ) );
+    }
+
+    @Test
+    public void maxCursors()
+    {
+        final CursorPagingProvider pagingProvider = new CursorPagingProvider( restInterfaceConfig, authorizationContext );
+        for ( int i = 0; i < 10; i++ )
+        {
+            pagingProvider.storeResultList( Mockito.mock( IBundleProvider.class ) );
+        }
+
+        Assert.assertEquals( 2, pagingProvider.getCursorCount() );
+    }
+
+    @Test
+    public void pagingDisabled()
+    {
+        restInterfaceConfig.setPagingEnabled( false );
+        final CursorPagingProvider pagingProvider = new CursorPagingProvider( restInterfaceConfig, authorizationContext );
+
+        Assert.assertNull( pagingProvider.storeResultList( bundleProvider ) );
+        Assert.assertNull( pagingProvider.retrieveResultList( "4f1c8e0d-0d9a-4cb1-a0e6-7a8e35b0c1f2" ) );
+    }
+}
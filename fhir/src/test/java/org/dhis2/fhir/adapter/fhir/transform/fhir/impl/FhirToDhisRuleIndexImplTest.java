@@ -0,0 +1,232 @@
+package org.dhis2.fhir.adapter.fhir.transform.fhir.impl;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.DataType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScript;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ExecutableScriptInfo;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ProgramStageRule;
+import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
+import org.dhis2.fhir.adapter.fhir.metadata.model.Script;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptSource;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptSourceType;
+import org.dhis2.fhir.adapter.fhir.metadata.model.TrackedEntityRule;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.ExecutableScriptRepository;
+import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
+import org.dhis2.fhir.adapter.fhir.model.SystemCodeValue;
+import org.dhis2.fhir.adapter.spring.StaticObjectProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Unit tests for {@link FhirToDhisRuleIndexImpl}.
+ *
+ * @author volsch
+ */
+public class FhirToDhisRuleIndexImplTest
+{
+    @Mock
+    private ExecutableScriptRepository executableScriptRepository;
+
+    @Mock
+    private FhirToDhisTransformer<?, ?> transformer;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private FhirToDhisRuleIndexImpl index;
+
+    @Before
+    public void setUp()
+    {
+        Mockito.doReturn( EnumSet.of( FhirVersion.R4 ) ).when( transformer ).getFhirVersions();
+        Mockito.doReturn( DhisResourceType.PROGRAM_STAGE_EVENT ).when( transformer ).getDhisResourceType();
+        Mockito.doReturn( ProgramStageRule.class ).when( transformer ).getRuleClass();
+
+        index = new FhirToDhisRuleIndexImpl( executableScriptRepository, new StaticObjectProvider<>( Collections.singletonList( transformer ) ) );
+    }
+
+    @Test
+    public void getCompiledRuleWithoutScript()
+    {
+        final RuleInfo<ProgramStageRule> ruleInfo = createRuleInfo( null );
+
+        final CompiledFhirToDhisRule compiledRule = index.getCompiledRule( FhirVersion.R4, ruleInfo );
+        Assert.assertFalse( compiledRule.isApplicableScript() );
+        Assert.assertNull( compiledRule.getApplicableCode() );
+        Assert.assertNull( compiledRule.getApplicabilityKey() );
+        Assert.assertEquals( Collections.singletonList( transformer ), compiledRule.getTransformers() );
+        Assert.assertSame( compiledRule, index.getCompiledRule( FhirVersion.R4, ruleInfo ) );
+    }
+
+    @Test
+    public void getCompiledRuleOtherRuleClass()
+    {
+        final TrackedEntityRule rule = new TrackedEntityRule();
+        rule.setId( UUID.randomUUID() );
+        rule.setVersion( 0L );
+
+        Assert.assertTrue( index.getCompiledRule( FhirVersion.R4, new RuleInfo<>( rule, Collections.emptyList() ) ).getTransformers().isEmpty() );
+    }
+
+    @Test
+    public void getCompiledRuleOtherFhirVersion()
+    {
+        Assert.assertTrue( index.getCompiledRule( FhirVersion.DSTU3, createRuleInfo( null ) ).getTransformers().isEmpty() );
+    }
+
+    @Test
+    public void getCompiledRuleContainsCode()
+    {
+        final RuleInfo<ProgramStageRule> ruleInfo = createRuleInfo( "codeUtils.containsCode(input.code, 'http://loinc.org', '8302-2')" );
+
+        final CompiledFhirToDhisRule compiledRule = index.getCompiledRule( FhirVersion.R4, ruleInfo );
+        Assert.assertTrue( compiledRule.isApplicableScript() );
+        Assert.assertEquals( new SystemCodeValue( "http://loinc.org", "8302-2" ), compiledRule.getApplicableCode() );
+        Assert.assertNotNull( compiledRule.getApplicabilityKey() );
+    }
+
+    @Test
+    public void getCompiledRuleContainsCodeMethod()
+    {
+        final RuleInfo<ProgramStageRule> ruleInfo = createRuleInfo( " codeUtils.containsCode( input.getCode(), \"http://loinc.org\", \"8302-2\" ); " );
+
+        Assert.assertEquals( new SystemCodeValue( "http://loinc.org", "8302-2" ), index.getCompiledRule( FhirVersion.R4, ruleInfo ).getApplicableCode() );
+    }
+
+    @Test
+    public void getCompiledRuleOtherScript()
+    {
+        final RuleInfo<ProgramStageRule> ruleInfo = createRuleInfo( "codeUtils.containsCode(input.code, 'http://loinc.org', '8302-2') && input.value != null" );
+
+        final CompiledFhirToDhisRule compiledRule = index.getCompiledRule( FhirVersion.R4, ruleInfo );
+        Assert.assertTrue( compiledRule.isApplicableScript() );
+        Assert.assertNull( compiledRule.getApplicableCode() );
+        Assert.assertNotNull( compiledRule.getApplicabilityKey() );
+    }
+
+    @Test
+    public void getCompiledRuleSharedApplicabilityKey()
+    {
+        final RuleInfo<ProgramStageRule> ruleInfo1 = createRuleInfo( "input.value != null" );
+        final RuleInfo<ProgramStageRule> ruleInfo2 = createRuleInfo( null );
+        ruleInfo2.getRule().setApplicableImpScript( ruleInfo1.getRule().getApplicableImpScript() );
+
+        Assert.assertEquals( index.getCompiledRule( FhirVersion.R4, ruleInfo1 ).getApplicabilityKey(), index.getCompiledRule( FhirVersion.R4, ruleInfo2 ).getApplicabilityKey() );
+    }
+
+    @Test
+    public void getCompiledRuleChangedVersion()
+    {
+        final RuleInfo<ProgramStageRule> ruleInfo = createRuleInfo( null );
+
+        final CompiledFhirToDhisRule compiledRule = index.getCompiledRule( FhirVersion.R4, ruleInfo );
+        ruleInfo.getRule().setVersion( 1L );
+        Assert.assertNotSame( compiledRule, index.getCompiledRule( FhirVersion.R4, ruleInfo ) );
+    }
+
+    @Test
+    public void getCompiledRuleChangedScriptSource()
+    {
+        final RuleInfo<ProgramStageRule> ruleInfo = createRuleInfo( "codeUtils.containsCode(input.code, 'http://loinc.org', '8302-2')" );
+
+        final CompiledFhirToDhisRule compiledRule = index.getCompiledRule( FhirVersion.R4, ruleInfo );
+        final ScriptSource scriptSource = executableScriptRepository.findInfo( ruleInfo.getRule().getApplicableImpScript(), FhirVersion.R4 ).orElseThrow( IllegalStateException::new ).getScriptSource();
+        scriptSource.setSourceText( "true" );
+        scriptSource.setVersion( 1L );
+
+        final CompiledFhirToDhisRule changedCompiledRule = index.getCompiledRule( FhirVersion.R4, ruleInfo );
+        Assert.assertNotSame( compiledRule, changedCompiledRule );
+        Assert.assertNull( changedCompiledRule.getApplicableCode() );
+    }
+
+    @Test
+    public void evict()
+    {
+        final RuleInfo<ProgramStageRule> ruleInfo = createRuleInfo( null );
+
+        final CompiledFhirToDhisRule compiledRule = index.getCompiledRule( FhirVersion.R4, ruleInfo );
+        index.evict( UUID.randomUUID() );
+        Assert.assertSame( compiledRule, index.getCompiledRule( FhirVersion.R4, ruleInfo ) );
+        index.evict( ruleInfo.getRule().getId() );
+        Assert.assertNotSame( compiledRule, index.getCompiledRule( FhirVersion.R4, ruleInfo ) );
+    }
+
+    @Test
+    public void evictAll()
+    {
+        final RuleInfo<ProgramStageRule> ruleInfo = createRuleInfo( null );
+
+        final CompiledFhirToDhisRule compiledRule = index.getCompiledRule( FhirVersion.R4, ruleInfo );
+        index.evictAll();
+        Assert.assertNotSame( compiledRule, index.getCompiledRule( FhirVersion.R4, ruleInfo ) );
+    }
+
+    @Nonnull
+    private RuleInfo<ProgramStageRule> createRuleInfo( String applicableScriptSourceText )
+    {
+        final ProgramStageRule rule = new ProgramStageRule();
+        rule.setId( UUID.randomUUID() );
+        rule.setVersion( 0L );
+
+        if ( applicableScriptSourceText != null )
+        {
+            final ExecutableScript executableScript = new ExecutableScript();
+            executableScript.setId( UUID.randomUUID() );
+            executableScript.setVersion( 0L );
+
+            final Script script = new Script();
+            script.setReturnType( DataType.BOOLEAN );
+
+            final ScriptSource scriptSource = new ScriptSource();
+            scriptSource.setVersion( 0L );
+            scriptSource.setSourceType( ScriptSourceType.JAVASCRIPT );
+            scriptSource.setSourceText( applicableScriptSourceText );
+
+            Mockito.doReturn( Optional.of( new ExecutableScriptInfo( executableScript, Collections.emptyList(), Collections.emptyList(), script,
+                Collections.emptyList(), Collections.emptyList(), scriptSource ) ) ).when( executableScriptRepository ).findInfo( Mockito.same( executableScript ), Mockito.eq( FhirVersion.R4 ) );
+            rule.setApplicableImpScript( executableScript );
+        }
+
+        return new RuleInfo<>( rule, Collections.emptyList() );
+    }
+}
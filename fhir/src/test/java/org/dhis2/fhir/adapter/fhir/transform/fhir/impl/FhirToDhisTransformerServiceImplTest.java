@@ -28,12 +28,14 @@ package org.dhis2.fhir.adapter.fhir.transform.fhir.impl;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import org.dhis2.fhir.adapter.cache.RequestCacheService;
 import org.dhis2.fhir.adapter.dhis.model.DhisResourceType;
 import org.dhis2.fhir.adapter.fhir.metadata.model.AbstractRule;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirClientResource;
 import org.dhis2.fhir.adapter.fhir.metadata.model.FhirResourceType;
 import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
 import org.dhis2.fhir.adapter.fhir.metadata.model.TrackedEntityRule;
+import org.dhis2.fhir.adapter.fhir.metadata.repository.ExecutableScriptRepository;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.RuleRepository;
 import org.dhis2.fhir.adapter.fhir.repository.DhisFhirResourceId;
 import org.dhis2.fhir.adapter.fhir.repository.FhirResourceRepository;
@@ -64,12 +66,18 @@ public class FhirToDhisTransformerServiceImplTest
     @Mock
     private LockManager lockManager;
 
+    @Mock
+    private RequestCacheService requestCacheService;
+
     @Mock
     private FhirResourceRepository fhirResourceRepository;
 
     @Mock
     private RuleRepository ruleRepository;
 
+    @Mock
+    private ExecutableScriptRepository executableScriptRepository;
+
     @Mock
     private ScriptExecutor scriptExecutor;
 
@@ -84,8 +92,8 @@ public class FhirToDhisTransformerServiceImplTest
     @Before
     public void setUp()
     {
-        service = new FhirToDhisTransformerServiceImpl( lockManager, fhirResourceRepository, ruleRepository,
-            new StaticObjectProvider<>( new ArrayList<>() ), new StaticObjectProvider<>( new ArrayList<>() ),
+        service = new FhirToDhisTransformerServiceImpl( lockManager, requestCacheService, fhirResourceRepository, ruleRepository,
+            new FhirToDhisRuleIndexImpl( executableScriptRepository, new StaticObjectProvider<>( new ArrayList<>() ) ), new StaticObjectProvider<>( new ArrayList<>() ),
             scriptExecutor );
         service = Mockito.spy( service );
     }
@@ -31,11 +31,16 @@ package org.dhis2.fhir.adapter.fhir.transform.fhir.impl.program;
 import org.dhis2.fhir.adapter.dhis.converter.ValueConverter;
 import org.dhis2.fhir.adapter.dhis.model.Reference;
 import org.dhis2.fhir.adapter.dhis.orgunit.OrganizationUnitService;
+import org.dhis2.fhir.adapter.dhis.tracker.program.Enrollment;
 import org.dhis2.fhir.adapter.dhis.tracker.program.EnrollmentService;
+import org.dhis2.fhir.adapter.dhis.tracker.program.Event;
 import org.dhis2.fhir.adapter.dhis.tracker.program.EventService;
+import org.dhis2.fhir.adapter.dhis.tracker.program.EventStatus;
 import org.dhis2.fhir.adapter.dhis.tracker.program.ProgramMetadataService;
 import org.dhis2.fhir.adapter.dhis.tracker.program.WritableProgram;
 import org.dhis2.fhir.adapter.dhis.tracker.program.WritableProgramStage;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityAttributes;
+import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityInstance;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityMetadataService;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.TrackedEntityService;
 import org.dhis2.fhir.adapter.dhis.tracker.trackedentity.WritableTrackedEntityType;
@@ -47,10 +52,14 @@ import org.dhis2.fhir.adapter.fhir.metadata.model.MappedTrackerProgram;
 import org.dhis2.fhir.adapter.fhir.metadata.model.MappedTrackerProgramStage;
 import org.dhis2.fhir.adapter.fhir.metadata.model.ProgramStageRule;
 import org.dhis2.fhir.adapter.fhir.metadata.model.RuleInfo;
+import org.dhis2.fhir.adapter.fhir.metadata.model.ScriptVariable;
 import org.dhis2.fhir.adapter.fhir.metadata.repository.FhirResourceMappingRepository;
 import org.dhis2.fhir.adapter.fhir.model.FhirVersion;
+import org.dhis2.fhir.adapter.fhir.script.ScriptExecutionContext;
 import org.dhis2.fhir.adapter.fhir.script.ScriptExecutor;
 import org.dhis2.fhir.adapter.fhir.transform.fhir.FhirToDhisTransformerContext;
+import org.dhis2.fhir.adapter.fhir.transform.scripted.WritableScriptedTrackedEntityInstance;
+import org.dhis2.fhir.adapter.lock.LockContext;
 import org.dhis2.fhir.adapter.lock.LockManager;
 import org.junit.Assert;
 import org.junit.Before;
@@ -62,10 +71,18 @@ import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 /**
  * Unit tests for {@link FhirToProgramStageTransformer}.
@@ -113,6 +130,15 @@ public class FhirToProgramStageTransformerTest
     @Mock
     private ExecutableScript programStageRefLookupScript;
 
+    @Mock
+    private LockContext lockContext;
+
+    @Mock
+    private TrackedEntityAttributes trackedEntityAttributes;
+
+    @Mock
+    private ScriptExecutionContext scriptExecutionContext;
+
     @InjectMocks
     private FhirToProgramStageTransformer transformer;
 
@@ -203,4 +229,84 @@ public class FhirToProgramStageTransformerTest
 
         Mockito.verify( scriptExecutor ).execute( Mockito.same( programStageRefLookupScript ), Mockito.eq( FhirVersion.R4 ), Mockito.anyMap(), Mockito.anyMap(), Mockito.anyMap(), Mockito.eq( Reference.class ) );
     }
-}
\ No newline at end of file
+
+    @Test( timeout = 20000 )
+    public void getEventInfoConcurrently() throws Exception
+    {
+        final Enrollment enrollment = new Enrollment( "hu28eu2jwu2" );
+        enrollment.setProgramId( "jsheyu37anc" );
+        enrollment.setTrackedEntityInstanceId( "jd82jsuw81i" );
+
+        final Event event1 = createEvent( "kiwu2u3oo82", "hu28eu2jwu2", 1 );
+        final Event event2 = createEvent( "kiwu2u3oo83", "hu28eu2jwu3", 2 );
+        final Event event3 = createEvent( "kiwu2u3oo84", "hu28eu2jwu2", 3 );
+
+        final TrackedEntityInstance trackedEntityInstance = new TrackedEntityInstance( "jd82jsuw81i" );
+        trackedEntityInstance.setTypeId( "jdsuewyui1oi" );
+
+        final CompletableFuture<Optional<Enrollment>> enrollmentFuture = new CompletableFuture<>();
+        final CompletableFuture<Collection<Event>> eventsFuture = new CompletableFuture<>();
+        final CompletableFuture<Optional<TrackedEntityInstance>> trackedEntityInstanceFuture = new CompletableFuture<>();
+
+        Mockito.doReturn( Optional.of( lockContext ) ).when( lockManager ).getCurrentLockContext();
+        Mockito.doReturn( enrollmentFuture ).when( enrollmentService ).findLatestActiveRefreshedAsync( Mockito.eq( "jsheyu37anc" ), Mockito.eq( "jd82jsuw81i" ), Mockito.eq( false ) );
+        Mockito.doReturn( eventsFuture ).when( eventService ).findRefreshedAsync( Mockito.eq( "jsheyu37anc" ), Mockito.eq( "jshweyuio19a" ), Mockito.eq( "jd82jsuw81i" ), Mockito.eq( false ) );
+        Mockito.doReturn( trackedEntityInstanceFuture ).when( trackedEntityService ).findOneByIdAsync( Mockito.eq( "jd82jsuw81i" ) );
+
+        final WritableScriptedTrackedEntityInstance scriptedTrackedEntityInstance = new WritableScriptedTrackedEntityInstance( trackedEntityMetadataService, trackedEntityService,
+            trackedEntityAttributes, trackedEntityType, "jd82jsuw81i", scriptExecutionContext, valueConverter );
+        final Map<String, Object> variables = new HashMap<>();
+        variables.put( ScriptVariable.PROGRAM.getVariableName(), program );
+        variables.put( ScriptVariable.PROGRAM_STAGE.getVariableName(), programStage );
+        variables.put( ScriptVariable.TRACKED_ENTITY_TYPE.getVariableName(), trackedEntityType );
+        variables.put( ScriptVariable.TRACKED_ENTITY_INSTANCE.getVariableName(), scriptedTrackedEntityInstance );
+
+        final AtomicBoolean concurrent = new AtomicBoolean();
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try
+        {
+            executorService.execute( () -> {
+                try
+                {
+                    // all lookups must have been started before any of them has been completed
+                    Mockito.verify( eventService, Mockito.timeout( 10000 ) ).findRefreshedAsync( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyBoolean() );
+                    Mockito.verify( trackedEntityService, Mockito.timeout( 10000 ) ).findOneByIdAsync( Mockito.any() );
+                    concurrent.set( true );
+                }
+                finally
+                {
+                    enrollmentFuture.complete( Optional.of( enrollment ) );
+                    eventsFuture.complete( Arrays.asList( event1, event2, event3 ) );
+                    trackedEntityInstanceFuture.complete( Optional.of( trackedEntityInstance ) );
+                }
+            } );
+
+            final EventInfo eventInfo = transformer.getEventInfo( variables, false, true );
+
+            Assert.assertTrue( concurrent.get() );
+            Assert.assertEquals( "hu28eu2jwu2", eventInfo.getEnrollment().map( Enrollment::getId ).orElse( null ) );
+            Assert.assertEquals( Arrays.asList( "kiwu2u3oo84", "kiwu2u3oo82" ), eventInfo.getEvents().stream().map( Event::getId ).collect( Collectors.toList() ) );
+            Assert.assertSame( trackedEntityInstance, scriptedTrackedEntityInstance.getDhisResource() );
+        }
+        finally
+        {
+            executorService.shutdownNow();
+        }
+
+        Mockito.verify( lockContext ).lock( Mockito.eq( "in-te:jd82jsuw81i" ) );
+        Mockito.verify( trackedEntityService, Mockito.never() ).findOneById( Mockito.any() );
+        Mockito.verify( eventService, Mockito.never() ).findRefreshed( Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyBoolean() );
+    }
+
+    private static Event createEvent( String id, String enrollmentId, int day )
+    {
+        final Event event = new Event( id );
+        event.setProgramId( "jsheyu37anc" );
+        event.setProgramStageId( "jshweyuio19a" );
+        event.setEnrollmentId( enrollmentId );
+        event.setTrackedEntityInstanceId( "jd82jsuw81i" );
+        event.setStatus( EventStatus.ACTIVE );
+        event.setEventDate( ZonedDateTime.parse( "2019-08-0" + day + "T10:00:00Z" ) );
+        return event;
+    }
+}
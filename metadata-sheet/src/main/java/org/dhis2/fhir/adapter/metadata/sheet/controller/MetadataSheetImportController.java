@@ -29,12 +29,15 @@ package org.dhis2.fhir.adapter.metadata.sheet.controller;
  */
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.NotOfficeXmlFileException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbookFactory;
 import org.dhis2.fhir.adapter.metadata.sheet.model.MetadataSheetMessage;
 import org.dhis2.fhir.adapter.metadata.sheet.model.MetadataSheetMessageSeverity;
 import org.dhis2.fhir.adapter.metadata.sheet.processor.MetadataSheetImportException;
 import org.dhis2.fhir.adapter.metadata.sheet.processor.MetadataSheetImportProcessor;
+import org.dhis2.fhir.adapter.metadata.sheet.processor.StreamingMetadataSheetReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
@@ -49,6 +52,8 @@ import org.springframework.web.multipart.MultipartFile;
 import javax.annotation.Nonnull;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /**
  * Controller that can import metadata from an Excel sheet.<br>
@@ -81,13 +86,24 @@ public class MetadataSheetImportController
 
     @Nonnull
     @PostMapping( value = "/app/metadata-sheet", consumes = MediaType.MULTIPART_FORM_DATA_VALUE )
-    public String imp( @Nonnull @RequestParam MultipartFile file, @Nonnull Model model )
+    public String imp( @Nonnull @RequestParam MultipartFile file, @RequestParam( defaultValue = "true" ) boolean streaming, @Nonnull Model model )
     {
         final MetadataSheetImportResult result = new MetadataSheetImportResult();
 
-        try ( final XSSFWorkbook workbook = XSSFWorkbookFactory.createWorkbook( file.getInputStream() ) )
+        try
         {
-            result.add( importProcessor.process( workbook ) );
+            if ( streaming )
+            {
+                importStreamed( file, result );
+            }
+            else
+            {
+                try ( final XSSFWorkbook workbook = XSSFWorkbookFactory.createWorkbook( file.getInputStream() ) )
+                {
+                    result.add( importProcessor.process( workbook ) );
+                }
+            }
+
             result.setSuccess( true );
         }
         catch ( MetadataSheetImportException e )
@@ -95,7 +111,7 @@ public class MetadataSheetImportController
             log.debug( "Error while importing metadata.", e );
             result.add( e.getMessageCollector() );
         }
-        catch ( InvalidFormatException e )
+        catch ( InvalidFormatException | NotOfficeXmlFileException e )
         {
             log.debug( "The Excel file has an invalid format.", e );
             result.addMessage( new MetadataSheetMessage( MetadataSheetMessageSeverity.FATAL, "The Excel file has an invalid format: " + e.getMessage() ) );
@@ -115,4 +131,24 @@ public class MetadataSheetImportController
         model.addAttribute( "importResult", result );
         return "metadata-sheet";
     }
+
+    protected void importStreamed( @Nonnull MultipartFile file, @Nonnull MetadataSheetImportResult result ) throws IOException, OpenXML4JException
+    {
+        // the package is read from a file since reading it from a stream requires that the whole package is buffered in memory
+        final Path path = Files.createTempFile( "metadata-sheet", ".xlsx" );
+
+        try
+        {
+            file.transferTo( path.toFile() );
+
+            try ( final StreamingMetadataSheetReader reader = new StreamingMetadataSheetReader( path.toFile() ) )
+            {
+                result.add( importProcessor.process( reader ) );
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists( path );
+        }
+    }
 }
@@ -114,24 +114,7 @@ public abstract class AbstractMetadataSheetImportProcessor
             return null;
         }
 
-        final Cell cell = row.getCell( cellNum );
-
-        if ( cell == null )
-        {
-            return null;
-        }
-
-        switch ( cell.getCellType() )
-        {
-            case NUMERIC:
-                return Integer.toString( (int) cell.getNumericCellValue() );
-            case BOOLEAN:
-                return Boolean.toString( cell.getBooleanCellValue() );
-            case FORMULA:
-                return null;
-            default:
-                return StringUtils.trimToNull( cell.getStringCellValue() );
-        }
+        return MetadataSheetRow.getString( row.getCell( cellNum ) );
     }
 
     @Nullable
@@ -253,8 +236,18 @@ public abstract class AbstractMetadataSheetImportProcessor
     @Nullable
     protected Boolean getBoolean( @Nonnull Sheet sheet, int rowNum, int cellNum )
     {
-        final String value = getString( sheet, rowNum, cellNum );
+        return getBoolean( getString( sheet, rowNum, cellNum ) );
+    }
+
+    @Nullable
+    protected Boolean getBoolean( @Nonnull MetadataSheetRow row, int cellNum )
+    {
+        return getBoolean( row.getString( cellNum ) );
+    }
 
+    @Nullable
+    private Boolean getBoolean( @Nullable String value )
+    {
         if ( value == null )
         {
             return null;
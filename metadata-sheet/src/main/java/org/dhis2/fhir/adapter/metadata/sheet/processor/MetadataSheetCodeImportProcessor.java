@@ -29,8 +29,7 @@ package org.dhis2.fhir.adapter.metadata.sheet.processor;
  */
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.dhis2.fhir.adapter.dhis.model.Reference;
 import org.dhis2.fhir.adapter.dhis.tracker.program.ProgramMetadataService;
@@ -54,14 +53,24 @@ import org.dhis2.fhir.adapter.metadata.sheet.model.MetadataSheetLocation;
 import org.dhis2.fhir.adapter.metadata.sheet.model.MetadataSheetMessage;
 import org.dhis2.fhir.adapter.metadata.sheet.model.MetadataSheetMessageCollector;
 import org.dhis2.fhir.adapter.metadata.sheet.model.MetadataSheetMessageSeverity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Nonnull;
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * Processes the metadata import of codes from a sheet.<br>
@@ -98,6 +107,12 @@ public class MetadataSheetCodeImportProcessor extends AbstractMetadataSheetImpor
 
     public static final String CVX_SYSTEM_URI = "http://hl7.org/fhir/sid";
 
+    public static final int BATCH_SIZE = 500;
+
+    private final Logger log = LoggerFactory.getLogger( getClass() );
+
+    private final EntityManager entityManager;
+
     private final ProgramMetadataService programMetadataService;
 
     private final CodeCategoryRepository codeCategoryRepository;
@@ -121,7 +136,8 @@ public class MetadataSheetCodeImportProcessor extends AbstractMetadataSheetImpor
     public MetadataSheetCodeImportProcessor( @Nonnull ProgramMetadataService programMetadataService, @Nonnull CodeCategoryRepository codeCategoryRepository,
         @Nonnull CodeSetRepository codeSetRepository, @Nonnull CodeRepository codeRepository, @Nonnull SystemRepository systemRepository, @Nonnull SystemCodeRepository systemCodeRepository,
         @Nonnull MappedTrackerProgramRepository mappedTrackerProgramRepository, @Nonnull MappedTrackerProgramStageRepository mappedTrackerProgramStageRepository,
-        @Nonnull ProgramStageRuleRepository programStageRuleRepository, @Nonnull ExecutableScriptRepository executableScriptRepository )
+        @Nonnull ProgramStageRuleRepository programStageRuleRepository, @Nonnull ExecutableScriptRepository executableScriptRepository,
+        @Nonnull EntityManager entityManager )
     {
         this.programMetadataService = programMetadataService;
         this.codeCategoryRepository = codeCategoryRepository;
@@ -133,253 +149,339 @@ public class MetadataSheetCodeImportProcessor extends AbstractMetadataSheetImpor
         this.mappedTrackerProgramStageRepository = mappedTrackerProgramStageRepository;
         this.programStageRuleRepository = programStageRuleRepository;
         this.executableScriptRepository = executableScriptRepository;
+        this.entityManager = entityManager;
     }
 
     @Nonnull
     @Transactional
     public MetadataSheetMessageCollector process( @Nonnull Workbook workbook )
+    {
+        return process( workbook, new WorkbookMetadataSheetRowReader( workbook ) );
+    }
+
+    /**
+     * Imports the codes of the codes sheet that is read by the specified row reader. The
+     * specified workbook must contain all other sheets (the codes sheet need not be included).
+     * The changes are written to the database in batches and the persistence context is
+     * cleared after each batch. Queries of the import do not flush the persistence context.
+     * The import state contains only the IDs of the entities that have been changed by the
+     * import and these are looked up in the import state first.
+     *
+     * @param workbook  the workbook that contains the program sheet.
+     * @param rowReader the reader of the rows of the codes sheet.
+     * @return the collected messages of the import.
+     */
+    @Nonnull
+    @Transactional
+    public MetadataSheetMessageCollector process( @Nonnull Workbook workbook, @Nonnull MetadataSheetRowReader rowReader )
     {
         final MetadataSheetMessageCollector messageCollector = new MetadataSheetMessageCollector();
         final Reference programRef = Objects.requireNonNull( getProgramRef( workbook ) );
-        final Sheet sheet = workbook.getSheet( CODES_SHEET_NAME );
+        final CodeImport codeImport = new CodeImport( messageCollector );
+        final FlushModeType flushMode = entityManager.getFlushMode();
 
-        if ( sheet == null )
+        entityManager.setFlushMode( FlushModeType.COMMIT );
+        try
         {
-            messageCollector.addMessage( new MetadataSheetMessage(
-                MetadataSheetMessageSeverity.ERROR, "Sheet '" + CODES_SHEET_NAME + "' is not included." ) );
+            final boolean included = rowReader.read( CODES_SHEET_NAME, row -> {
+                // skip first header row
+                if ( row.getRowNum() > 0 && row.notEmpty( CODE_COL ) )
+                {
+                    processRow( codeImport, row );
+
+                    if ( ++codeImport.processedRowCount % BATCH_SIZE == 0 )
+                    {
+                        saveSystemCodes( codeImport );
+                        log.info( "Processed {} rows of sheet '{}'.", codeImport.processedRowCount, CODES_SHEET_NAME );
+                    }
+                }
+            } );
+
+            if ( !included )
+            {
+                messageCollector.addMessage( new MetadataSheetMessage(
+                    MetadataSheetMessageSeverity.ERROR, "Sheet '" + CODES_SHEET_NAME + "' is not included." ) );
+
+                return messageCollector;
+            }
+
+            saveSystemCodes( codeImport );
 
-            return messageCollector;
+            if ( messageCollector.isOk() )
+            {
+                deleteStaleSystemCodes( codeImport );
+            }
+        }
+        finally
+        {
+            entityManager.setFlushMode( flushMode );
         }
 
-        final Map<String, Code> codes = new HashMap<>();
-        final Map<String, CodeSet> codeSets = new HashMap<>();
-        final int lastRowNum = sheet.getLastRowNum();
+        log.info( "Processed {} rows of sheet '{}'.", codeImport.processedRowCount, CODES_SHEET_NAME );
+        messageCollector.addMessage( new MetadataSheetMessage( MetadataSheetMessageSeverity.INFO,
+            "Processed " + codeImport.processedRowCount + " rows of sheet '" + CODES_SHEET_NAME + "'." ) );
 
-        // skip first header column
-        for ( int rowNum = 1; rowNum <= lastRowNum; rowNum++ )
+        return messageCollector;
+    }
+
+    protected void processRow( @Nonnull CodeImport codeImport, @Nonnull MetadataSheetRow row )
+    {
+        final int rowNum = row.getRowNum();
+        final String systemUri = row.getString( SYSTEM_URI_COL );
+        final String code = row.getString( CODE_COL );
+        final String displayName = row.getString( DISPLAY_NAME_COL );
+        final String description = row.getString( DESCRIPTION_COL );
+        final String codeSetCode = StringUtils.upperCase( row.getString( CODE_SET_CODE_COL ) );
+        final String codeSetDisplayName = row.getString( CODE_SET_DISPLAY_NAME_COL );
+        final String codeSetMappedCode = row.getString( CODE_SET_MAPPED_CODE_COL );
+        final Boolean codeSetPreferred = getBoolean( row, CODE_SET_PREFERRED_COL );
+        String genericCode = row.getString( GENERIC_CODE_COL );
+        UUID systemId = null;
+        UUID codeId = null;
+        UUID codeSetId;
+
+        if ( CVX_SYSTEM_URI.equals( systemUri ) )
         {
-            final Row row = sheet.getRow( rowNum );
+            codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                MetadataSheetMessageSeverity.INFO, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
+                "CVX codes are ignore." ) );
 
-            if ( row != null && notEmpty( row, CODE_COL ) )
-            {
-                final String systemUri = getString( row, SYSTEM_URI_COL );
-                final String code = getString( row, CODE_COL );
-                final String displayName = getString( row, DISPLAY_NAME_COL );
-                final String description = getString( row, DESCRIPTION_COL );
-                final String codeSetCode = StringUtils.upperCase( getString( row, CODE_SET_CODE_COL ) );
-                final String codeSetDisplayName = getString( row, CODE_SET_DISPLAY_NAME_COL );
-                final String codeSetMappedCode = getString( row, CODE_SET_MAPPED_CODE_COL );
-                final Boolean codeSetPreferred = getBoolean( sheet, rowNum, CODE_SET_PREFERRED_COL );
-                String genericCode = getString( row, GENERIC_CODE_COL );
-                System system = null;
-                Code resultingCode = null;
-                CodeSet codeSet;
-                CodeSetValue codeSetValue;
-
-                if ( CVX_SYSTEM_URI.equals( systemUri ) )
-                {
-                    messageCollector.addMessage( new MetadataSheetMessage(
-                        MetadataSheetMessageSeverity.INFO, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
-                        "CVX codes are ignore." ) );
+            return;
+        }
 
-                    continue;
-                }
+        if ( systemUri == null )
+        {
+            codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
+                "System URI must be specified." ) );
+        }
+        else
+        {
+            systemId = codeImport.systemIds.get( systemUri );
 
-                if ( systemUri == null )
-                {
-                    messageCollector.addMessage( new MetadataSheetMessage(
-                        MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
-                        "System URI must be specified." ) );
-                }
-                else
-                {
-                    system = systemRepository.findOneBySystemUri( systemUri ).orElse( null );
+            if ( systemId == null )
+            {
+                final System system = systemRepository.findOneBySystemUri( systemUri ).orElse( null );
 
-                    if ( system == null )
-                    {
-                        if ( systemUri.startsWith( System.DHIS2_FHIR_VALUE_SET_URI_PREFIX ) && systemUri.length() > System.DHIS2_FHIR_VALUE_SET_URI_PREFIX.length() )
-                        {
-                            final String value = systemUri.substring( System.DHIS2_FHIR_VALUE_SET_URI_PREFIX.length() );
-
-                            system = new System();
-                            system.setEnabled( true );
-                            system.setDescriptionProtected( false );
-                            system.setSystemUri( systemUri );
-                            system.setCode( StringUtils.left( value, System.MAX_CODE_LENGTH ) );
-                            system.setName( StringUtils.left( value, System.MAX_NAME_LENGTH ) );
-                            system.setFhirDisplayName( StringUtils.left( value.toLowerCase().replace( "_", " " ), System.MAX_FHIR_DISPLAY_NAME_LENGTH ) );
-                            system.setSystemCodes( new ArrayList<>() );
-
-                            systemRepository.save( system );
-                        }
-                        else
-                        {
-                            messageCollector.addMessage( new MetadataSheetMessage(
-                                MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
-                                "System URI has not been configured: " + systemUri ) );
-                        }
-                    }
-                    else if ( system.getSystemUri().startsWith( System.DHIS2_FHIR_VALUE_SET_URI_PREFIX ) )
+                if ( system != null )
+                {
+                    if ( system.getSystemUri().startsWith( System.DHIS2_FHIR_VALUE_SET_URI_PREFIX ) && !system.getSystemCodes().isEmpty() )
                     {
-                        if ( !system.getSystemCodes().isEmpty() )
-                        {
-                            systemCodeRepository.deleteAll( system.getSystemCodes() );
-                            systemCodeRepository.flush();
-                            system.getSystemCodes().clear();
-                        }
+                        // deleted system codes must not be deleted again at the end
+                        system.getSystemCodes().forEach( sc -> codeImport.staleSystemCodeIds.remove( sc.getId() ) );
+                        systemCodeRepository.deleteAll( system.getSystemCodes() );
+                        systemCodeRepository.flush();
+                        system.getSystemCodes().clear();
                     }
+
+                    systemId = system.getId();
+                    codeImport.systemIds.put( systemUri, systemId );
                 }
+            }
 
-                if ( code == null )
+            if ( systemId == null )
+            {
+                if ( systemUri.startsWith( System.DHIS2_FHIR_VALUE_SET_URI_PREFIX ) && systemUri.length() > System.DHIS2_FHIR_VALUE_SET_URI_PREFIX.length() )
                 {
-                    messageCollector.addMessage( new MetadataSheetMessage(
-                        MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
-                        "Code must be specified." ) );
+                    final String value = systemUri.substring( System.DHIS2_FHIR_VALUE_SET_URI_PREFIX.length() );
+                    final System system = new System();
+
+                    system.setEnabled( true );
+                    system.setDescriptionProtected( false );
+                    system.setSystemUri( systemUri );
+                    system.setCode( StringUtils.left( value, System.MAX_CODE_LENGTH ) );
+                    system.setName( StringUtils.left( value, System.MAX_NAME_LENGTH ) );
+                    system.setFhirDisplayName( StringUtils.left( value.toLowerCase().replace( "_", " " ), System.MAX_FHIR_DISPLAY_NAME_LENGTH ) );
+                    system.setSystemCodes( new ArrayList<>() );
+
+                    systemId = systemRepository.save( system ).getId();
+                    codeImport.systemIds.put( systemUri, systemId );
                 }
-                else if ( genericCode == null )
+                else
                 {
-                    if ( LOINC_SYSTEM_URI.equals( systemUri ) )
-                    {
-                        genericCode = "LOINC_" + code;
-                    }
-                    else
-                    {
-                        messageCollector.addMessage( new MetadataSheetMessage(
-                            MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
-                            "Generic code must be specified if system is not LOINC." ) );
-                    }
+                    codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                        MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
+                        "System URI has not been configured: " + systemUri ) );
                 }
+            }
+        }
 
-                if ( genericCode != null )
-                {
-                    resultingCode = codes.get( genericCode );
-
-                    if ( resultingCode == null )
-                    {
-                        resultingCode = codeRepository.findOneByCode( genericCode ).orElseGet( Code::new );
-
-                        resultingCode.setEnabled( true );
-                        resultingCode.setCode( StringUtils.left( StringUtils.defaultIfBlank( genericCode, code ), Code.MAX_CODE_LENGTH ) );
-                        resultingCode.setMappedCode( codeSetMappedCode );
-                        resultingCode.setName( StringUtils.left( genericCode.toLowerCase().replace( "_", " " ),
-                            SystemCode.MAX_DISPLAY_NAME_LENGTH ) );
-                        resultingCode.setDescription( description );
+        if ( code == null )
+        {
+            codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
+                "Code must be specified." ) );
+        }
+        else if ( genericCode == null )
+        {
+            if ( LOINC_SYSTEM_URI.equals( systemUri ) )
+            {
+                genericCode = "LOINC_" + code;
+            }
+            else
+            {
+                codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                    MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, SYSTEM_URI_COL ),
+                    "Generic code must be specified if system is not LOINC." ) );
+            }
+        }
 
-                        updateCodeCategory( messageCollector, rowNum, resultingCode );
+        if ( genericCode != null )
+        {
+            codeId = codeImport.codeIds.get( genericCode );
 
-                        if ( resultingCode.getSystemCodes() == null )
-                        {
-                            resultingCode.setSystemCodes( new ArrayList<>() );
-                        }
+            if ( codeId == null )
+            {
+                final Code resultingCode = codeRepository.findOneByCode( genericCode ).orElseGet( Code::new );
 
-                        if ( !resultingCode.getSystemCodes().isEmpty() )
-                        {
-                            systemCodeRepository.deleteAll( resultingCode.getSystemCodes() );
-                            resultingCode.getSystemCodes().clear();
-                        }
+                resultingCode.setEnabled( true );
+                resultingCode.setCode( StringUtils.left( StringUtils.defaultIfBlank( genericCode, code ), Code.MAX_CODE_LENGTH ) );
+                resultingCode.setMappedCode( codeSetMappedCode );
+                resultingCode.setName( StringUtils.left( genericCode.toLowerCase().replace( "_", " " ),
+                    SystemCode.MAX_DISPLAY_NAME_LENGTH ) );
+                resultingCode.setDescription( description );
 
-                        codeRepository.saveAndFlush( resultingCode );
-                        codes.put( genericCode, resultingCode );
-                    }
-                }
+                updateCodeCategory( codeImport.messageCollector, rowNum, resultingCode );
 
-                if ( displayName == null )
+                if ( resultingCode.getSystemCodes() != null )
                 {
-                    messageCollector.addMessage( new MetadataSheetMessage(
-                        MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, DISPLAY_NAME_COL ),
-                        "Code must be specified." ) );
+                    // system codes that are no longer assigned to the code are deleted at the end
+                    resultingCode.getSystemCodes().forEach( sc -> codeImport.staleSystemCodeIds.add( sc.getId() ) );
                 }
 
-                if ( description == null )
-                {
-                    messageCollector.addMessage( new MetadataSheetMessage(
-                        MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, DESCRIPTION_COL ),
-                        "Description must be specified." ) );
-                }
+                codeId = codeRepository.save( resultingCode ).getId();
+                codeImport.codeIds.put( genericCode, codeId );
+            }
+        }
 
-                if ( codeSetCode != null )
+        if ( displayName == null )
+        {
+            codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, DISPLAY_NAME_COL ),
+                "Code must be specified." ) );
+        }
+
+        if ( description == null )
+        {
+            codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, DESCRIPTION_COL ),
+                "Description must be specified." ) );
+        }
+
+        if ( codeSetCode != null )
+        {
+            if ( codeSetMappedCode == null )
+            {
+                codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                    MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, CODE_SET_MAPPED_CODE_COL ),
+                    "Code set mapped code must be specified." ) );
+            }
+
+            if ( codeSetPreferred == null )
+            {
+                codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                    MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, CODE_SET_PREFERRED_COL ),
+                    "Value must be specified." ) );
+            }
+
+            if ( codeImport.messageCollector.isOk() )
+            {
+                codeSetId = codeImport.codeSetIds.get( codeSetCode );
+
+                if ( codeSetId == null )
                 {
-                    if ( codeSetMappedCode == null )
+                    if ( codeSetDisplayName == null )
                     {
-                        messageCollector.addMessage( new MetadataSheetMessage(
-                            MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, CODE_SET_MAPPED_CODE_COL ),
-                            "Code set mapped code must be specified." ) );
+                        codeImport.messageCollector.addMessage( new MetadataSheetMessage(
+                            MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, CODE_SET_DISPLAY_NAME_COL ),
+                            "Code set display name must be specified." ) );
                     }
-
-                    if ( codeSetPreferred == null )
+                    else
                     {
-                        messageCollector.addMessage( new MetadataSheetMessage(
-                            MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, CODE_SET_PREFERRED_COL ),
-                            "Value must be specified." ) );
-                    }
+                        final CodeSet codeSet = codeSetRepository.findOneByCode( codeSetCode ).orElseGet( CodeSet::new );
 
-                    if ( messageCollector.isOk() )
-                    {
-                        codeSet = codeSets.get( codeSetCode );
+                        codeSet.setCode( StringUtils.left( codeSetCode, CodeSet.MAX_CODE_LENGTH ) );
+                        codeSet.setName( StringUtils.left( codeSetDisplayName, CodeSet.MAX_NAME_LENGTH ) );
+                        codeSet.setDescription( codeSetDisplayName );
+                        updateCodeCategory( codeImport.messageCollector, rowNum, codeSet );
 
-                        if ( codeSet == null )
+                        if ( codeSet.getCodeSetValues() == null )
                         {
-                            if ( codeSetDisplayName == null )
-                            {
-                                messageCollector.addMessage( new MetadataSheetMessage(
-                                    MetadataSheetMessageSeverity.ERROR, new MetadataSheetLocation( CODES_SHEET_NAME, rowNum, CODE_SET_DISPLAY_NAME_COL ),
-                                    "Code set display name must be specified." ) );
-                            }
-                            else
-                            {
-                                codeSet = codeSetRepository.findOneByCode( codeSetCode ).orElseGet( CodeSet::new );
-                                codeSet.setCode( StringUtils.left( codeSetCode, CodeSet.MAX_CODE_LENGTH ) );
-                                codeSet.setName( StringUtils.left( codeSetDisplayName, CodeSet.MAX_NAME_LENGTH ) );
-                                codeSet.setDescription( codeSetDisplayName );
-                                updateCodeCategory( messageCollector, rowNum, codeSet );
-
-                                if ( codeSet.getCodeSetValues() == null )
-                                {
-                                    codeSet.setCodeSetValues( new ArrayList<>() );
-                                }
-
-                                codeSet.getCodeSetValues().clear();
-                                codeSetRepository.saveAndFlush( codeSet );
-
-                                codeSets.put( codeSetCode, codeSet );
-                            }
+                            codeSet.setCodeSetValues( new ArrayList<>() );
                         }
 
-                        if ( codeSet != null && resultingCode != null && !codeSet.containsCode( resultingCode ) )
-                        {
-                            codeSetValue = new CodeSetValue();
-                            codeSetValue.setCodeSet( codeSet );
-                            codeSetValue.setCode( resultingCode );
-                            codeSetValue.setEnabled( true );
-                            codeSetValue.setPreferredExport( Objects.requireNonNull( codeSetPreferred ) );
-                            codeSet.getCodeSetValues().add( codeSetValue );
-                        }
+                        // values that are not contained in the sheet are removed as orphans
+                        codeSet.getCodeSetValues().clear();
+                        codeSetId = codeSetRepository.saveAndFlush( codeSet ).getId();
+
+                        codeImport.codeSetIds.put( codeSetCode, codeSetId );
                     }
                 }
 
-                if ( messageCollector.isOk() )
+                if ( codeSetId != null && codeId != null && codeImport.codeSetCodeIds.add( Pair.of( codeSetId, codeId ) ) )
                 {
-                    final SystemCode systemCode = systemCodeRepository.findOneBySystemAndSystemCode(
-                        Objects.requireNonNull( system ), Objects.requireNonNull( code ) ).orElseGet( SystemCode::new );
+                    final CodeSetValue codeSetValue = new CodeSetValue();
+                    codeSetValue.setCodeSet( entityManager.getReference( CodeSet.class, codeSetId ) );
+                    codeSetValue.setCode( entityManager.getReference( Code.class, codeId ) );
+                    codeSetValue.setEnabled( true );
+                    codeSetValue.setPreferredExport( Objects.requireNonNull( codeSetPreferred ) );
+                    entityManager.persist( codeSetValue );
+                }
+            }
+        }
+
+        if ( codeImport.messageCollector.isOk() )
+        {
+            final Pair<String, String> systemCodeKey = Pair.of( Objects.requireNonNull( systemUri ), Objects.requireNonNull( code ) );
+            final System system = entityManager.getReference( System.class, Objects.requireNonNull( systemId ) );
+            SystemCode systemCode = codeImport.unsavedSystemCodes.get( systemCodeKey );
 
-                    systemCode.setCode( resultingCode );
-                    systemCode.setSystem( system );
-                    systemCode.setSystemCode( StringUtils.left( code, SystemCode.MAX_SYSTEM_CODE_LENGTH ) );
-                    systemCode.setEnabled( true );
-                    systemCode.setDisplayName( StringUtils.left( displayName, SystemCode.MAX_DISPLAY_NAME_LENGTH ) );
-                    Objects.requireNonNull( resultingCode ).getSystemCodes().add( systemCode );
+            if ( systemCode == null )
+            {
+                systemCode = systemCodeRepository.findOneBySystemAndSystemCode( system, code ).orElseGet( SystemCode::new );
 
-                    systemCodeRepository.save( systemCode );
+                if ( systemCode.getId() != null )
+                {
+                    codeImport.staleSystemCodeIds.remove( systemCode.getId() );
                 }
             }
+
+            systemCode.setCode( entityManager.getReference( Code.class, Objects.requireNonNull( codeId ) ) );
+            systemCode.setSystem( system );
+            systemCode.setSystemCode( StringUtils.left( code, SystemCode.MAX_SYSTEM_CODE_LENGTH ) );
+            systemCode.setEnabled( true );
+            systemCode.setDisplayName( StringUtils.left( displayName, SystemCode.MAX_DISPLAY_NAME_LENGTH ) );
+
+            codeImport.unsavedSystemCodes.put( systemCodeKey, systemCode );
         }
+    }
 
-        if ( messageCollector.isOk() && !codeSets.isEmpty() )
+    protected void saveSystemCodes( @Nonnull CodeImport codeImport )
+    {
+        if ( codeImport.messageCollector.isOk() && !codeImport.unsavedSystemCodes.isEmpty() )
         {
-            codeSetRepository.saveAll( codeSets.values() );
+            systemCodeRepository.saveAll( codeImport.unsavedSystemCodes.values() );
+            systemCodeRepository.flush();
         }
 
-        return messageCollector;
+        // the import state contains only IDs and the entities of the batch are no longer needed
+        codeImport.unsavedSystemCodes.clear();
+        entityManager.clear();
+    }
+
+    protected void deleteStaleSystemCodes( @Nonnull CodeImport codeImport )
+    {
+        final List<UUID> staleSystemCodeIds = new ArrayList<>( codeImport.staleSystemCodeIds );
+
+        for ( int i = 0; i < staleSystemCodeIds.size(); i += BATCH_SIZE )
+        {
+            systemCodeRepository.deleteAll( systemCodeRepository.findAllById(
+                staleSystemCodeIds.subList( i, Math.min( i + BATCH_SIZE, staleSystemCodeIds.size() ) ) ) );
+            systemCodeRepository.flush();
+            entityManager.clear();
+        }
+
+        codeImport.staleSystemCodeIds.clear();
     }
 
     protected void updateCodeCategory( @Nonnull MetadataSheetMessageCollector messageCollector, int rowNum, @Nonnull CodeCategoryAware codeCategoryAware )
@@ -400,4 +502,31 @@ public class MetadataSheetCodeImportProcessor extends AbstractMetadataSheetImpor
             }
         }
     }
+
+    /**
+     * The state of a single import of codes.
+     */
+    protected static class CodeImport
+    {
+        private final MetadataSheetMessageCollector messageCollector;
+
+        private final Map<String, UUID> systemIds = new HashMap<>();
+
+        private final Map<String, UUID> codeIds = new HashMap<>();
+
+        private final Map<String, UUID> codeSetIds = new HashMap<>();
+
+        private final Set<Pair<UUID, UUID>> codeSetCodeIds = new HashSet<>();
+
+        private final Map<Pair<String, String>, SystemCode> unsavedSystemCodes = new LinkedHashMap<>();
+
+        private final Set<UUID> staleSystemCodeIds = new LinkedHashSet<>();
+
+        private int processedRowCount;
+
+        public CodeImport( @Nonnull MetadataSheetMessageCollector messageCollector )
+        {
+            this.messageCollector = messageCollector;
+        }
+    }
 }
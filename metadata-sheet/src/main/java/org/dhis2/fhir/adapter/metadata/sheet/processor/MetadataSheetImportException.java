@@ -55,6 +55,13 @@ public class MetadataSheetImportException extends RuntimeException
         this.messageCollector.addMessage( new MetadataSheetMessage( MetadataSheetMessageSeverity.FATAL, message ) );
     }
 
+    public MetadataSheetImportException( @Nonnull String message, @Nonnull Throwable cause )
+    {
+        super( message, cause );
+        this.messageCollector = new MetadataSheetMessageCollector();
+        this.messageCollector.addMessage( new MetadataSheetMessage( MetadataSheetMessageSeverity.FATAL, message ) );
+    }
+
     public MetadataSheetImportException( @Nonnull MetadataSheetMessageCollector messageCollector )
     {
         this.messageCollector = messageCollector;
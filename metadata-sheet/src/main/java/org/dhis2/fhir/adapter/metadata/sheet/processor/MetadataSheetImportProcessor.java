@@ -38,6 +38,7 @@ import org.springframework.transaction.support.TransactionSynchronizationAdapter
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Nonnull;
+import java.util.Collections;
 import java.util.Objects;
 
 /**
@@ -75,6 +76,29 @@ public class MetadataSheetImportProcessor
     @Nonnull
     @Transactional
     public MetadataSheetMessageCollector process( @Nonnull Workbook workbook )
+    {
+        return process( workbook, new WorkbookMetadataSheetRowReader( workbook ) );
+    }
+
+    /**
+     * Imports the metadata from the workbook that is read by the specified streaming reader.
+     * Only the codes sheet, which may contain a large number of rows, is read as a stream.
+     * All other sheets are loaded completely.
+     *
+     * @param reader the streaming reader of the workbook.
+     * @return the collected messages of the import.
+     */
+    @Nonnull
+    @Transactional
+    public MetadataSheetMessageCollector process( @Nonnull StreamingMetadataSheetReader reader )
+    {
+        final Workbook workbook = reader.readWorkbook( Collections.singleton( MetadataSheetCodeImportProcessor.CODES_SHEET_NAME ) );
+
+        return process( workbook, reader );
+    }
+
+    @Nonnull
+    protected MetadataSheetMessageCollector process( @Nonnull Workbook workbook, @Nonnull MetadataSheetRowReader codeRowReader )
     {
         final MetadataSheetMessageCollector messageCollector = new MetadataSheetMessageCollector();
 
@@ -92,7 +116,7 @@ public class MetadataSheetImportProcessor
             throw new MetadataSheetImportException( messageCollector );
         }
 
-        messageCollector.add( codeImportProcessor.process( workbook ) );
+        messageCollector.add( codeImportProcessor.process( workbook, codeRowReader ) );
 
         if ( messageCollector.isError() )
         {
@@ -0,0 +1,124 @@
+package org.dhis2.fhir.adapter.metadata.sheet.processor;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single row of a sheet with the string values of its cells. Numeric values
+ * are converted to integer values, formulas are ignored and string values are
+ * trimmed.<br>
+ *
+ * <b>This metadata sheet import tool is just a temporary solution
+ * and may be removed in the future completely.</b>
+ *
+ * @author volsch
+ */
+public class MetadataSheetRow
+{
+    private final int rowNum;
+
+    private final List<String> values;
+
+    public MetadataSheetRow( int rowNum, @Nonnull List<String> values )
+    {
+        this.rowNum = rowNum;
+        this.values = values;
+    }
+
+    public int getRowNum()
+    {
+        return rowNum;
+    }
+
+    public int getCellCount()
+    {
+        return values.size();
+    }
+
+    @Nullable
+    public String getString( int cellNum )
+    {
+        return ( cellNum < values.size() ) ? values.get( cellNum ) : null;
+    }
+
+    public boolean notEmpty( int cellNum )
+    {
+        return getString( cellNum ) != null;
+    }
+
+    @Nonnull
+    public static MetadataSheetRow of( @Nonnull Row row )
+    {
+        final int lastCellNum = row.getLastCellNum();
+
+        if ( lastCellNum <= 0 )
+        {
+            return new MetadataSheetRow( row.getRowNum(), Collections.emptyList() );
+        }
+
+        final List<String> values = new ArrayList<>( lastCellNum );
+
+        for ( int cellNum = 0; cellNum < lastCellNum; cellNum++ )
+        {
+            values.add( getString( row.getCell( cellNum ) ) );
+        }
+
+        return new MetadataSheetRow( row.getRowNum(), values );
+    }
+
+    @Nullable
+    public static String getString( @Nullable Cell cell )
+    {
+        if ( cell == null )
+        {
+            return null;
+        }
+
+        switch ( cell.getCellType() )
+        {
+            case NUMERIC:
+                return Integer.toString( (int) cell.getNumericCellValue() );
+            case BOOLEAN:
+                return Boolean.toString( cell.getBooleanCellValue() );
+            case FORMULA:
+                return null;
+            default:
+                return StringUtils.trimToNull( cell.getStringCellValue() );
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package org.dhis2.fhir.adapter.metadata.sheet.processor;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ooxml.util.SAXHelper;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.annotation.Nonnull;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Reads the sheets of an Excel workbook with the XSSF event model. The rows of
+ * a sheet are parsed from the underlying XML and passed one after the other to
+ * the consumer. The memory that is required to read a sheet is independent of the
+ * number of its rows. Small sheets can be loaded into a workbook.<br>
+ *
+ * <b>This metadata sheet import tool is just a temporary solution
+ * and may be removed in the future completely.</b>
+ *
+ * @author volsch
+ */
+public class StreamingMetadataSheetReader implements MetadataSheetRowReader, Closeable
+{
+    private final OPCPackage pkg;
+
+    private final XSSFReader reader;
+
+    private final SharedStrings sharedStrings;
+
+    public StreamingMetadataSheetReader( @Nonnull File file ) throws IOException, OpenXML4JException
+    {
+        pkg = OPCPackage.open( file, PackageAccess.READ );
+
+        try
+        {
+            reader = new XSSFReader( pkg );
+            sharedStrings = new ReadOnlySharedStringsTable( pkg );
+        }
+        catch ( SAXException e )
+        {
+            pkg.revert();
+            throw new IOException( "Shared strings could not be read: " + e.getMessage(), e );
+        }
+        catch ( IOException | OpenXML4JException | RuntimeException e )
+        {
+            pkg.revert();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean read( @Nonnull String sheetName, @Nonnull Consumer<MetadataSheetRow> rowConsumer )
+    {
+        try
+        {
+            final XSSFReader.SheetIterator iterator = (XSSFReader.SheetIterator) reader.getSheetsData();
+
+            while ( iterator.hasNext() )
+            {
+                try ( final InputStream is = iterator.next() )
+                {
+                    if ( sheetName.equals( iterator.getSheetName() ) )
+                    {
+                        parse( is, rowConsumer );
+
+                        return true;
+                    }
+                }
+            }
+        }
+        catch ( IOException | OpenXML4JException | SAXException | ParserConfigurationException e )
+        {
+            throw new MetadataSheetImportException( "Sheet '" + sheetName + "' could not be read: " + e.getMessage(), e );
+        }
+
+        return false;
+    }
+
+    /**
+     * Loads all sheets that are not excluded into a new workbook. Only the values of the
+     * cells are included and formulas are ignored.
+     *
+     * @param excludedSheetNames the names of the sheets that should not be loaded (e.g. since
+     *                           they are read as a stream).
+     * @return the workbook with the loaded sheets.
+     * @throws MetadataSheetImportException thrown if the sheets could not be read.
+     */
+    @Nonnull
+    public Workbook readWorkbook( @Nonnull Set<String> excludedSheetNames )
+    {
+        final XSSFWorkbook workbook = new XSSFWorkbook();
+
+        try
+        {
+            final XSSFReader.SheetIterator iterator = (XSSFReader.SheetIterator) reader.getSheetsData();
+
+            while ( iterator.hasNext() )
+            {
+                try ( final InputStream is = iterator.next() )
+                {
+                    if ( !excludedSheetNames.contains( iterator.getSheetName() ) )
+                    {
+                        final Sheet sheet = workbook.createSheet( iterator.getSheetName() );
+
+                        parse( is, metadataSheetRow -> {
+                            final Row row = sheet.createRow( metadataSheetRow.getRowNum() );
+
+                            for ( int cellNum = 0; cellNum < metadataSheetRow.getCellCount(); cellNum++ )
+                            {
+                                final String value = metadataSheetRow.getString( cellNum );
+
+                                if ( value != null )
+                                {
+                                    row.createCell( cellNum ).setCellValue( value );
+                                }
+                            }
+                        } );
+                    }
+                }
+            }
+        }
+        catch ( IOException | OpenXML4JException | SAXException | ParserConfigurationException e )
+        {
+            throw new MetadataSheetImportException( "Workbook could not be read: " + e.getMessage(), e );
+        }
+
+        return workbook;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        pkg.close();
+    }
+
+    protected void parse( @Nonnull InputStream is, @Nonnull Consumer<MetadataSheetRow> rowConsumer ) throws IOException, SAXException, ParserConfigurationException
+    {
+        final XMLReader xmlReader = SAXHelper.newXMLReader();
+
+        xmlReader.setContentHandler( new SheetHandler( sharedStrings, rowConsumer ) );
+        xmlReader.parse( new InputSource( is ) );
+    }
+
+    /**
+     * Handles the XML elements of a sheet. The values of the cells are converted in
+     * the same way as by {@link MetadataSheetRow#getString(org.apache.poi.ss.usermodel.Cell)}.
+     */
+    protected static class SheetHandler extends DefaultHandler
+    {
+        private final SharedStrings sharedStrings;
+
+        private final Consumer<MetadataSheetRow> rowConsumer;
+
+        private final StringBuilder value = new StringBuilder();
+
+        private List<String> values;
+
+        private int rowNum = -1;
+
+        private int cellNum;
+
+        private String cellType;
+
+        private boolean formula;
+
+        private boolean valueElement;
+
+        public SheetHandler( @Nonnull SharedStrings sharedStrings, @Nonnull Consumer<MetadataSheetRow> rowConsumer )
+        {
+            this.sharedStrings = sharedStrings;
+            this.rowConsumer = rowConsumer;
+        }
+
+        @Override
+        public void startElement( String uri, String localName, String qName, Attributes attributes )
+        {
+            switch ( localName )
+            {
+                case "row":
+                    final String rowRef = attributes.getValue( "r" );
+                    rowNum = ( rowRef == null ) ? rowNum + 1 : Integer.parseInt( rowRef ) - 1;
+                    values = new ArrayList<>();
+                    cellNum = -1;
+                    break;
+                case "c":
+                    final String cellRef = attributes.getValue( "r" );
+                    cellNum = ( cellRef == null ) ? cellNum + 1 : new CellReference( cellRef ).getCol();
+                    cellType = attributes.getValue( "t" );
+                    formula = false;
+                    value.setLength( 0 );
+                    break;
+                case "f":
+                    formula = true;
+                    break;
+                case "v":
+                case "t":
+                    valueElement = true;
+                    break;
+                default:
+                    // element is not relevant
+            }
+        }
+
+        @Override
+        public void characters( char[] ch, int start, int length )
+        {
+            if ( valueElement )
+            {
+                value.append( ch, start, length );
+            }
+        }
+
+        @Override
+        public void endElement( String uri, String localName, String qName )
+        {
+            switch ( localName )
+            {
+                case "v":
+                case "t":
+                    valueElement = false;
+                    break;
+                case "c":
+                    while ( values.size() < cellNum )
+                    {
+                        values.add( null );
+                    }
+                    values.add( formula ? null : convert( cellType, value.toString() ) );
+                    break;
+                case "row":
+                    rowConsumer.accept( new MetadataSheetRow( rowNum, values ) );
+                    values = null;
+                    break;
+                default:
+                    // element is not relevant
+            }
+        }
+
+        private String convert( String cellType, @Nonnull String value )
+        {
+            if ( value.isEmpty() )
+            {
+                return null;
+            }
+
+            switch ( StringUtils.defaultString( cellType, "n" ) )
+            {
+                case "n":
+                    return Integer.toString( (int) Double.parseDouble( value ) );
+                case "b":
+                    return Boolean.toString( "1".equals( value ) );
+                case "s":
+                    return StringUtils.trimToNull( sharedStrings.getItemAt( Integer.parseInt( value ) ).getString() );
+                case "e":
+                    return null;
+                default:
+                    return StringUtils.trimToNull( value );
+            }
+        }
+    }
+}
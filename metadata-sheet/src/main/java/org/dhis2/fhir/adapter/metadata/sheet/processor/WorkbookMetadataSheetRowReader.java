@@ -0,0 +1,79 @@
+package org.dhis2.fhir.adapter.metadata.sheet.processor;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import javax.annotation.Nonnull;
+import java.util.function.Consumer;
+
+/**
+ * Reads the rows of a sheet of a workbook that has been loaded completely.<br>
+ *
+ * <b>This metadata sheet import tool is just a temporary solution
+ * and may be removed in the future completely.</b>
+ *
+ * @author volsch
+ */
+public class WorkbookMetadataSheetRowReader implements MetadataSheetRowReader
+{
+    private final Workbook workbook;
+
+    public WorkbookMetadataSheetRowReader( @Nonnull Workbook workbook )
+    {
+        this.workbook = workbook;
+    }
+
+    @Override
+    public boolean read( @Nonnull String sheetName, @Nonnull Consumer<MetadataSheetRow> rowConsumer )
+    {
+        final Sheet sheet = workbook.getSheet( sheetName );
+
+        if ( sheet == null )
+        {
+            return false;
+        }
+
+        final int lastRowNum = sheet.getLastRowNum();
+
+        for ( int rowNum = 0; rowNum <= lastRowNum; rowNum++ )
+        {
+            final Row row = sheet.getRow( rowNum );
+
+            if ( row != null )
+            {
+                rowConsumer.accept( MetadataSheetRow.of( row ) );
+            }
+        }
+
+        return true;
+    }
+}
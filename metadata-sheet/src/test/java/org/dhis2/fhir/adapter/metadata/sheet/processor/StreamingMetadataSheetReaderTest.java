@@ -0,0 +1,195 @@
+package org.dhis2.fhir.adapter.metadata.sheet.processor;
+
+/*
+ * Copyright (c) 2004-2019, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Unit tests for {@link StreamingMetadataSheetReader}.
+ *
+ * @author volsch
+ */
+public class StreamingMetadataSheetReaderTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Workbook workbook;
+
+    private File file;
+
+    @Before
+    public void before() throws Exception
+    {
+        workbook = new XSSFWorkbook();
+
+        final Sheet codesSheet = workbook.createSheet( "Codes" );
+        Row row = codesSheet.createRow( 0 );
+        row.createCell( 0 ).setCellValue( "System" );
+        row.createCell( 1 ).setCellValue( "Code" );
+        row.createCell( 2 ).setCellValue( "Preferred" );
+
+        // row 1 is missing and cell 1 is missing
+        row = codesSheet.createRow( 2 );
+        row.createCell( 0 ).setCellValue( "http://loinc.org" );
+        row.createCell( 2 ).setCellValue( true );
+        row.createCell( 4 ).setCellValue( 8310.0 );
+
+        row = codesSheet.createRow( 3 );
+        row.createCell( 0 ).setCellValue( " http://loinc.org " );
+        row.createCell( 1 ).setCellValue( "8310-5" );
+        row.createCell( 2 ).setCellValue( false );
+        row.createCell( 3 ).setCellFormula( "E3*2" );
+        row.createCell( 4 ).setCellValue( 12.7 );
+        row.createCell( 5 ).setCellValue( "  " );
+
+        // row without any cells
+        codesSheet.createRow( 5 );
+
+        final Sheet programSheet = workbook.createSheet( "Program" );
+        row = programSheet.createRow( 1 );
+        row.createCell( 1 ).setCellValue( "Test" );
+        row.createCell( 2 ).setCellValue( 4 );
+
+        // formulas are written together with their calculated value
+        workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+
+        file = temporaryFolder.newFile( "test.xlsx" );
+
+        try ( final OutputStream os = new FileOutputStream( file ) )
+        {
+            workbook.write( os );
+        }
+    }
+
+    @Test
+    public void read() throws Exception
+    {
+        final List<MetadataSheetRow> rows = new ArrayList<>();
+
+        try ( final StreamingMetadataSheetReader reader = new StreamingMetadataSheetReader( file ) )
+        {
+            Assert.assertTrue( reader.read( "Codes", rows::add ) );
+        }
+
+        Assert.assertEquals( 4, rows.size() );
+
+        Assert.assertEquals( 0, rows.get( 0 ).getRowNum() );
+        Assert.assertEquals( Arrays.asList( "System", "Code", "Preferred" ), values( rows.get( 0 ) ) );
+
+        Assert.assertEquals( 2, rows.get( 1 ).getRowNum() );
+        Assert.assertEquals( Arrays.asList( "http://loinc.org", null, "true", null, "8310" ), values( rows.get( 1 ) ) );
+
+        Assert.assertEquals( 3, rows.get( 2 ).getRowNum() );
+        Assert.assertEquals( Arrays.asList( "http://loinc.org", "8310-5", "false", null, "12", null ), values( rows.get( 2 ) ) );
+        Assert.assertFalse( rows.get( 2 ).notEmpty( 3 ) );
+        Assert.assertNull( rows.get( 2 ).getString( 10 ) );
+
+        Assert.assertEquals( 5, rows.get( 3 ).getRowNum() );
+        Assert.assertEquals( 0, rows.get( 3 ).getCellCount() );
+    }
+
+    @Test
+    public void readSameAsWorkbook() throws Exception
+    {
+        final List<MetadataSheetRow> rows = new ArrayList<>();
+        final List<MetadataSheetRow> workbookRows = new ArrayList<>();
+
+        try ( final StreamingMetadataSheetReader reader = new StreamingMetadataSheetReader( file ) )
+        {
+            Assert.assertTrue( reader.read( "Codes", rows::add ) );
+        }
+        Assert.assertTrue( new WorkbookMetadataSheetRowReader( workbook ).read( "Codes", workbookRows::add ) );
+
+        Assert.assertEquals( workbookRows.stream().map( MetadataSheetRow::getRowNum ).collect( Collectors.toList() ),
+            rows.stream().map( MetadataSheetRow::getRowNum ).collect( Collectors.toList() ) );
+        Assert.assertEquals( workbookRows.stream().map( this::values ).collect( Collectors.toList() ),
+            rows.stream().map( this::values ).collect( Collectors.toList() ) );
+    }
+
+    @Test
+    public void readNotIncluded() throws Exception
+    {
+        final List<MetadataSheetRow> rows = new ArrayList<>();
+
+        try ( final StreamingMetadataSheetReader reader = new StreamingMetadataSheetReader( file ) )
+        {
+            Assert.assertFalse( reader.read( "Rules", rows::add ) );
+        }
+
+        Assert.assertTrue( rows.isEmpty() );
+    }
+
+    @Test
+    public void readWorkbook() throws Exception
+    {
+        final Workbook result;
+
+        try ( final StreamingMetadataSheetReader reader = new StreamingMetadataSheetReader( file ) )
+        {
+            result = reader.readWorkbook( Collections.singleton( "Codes" ) );
+        }
+
+        Assert.assertNull( result.getSheet( "Codes" ) );
+        Assert.assertNotNull( result.getSheet( "Program" ) );
+        Assert.assertNull( result.getSheet( "Program" ).getRow( 0 ) );
+        Assert.assertEquals( Arrays.asList( null, "Test", "4" ), values( MetadataSheetRow.of( result.getSheet( "Program" ).getRow( 1 ) ) ) );
+    }
+
+    @Nonnull
+    private List<String> values( @Nonnull MetadataSheetRow row )
+    {
+        final List<String> values = new ArrayList<>();
+
+        for ( int cellNum = 0; cellNum < row.getCellCount(); cellNum++ )
+        {
+            values.add( row.getString( cellNum ) );
+        }
+
+        return values;
+    }
+}